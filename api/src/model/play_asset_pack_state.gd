@@ -32,6 +32,7 @@ const _ERROR_CODE_KEY : String = "errorCode"
 const _BYTES_DOWNLOADED_KEY : String = "bytesDownloaded"
 const _TOTAL_BYTES_TO_DOWNLOAD_KEY : String = "totalBytesToDownload"
 const _TRANSFER_PROGRESS_PERCENTAGE_KEY : String = "transferProgressPercentage"
+const _SEQUENCE_NUMBER_KEY : String = "sequenceNumber"
 
 var _name : String
 var _status : int
@@ -39,6 +40,7 @@ var _error_code : int
 var _bytes_downloaded : int
 var _total_bytes_to_download : int
 var _transfer_progress_percentage : int
+var _sequence_number : int = 0
 
 func _init(init_dictionary : Dictionary):
 	_name = init_dictionary[_NAME_KEY]
@@ -47,6 +49,30 @@ func _init(init_dictionary : Dictionary):
 	_bytes_downloaded = init_dictionary[_BYTES_DOWNLOADED_KEY]
 	_total_bytes_to_download = init_dictionary[_TOTAL_BYTES_TO_DOWNLOAD_KEY]
 	_transfer_progress_percentage = init_dictionary[_TRANSFER_PROGRESS_PERCENTAGE_KEY]
+	if init_dictionary.has(_SEQUENCE_NUMBER_KEY):
+		_sequence_number = init_dictionary[_SEQUENCE_NUMBER_KEY]
+
+# -----------------------------------------------------------------------------
+# Applies a delta encoded state update, which only carries the fields that 
+# changed along with the pack's sequence number. Returns false and leaves this
+# object unchanged if the delta is not newer than the state already applied.
+# -----------------------------------------------------------------------------
+func _apply_delta(delta : Dictionary) -> bool:
+	var sequence_number : int = delta[_SEQUENCE_NUMBER_KEY]
+	if sequence_number <= _sequence_number:
+		return false
+	_sequence_number = sequence_number
+	if delta.has(_STATUS_KEY):
+		_status = delta[_STATUS_KEY]
+	if delta.has(_ERROR_CODE_KEY):
+		_error_code = delta[_ERROR_CODE_KEY]
+	if delta.has(_BYTES_DOWNLOADED_KEY):
+		_bytes_downloaded = delta[_BYTES_DOWNLOADED_KEY]
+	if delta.has(_TOTAL_BYTES_TO_DOWNLOAD_KEY):
+		_total_bytes_to_download = delta[_TOTAL_BYTES_TO_DOWNLOAD_KEY]
+	if delta.has(_TRANSFER_PROGRESS_PERCENTAGE_KEY):
+		_transfer_progress_percentage = delta[_TRANSFER_PROGRESS_PERCENTAGE_KEY]
+	return true
 
 # -----------------------------------------------------------------------------
 # Serializes this object to Dictionary
@@ -0,0 +1,107 @@
+# ##############################################################################
+#
+#	Copyright 2020 Google LLC
+#
+#	Licensed under the Apache License, Version 2.0 (the "License");
+#	you may not use this file except in compliance with the License.
+#	You may obtain a copy of the License at
+#
+#		https://www.apache.org/licenses/LICENSE-2.0
+#
+#	Unless required by applicable law or agreed to in writing, software
+#	distributed under the License is distributed on an "AS IS" BASIS,
+#	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#	See the License for the specific language governing permissions and
+#	limitations under the License.
+#
+# ##############################################################################
+#
+# Request object that handles asynchronous logic related to verify_pack().
+#
+# This object provides relevant getters so that it is possible to retrieve
+# the verification result from this object once the request completes.
+#
+# ##############################################################################
+# Suppress unused_signal warning because Godot cannot detect signal usage when 
+# we call emit_signal() using call_deferred().
+# warning-ignore:unused_signal
+class_name PlayAssetPackVerifyRequest
+extends PlayAssetDeliveryRequest
+
+# -----------------------------------------------------------------------------
+# Emits request_completed(did_succeed, is_valid, exception) signal upon 
+# request succeeds/fails.
+# 	did_succeed : boolean indicating the pack could be verified
+#	is_valid : boolean indicating every file of the pack matched its manifest
+#	exception: PlayAssetPackException object if request failed, otherwise null
+# -----------------------------------------------------------------------------
+signal request_completed(did_succeed, is_valid, exception)
+
+# Dictionary key Strings of the verification result of the plugin
+const _IS_VALID_KEY : String = "isValid"
+const _CORRUPTED_FILES_KEY : String = "corruptedFiles"
+const _MISSING_FILES_KEY : String = "missingFiles"
+const _UNEXPECTED_FILES_KEY : String = "unexpectedFiles"
+
+var _did_succeed : bool
+var _result : Dictionary
+var _error : PlayAssetPackException
+
+# -----------------------------------------------------------------------------
+# Returns boolean indicating Request succeeded/failed.
+# -----------------------------------------------------------------------------
+func get_did_succeed() -> bool:
+	return _did_succeed
+
+# -----------------------------------------------------------------------------
+# Returns boolean indicating no file of the pack was corrupted, missing or 
+# unexpected. Returns false if Request failed.
+# -----------------------------------------------------------------------------
+func get_is_valid() -> bool:
+	return _result.get(_IS_VALID_KEY, false)
+
+# -----------------------------------------------------------------------------
+# Returns the paths of the files whose hash differs from the manifest, 
+# relative to the assets path of the pack.
+# -----------------------------------------------------------------------------
+func get_corrupted_files() -> Array:
+	return Array(_result.get(_CORRUPTED_FILES_KEY, []))
+
+# -----------------------------------------------------------------------------
+# Returns the paths of the files listed in the manifest but not present.
+# -----------------------------------------------------------------------------
+func get_missing_files() -> Array:
+	return Array(_result.get(_MISSING_FILES_KEY, []))
+
+# -----------------------------------------------------------------------------
+# Returns the paths of the files present but not listed in the manifest.
+# -----------------------------------------------------------------------------
+func get_unexpected_files() -> Array:
+	return Array(_result.get(_UNEXPECTED_FILES_KEY, []))
+
+# -----------------------------------------------------------------------------
+# Returns the whole verification result Dictionary, which also holds the hash 
+# algorithm, the source of the manifest, file and byte counts and the duration 
+# of the verification.
+# -----------------------------------------------------------------------------
+func get_result() -> Dictionary:
+	return _result
+
+# -----------------------------------------------------------------------------
+# Returns a PlayAssetPackException if Request failed, else returns null.
+# -----------------------------------------------------------------------------
+func get_error() -> PlayAssetPackException:
+	return _error
+
+# -----------------------------------------------------------------------------
+# Callback functions handling signals emitted from the plugin.
+# -----------------------------------------------------------------------------
+func _on_verify_pack_success(result : Dictionary):
+	_did_succeed = true
+	_result = result
+	call_deferred("emit_signal", "request_completed", true, get_is_valid(), null)
+
+func _on_verify_pack_error(error : Dictionary):
+	_did_succeed = false
+	_error = PlayAssetPackException.new(error)
+	call_deferred("emit_signal", "request_completed", false, false, _error)
@@ -35,15 +35,50 @@ extends Node
 # -----------------------------------------------------------------------------
 signal state_updated(pack_name, state)
 
+# -----------------------------------------------------------------------------
+# Emits asset_chunk_ready(stream_id, data) signal for every chunk of an asset 
+# stream opened with open_asset_stream(), in order. The next chunks are only 
+# delivered once the handlers of this signal returned.
+# 	stream_id : int id of the stream
+#	data : PoolByteArray of the chunk
+# -----------------------------------------------------------------------------
+signal asset_chunk_ready(stream_id, data)
+
+# -----------------------------------------------------------------------------
+# Emits asset_stream_completed(stream_id) signal after the last chunk of an 
+# asset stream.
+# 	stream_id : int id of the stream
+# -----------------------------------------------------------------------------
+signal asset_stream_completed(stream_id)
+
+# -----------------------------------------------------------------------------
+# Emits asset_stream_error(stream_id, error) signal if an asset stream could 
+# not be read to its end. No further chunks of the stream are delivered.
+# 	stream_id : int id of the stream
+#	error : PlayAssetPackException object of the error
+# -----------------------------------------------------------------------------
+signal asset_stream_error(stream_id, error)
+
 var _plugin_singleton : Object
 var _request_tracker : PlayAssetDeliveryRequestTracker
 
 # Dictionary that stores the mapping of pack_name to relevant Request objects.
 var _asset_pack_to_request_map : Dictionary	
 var _play_asset_pack_manager_mutex : Mutex	
+# Dictionary that stores the mapping of pack_name to the PlayAssetPackState 
+# that delta encoded state updates are applied to.
+var _asset_pack_state_cache : Dictionary
 
 var _PACK_TERMINAL_STATES = [AssetPackStatus.CANCELED, AssetPackStatus.COMPLETED, AssetPackStatus.FAILED]
 
+# Dictionary key Strings of the parallel arrays returned by getAssetLocations()
+const _ASSET_LOCATIONS_PATHS_KEY : String = "paths"
+const _ASSET_LOCATIONS_OFFSETS_KEY : String = "offsets"
+const _ASSET_LOCATIONS_SIZES_KEY : String = "sizes"
+const _ASSET_LOCATIONS_MISSING_MASK_KEY : String = "missingMask"
+const _ASSET_LOCATIONS_MISSING : int = 1
+const _ASSET_LOCATIONS_BEYOND_INT_RANGE : int = 2
+
 # -----------------------------------------------------------------------------
 # Enums
 # -----------------------------------------------------------------------------
@@ -113,6 +148,7 @@ func _connect_plugin_signal_helper(plugin_signal_name : String, callback_name :
 func _connect_plugin_signals():
 	if _plugin_singleton != null:
 		_connect_plugin_signal_helper("assetPackStateUpdated", "_route_asset_pack_state_updated")
+		_connect_plugin_signal_helper("assetPackStatesBatchUpdated", "_route_state_batch_updated")
 		_connect_plugin_signal_helper("fetchSuccess", "_forward_fetch_success")
 		_connect_plugin_signal_helper("fetchError", "_forward_fetch_error")
 		_connect_plugin_signal_helper("getPackStatesSuccess", "_forward_get_pack_states_success")
@@ -123,6 +159,11 @@ func _connect_plugin_signals():
 			"_forward_show_cellular_data_confirmation_success")
 		_connect_plugin_signal_helper("showCellularDataConfirmationError", \
 			"_forward_show_cellular_data_confirmation_error")
+		_connect_plugin_signal_helper("assetChunkReady", "_forward_asset_chunk_ready")
+		_connect_plugin_signal_helper("assetStreamCompleted", "_forward_asset_stream_completed")
+		_connect_plugin_signal_helper("assetStreamError", "_forward_asset_stream_error")
+		_connect_plugin_signal_helper("verifyPackSuccess", "_forward_verify_pack_success")
+		_connect_plugin_signal_helper("verifyPackError", "_forward_verify_pack_error")
 
 # -----------------------------------------------------------------------------
 # Returns the PlayAssetDelivery Android Plugin singleton, null if this plugin
@@ -140,12 +181,18 @@ func _initialize_plugin() -> Object:
 # receiving assetPackStateUpdated signal.
 # -----------------------------------------------------------------------------
 func _route_asset_pack_state_updated(result : Dictionary):
+	_play_asset_pack_manager_mutex.lock()	
+	
+	result = _resolve_state_delta(result)
+	if result.empty():
+		# stale delta encoded update
+		_play_asset_pack_manager_mutex.unlock()
+		return
+	
 	var updated_state : PlayAssetPackState = PlayAssetPackState.new(result)
 	var pack_name = updated_state.get_name()
 	var updated_status = updated_state.get_status()
 	
-	_play_asset_pack_manager_mutex.lock()	
-	
 	if _asset_pack_to_request_map.has(pack_name):
 		var request = _asset_pack_to_request_map[pack_name]
 		var pack_location : PlayAssetPackLocation = null
@@ -159,6 +206,90 @@ func _route_asset_pack_state_updated(result : Dictionary):
 	
 	_play_asset_pack_manager_mutex.unlock()
 
+# -----------------------------------------------------------------------------
+# Helper function that turns a delta encoded state update into the full state
+# dictionary, by applying it to the cached state of the pack. Full state 
+# updates are returned as is. A delta without a cached state to apply to, e.g.
+# one in flight while set_delta_state_updates_enabled() cleared the cache, is 
+# replaced by the full state the Android plugin holds for the pack. Returns an 
+# empty Dictionary if the update is older than the cached state, or if no full
+# state is known. Must be called while holding _play_asset_pack_manager_mutex.
+# -----------------------------------------------------------------------------
+func _resolve_state_delta(result : Dictionary) -> Dictionary:
+	if not result.has(PlayAssetPackState._SEQUENCE_NUMBER_KEY):
+		return result
+	var pack_name = result[PlayAssetPackState._NAME_KEY]
+	var cached_state : PlayAssetPackState
+	if _asset_pack_state_cache.has(pack_name):
+		cached_state = _asset_pack_state_cache[pack_name]
+		if not cached_state._apply_delta(result):
+			return {}
+	else:
+		var full_state : Dictionary = result
+		if not result.has(PlayAssetPackState._STATUS_KEY) \
+				or not result.has(PlayAssetPackState._ERROR_CODE_KEY) \
+				or not result.has(PlayAssetPackState._BYTES_DOWNLOADED_KEY) \
+				or not result.has(PlayAssetPackState._TOTAL_BYTES_TO_DOWNLOAD_KEY) \
+				or not result.has(PlayAssetPackState._TRANSFER_PROGRESS_PERCENTAGE_KEY):
+			var plugin_pack_states : Dictionary = \
+				_plugin_singleton.getCachedPackStates()[PlayAssetPackStates._PACK_STATES_KEY]
+			if not plugin_pack_states.has(pack_name):
+				return {}
+			# the plugin's state is at least as recent as the delta
+			full_state = plugin_pack_states[pack_name].duplicate()
+			full_state[PlayAssetPackState._SEQUENCE_NUMBER_KEY] = \
+				result[PlayAssetPackState._SEQUENCE_NUMBER_KEY]
+		cached_state = PlayAssetPackState.new(full_state)
+		_asset_pack_state_cache[pack_name] = cached_state
+	var state_dict = cached_state.to_dict()
+	if cached_state.get_status() in _PACK_TERMINAL_STATES:
+		_asset_pack_state_cache.erase(pack_name)
+		cached_state.free()
+	return state_dict
+
+# -----------------------------------------------------------------------------
+# Helper function that synchronizes relevant request objects' states upon 
+# receiving assetPackStatesBatchUpdated signal, which maps the name of every 
+# updated asset pack to its state. The whole batch is routed in one pass, 
+# locking the mutex once and deferring a single call to the main thread.
+# -----------------------------------------------------------------------------
+func _route_state_batch_updated(result : Dictionary):
+	var routed_states : Array = []
+	
+	_play_asset_pack_manager_mutex.lock()
+	
+	for pack_name in result:
+		var state_dict : Dictionary = _resolve_state_delta(result[pack_name])
+		if state_dict.empty():
+			continue
+		var request = null
+		var pack_location : PlayAssetPackLocation = null
+		if _asset_pack_to_request_map.has(pack_name):
+			request = _asset_pack_to_request_map[pack_name]
+			var updated_status = state_dict[PlayAssetPackState._STATUS_KEY]
+			if updated_status == AssetPackStatus.COMPLETED:
+				pack_location = get_pack_location(pack_name)
+			if updated_status in _PACK_TERMINAL_STATES:
+				_asset_pack_to_request_map.erase(pack_name)
+		routed_states.append([pack_name, state_dict, request, pack_location])
+	
+	_play_asset_pack_manager_mutex.unlock()
+	
+	call_deferred("_deliver_routed_states", routed_states)
+
+# -----------------------------------------------------------------------------
+# Helper function running on the main thread, that updates request objects and
+# emits state_updated signals for the states routed by _route_state_batch_updated.
+# -----------------------------------------------------------------------------
+func _deliver_routed_states(routed_states : Array):
+	for routed_state in routed_states:
+		var pack_name : String = routed_state[0]
+		var state_dict : Dictionary = routed_state[1]
+		var request = routed_state[2]
+		if request != null:
+			request._on_state_updated(state_dict, routed_state[3])
+		emit_signal("state_updated", pack_name, PlayAssetPackState.new(state_dict))
+
 # -----------------------------------------------------------------------------
 # Helper function called by request objects, to emit artifical state_updated signals.
 # -----------------------------------------------------------------------------
@@ -225,6 +356,34 @@ func _forward_remove_pack_error(error : Dictionary, signal_id : int):
 	target_request._on_remove_pack_error(error)
 	_request_tracker.unregister_request(signal_id)
 
+func _forward_verify_pack_success(result : Dictionary, signal_id : int):
+	var target_request : PlayAssetPackVerifyRequest = _request_tracker.lookup_request(signal_id)
+	target_request._on_verify_pack_success(result)
+	_request_tracker.unregister_request(signal_id)
+
+func _forward_verify_pack_error(error : Dictionary, signal_id : int):
+	var target_request : PlayAssetPackVerifyRequest = _request_tracker.lookup_request(signal_id)
+	target_request._on_verify_pack_error(error)
+	_request_tracker.unregister_request(signal_id)
+
+# -----------------------------------------------------------------------------
+# Helper functions that forward asset stream signals of the plugin to the main 
+# thread. A chunk is acknowledged to the plugin only after the handlers of 
+# asset_chunk_ready returned, so that streams wait while the game falls behind.
+# -----------------------------------------------------------------------------
+func _forward_asset_chunk_ready(stream_id : int, data : PoolByteArray):
+	call_deferred("_deliver_asset_chunk", stream_id, data)
+
+func _deliver_asset_chunk(stream_id : int, data : PoolByteArray):
+	emit_signal("asset_chunk_ready", stream_id, data)
+	_plugin_singleton.acknowledgeAssetChunk(stream_id)
+
+func _forward_asset_stream_completed(stream_id : int):
+	call_deferred("emit_signal", "asset_stream_completed", stream_id)
+
+func _forward_asset_stream_error(error : Dictionary, stream_id : int):
+	call_deferred("emit_signal", "asset_stream_error", stream_id, PlayAssetPackException.new(error))
+
 # -----------------------------------------------------------------------------
 # Returns the location of the specified asset in pack on the device, null if 
 # the asset is not present in the given pack.
@@ -273,9 +432,12 @@ func get_asset_pack_state(pack_name: String) -> PlayAssetPackStateRequest:
 	return return_request
 
 # -----------------------------------------------------------------------------
-# Requests to download the specified asset pack.
+# Requests to download the specified asset pack. While the number of 
+# concurrent downloads is limited by set_max_concurrent_fetches(), requests 
+# with a higher priority start first, and requests of equal priority start in 
+# the order they were made.
 # -----------------------------------------------------------------------------
-func fetch_asset_pack(pack_name: String) -> PlayAssetPackFetchRequest:
+func fetch_asset_pack(pack_name: String, priority : int = 0) -> PlayAssetPackFetchRequest:
 	# Update mapping of pack_name to request object, so that assetStateUpdated global signal	
 	# can be correctly routed to this request object.
 	var return_request : PlayAssetPackFetchRequest
@@ -286,7 +448,7 @@ func fetch_asset_pack(pack_name: String) -> PlayAssetPackFetchRequest:
 	else:
 		return_request = PlayAssetPackFetchRequest.new(pack_name)
 		var signal_id = _request_tracker.register_request(return_request)
-		_plugin_singleton.fetch([pack_name], signal_id)
+		_plugin_singleton.fetchWithPriority(pack_name, priority, signal_id)
 		_asset_pack_to_request_map[pack_name] = return_request
 	_play_asset_pack_manager_mutex.unlock()
 
@@ -355,3 +517,299 @@ func show_cellular_data_confirmation():
 	var signal_id = _request_tracker.register_request(return_request)
 	_plugin_singleton.showCellularDataConfirmation(signal_id)
 	return return_request
+
+# -----------------------------------------------------------------------------
+# Limits how many state_updated signals are emitted per second for each asset 
+# pack. Intermediate states are coalesced so that only the latest one is 
+# emitted, while terminal states and errors are always emitted immediately.
+# A non-positive value emits every state update.
+# -----------------------------------------------------------------------------
+func set_max_state_update_rate(max_updates_per_second : int):
+	_plugin_singleton.setMaxStateUpdateRate(max_updates_per_second)
+
+# -----------------------------------------------------------------------------
+# Returns the counters collected by the Android plugin. More specifically, 
+# returns a Dictionary, where for each entry, the key is the name of a plugin
+# component and value is a Dictionary of that component's counters.
+# -----------------------------------------------------------------------------
+func get_plugin_metrics() -> Dictionary:
+	return _plugin_singleton.getPluginMetrics()
+
+# -----------------------------------------------------------------------------
+# Configures how long the Android plugin keeps the states of asset packs that 
+# reached a terminal state (COMPLETED, FAILED, CANCELED). Such states are 
+# dropped once they are older than retention_ms, and the least recently 
+# updated ones are dropped while more than max_retained_states are kept. 
+# A non-positive value disables the corresponding limit.
+# -----------------------------------------------------------------------------
+func set_terminal_state_retention(max_retained_states : int, retention_ms : int):
+	_plugin_singleton.setTerminalStateRetention(max_retained_states, retention_ms)
+
+# -----------------------------------------------------------------------------
+# Enables or disables batched state updates. When enabled, the Android plugin 
+# collects the states of all asset packs updated within a dispatch window and 
+# emits them together, so that many concurrent downloads cost a single plugin 
+# signal per window instead of one per asset pack. The dispatch window is set 
+# by set_max_state_update_rate(), or lasts about one frame if no rate is set.
+# -----------------------------------------------------------------------------
+func set_state_batching_enabled(enabled : bool):
+	_plugin_singleton.setStateBatchingEnabled(enabled)
+
+# -----------------------------------------------------------------------------
+# Enables or disables delta encoded state updates. When enabled, the Android 
+# plugin only sends the fields of an asset pack state that changed since the 
+# previous update of that pack, which are applied to a cached state here. The 
+# state_updated signal still carries complete PlayAssetPackState objects.
+# -----------------------------------------------------------------------------
+func set_delta_state_updates_enabled(enabled : bool):
+	_play_asset_pack_manager_mutex.lock()
+	for cached_state in _asset_pack_state_cache.values():
+		cached_state.free()
+	_asset_pack_state_cache.clear()
+	_play_asset_pack_manager_mutex.unlock()
+	_plugin_singleton.setDeltaStateUpdatesEnabled(enabled)
+
+# -----------------------------------------------------------------------------
+# Limits how fine-grained the progress reported by state_updated signals is. 
+# Updates of DOWNLOADING and TRANSFERRING asset packs are dropped unless the 
+# progress moved by at least min_bytes_delta bytes or min_percent_delta 
+# percent, and at least min_interval_ms passed since the previous update of 
+# the same pack. Status changes and errors are always emitted. A non-positive 
+# value disables the corresponding threshold.
+# -----------------------------------------------------------------------------
+func set_progress_granularity(min_bytes_delta : int, min_percent_delta : int, min_interval_ms : int):
+	_plugin_singleton.setProgressGranularity(min_bytes_delta, min_percent_delta, min_interval_ms)
+
+# -----------------------------------------------------------------------------
+# Returns the latest asset pack states known by the Android plugin, without 
+# querying the Play Core Library. Right after a cold start, these are the 
+# states persisted by the previous run of the app, so they can be shown while 
+# up-to-date states are still being requested with request_asset_pack_states().
+# -----------------------------------------------------------------------------
+func get_cached_pack_states() -> PlayAssetPackStates:
+	return PlayAssetPackStates.new(_plugin_singleton.getCachedPackStates())
+
+# -----------------------------------------------------------------------------
+# Sets the number of worker threads the Android plugin uses to convert the 
+# results of asset pack requests and emit the corresponding signals, off the 
+# Android main thread. A single worker, the default, keeps every signal in the 
+# order it was produced. More workers convert the results of concurrent 
+# requests in parallel, but then a request's completion signal may arrive 
+# before the last state_updated signal of the same asset pack. Zero runs these 
+# callbacks on the Android main thread.
+# -----------------------------------------------------------------------------
+func set_callback_worker_thread_count(worker_thread_count : int):
+	_plugin_singleton.setCallbackWorkerThreadCount(worker_thread_count)
+
+# -----------------------------------------------------------------------------
+# Limits how many asset packs requested with fetch_asset_pack() are downloaded 
+# at once. Further requests wait until a download reaches a terminal state. A 
+# non-positive value, the default, starts every request right away.
+# -----------------------------------------------------------------------------
+func set_max_concurrent_fetches(max_concurrent_fetches : int):
+	_plugin_singleton.setMaxConcurrentFetches(max_concurrent_fetches)
+
+# -----------------------------------------------------------------------------
+# Changes the priority of an asset pack request that is still waiting for a 
+# download slot, true if such a request was found.
+# -----------------------------------------------------------------------------
+func set_asset_pack_fetch_priority(pack_name : String, priority : int) -> bool:
+	return _plugin_singleton.setFetchPriority(pack_name, priority)
+
+# -----------------------------------------------------------------------------
+# Returns the locations of many assets in pack with a single call into the 
+# Android plugin, which is much cheaper than calling get_asset_location() for 
+# each asset. More specifically, returns a Dictionary, where for each asset 
+# present in the given pack, the key is the asset path and value is the 
+# corresponding PlayAssetLocation object. Assets that are not present are 
+# left out. Assets whose offset or size is 2 GB or more do not fit the packed 
+# arrays, and are resolved one by one with get_asset_location().
+# -----------------------------------------------------------------------------
+func get_asset_locations(pack_name : String, asset_paths : Array) -> Dictionary:
+	var return_dict = Dictionary()
+	var raw_dict = _plugin_singleton.getAssetLocations(pack_name, asset_paths)
+	var paths = raw_dict[_ASSET_LOCATIONS_PATHS_KEY]
+	var offsets = raw_dict[_ASSET_LOCATIONS_OFFSETS_KEY]
+	var sizes = raw_dict[_ASSET_LOCATIONS_SIZES_KEY]
+	var missing_mask = raw_dict[_ASSET_LOCATIONS_MISSING_MASK_KEY]
+	
+	for i in range(asset_paths.size()):
+		if missing_mask[i] == _ASSET_LOCATIONS_BEYOND_INT_RANGE:
+			var asset_location = get_asset_location(pack_name, asset_paths[i])
+			if asset_location != null:
+				return_dict[asset_paths[i]] = asset_location
+			continue
+		if missing_mask[i] != 0:
+			continue
+		return_dict[asset_paths[i]] = PlayAssetLocation.new({
+			PlayAssetLocation._OFFSET_KEY: offsets[i],
+			PlayAssetLocation._PATH_KEY: paths[i],
+			PlayAssetLocation._SIZE_KEY: sizes[i]
+		})
+	
+	return return_dict
+
+# -----------------------------------------------------------------------------
+# Reads the specified asset in pack through a memory mapping of the file that 
+# holds it, which the Android plugin caches per file, instead of opening the 
+# APK or file in GDScript. Reads range_length bytes starting range_offset bytes 
+# into the asset, clamped to the bounds of the asset. A negative range_length, 
+# the default, reads until the end of the asset. Returns a PoolByteArray, or 
+# null if the asset is not present in the given pack.
+# -----------------------------------------------------------------------------
+func read_asset(pack_name : String, asset_path : String, range_offset : int = 0, range_length : int = -1):
+	return _plugin_singleton.readAsset(pack_name, asset_path, range_offset, range_length)
+
+# -----------------------------------------------------------------------------
+# Starts streaming the specified asset in pack in sequential chunks of 
+# chunk_size bytes, which the Android plugin reads on a background thread up 
+# to read_ahead_depth chunks ahead. Chunks are delivered in order through the 
+# asset_chunk_ready signal, followed by asset_stream_completed or 
+# asset_stream_error. Non-positive arguments select the plugin defaults of 
+# 1 MiB chunks and a read-ahead depth of 4. Returns the id of the stream, or -1 
+# if the asset is not present in the given pack.
+# -----------------------------------------------------------------------------
+func open_asset_stream(pack_name : String, asset_path : String, chunk_size : int = 0, read_ahead_depth : int = 0) -> int:
+	return _plugin_singleton.openAssetStream(pack_name, asset_path, chunk_size, read_ahead_depth)
+
+# -----------------------------------------------------------------------------
+# Stops an asset stream without delivering further chunks, false if the 
+# stream already ended.
+# -----------------------------------------------------------------------------
+func close_asset_stream(stream_id : int) -> bool:
+	return _plugin_singleton.closeAssetStream(stream_id)
+
+# -----------------------------------------------------------------------------
+# Sets the hot assets of an asset pack, which the Android plugin pulls into the 
+# page cache in the background as soon as the pack reaches COMPLETED, so that 
+# the first level load does not stall on cold disk reads. Without such a list, 
+# the first assets of the pack whose location was looked up are warmed up 
+# instead, as learned in this session or else in the previous one. An empty 
+# array returns to that behavior.
+# -----------------------------------------------------------------------------
+func set_warmup_assets(pack_name : String, asset_paths : Array):
+	_plugin_singleton.setWarmupAssets(pack_name, asset_paths)
+
+# -----------------------------------------------------------------------------
+# Limits how many bytes the warmup of a completed asset pack may read. A 
+# non-positive value disables warmups. The default is 64 MiB.
+# -----------------------------------------------------------------------------
+func set_warmup_byte_budget(byte_budget : int):
+	_plugin_singleton.setWarmupByteBudget(byte_budget)
+
+# -----------------------------------------------------------------------------
+# Cancels every running warmup, e.g. right before the game starts loading a 
+# level on its own. Warmup progress and timing are reported by 
+# get_plugin_metrics().
+# -----------------------------------------------------------------------------
+func cancel_warmup():
+	_plugin_singleton.cancelWarmup()
+
+# -----------------------------------------------------------------------------
+# Verifies the integrity of an installed asset pack stored as files, by hashing 
+# all its files in parallel on background threads and comparing them to the 
+# manifest shipped in the pack (pack_manifest.crc32c or pack_manifest.sha256, 
+# in sha256sum format), or else to the hashes recorded by the first 
+# verification since the pack was installed. Files unchanged since they were 
+# last hashed are not hashed again.
+#
+# Returns a PlayAssetPackVerifyRequest object that can emit request_completed 
+# signal once the verification succeeded or failed.
+# -----------------------------------------------------------------------------
+func verify_pack(pack_name : String) -> PlayAssetPackVerifyRequest:
+	var return_request = PlayAssetPackVerifyRequest.new()
+	var signal_id = _request_tracker.register_request(return_request)
+	_plugin_singleton.verifyPack(pack_name, signal_id)
+	return return_request
+
+# -----------------------------------------------------------------------------
+# Sets the hash algorithm of later pack verifications, either "CRC32C", the 
+# default, or "SHA-256". Returns false if the algorithm is not supported.
+# -----------------------------------------------------------------------------
+func set_pack_verification_algorithm(algorithm : String) -> bool:
+	return _plugin_singleton.setPackVerificationAlgorithm(algorithm)
+
+# -----------------------------------------------------------------------------
+# Lists the assets of an installed asset pack stored as files whose path, 
+# relative to the assets path of the pack, starts with prefix. An empty prefix 
+# lists the whole pack, and a prefix ending with "/" a whole directory. The 
+# Android plugin answers from an index of the pack built once per pack version, 
+# which is much cheaper than scanning the pack's directories with Directory. 
+# Returns a sorted PoolStringArray, empty if the pack is not installed or is 
+# not stored as files.
+# -----------------------------------------------------------------------------
+func list_assets(pack_name : String, prefix : String = "") -> PoolStringArray:
+	return _plugin_singleton.listAssets(pack_name, prefix)
+
+# -----------------------------------------------------------------------------
+# Lists the assets of an installed asset pack stored as files whose path, 
+# relative to the assets path of the pack, matches a glob pattern. In pattern, 
+# "*" matches any characters but "/", "**" matches any characters, "?" matches 
+# one character but "/", and [...] matches one character of a set, where 
+# [!...] negates the set. A "[" that starts no non-empty set matches itself. 
+# Returns a sorted PoolStringArray, empty if the pack is not installed, is not 
+# stored as files or the pattern is malformed.
+# -----------------------------------------------------------------------------
+func glob_assets(pack_name : String, pattern : String) -> PoolStringArray:
+	return _plugin_singleton.globAssets(pack_name, pattern)
+
+# -----------------------------------------------------------------------------
+# Finds the installed asset pack that provides asset_path, without naming the 
+# pack. When several packs hold the asset, the pack that comes first in the 
+# order set by set_pack_precedence() wins, and packs missing from that order 
+# follow it sorted by name. Returns a Dictionary with the keys "pack_name", the 
+# name of the providing pack, and "location", its PlayAssetLocation, or null 
+# if no installed pack holds the asset.
+# -----------------------------------------------------------------------------
+func resolve_asset(asset_path : String):
+	var query_dict = _plugin_singleton.resolveAsset(asset_path)
+	if query_dict == null:
+		return null
+	return {
+		"pack_name": query_dict["packName"],
+		"location": PlayAssetLocation.new(query_dict["assetLocation"])
+	}
+
+# -----------------------------------------------------------------------------
+# Sets the asset packs whose assets override those of all other packs in 
+# resolve_asset(), highest precedence first, e.g. ["patch", "base"].
+# -----------------------------------------------------------------------------
+func set_pack_precedence(pack_names : Array):
+	_plugin_singleton.setPackPrecedence(PoolStringArray(pack_names))
+
+# -----------------------------------------------------------------------------
+# Sets the disk budget of all installed asset packs in MiB. Before each 
+# download requested with fetch_asset_pack(), the Android plugin removes 
+# installed packs that are neither pinned with set_pack_pinned() nor being 
+# downloaded, least recently used first, until the requested packs fit into 
+# the budget and into the free space of the device. A pack counts as used when 
+# its location, the location of one of its assets or its download is 
+# requested. A non-positive value, the default, disables removals.
+# -----------------------------------------------------------------------------
+func set_storage_budget(budget_mb : int):
+	_plugin_singleton.setStorageBudget(budget_mb)
+
+# -----------------------------------------------------------------------------
+# Protects an asset pack from removal by set_storage_budget(), or lifts that 
+# protection.
+# -----------------------------------------------------------------------------
+func set_pack_pinned(pack_name : String, is_pinned : bool):
+	_plugin_singleton.setPackPinned(pack_name, is_pinned)
+
+# -----------------------------------------------------------------------------
+# Lets the Android plugin download the asset packs the game is likely to use 
+# next. The plugin records across sessions the order in which the game uses 
+# packs, by requesting their download, their location or the location of 
+# their assets. Once a pack reaches COMPLETED, the packs that followed it in at 
+# least min_confidence_percent of the recorded cases are downloaded with the 
+# lowest priority, at most max_prefetched_packs of them and at most 
+# max_prefetch_mb MiB in total. Nothing is prefetched while the game is 
+# downloading packs of its own, or if the packs would not fit into the budget 
+# set by set_storage_budget() and the free space of the device. Prefetched 
+# packs emit state_updated signals like requested ones. A non-positive 
+# max_prefetched_packs, the default, disables prefetching.
+# -----------------------------------------------------------------------------
+func set_prefetch_policy(min_confidence_percent : int, max_prefetched_packs : int, \
+		max_prefetch_mb : int):
+	_plugin_singleton.setPrefetchPolicy(min_confidence_percent, max_prefetched_packs, \
+		max_prefetch_mb)
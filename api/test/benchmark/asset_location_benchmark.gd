@@ -0,0 +1,62 @@
+# ##############################################################################
+#
+#	Copyright 2020 Google LLC
+#
+#	Licensed under the Apache License, Version 2.0 (the "License");
+#	you may not use this file except in compliance with the License.
+#	You may obtain a copy of the License at
+#
+#		https://www.apache.org/licenses/LICENSE-2.0
+#
+#	Unless required by applicable law or agreed to in writing, software
+#	distributed under the License is distributed on an "AS IS" BASIS,
+#	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#	See the License for the specific language governing permissions and
+#	limitations under the License.
+#
+# ##############################################################################
+#
+# Benchmark that compares resolving the locations of a set of assets with one 
+# get_asset_locations() call against one get_asset_location() call per asset. 
+# Attach this script to a Node of an Android build in which pack_name is 
+# installed, and the average timings of both variants are printed on _ready().
+#
+# ##############################################################################
+extends Node
+
+export var pack_name : String = ""
+export var asset_paths : PoolStringArray = PoolStringArray()
+export var iterations : int = 20
+
+func _ready():
+	if pack_name.empty() or asset_paths.empty():
+		return
+	print(run(PlayAssetPackManager, pack_name, Array(asset_paths), iterations))
+
+# -----------------------------------------------------------------------------
+# Resolves asset_paths in pack_name iterations times with both variants, and 
+# returns the average duration of each variant in microseconds.
+# -----------------------------------------------------------------------------
+static func run(manager : Node, pack_name : String, asset_paths : Array, iterations : int) -> Dictionary:
+	var single_calls_usec = 0
+	var bulk_call_usec = 0
+	for _i in range(iterations):
+		var start_usec = OS.get_ticks_usec()
+		for asset_path in asset_paths:
+			var asset_location = manager.get_asset_location(pack_name, asset_path)
+			if asset_location != null:
+				asset_location.free()
+		single_calls_usec += OS.get_ticks_usec() - start_usec
+		
+		start_usec = OS.get_ticks_usec()
+		var asset_locations = manager.get_asset_locations(pack_name, asset_paths)
+		for asset_location in asset_locations.values():
+			asset_location.free()
+		bulk_call_usec += OS.get_ticks_usec() - start_usec
+	
+	return {
+		"assetCount": asset_paths.size(),
+		"iterations": iterations,
+		"singleCallsAverageUsec": single_calls_usec / max(iterations, 1),
+		"bulkCallAverageUsec": bulk_call_usec / max(iterations, 1)
+	}
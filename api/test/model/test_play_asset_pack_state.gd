@@ -57,3 +57,50 @@ func test_play_asset_pack_state_deepcopy():
 	# alter the dictionary value passed to the constructor
 	# object created should not be changed since we are doing deepcopy
 	assert_asset_pack_state_eq_dict(test_object, expected_dict)
+
+func test_play_asset_pack_state_apply_delta():
+	var test_dict = {
+		PlayAssetPackState._NAME_KEY: "assetPack", 
+		PlayAssetPackState._STATUS_KEY: PlayAssetPackManager.AssetPackStatus.DOWNLOADING, 
+		PlayAssetPackState._ERROR_CODE_KEY: PlayAssetPackManager.AssetPackErrorCode.NO_ERROR,
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 562,
+		PlayAssetPackState._TOTAL_BYTES_TO_DOWNLOAD_KEY: 1337,
+		PlayAssetPackState._TRANSFER_PROGRESS_PERCENTAGE_KEY: 42,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 1
+	}
+	var delta_dict = {
+		PlayAssetPackState._NAME_KEY: "assetPack", 
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 1024,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 3
+	}
+	var expected_dict = test_dict.duplicate()
+	expected_dict.erase(PlayAssetPackState._SEQUENCE_NUMBER_KEY)
+	expected_dict[PlayAssetPackState._BYTES_DOWNLOADED_KEY] = 1024
+	var test_object = PlayAssetPackState.new(test_dict)
+	
+	assert_true(test_object._apply_delta(delta_dict))
+	
+	assert_asset_pack_state_eq_dict(test_object, expected_dict)
+
+func test_play_asset_pack_state_apply_stale_delta():
+	var test_dict = {
+		PlayAssetPackState._NAME_KEY: "assetPack", 
+		PlayAssetPackState._STATUS_KEY: PlayAssetPackManager.AssetPackStatus.DOWNLOADING, 
+		PlayAssetPackState._ERROR_CODE_KEY: PlayAssetPackManager.AssetPackErrorCode.NO_ERROR,
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 562,
+		PlayAssetPackState._TOTAL_BYTES_TO_DOWNLOAD_KEY: 1337,
+		PlayAssetPackState._TRANSFER_PROGRESS_PERCENTAGE_KEY: 42,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 5
+	}
+	var delta_dict = {
+		PlayAssetPackState._NAME_KEY: "assetPack", 
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 128,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 4
+	}
+	var expected_dict = test_dict.duplicate()
+	expected_dict.erase(PlayAssetPackState._SEQUENCE_NUMBER_KEY)
+	var test_object = PlayAssetPackState.new(test_dict)
+	
+	assert_false(test_object._apply_delta(delta_dict))
+	
+	assert_asset_pack_state_eq_dict(test_object, expected_dict)
@@ -27,6 +27,7 @@ class_name FakeAndroidPlugin
 extends Object
 
 signal assetPackStateUpdated(resultDictionary)
+signal assetPackStatesBatchUpdated(resultDictionary)
 signal fetchSuccess(resultDictionary, signalID)
 signal fetchError(exceptionDictionary, signalID)
 signal getPackStatesSuccess(resultDictionary, signalID)
@@ -35,11 +36,23 @@ signal removePackSuccess(signalID)
 signal removePackError(exceptionDictionary, signalID)
 signal showCellularDataConfirmationSuccess(resultInt, signalID)
 signal showCellularDataConfirmationError(exceptionDictionary, signalID)
+signal assetChunkReady(streamID, data)
+signal assetStreamCompleted(streamID)
+signal assetStreamError(exceptionDictionary, streamID)
+signal verifyPackSuccess(resultDictionary, signalID)
+signal verifyPackError(exceptionDictionary, signalID)
 
 const _EMIT_DELAYED_SIGNAL_FUNCTION : String = "emit_delayed_signal"
 
 var _asset_location_store : Dictionary
 var _asset_pack_location_store : Dictionary
+var _asset_content_store : Dictionary
+# Dictionary that stores the mapping of stream id to an Array of content, 
+# chunk size, read-ahead depth, offset of the next chunk and number of 
+# unacknowledged chunks.
+var _asset_streams : Dictionary
+var _next_stream_id : int
+var _acknowledged_chunk_count : int
 
 var _asset_pack_states_store : Dictionary
 
@@ -50,9 +63,33 @@ var _remove_pack_info : FakeRemovePackInfo
 
 var _asset_pack_state_updated_threads : Array
 
+var _max_state_update_rate : int
+var _plugin_metrics : Dictionary
+var _terminal_state_retention : Array
+var _state_batching_enabled : bool
+var _delta_state_updates_enabled : bool
+var _progress_granularity : Array
+var _callback_worker_thread_count : int
+var _fetch_priorities : Dictionary
+var _max_concurrent_fetches : int
+var _warmup_assets : Dictionary
+var _warmup_byte_budget : int
+var _warmup_cancel_count : int
+# Dictionary that stores the mapping of pack_name to the verification result 
+# emitted by verifyPack(), which emits verifyPackError for other packs.
+var _verify_pack_results : Dictionary
+var _verify_pack_error : Dictionary
+var _pack_verification_algorithm : String = "CRC32C"
+var _pack_precedence : PoolStringArray
+var _storage_budget_mb : int
+var _pinned_packs : Dictionary
+var _prefetch_policy : Array
+
 func _init():
 	_asset_location_store = Dictionary()
 	_asset_pack_location_store = Dictionary()
+	_asset_content_store = Dictionary()
+	_asset_streams = Dictionary()
 	
 	_asset_pack_states_store = _create_empty_asset_pack_states()
 
@@ -80,6 +117,9 @@ func remove_asset_location(pack_name : String, asset_path : String):
 func clear_asset_location_store():
 	_asset_location_store.clear()
 
+func add_asset_content(pack_name : String, asset_path : String, content : PoolByteArray):
+	_asset_content_store[[pack_name , asset_path]] = content
+
 func add_asset_pack_location(pack_name : String, asset_pack_location_dict : Dictionary):
 	_asset_pack_location_store[pack_name] = asset_pack_location_dict
 
@@ -124,6 +164,66 @@ func set_cellular_confirmation_info(signal_info : FakeCellularConfirmationInfo):
 func set_remove_pack_info(signal_info : FakeRemovePackInfo):
 	_remove_pack_info = signal_info
 
+func get_max_state_update_rate() -> int:
+	return _max_state_update_rate
+
+func set_plugin_metrics(plugin_metrics : Dictionary):
+	_plugin_metrics = plugin_metrics
+
+func get_terminal_state_retention() -> Array:
+	return _terminal_state_retention
+
+func get_state_batching_enabled() -> bool:
+	return _state_batching_enabled
+
+func get_delta_state_updates_enabled() -> bool:
+	return _delta_state_updates_enabled
+
+func get_progress_granularity() -> Array:
+	return _progress_granularity
+
+func get_callback_worker_thread_count() -> int:
+	return _callback_worker_thread_count
+
+func get_fetch_priorities() -> Dictionary:
+	return _fetch_priorities
+
+func get_max_concurrent_fetches() -> int:
+	return _max_concurrent_fetches
+
+func get_warmup_assets() -> Dictionary:
+	return _warmup_assets
+
+func get_warmup_byte_budget() -> int:
+	return _warmup_byte_budget
+
+func get_storage_budget_mb() -> int:
+	return _storage_budget_mb
+
+func is_pack_pinned(pack_name : String) -> bool:
+	return _pinned_packs.get(pack_name, false)
+
+func get_prefetch_policy() -> Array:
+	return _prefetch_policy
+
+func get_warmup_cancel_count() -> int:
+	return _warmup_cancel_count
+
+func set_verify_pack_result(pack_name : String, result : Dictionary):
+	_verify_pack_results[pack_name] = result
+
+func set_verify_pack_error(error : Dictionary):
+	_verify_pack_error = error
+
+func get_pack_verification_algorithm() -> String:
+	return _pack_verification_algorithm
+
+func get_acknowledged_chunk_count() -> int:
+	return _acknowledged_chunk_count
+
+func get_open_asset_stream_count() -> int:
+	return _asset_streams.size()
+
 # -----------------------------------------------------------------------------
 # Helper function that emits signal from another thread with latency so we 
 # have time to connect to that signal on main thread for testing.
@@ -150,6 +250,21 @@ func _trigger_asset_pack_state_updated_signal(_asset_pack_state_updated_info : F
 	var thread_args = ["assetPackStateUpdated", _asset_pack_state_updated_info.result]
 	_asset_pack_state_updated_info.thread.start(self, _EMIT_DELAYED_SIGNAL_FUNCTION, thread_args)
 
+# -----------------------------------------------------------------------------
+# Helper function that emits a mocked assetPackStatesBatchUpdated signal, 
+# carrying all the given asset pack states. Returns the emitting thread.
+# -----------------------------------------------------------------------------
+func _trigger_asset_pack_states_batch_updated_signal(state_dicts : Array) -> Thread:
+	var batch = {}
+	for state_dict in state_dicts:
+		update_asset_pack_state(state_dict)
+		batch[state_dict[PlayAssetPackState._NAME_KEY]] = state_dict
+	var thread = Thread.new()
+	_asset_pack_state_updated_threads.append(thread)
+	var thread_args = ["assetPackStatesBatchUpdated", batch]
+	thread.start(self, _EMIT_DELAYED_SIGNAL_FUNCTION, thread_args)
+	return thread
+
 # -----------------------------------------------------------------------------
 # Mock Functions
 # -----------------------------------------------------------------------------
@@ -159,6 +274,149 @@ func getAssetLocation(pack_name : String, asset_path : String):
 		return _asset_location_store[dict_key]
 	return null
 
+func getAssetLocations(pack_name : String, asset_paths : Array):
+	var paths = PoolStringArray()
+	var offsets = PoolIntArray()
+	var sizes = PoolIntArray()
+	var missing_mask = PoolByteArray()
+	for asset_path in asset_paths:
+		var asset_location_dict = getAssetLocation(pack_name, asset_path)
+		if asset_location_dict == null:
+			paths.append("")
+			offsets.append(0)
+			sizes.append(0)
+			missing_mask.append(1)
+		elif asset_location_dict[PlayAssetLocation._OFFSET_KEY] > 2147483647 \
+				or asset_location_dict[PlayAssetLocation._SIZE_KEY] > 2147483647:
+			paths.append("")
+			offsets.append(0)
+			sizes.append(0)
+			missing_mask.append(2)
+		else:
+			paths.append(asset_location_dict[PlayAssetLocation._PATH_KEY])
+			offsets.append(asset_location_dict[PlayAssetLocation._OFFSET_KEY])
+			sizes.append(asset_location_dict[PlayAssetLocation._SIZE_KEY])
+			missing_mask.append(0)
+	return {
+		"paths": paths,
+		"offsets": offsets,
+		"sizes": sizes,
+		"missingMask": missing_mask
+	}
+
+func listAssets(pack_name : String, prefix : String):
+	var asset_paths = []
+	for dict_key in _asset_location_store:
+		if dict_key[0] == pack_name and dict_key[1].begins_with(prefix):
+			asset_paths.append(dict_key[1])
+	asset_paths.sort()
+	return PoolStringArray(asset_paths)
+
+# Uses String.match(), where "*" also matches "/", which is good enough for tests.
+func globAssets(pack_name : String, pattern : String):
+	var asset_paths = []
+	for dict_key in _asset_location_store:
+		if dict_key[0] == pack_name and dict_key[1].match(pattern):
+			asset_paths.append(dict_key[1])
+	asset_paths.sort()
+	return PoolStringArray(asset_paths)
+
+func resolveAsset(asset_path : String):
+	var pack_names = Array(_pack_precedence)
+	var remaining_pack_names = []
+	for dict_key in _asset_location_store:
+		if not dict_key[0] in pack_names and not dict_key[0] in remaining_pack_names:
+			remaining_pack_names.append(dict_key[0])
+	remaining_pack_names.sort()
+	for pack_name in pack_names + remaining_pack_names:
+		var dict_key = [pack_name, asset_path]
+		if dict_key in _asset_location_store:
+			return {"packName": pack_name, "assetLocation": _asset_location_store[dict_key]}
+	return null
+
+func setPackPrecedence(pack_names : PoolStringArray):
+	_pack_precedence = pack_names
+
+func readAsset(pack_name : String, asset_path : String, range_offset : int, range_length : int):
+	var dict_key = [pack_name , asset_path]
+	if not dict_key in _asset_content_store:
+		return null
+	var content : PoolByteArray = _asset_content_store[dict_key]
+	var start = clamp(range_offset, 0, content.size())
+	var end = content.size()
+	if range_length >= 0:
+		end = min(start + range_length, end)
+	if start >= end:
+		return PoolByteArray()
+	return content.subarray(start, end - 1)
+
+func setWarmupAssets(pack_name : String, asset_paths : Array):
+	_warmup_assets[pack_name] = asset_paths
+
+func setWarmupByteBudget(byte_budget : int):
+	_warmup_byte_budget = byte_budget
+
+func cancelWarmup():
+	_warmup_cancel_count += 1
+
+func verifyPack(pack_name : String, signal_id : int):
+	var thread = Thread.new()
+	_asset_pack_state_updated_threads.append(thread)
+	if pack_name in _verify_pack_results:
+		var thread_args = ["verifyPackSuccess", _verify_pack_results[pack_name], signal_id]
+		thread.start(self, _EMIT_DELAYED_SIGNAL_FUNCTION, thread_args)
+	else:
+		var thread_args = ["verifyPackError", _verify_pack_error, signal_id]
+		thread.start(self, _EMIT_DELAYED_SIGNAL_FUNCTION, thread_args)
+
+func setPackVerificationAlgorithm(algorithm : String):
+	if not algorithm in ["CRC32C", "SHA-256"]:
+		return false
+	_pack_verification_algorithm = algorithm
+	return true
+
+func openAssetStream(pack_name : String, asset_path : String, chunk_size : int, read_ahead_depth : int):
+	var dict_key = [pack_name , asset_path]
+	if not dict_key in _asset_content_store:
+		return -1
+	var stream_id = _next_stream_id
+	_next_stream_id += 1
+	_asset_streams[stream_id] = [_asset_content_store[dict_key], max(chunk_size, 1), \
+		max(read_ahead_depth, 1), 0, 0]
+	call_deferred("_deliver_asset_chunks", stream_id)
+	return stream_id
+
+func acknowledgeAssetChunk(stream_id : int):
+	if not stream_id in _asset_streams:
+		return false
+	_asset_streams[stream_id][4] -= 1
+	_acknowledged_chunk_count += 1
+	_deliver_asset_chunks(stream_id)
+	return true
+
+func closeAssetStream(stream_id : int):
+	return _asset_streams.erase(stream_id)
+
+# -----------------------------------------------------------------------------
+# Helper function that emits assetChunkReady signals of a stream until its 
+# read-ahead depth of unacknowledged chunks is reached, and assetStreamCompleted 
+# once every chunk was acknowledged.
+# -----------------------------------------------------------------------------
+func _deliver_asset_chunks(stream_id : int):
+	if not stream_id in _asset_streams:
+		return
+	var stream : Array = _asset_streams[stream_id]
+	var content : PoolByteArray = stream[0]
+	while stream[4] < stream[2] and stream[3] < content.size():
+		var end = min(stream[3] + stream[1], content.size())
+		var chunk = content.subarray(stream[3], end - 1)
+		stream[3] = end
+		stream[4] += 1
+		emit_signal("assetChunkReady", stream_id, chunk)
+	if stream[3] >= content.size() and stream[4] == 0:
+		_asset_streams.erase(stream_id)
+		emit_signal("assetStreamCompleted", stream_id)
+
 func getPackLocation(pack_name : String):
 	if pack_name in _asset_pack_location_store:
 		return _asset_pack_location_store[pack_name]
@@ -167,6 +425,57 @@ func getPackLocation(pack_name : String):
 func getPackLocations():
 	return _asset_pack_location_store
 
+func setMaxStateUpdateRate(max_updates_per_second : int):
+	_max_state_update_rate = max_updates_per_second
+
+func getPluginMetrics():
+	return _plugin_metrics
+
+func getCachedPackStates():
+	return _asset_pack_states_store
+
+func setTerminalStateRetention(max_retained_states : int, retention_ms : int):
+	_terminal_state_retention = [max_retained_states, retention_ms]
+
+func setStateBatchingEnabled(enabled : bool):
+	_state_batching_enabled = enabled
+
+func setDeltaStateUpdatesEnabled(enabled : bool):
+	_delta_state_updates_enabled = enabled
+
+func setProgressGranularity(min_bytes_delta : int, min_percent_delta : int, min_interval_ms : int):
+	_progress_granularity = [min_bytes_delta, min_percent_delta, min_interval_ms]
+
+func setCallbackWorkerThreadCount(worker_thread_count : int):
+	_callback_worker_thread_count = worker_thread_count
+
+func setMaxConcurrentFetches(max_concurrent_fetches : int):
+	_max_concurrent_fetches = max_concurrent_fetches
+
+func setStorageBudget(budget_mb : int):
+	_storage_budget_mb = budget_mb
+
+func setPackPinned(pack_name : String, is_pinned : bool):
+	_pinned_packs[pack_name] = is_pinned
+
+func setPrefetchPolicy(min_confidence_percent : int, max_prefetched_packs : int, \
+		max_prefetch_mb : int):
+	_prefetch_policy = [min_confidence_percent, max_prefetched_packs, max_prefetch_mb]
+
+func setFetchPriority(pack_name : String, priority : int):
+	if not _fetch_priorities.has(pack_name):
+		return false
+	_fetch_priorities[pack_name] = priority
+	return true
+
+# -----------------------------------------------------------------------------
+# Simulates the fetchWithPriority() function in PlayAssetDelivery Android 
+# plugin. Records the priority and submits the fetch right away.
+# -----------------------------------------------------------------------------
+func fetchWithPriority(pack_name : String, priority : int, signal_id : int):
+	_fetch_priorities[pack_name] = priority
+	fetch([pack_name], signal_id)
+
 # -----------------------------------------------------------------------------
 # Simulates the fetch() function in PlayAssetDelivery Android plugin. 
 # Emits signal with arguments configured using set_fetch_info().
@@ -666,3 +666,456 @@ func assert_fetch_signal_is_canceled(pack_name : String, \
 	assert_eq(pack_name, expected_pack_name)
 	assert_asset_pack_state_eq_dict(result, expected_pack_state_dict)
 	assert_eq(exception, null)
+
+func test_set_max_state_update_rate():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_max_state_update_rate(10)
+	
+	assert_eq(mock_plugin.get_max_state_update_rate(), 10)
+
+func test_get_plugin_metrics():
+	var test_metrics = {
+		"stateUpdateDispatcher": {
+			"mergedUpdates": 40,
+			"deliveredUpdates": 2
+		}
+	}
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.set_plugin_metrics(test_metrics)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var test_result : Dictionary = test_object.get_plugin_metrics()
+	
+	assert_eq(test_result.size(), 1)
+	assert_eq(test_result["stateUpdateDispatcher"]["mergedUpdates"], 40)
+	assert_eq(test_result["stateUpdateDispatcher"]["deliveredUpdates"], 2)
+
+func test_set_terminal_state_retention():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_terminal_state_retention(16, 60000)
+	
+	var result : Array = mock_plugin.get_terminal_state_retention()
+	assert_eq(result.size(), 2)
+	assert_eq(result[0], 16)
+	assert_eq(result[1], 60000)
+
+func test_set_state_batching_enabled():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_state_batching_enabled(true)
+	
+	assert_true(mock_plugin.get_state_batching_enabled())
+
+func test_route_state_batch_updated():
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_pack_location("pack2", create_mock_asset_pack_location_dict())
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	# register fetch requests of both packs, as fetch_asset_pack() would do
+	var request_object1 = PlayAssetPackFetchRequest.new("pack1")
+	var request_object2 = PlayAssetPackFetchRequest.new("pack2")
+	test_object._asset_pack_to_request_map["pack1"] = request_object1
+	test_object._asset_pack_to_request_map["pack2"] = request_object2
+	
+	var signal_argument_count = 2
+	var signal_captor = SignalCaptor.new(signal_argument_count)
+	test_object.connect("state_updated", signal_captor, "signal_call_back")
+	
+	var updated_state1 = create_mock_asset_pack_state_with_status_and_progress_dict("pack1", \
+		PlayAssetPackManager.AssetPackStatus.DOWNLOADING, 256, 4096)
+	var updated_state2 = create_mock_asset_pack_state_with_status_and_progress_dict("pack2", \
+		PlayAssetPackManager.AssetPackStatus.COMPLETED, 4096, 4096)
+	var thread = mock_plugin._trigger_asset_pack_states_batch_updated_signal([updated_state1, \
+		updated_state2])
+	yield(yield_to(test_object, "state_updated", 1), YIELD)
+	thread.wait_to_finish()
+	# all states of a batch are delivered within the same deferred call
+	yield(yield_for(0.1), YIELD)
+	
+	assert_eq(signal_captor.received_params_store.size(), 2)
+	assert_false(request_object1.get_is_completed())
+	assert_asset_pack_state_eq_dict(request_object1.get_state(), updated_state1)
+	assert_true(request_object2.get_is_completed())
+	assert_asset_pack_state_eq_dict(request_object2.get_state(), updated_state2)
+	assert_asset_pack_location_eq_dict(request_object2.get_location(), create_mock_asset_pack_location_dict())
+	# only requests that reached a terminal state are released
+	assert_true(test_object._asset_pack_to_request_map.has("pack1"))
+	assert_false(test_object._asset_pack_to_request_map.has("pack2"))
+	
+	request_object1.free()
+	request_object2.free()
+
+func test_set_delta_state_updates_enabled():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_delta_state_updates_enabled(true)
+	
+	assert_true(mock_plugin.get_delta_state_updates_enabled())
+
+func test_route_asset_pack_state_updated_delta():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var signal_argument_count = 2
+	var signal_captor = SignalCaptor.new(signal_argument_count)
+	test_object.connect("state_updated", signal_captor, "signal_call_back")
+	
+	var full_state = create_mock_asset_pack_state_with_status_and_progress_dict("testPack", \
+		PlayAssetPackManager.AssetPackStatus.DOWNLOADING, 256, 4096)
+	var full_update = full_state.duplicate()
+	full_update[PlayAssetPackState._SEQUENCE_NUMBER_KEY] = 1
+	var progress_delta = {
+		PlayAssetPackState._NAME_KEY: "testPack",
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 1024,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 3
+	}
+	var stale_delta = {
+		PlayAssetPackState._NAME_KEY: "testPack",
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 512,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 2
+	}
+	
+	test_object._route_asset_pack_state_updated(full_update)
+	test_object._route_asset_pack_state_updated(progress_delta)
+	test_object._route_asset_pack_state_updated(stale_delta)
+	yield(yield_for(0.1), YIELD)
+	
+	# the stale delta is dropped, the others are expanded to full states
+	var expected_state = full_state.duplicate()
+	expected_state[PlayAssetPackState._BYTES_DOWNLOADED_KEY] = 1024
+	var result_params_store = signal_captor.received_params_store
+	assert_eq(result_params_store.size(), 2)
+	assert_asset_pack_state_eq_dict(result_params_store[0][1], full_state)
+	assert_asset_pack_state_eq_dict(result_params_store[1][1], expected_state)
+
+func test_route_asset_pack_state_updated_delta_without_cached_state():
+	var full_state = create_mock_asset_pack_state_with_status_and_progress_dict("testPack", \
+		PlayAssetPackManager.AssetPackStatus.COMPLETED, 4096, 4096)
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.set_asset_pack_states_store({
+		PlayAssetPackStates._TOTAL_BYTES_KEY: 4096,
+		PlayAssetPackStates._PACK_STATES_KEY: {
+			"testPack": full_state
+		}
+	})
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var signal_argument_count = 2
+	var signal_captor = SignalCaptor.new(signal_argument_count)
+	test_object.connect("state_updated", signal_captor, "signal_call_back")
+	
+	# deltas in flight while the cache was cleared
+	var completed_delta = {
+		PlayAssetPackState._NAME_KEY: "testPack",
+		PlayAssetPackState._STATUS_KEY: PlayAssetPackManager.AssetPackStatus.COMPLETED,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 5
+	}
+	var unknown_pack_delta = {
+		PlayAssetPackState._NAME_KEY: "unknownPack",
+		PlayAssetPackState._BYTES_DOWNLOADED_KEY: 1024,
+		PlayAssetPackState._SEQUENCE_NUMBER_KEY: 2
+	}
+	
+	test_object.set_delta_state_updates_enabled(true)
+	test_object._route_asset_pack_state_updated(completed_delta)
+	test_object._route_asset_pack_state_updated(unknown_pack_delta)
+	yield(yield_for(0.1), YIELD)
+	
+	# the delta is replaced by the plugin's full state, the unknown one is dropped
+	var result_params_store = signal_captor.received_params_store
+	assert_eq(result_params_store.size(), 1)
+	assert_eq(result_params_store[0][0], "testPack")
+	assert_asset_pack_state_eq_dict(result_params_store[0][1], full_state)
+
+func test_set_progress_granularity():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_progress_granularity(65536, 1, 100)
+	
+	var result : Array = mock_plugin.get_progress_granularity()
+	assert_eq(result.size(), 3)
+	assert_eq(result[0], 65536)
+	assert_eq(result[1], 1)
+	assert_eq(result[2], 100)
+
+func test_get_cached_pack_states():
+	var test_pack_name = "assetPackName"
+	var test_state_dict = create_mock_asset_pack_state_with_status_dict(
+		test_pack_name, PlayAssetPackManager.AssetPackStatus.DOWNLOADING)
+	var test_states_dict = {
+		PlayAssetPackStates._TOTAL_BYTES_KEY: test_state_dict[PlayAssetPackState._TOTAL_BYTES_TO_DOWNLOAD_KEY],
+		PlayAssetPackStates._PACK_STATES_KEY: {
+			test_pack_name: test_state_dict
+		}
+	}
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.set_asset_pack_states_store(test_states_dict)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var test_result : PlayAssetPackStates = test_object.get_cached_pack_states()
+	
+	assert_eq(test_result.get_total_bytes(), test_states_dict[PlayAssetPackStates._TOTAL_BYTES_KEY])
+	assert_true(test_result.get_pack_states().has(test_pack_name))
+	assert_eq(test_result.get_pack_states()[test_pack_name].get_status(), \
+		PlayAssetPackManager.AssetPackStatus.DOWNLOADING)
+
+func test_set_callback_worker_thread_count():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_callback_worker_thread_count(2)
+	
+	assert_eq(mock_plugin.get_callback_worker_thread_count(), 2)
+
+func test_fetch_asset_pack_with_priority():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var signal_info = FakePackStatesInfo.new(false, {}, \
+		create_mock_asset_pack_java_lang_exception_dict())
+	mock_plugin.set_fetch_info(signal_info)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var test_pack_name = "nextLevelPack"
+	var request_object = test_object.fetch_asset_pack(test_pack_name, 5)
+	
+	assert_eq(mock_plugin.get_fetch_priorities()[test_pack_name], 5)
+	
+	yield(yield_to(request_object, "request_completed", 1), YIELD)
+	signal_info.thread.wait_to_finish()
+	request_object.free()
+
+func test_set_max_concurrent_fetches():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_max_concurrent_fetches(2)
+	
+	assert_eq(mock_plugin.get_max_concurrent_fetches(), 2)
+
+func test_set_asset_pack_fetch_priority():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var signal_info = FakePackStatesInfo.new(false, {}, \
+		create_mock_asset_pack_java_lang_exception_dict())
+	mock_plugin.set_fetch_info(signal_info)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	var request_object = test_object.fetch_asset_pack("levelPack", 0)
+	
+	assert_true(test_object.set_asset_pack_fetch_priority("levelPack", 3))
+	assert_false(test_object.set_asset_pack_fetch_priority("unknownPack", 3))
+	assert_eq(mock_plugin.get_fetch_priorities()["levelPack"], 3)
+	
+	yield(yield_to(request_object, "request_completed", 1), YIELD)
+	signal_info.thread.wait_to_finish()
+	request_object.free()
+
+func test_get_asset_locations():
+	var test_pack = "testPack"
+	var first_dict = {
+		PlayAssetLocation._OFFSET_KEY: 42, 
+		PlayAssetLocation._PATH_KEY: "path/", 
+		PlayAssetLocation._SIZE_KEY: 100
+	}
+	var second_dict = {
+		PlayAssetLocation._OFFSET_KEY: 0, 
+		PlayAssetLocation._PATH_KEY: "otherPath/", 
+		PlayAssetLocation._SIZE_KEY: 64
+	}
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_location(test_pack, "/first/", first_dict)
+	mock_plugin.add_asset_location(test_pack, "/second/", second_dict)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var test_result : Dictionary = test_object.get_asset_locations(test_pack, \
+		["/first/", "/missing/", "/second/"])
+	
+	assert_eq(test_result.size(), 2)
+	assert_asset_location_eq_dict(test_result["/first/"], first_dict)
+	assert_asset_location_eq_dict(test_result["/second/"], second_dict)
+
+func test_get_asset_locations_beyond_int_range():
+	var test_pack = "testPack"
+	var huge_dict = {
+		PlayAssetLocation._OFFSET_KEY: 3221225472, 
+		PlayAssetLocation._PATH_KEY: "path/", 
+		PlayAssetLocation._SIZE_KEY: 100
+	}
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_location(test_pack, "/huge/", huge_dict)
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var test_result : Dictionary = test_object.get_asset_locations(test_pack, ["/huge/"])
+	
+	# the offset does not fit the packed arrays, so it is resolved on its own
+	assert_eq(test_result.size(), 1)
+	assert_asset_location_eq_dict(test_result["/huge/"], huge_dict)
+
+func test_read_asset():
+	var test_pack = "testPack"
+	var test_path = "/path/"
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_content(test_pack, test_path, PoolByteArray([1, 2, 3, 4]))
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	assert_eq(Array(test_object.read_asset(test_pack, test_path)), [1, 2, 3, 4])
+	assert_eq(Array(test_object.read_asset(test_pack, test_path, 1, 2)), [2, 3])
+	assert_eq(test_object.read_asset(test_pack, "/otherPath/"), null)
+
+func test_open_asset_stream():
+	var test_pack = "testPack"
+	var test_path = "/path/"
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_content(test_pack, test_path, PoolByteArray([1, 2, 3, 4, 5]))
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	watch_signals(test_object)
+	
+	var stream_id = test_object.open_asset_stream(test_pack, test_path, 2, 1)
+	yield(yield_to(test_object, "asset_stream_completed", 1), YIELD)
+	
+	assert_signal_emit_count(test_object, "asset_chunk_ready", 3)
+	assert_eq(Array(get_signal_parameters(test_object, "asset_chunk_ready", 0)[1]), [1, 2])
+	assert_eq(Array(get_signal_parameters(test_object, "asset_chunk_ready", 2)[1]), [5])
+	assert_signal_emitted_with_parameters(test_object, "asset_stream_completed", [stream_id])
+	assert_eq(mock_plugin.get_acknowledged_chunk_count(), 3)
+
+func test_open_asset_stream_not_exist():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	assert_eq(test_object.open_asset_stream("testPack", "/path/"), -1)
+
+func test_close_asset_stream():
+	var test_pack = "testPack"
+	var test_path = "/path/"
+	
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.add_asset_content(test_pack, test_path, PoolByteArray([1, 2, 3]))
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var stream_id = test_object.open_asset_stream(test_pack, test_path, 1, 1)
+	
+	assert_true(test_object.close_asset_stream(stream_id))
+	assert_false(test_object.close_asset_stream(stream_id))
+	assert_eq(mock_plugin.get_open_asset_stream_count(), 0)
+
+func test_set_warmup_assets():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_warmup_assets("testPack", ["/first/", "/second/"])
+	test_object.set_warmup_byte_budget(1024)
+	test_object.cancel_warmup()
+	
+	assert_eq(mock_plugin.get_warmup_assets()["testPack"], ["/first/", "/second/"])
+	assert_eq(mock_plugin.get_warmup_byte_budget(), 1024)
+	assert_eq(mock_plugin.get_warmup_cancel_count(), 1)
+
+func test_verify_pack_success():
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.set_verify_pack_result("testPack", {
+		"packName": "testPack",
+		"algorithm": "CRC32C",
+		"isValid": false,
+		"corruptedFiles": PoolStringArray(["a.txt"]),
+		"missingFiles": PoolStringArray(),
+		"unexpectedFiles": PoolStringArray(["b.txt"])
+	})
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var request_object = test_object.verify_pack("testPack")
+	
+	yield(yield_to(request_object, "request_completed", 1), YIELD)
+	assert_signal_emitted(request_object, "request_completed", "signal should have emitted")
+	
+	assert_true(request_object.get_did_succeed())
+	assert_false(request_object.get_is_valid())
+	assert_eq(request_object.get_corrupted_files(), ["a.txt"])
+	assert_eq(request_object.get_missing_files(), [])
+	assert_eq(request_object.get_unexpected_files(), ["b.txt"])
+	assert_eq(request_object.get_error(), null)
+
+func test_verify_pack_error():
+	var mock_plugin = FakeAndroidPlugin.new()
+	mock_plugin.set_verify_pack_error(create_mock_asset_pack_java_lang_exception_dict())
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	var request_object = test_object.verify_pack("testPack")
+	
+	yield(yield_to(request_object, "request_completed", 1), YIELD)
+	assert_signal_emitted(request_object, "request_completed", "signal should have emitted")
+	
+	assert_false(request_object.get_did_succeed())
+	assert_false(request_object.get_is_valid())
+	assert_asset_pack_exception_eq_dict(request_object.get_error(), \
+		create_mock_asset_pack_java_lang_exception_dict())
+
+func test_set_pack_verification_algorithm():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	assert_true(test_object.set_pack_verification_algorithm("SHA-256"))
+	assert_false(test_object.set_pack_verification_algorithm("MD5"))
+	assert_eq(mock_plugin.get_pack_verification_algorithm(), "SHA-256")
+
+func test_list_assets():
+	var test_pack = "testPack"
+	var mock_plugin = FakeAndroidPlugin.new()
+	for asset_path in ["levels/2.tscn", "levels/1.tscn", "music/theme.ogg"]:
+		mock_plugin.add_asset_location(test_pack, asset_path, {
+			PlayAssetLocation._OFFSET_KEY: 0, 
+			PlayAssetLocation._PATH_KEY: "path/" + asset_path, 
+			PlayAssetLocation._SIZE_KEY: 1
+		})
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	assert_eq(Array(test_object.list_assets(test_pack, "levels/")), ["levels/1.tscn", "levels/2.tscn"])
+	assert_eq(test_object.list_assets(test_pack).size(), 3)
+	assert_eq(test_object.list_assets("otherPack").size(), 0)
+	assert_eq(Array(test_object.glob_assets(test_pack, "*.ogg")), ["music/theme.ogg"])
+
+func test_resolve_asset():
+	var mock_plugin = FakeAndroidPlugin.new()
+	for pack_name in ["base", "patch"]:
+		mock_plugin.add_asset_location(pack_name, "levels/1.tscn", {
+			PlayAssetLocation._OFFSET_KEY: 0, 
+			PlayAssetLocation._PATH_KEY: pack_name + "/levels/1.tscn", 
+			PlayAssetLocation._SIZE_KEY: 1
+		})
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	assert_eq(test_object.resolve_asset("levels/1.tscn")["pack_name"], "base")
+	test_object.set_pack_precedence(["patch", "base"])
+	var resolved_asset = test_object.resolve_asset("levels/1.tscn")
+	assert_eq(resolved_asset["pack_name"], "patch")
+	assert_eq(resolved_asset["location"].get_path(), "patch/levels/1.tscn")
+	assert_eq(test_object.resolve_asset("levels/2.tscn"), null)
+
+func test_set_storage_budget():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_storage_budget(2048)
+	test_object.set_pack_pinned("base", true)
+	
+	assert_eq(mock_plugin.get_storage_budget_mb(), 2048)
+	assert_true(mock_plugin.is_pack_pinned("base"))
+	assert_false(mock_plugin.is_pack_pinned("level1"))
+
+func test_set_prefetch_policy():
+	var mock_plugin = FakeAndroidPlugin.new()
+	var test_object = create_play_asset_pack_manager(mock_plugin)
+	
+	test_object.set_prefetch_policy(60, 2, 512)
+	
+	assert_eq(mock_plugin.get_prefetch_policy(), [60, 2, 512])
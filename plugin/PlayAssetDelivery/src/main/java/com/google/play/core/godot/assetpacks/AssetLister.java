@@ -0,0 +1,208 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Lists the assets of STORAGE_FILES packs by path prefix or glob pattern. Listings are answered
+ * from the sorted entries of the pack's PackContentManifest, where all paths sharing a prefix form
+ * one range found by binary search, so a listing costs a lookup plus the size of its result rather
+ * than a walk of the pack's directory tree. Globs are narrowed to the range of their literal prefix
+ * before the remaining entries are matched. Packs without a manifest yet are walked directly.
+ */
+final class AssetLister {
+  static final String LISTINGS_KEY = "listings";
+  static final String GLOBS_KEY = "globs";
+  static final String WALKED_LISTINGS_KEY = "walkedListings";
+  static final String LISTED_ASSETS_KEY = "listedAssets";
+
+  private static final String TAG = "AssetLister";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[] NO_ASSETS = new String[0];
+
+  private final PackLocationCache packLocationCache;
+  private final PackContentManifestStore packContentManifestStore;
+  private final AtomicLong listingCount = new AtomicLong();
+  private final AtomicLong globCount = new AtomicLong();
+  private final AtomicLong walkedListingCount = new AtomicLong();
+  private final AtomicLong listedAssetCount = new AtomicLong();
+
+  AssetLister(
+      PackLocationCache packLocationCache, PackContentManifestStore packContentManifestStore) {
+    this.packLocationCache = packLocationCache;
+    this.packContentManifestStore = packContentManifestStore;
+  }
+
+  /**
+   * Returns the sorted paths of all assets of packName that start with prefix, relative to the
+   * assetsPath of the pack. An empty prefix lists the whole pack, and a prefix ending with '/' a
+   * whole directory. Returns an empty array if packName is not an installed STORAGE_FILES pack.
+   */
+  String[] listAssets(String packName, String prefix) {
+    listingCount.incrementAndGet();
+    return collect(packName, PackContentManifest.normalize(prefix), null);
+  }
+
+  /**
+   * Returns the sorted paths of all assets of packName matching pattern, relative to the assetsPath
+   * of the pack. In pattern, '*' matches any characters but '/', "**" matches any characters, '?'
+   * matches one character but '/', and [...] matches one character of a set, where [!...] negates
+   * the set. A '[' that starts no non-empty set matches itself. Returns an empty array if pattern
+   * is malformed, e.g. holds a reversed range like [z-a].
+   */
+  String[] globAssets(String packName, String pattern) {
+    globCount.incrementAndGet();
+    String normalizedPattern = PackContentManifest.normalize(pattern);
+    Pattern regex;
+    try {
+      regex = Pattern.compile(globToRegex(normalizedPattern));
+    } catch (PatternSyntaxException e) {
+      Log.w(TAG, "Malformed asset pattern " + pattern, e);
+      return NO_ASSETS;
+    }
+    return collect(packName, literalPrefix(normalizedPattern), regex);
+  }
+
+  /** Returns the listing counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(LISTINGS_KEY, listingCount.get());
+    metrics.put(GLOBS_KEY, globCount.get());
+    metrics.put(WALKED_LISTINGS_KEY, walkedListingCount.get());
+    metrics.put(LISTED_ASSETS_KEY, listedAssetCount.get());
+    return metrics;
+  }
+
+  private String[] collect(String packName, String prefix, Pattern pattern) {
+    List<String> assetPaths = new ArrayList<>();
+    PackContentManifest manifest = packContentManifestStore.getManifest(packName);
+    if (manifest != null) {
+      byte[] prefixBytes = prefix.getBytes(UTF_8);
+      for (int index = manifest.firstIndexWithPrefix(prefix);
+          index < manifest.entryCount() && manifest.entryStartsWith(prefixBytes, index);
+          index++) {
+        String assetPath = manifest.path(index);
+        if (pattern == null || pattern.matcher(assetPath).matches()) {
+          assetPaths.add(assetPath);
+        }
+      }
+    } else {
+      Dictionary packLocation = packLocationCache.getPackLocation(packName);
+      if (packLocation == null
+          || (int) packLocation.get(AssetPackLocationFromDictionary.PACK_STORAGE_METHOD_KEY)
+              != AssetPackStorageMethod.STORAGE_FILES) {
+        return NO_ASSETS;
+      }
+      walkedListingCount.incrementAndGet();
+      List<String> relativePaths;
+      try {
+        relativePaths =
+            PackContentManifest.listRelativePaths(
+                new File(
+                    (String) packLocation.get(AssetPackLocationFromDictionary.ASSETS_PATH_KEY)));
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to list the assets of " + packName, e);
+        return NO_ASSETS;
+      }
+      for (String assetPath : relativePaths) {
+        if (assetPath.startsWith(prefix)
+            && (pattern == null || pattern.matcher(assetPath).matches())) {
+          assetPaths.add(assetPath);
+        }
+      }
+      // in the order of the manifest entries, so that both listings agree
+      PackContentManifest.sortPaths(assetPaths);
+    }
+    listedAssetCount.addAndGet(assetPaths.size());
+    return assetPaths.toArray(NO_ASSETS);
+  }
+
+  /** Returns the part of pattern before its first wildcard, which every match starts with. */
+  static String literalPrefix(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*' || c == '?' || c == '[') {
+        return pattern.substring(0, i);
+      }
+    }
+    return pattern;
+  }
+
+  /** Translates a glob pattern into an equivalent regular expression. */
+  static String globToRegex(String pattern) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '*') {
+        if (pattern.startsWith("**/", i)) {
+          // "a/**/b" also matches "a/b"
+          regex.append("(?:.*/)?");
+          i += 3;
+        } else if (pattern.startsWith("**", i)) {
+          regex.append(".*");
+          i += 2;
+        } else {
+          regex.append("[^/]*");
+          i++;
+        }
+      } else if (c == '?') {
+        regex.append("[^/]");
+        i++;
+      } else if (c == '[' && isSetStart(pattern, i)) {
+        int end = pattern.indexOf(']', i + 1);
+        String set = pattern.substring(i + 1, end);
+        regex.append('[');
+        if (set.startsWith("!")) {
+          regex.append('^');
+          set = set.substring(1);
+        }
+        for (char member : set.toCharArray()) {
+          if (member == '\\' || member == '[' || member == ']' || member == '^' || member == '&') {
+            regex.append('\\');
+          }
+          regex.append(member);
+        }
+        regex.append(']');
+        i = end + 1;
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+        i++;
+      }
+    }
+    return regex.toString();
+  }
+
+  /** Returns whether the '[' at index start of pattern opens a set with at least one member. */
+  private static boolean isSetStart(String pattern, int start) {
+    int end = pattern.indexOf(']', start + 1);
+    int firstMember = pattern.startsWith("!", start + 1) ? start + 2 : start + 1;
+    return end > firstMember;
+  }
+}
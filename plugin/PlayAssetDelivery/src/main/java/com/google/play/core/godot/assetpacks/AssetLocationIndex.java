@@ -0,0 +1,269 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.android.play.core.assetpacks.AssetLocation;
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Resolves the location of single assets without a binder IPC per asset where possible. Assets of
+ * STORAGE_FILES packs are plain files below the pack's assetsPath, so their location is derived
+ * locally from the cached AssetPackLocation, and from the pack's PackContentManifest once it is
+ * built, which also answers misses without touching the file system. Misses are answered even
+ * earlier by the pack's PackBloomFilter, once that is built. Assets of APK_ASSETS packs live inside
+ * APKs, so their locations are queried from the Play Core Library once and memoized. Resolved
+ * locations are kept serialized in a bounded LRU, and dropped whenever packLocationCache
+ * invalidates their pack.
+ */
+final class AssetLocationIndex implements PackLocationCache.InvalidationListener {
+  static final String HITS_KEY = "hits";
+  static final String LOCAL_LOOKUPS_KEY = "localLookups";
+  static final String IPC_LOOKUPS_KEY = "ipcLookups";
+  static final String MANIFEST_LOOKUPS_KEY = "manifestLookups";
+  static final String EVICTIONS_KEY = "evictions";
+  static final int MAX_CACHED_ASSET_LOCATIONS = 4096;
+  /** Missing mask entry of an asset that is not present in the pack. */
+  static final byte ASSET_MISSING = 1;
+  /** Missing mask entry of an asset whose offset or size does not fit the int arrays. */
+  static final byte ASSET_BEYOND_INT_RANGE = 2;
+
+  /** Receives every asset location lookup, so that the assets used by the game can be learned. */
+  interface AccessListener {
+    void onAssetAccessed(String packName, String assetPath);
+  }
+
+  private final AssetPackManager assetPackManager;
+  private final PackLocationCache packLocationCache;
+  private volatile AccessListener accessListener;
+  private volatile PackContentManifestStore contentManifests;
+  private volatile PackBloomFilterStore bloomFilters;
+  // the fields below are guarded by this
+  private final LinkedHashMap<AssetKey, Dictionary> assetLocations =
+      new LinkedHashMap<>(16, 0.75f, true);
+  // incremented by every invalidation, so that a lookup racing with it does not cache stale data
+  private long generation;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong localLookupCount = new AtomicLong();
+  private final AtomicLong ipcLookupCount = new AtomicLong();
+  private final AtomicLong manifestLookupCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  private static final class AssetKey {
+    final String packName;
+    final String assetPath;
+
+    AssetKey(String packName, String assetPath) {
+      this.packName = packName;
+      this.assetPath = assetPath;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof AssetKey)) {
+        return false;
+      }
+      AssetKey otherKey = (AssetKey) other;
+      return packName.equals(otherKey.packName) && assetPath.equals(otherKey.assetPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * packName.hashCode() + assetPath.hashCode();
+    }
+  }
+
+  AssetLocationIndex(AssetPackManager assetPackManager, PackLocationCache packLocationCache) {
+    this.assetPackManager = assetPackManager;
+    this.packLocationCache = packLocationCache;
+    packLocationCache.setInvalidationListener(this);
+  }
+
+  void setAccessListener(AccessListener accessListener) {
+    this.accessListener = accessListener;
+  }
+
+  void setContentManifests(PackContentManifestStore contentManifests) {
+    this.contentManifests = contentManifests;
+  }
+
+  void setBloomFilters(PackBloomFilterStore bloomFilters) {
+    this.bloomFilters = bloomFilters;
+  }
+
+  /** Returns the serialized location of assetPath in packName, or null if it does not exist. */
+  Dictionary getAssetLocation(String packName, String assetPath) {
+    if (accessListener != null) {
+      accessListener.onAssetAccessed(packName, assetPath);
+    }
+    return resolveAssetLocation(packName, assetPath);
+  }
+
+  /**
+   * Returns the serialized location of assetPath in packName like getAssetLocation(), but without
+   * reporting the lookup to the access listener, for lookups made on behalf of the plugin itself.
+   */
+  Dictionary resolveAssetLocation(String packName, String assetPath) {
+    AssetKey key = new AssetKey(packName, assetPath);
+    long lookupGeneration;
+    synchronized (this) {
+      Dictionary assetLocation = assetLocations.get(key);
+      if (assetLocation != null) {
+        hitCount.incrementAndGet();
+        return assetLocation;
+      }
+      lookupGeneration = generation;
+    }
+    // packLocationCache is queried outside of the lock, since it calls back into this index, and
+    // only once, for both the filter and the lookup
+    Dictionary packLocation = packLocationCache.getPackLocation(packName);
+    PackBloomFilterStore filters = bloomFilters;
+    PackBloomFilter filter = filters == null ? null : filters.getFilter(packName, packLocation);
+    if (filter != null && !filter.mightContain(assetPath)) {
+      filters.onLookupSaved();
+      return null;
+    }
+    Dictionary assetLocation = lookUpAssetLocation(packName, assetPath, packLocation);
+    if (assetLocation == null && filter != null) {
+      filters.onFalsePositive();
+    }
+    if (assetLocation != null) {
+      synchronized (this) {
+        if (lookupGeneration == generation) {
+          assetLocations.put(key, assetLocation);
+          evictOverflow();
+        }
+      }
+    }
+    return assetLocation;
+  }
+
+  /**
+   * Resolves every asset path of packName, and packs the results into parallel arrays, so that a
+   * whole manifest crosses JNI at once. Offsets and sizes are ints, since Godot converts int[] to
+   * PoolIntArray. The i-th entry of the missing mask is ASSET_MISSING if assetPaths[i] does not
+   * exist, or ASSET_BEYOND_INT_RANGE if its offset or size is 2 GB or more, so that its location
+   * must be queried with getAssetLocation(). In both cases its path is empty and its offset and
+   * size are 0.
+   */
+  Dictionary getAssetLocations(String packName, String[] assetPaths) {
+    String[] paths = new String[assetPaths.length];
+    int[] offsets = new int[assetPaths.length];
+    int[] sizes = new int[assetPaths.length];
+    byte[] missingMask = new byte[assetPaths.length];
+    for (int i = 0; i < assetPaths.length; i++) {
+      Dictionary assetLocation = getAssetLocation(packName, assetPaths[i]);
+      if (assetLocation == null) {
+        paths[i] = "";
+        missingMask[i] = ASSET_MISSING;
+        continue;
+      }
+      long offset = (long) assetLocation.get(AssetLocationFromDictionary.OFFSET_KEY);
+      long size = (long) assetLocation.get(AssetLocationFromDictionary.SIZE_KEY);
+      if (offset > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+        paths[i] = "";
+        missingMask[i] = ASSET_BEYOND_INT_RANGE;
+        continue;
+      }
+      paths[i] = (String) assetLocation.get(AssetLocationFromDictionary.PATH_KEY);
+      offsets[i] = (int) offset;
+      sizes[i] = (int) size;
+    }
+    return PlayAssetDeliveryUtils.constructAssetLocationsDictionary(
+        paths, offsets, sizes, missingMask);
+  }
+
+  @Override
+  public synchronized void onPackInvalidated(String packName) {
+    generation++;
+    Iterator<AssetKey> iterator = assetLocations.keySet().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().packName.equals(packName)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void onAllPacksInvalidated() {
+    generation++;
+    assetLocations.clear();
+  }
+
+  /** Returns the index counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(HITS_KEY, hitCount.get());
+    metrics.put(LOCAL_LOOKUPS_KEY, localLookupCount.get());
+    metrics.put(IPC_LOOKUPS_KEY, ipcLookupCount.get());
+    metrics.put(MANIFEST_LOOKUPS_KEY, manifestLookupCount.get());
+    metrics.put(EVICTIONS_KEY, evictionCount.get());
+    return metrics;
+  }
+
+  private Dictionary lookUpAssetLocation(
+      String packName, String assetPath, Dictionary packLocation) {
+    if (packLocation != null
+        && (int) packLocation.get(AssetPackLocationFromDictionary.PACK_STORAGE_METHOD_KEY)
+            == AssetPackStorageMethod.STORAGE_FILES) {
+      File assetFile =
+          new File(
+              (String) packLocation.get(AssetPackLocationFromDictionary.ASSETS_PATH_KEY),
+              assetPath);
+      PackContentManifest manifest =
+          contentManifests == null ? null : contentManifests.getManifest(packName);
+      if (manifest != null) {
+        manifestLookupCount.incrementAndGet();
+        int index = manifest.indexOf(assetPath);
+        if (index < 0) {
+          return null;
+        }
+        return PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+            0, assetFile.getPath(), manifest.size(index));
+      }
+      localLookupCount.incrementAndGet();
+      if (!assetFile.isFile()) {
+        return null;
+      }
+      return PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+          0, assetFile.getPath(), assetFile.length());
+    }
+    ipcLookupCount.incrementAndGet();
+    AssetLocation retrievedAssetLocation = assetPackManager.getAssetLocation(packName, assetPath);
+    if (retrievedAssetLocation == null) {
+      return null;
+    }
+    return PlayAssetDeliveryUtils.convertAssetLocationToDictionary(retrievedAssetLocation);
+  }
+
+  private void evictOverflow() {
+    Iterator<AssetKey> iterator = assetLocations.keySet().iterator();
+    while (assetLocations.size() > MAX_CACHED_ASSET_LOCATIONS && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictionCount.incrementAndGet();
+    }
+  }
+}
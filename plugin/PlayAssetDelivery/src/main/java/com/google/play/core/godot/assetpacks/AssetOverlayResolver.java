@@ -0,0 +1,292 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Resolves which installed pack provides an asset path, without the caller naming the pack. The
+ * contents of all installed packs are merged into one hash index from asset path to a bitmask of
+ * the packs that hold it, filled from their PackContentManifests, so that a resolution is a single
+ * hash lookup. When several packs hold a path, the pack that comes first in the precedence order
+ * wins, e.g. a patch pack over its base pack; packs missing from that order follow it sorted by
+ * name. The index is updated incrementally, one pack at a time, whenever a pack completes, is
+ * removed or gets its manifest built. Manifests are loaded on the index build executor and only
+ * swapped into the index under the lock, and a pack waiting for that is looked up through
+ * AssetLocationIndex in the meantime. Packs without a manifest, such as APK_ASSETS packs, are asked
+ * through AssetLocationIndex as well, in their turn of the precedence order.
+ */
+final class AssetOverlayResolver implements PackContentManifestStore.ManifestListener {
+  static final String PACK_NAME_KEY = "packName";
+  static final String ASSET_LOCATION_KEY = "assetLocation";
+  static final String INDEXED_PACKS_KEY = "indexedPacks";
+  static final String INDEXED_ASSETS_KEY = "indexedAssets";
+  static final String RESOLUTIONS_KEY = "resolutions";
+  static final String FALLBACK_LOOKUPS_KEY = "fallbackLookups";
+  static final String UNRESOLVED_KEY = "unresolved";
+  // number of bits of the provider masks, beyond which packs are looked up one by one
+  static final int MAX_INDEXED_PACKS = 64;
+
+  private final PackLocationCache packLocationCache;
+  private final PackContentManifestStore packContentManifestStore;
+  private final AssetLocationIndex assetLocationIndex;
+  private final Executor indexExecutor;
+  // the fields below are guarded by this
+  // bitmasks of the slots of the indexed packs that hold an asset, keyed by its path
+  private final Map<String, Long> providers = new HashMap<>();
+  private final Map<String, Integer> packSlots = new HashMap<>();
+  private final Map<String, PackContentManifest> indexedManifests = new HashMap<>();
+  private final String[] slotPackNames = new String[MAX_INDEXED_PACKS];
+  // installed packs that are not indexed, so that they are looked up one by one
+  private final Set<String> unindexedPacks = new HashSet<>();
+  // packs whose contents may have changed since they were indexed
+  private final Set<String> dirtyPacks = new LinkedHashSet<>();
+  // dirty packs taken by the running reindex, which are still looked up one by one
+  private final Set<String> reindexingPacks = new HashSet<>();
+  private boolean isReindexScheduled;
+  private boolean isInitialized;
+  private List<String> packPrecedence = Collections.emptyList();
+  private final AtomicLong resolutionCount = new AtomicLong();
+  private final AtomicLong fallbackLookupCount = new AtomicLong();
+  private final AtomicLong unresolvedCount = new AtomicLong();
+
+  AssetOverlayResolver(
+      PackLocationCache packLocationCache,
+      PackContentManifestStore packContentManifestStore,
+      AssetLocationIndex assetLocationIndex,
+      Executor indexExecutor) {
+    this.packLocationCache = packLocationCache;
+    this.packContentManifestStore = packContentManifestStore;
+    this.assetLocationIndex = assetLocationIndex;
+    this.indexExecutor = indexExecutor;
+  }
+
+  /** Sets the packs whose assets override those of all other packs, highest precedence first. */
+  synchronized void setPackPrecedence(String[] packNames) {
+    packPrecedence = new ArrayList<>(Arrays.asList(packNames));
+  }
+
+  /**
+   * Returns the name of the pack that provides assetPath along with the serialized location of the
+   * asset, or null if no installed pack holds it.
+   */
+  Dictionary resolve(String assetPath) {
+    resolutionCount.incrementAndGet();
+    String path = PackContentManifest.normalize(assetPath);
+    boolean isInitializationRequired;
+    synchronized (this) {
+      isInitializationRequired = !isInitialized;
+    }
+    if (isInitializationRequired) {
+      initialize();
+    }
+    List<String> candidatePacks = new ArrayList<>();
+    Set<String> fallbackPacks = new HashSet<>();
+    synchronized (this) {
+      Long providerMask = providers.get(path);
+      for (String packName : rankedPacksLocked()) {
+        Integer slot = packSlots.get(packName);
+        if (slot != null && !dirtyPacks.contains(packName) && !reindexingPacks.contains(packName)) {
+          if (providerMask != null && (providerMask & (1L << slot)) != 0) {
+            candidatePacks.add(packName);
+          }
+        } else {
+          // the pack has no manifest, or is waiting to be reindexed
+          candidatePacks.add(packName);
+          fallbackPacks.add(packName);
+        }
+      }
+    }
+    for (String packName : candidatePacks) {
+      if (fallbackPacks.contains(packName)) {
+        fallbackLookupCount.incrementAndGet();
+      }
+      Dictionary assetLocation = assetLocationIndex.getAssetLocation(packName, path);
+      if (assetLocation != null) {
+        Dictionary resolvedAsset = new Dictionary();
+        resolvedAsset.put(PACK_NAME_KEY, packName);
+        resolvedAsset.put(ASSET_LOCATION_KEY, assetLocation);
+        return resolvedAsset;
+      }
+      if (!fallbackPacks.contains(packName)) {
+        // the pack was removed or updated behind the index
+        onPackChanged(packName);
+      }
+    }
+    unresolvedCount.incrementAndGet();
+    return null;
+  }
+
+  /** Reindexes packName in the background, since it completed or was removed. */
+  void onPackChanged(String packName) {
+    synchronized (this) {
+      if (!isInitialized) {
+        // the first resolution indexes every installed pack anyway
+        return;
+      }
+      dirtyPacks.add(packName);
+      if (isReindexScheduled) {
+        return;
+      }
+      isReindexScheduled = true;
+    }
+    indexExecutor.execute(this::reindex);
+  }
+
+  @Override
+  public void onManifestBuilt(String packName, PackContentManifest manifest) {
+    onPackChanged(packName);
+  }
+
+  /** Returns the index counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (this) {
+      metrics.put(INDEXED_PACKS_KEY, packSlots.size());
+      metrics.put(INDEXED_ASSETS_KEY, providers.size());
+    }
+    metrics.put(RESOLUTIONS_KEY, resolutionCount.get());
+    metrics.put(FALLBACK_LOOKUPS_KEY, fallbackLookupCount.get());
+    metrics.put(UNRESOLVED_KEY, unresolvedCount.get());
+    return metrics;
+  }
+
+  /** Marks every installed pack dirty, the first time the index is needed. */
+  private void initialize() {
+    // the locations are queried outside of the lock, and cached by packLocationCache afterwards
+    Set<String> installedPacks = packLocationCache.getPackLocations().keySet();
+    synchronized (this) {
+      if (isInitialized) {
+        return;
+      }
+      isInitialized = true;
+      dirtyPacks.addAll(installedPacks);
+      if (dirtyPacks.isEmpty() || isReindexScheduled) {
+        return;
+      }
+      isReindexScheduled = true;
+    }
+    indexExecutor.execute(this::reindex);
+  }
+
+  /**
+   * Reindexes the dirty packs one at a time. Their manifests are loaded without holding the lock,
+   * which is only taken to swap the pack's entries in the index.
+   */
+  private void reindex() {
+    while (true) {
+      List<String> packNames;
+      synchronized (this) {
+        if (dirtyPacks.isEmpty()) {
+          isReindexScheduled = false;
+          return;
+        }
+        packNames = new ArrayList<>(dirtyPacks);
+        dirtyPacks.clear();
+        reindexingPacks.addAll(packNames);
+      }
+      for (String packName : packNames) {
+        boolean isInstalled = packLocationCache.getPackLocation(packName) != null;
+        // a manifest built by getManifest() marks its pack dirty again, which the loop picks up
+        PackContentManifest manifest =
+            isInstalled ? packContentManifestStore.getManifest(packName) : null;
+        synchronized (this) {
+          reindexingPacks.remove(packName);
+          unindexLocked(packName);
+          if (isInstalled && (manifest == null || !indexLocked(packName, manifest))) {
+            unindexedPacks.add(packName);
+          }
+        }
+      }
+    }
+  }
+
+  private boolean indexLocked(String packName, PackContentManifest manifest) {
+    int slot = 0;
+    while (slot < MAX_INDEXED_PACKS && slotPackNames[slot] != null) {
+      slot++;
+    }
+    if (slot == MAX_INDEXED_PACKS) {
+      return false;
+    }
+    slotPackNames[slot] = packName;
+    packSlots.put(packName, slot);
+    indexedManifests.put(packName, manifest);
+    long slotBit = 1L << slot;
+    for (int index = 0; index < manifest.entryCount(); index++) {
+      String path = manifest.path(index);
+      Long providerMask = providers.get(path);
+      providers.put(path, providerMask == null ? slotBit : providerMask | slotBit);
+    }
+    return true;
+  }
+
+  private void unindexLocked(String packName) {
+    unindexedPacks.remove(packName);
+    Integer slot = packSlots.remove(packName);
+    if (slot == null) {
+      return;
+    }
+    slotPackNames[slot] = null;
+    PackContentManifest manifest = indexedManifests.remove(packName);
+    long slotBit = 1L << slot;
+    for (int index = 0; index < manifest.entryCount(); index++) {
+      String path = manifest.path(index);
+      Long providerMask = providers.get(path);
+      if (providerMask == null) {
+        continue;
+      }
+      if ((providerMask & ~slotBit) == 0) {
+        providers.remove(path);
+      } else {
+        providers.put(path, providerMask & ~slotBit);
+      }
+    }
+  }
+
+  /**
+   * Returns the installed packs in the order they are searched, including the dirty packs, which
+   * may have been removed already.
+   */
+  private List<String> rankedPacksLocked() {
+    Set<String> installedPacks = new HashSet<>(packSlots.keySet());
+    installedPacks.addAll(unindexedPacks);
+    installedPacks.addAll(dirtyPacks);
+    installedPacks.addAll(reindexingPacks);
+    List<String> rankedPacks = new ArrayList<>();
+    for (String packName : packPrecedence) {
+      if (installedPacks.remove(packName)) {
+        rankedPacks.add(packName);
+      }
+    }
+    List<String> remainingPacks = new ArrayList<>(installedPacks);
+    Collections.sort(remainingPacks);
+    rankedPacks.addAll(remainingPacks);
+    return rankedPacks;
+  }
+}
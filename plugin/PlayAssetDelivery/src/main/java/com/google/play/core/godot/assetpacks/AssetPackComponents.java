@@ -0,0 +1,209 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Builds and wires the subsystems of PlayAssetDelivery that serve the installed packs, and forwards
+ * the terminal pack states of StateUpdateManager to them. Every thread pool runs daemon threads,
+ * which are only started by the first task and stop once they stay idle, so that an unused
+ * subsystem never keeps a thread alive.
+ */
+final class AssetPackComponents implements StateUpdateManager.TerminalStateListener {
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  final CallbackExecutor callbackExecutor;
+  final FetchScheduler fetchScheduler;
+  final PackLocationCache packLocationCache;
+  final AssetLocationIndex assetLocationIndex;
+  final PackContentManifestStore packContentManifestStore;
+  final PackBloomFilterStore packBloomFilterStore;
+  final AssetLister assetLister;
+  final AssetOverlayResolver assetOverlayResolver;
+  final MappedAssetReader mappedAssetReader;
+  final AssetStreamer assetStreamer;
+  final PackWarmer packWarmer;
+  final PackVerifier packVerifier;
+  final StorageBudgetManager storageBudgetManager;
+  final PackPrefetcher packPrefetcher;
+  private final StateUpdateManager stateUpdateManager;
+
+  AssetPackComponents(
+      PlayAssetDelivery playAssetDeliveryPlugin,
+      AssetPackManager assetPackManager,
+      StateUpdateManager stateUpdateManager,
+      CallbackExecutor callbackExecutor) {
+    this.stateUpdateManager = stateUpdateManager;
+    this.callbackExecutor = callbackExecutor;
+    packLocationCache = new PackLocationCache(assetPackManager);
+    assetLocationIndex = new AssetLocationIndex(assetPackManager, packLocationCache);
+    // builds manifests and the Bloom filters derived from them one at a time
+    ExecutorService packIndexBuildExecutor = newDaemonThreadPool("PackIndexBuilder", 1);
+    packContentManifestStore =
+        new PackContentManifestStore(packLocationCache, packIndexBuildExecutor);
+    assetLocationIndex.setContentManifests(packContentManifestStore);
+    packBloomFilterStore =
+        new PackBloomFilterStore(packContentManifestStore, packIndexBuildExecutor);
+    packContentManifestStore.addManifestListener(packBloomFilterStore);
+    assetLocationIndex.setBloomFilters(packBloomFilterStore);
+    assetLister = new AssetLister(packLocationCache, packContentManifestStore);
+    assetOverlayResolver =
+        new AssetOverlayResolver(
+            packLocationCache,
+            packContentManifestStore,
+            assetLocationIndex,
+            packIndexBuildExecutor);
+    packContentManifestStore.addManifestListener(assetOverlayResolver);
+    mappedAssetReader = new MappedAssetReader(assetLocationIndex);
+    assetStreamer =
+        new AssetStreamer(
+            assetLocationIndex,
+            new AssetStreamer.StreamListener() {
+              @Override
+              public void onChunkReady(int streamId, byte[] data) {
+                playAssetDeliveryPlugin.emitSignalWrapper(
+                    PlayAssetDelivery.ASSET_CHUNK_READY, streamId, data);
+              }
+
+              @Override
+              public void onStreamCompleted(int streamId) {
+                playAssetDeliveryPlugin.emitSignalWrapper(
+                    PlayAssetDelivery.ASSET_STREAM_COMPLETED, streamId);
+              }
+
+              @Override
+              public void onStreamFailed(int streamId, Exception e) {
+                playAssetDeliveryPlugin.emitSignalWrapper(
+                    PlayAssetDelivery.ASSET_STREAM_ERROR,
+                    PlayAssetDeliveryUtils.convertExceptionToDictionary(e),
+                    streamId);
+              }
+            });
+    packWarmer =
+        new PackWarmer(
+            assetLocationIndex, newDaemonThreadPool("PackWarmer", PackWarmer.WARMUP_THREAD_COUNT));
+    assetLocationIndex.setAccessListener(packWarmer);
+    packVerifier =
+        new PackVerifier(
+            packLocationCache,
+            new PackVerifier.VerificationListener() {
+              @Override
+              public void onPackVerified(Dictionary result, int signalID) {
+                playAssetDeliveryPlugin.emitSignalWrapper(
+                    PlayAssetDelivery.VERIFY_PACK_SUCCESS, result, signalID);
+              }
+
+              @Override
+              public void onPackVerificationFailed(Exception e, int signalID) {
+                playAssetDeliveryPlugin.emitSignalWrapper(
+                    PlayAssetDelivery.VERIFY_PACK_ERROR,
+                    PlayAssetDeliveryUtils.convertExceptionToDictionary(e),
+                    signalID);
+              }
+            },
+            newDaemonThreadPool("PackVerifier", 1),
+            newDaemonThreadPool("PackVerifierHashing", Runtime.getRuntime().availableProcessors()));
+    storageBudgetManager =
+        new StorageBudgetManager(
+            assetPackManager,
+            packLocationCache,
+            callbackExecutor,
+            packName -> {
+              packLocationCache.invalidate(packName);
+              onPackRemoved(packName);
+              assetOverlayResolver.onPackChanged(packName);
+            });
+    fetchScheduler =
+        new FetchScheduler(
+            (packName, signalID) ->
+                playAssetDeliveryPlugin.fetch(new String[] {packName}, signalID));
+    packPrefetcher =
+        new PackPrefetcher(
+            assetPackManager,
+            packLocationCache,
+            storageBudgetManager,
+            callbackExecutor,
+            packName ->
+                fetchScheduler.schedule(
+                    packName, PackPrefetcher.PREFETCH_PRIORITY, PackPrefetcher.PREFETCH_SIGNAL_ID));
+  }
+
+  @Override
+  public void onTerminalState(String packName, int status, boolean isStateChanged) {
+    if (isStateChanged) {
+      if (status == AssetPackStatus.COMPLETED) {
+        packLocationCache.onPackCompleted(packName);
+        packContentManifestStore.onPackCompleted(packName);
+        packWarmer.onPackCompleted(packName);
+        packVerifier.onPackCompleted(packName);
+        packPrefetcher.onPackCompleted(packName, stateUpdateManager.ongoingAssetPackRequests());
+      } else {
+        packLocationCache.invalidate(packName);
+      }
+      assetOverlayResolver.onPackChanged(packName);
+    }
+    fetchScheduler.onFetchFinished(packName);
+  }
+
+  /**
+   * Deletes the manifest and the Bloom filter of packName, which was removed from the device. Its
+   * location must be invalidated before.
+   */
+  void onPackRemoved(String packName) {
+    packContentManifestStore.onPackRemoved(packName);
+    packBloomFilterStore.onPackRemoved(packName);
+  }
+
+  /** Closes the streams and stops the threads of every subsystem. */
+  void shutdown() {
+    callbackExecutor.shutdown();
+    mappedAssetReader.clear();
+    assetStreamer.shutdown();
+    packWarmer.shutdown();
+    packVerifier.shutdown();
+    packContentManifestStore.shutdown();
+  }
+
+  /**
+   * Returns a pool of threadCount daemon threads, which are started by the first tasks and stop
+   * after staying idle for KEEP_ALIVE_SECONDS.
+   */
+  static ExecutorService newDaemonThreadPool(String threadName, int threadCount) {
+    ThreadPoolExecutor threadPool =
+        new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, threadName);
+              thread.setDaemon(true);
+              return thread;
+            });
+    threadPool.allowCoreThreadTimeOut(true);
+    return threadPool;
+  }
+}
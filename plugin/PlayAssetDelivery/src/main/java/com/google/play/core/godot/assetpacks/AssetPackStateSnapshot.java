@@ -0,0 +1,56 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Immutable copy of the primitive fields of an AssetPackState, as read from one row of the
+ * AssetPackStateTable.
+ */
+final class AssetPackStateSnapshot {
+  final int status;
+  final int errorCode;
+  final long bytesDownloaded;
+  final long totalBytesToDownload;
+  final int transferProgressPercentage;
+
+  AssetPackStateSnapshot(
+      int status,
+      int errorCode,
+      long bytesDownloaded,
+      long totalBytesToDownload,
+      int transferProgressPercentage) {
+    this.status = status;
+    this.errorCode = errorCode;
+    this.bytesDownloaded = bytesDownloaded;
+    this.totalBytesToDownload = totalBytesToDownload;
+    this.transferProgressPercentage = transferProgressPercentage;
+  }
+
+  /** Serializes this snapshot into the same Dictionary format as an AssetPackState. */
+  Dictionary toDictionary(String packName) {
+    return PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+        bytesDownloaded,
+        errorCode,
+        packName,
+        status,
+        totalBytesToDownload,
+        transferProgressPercentage);
+  }
+}
@@ -0,0 +1,661 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.android.play.core.assetpacks.model.AssetPackErrorCode;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.play.core.godot.assetpacks.utils.AssetPackStateFromDictionary;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Columnar store for the latest state of every asset pack. Pack names are interned to dense ids by
+ * a PackNameRegistry, and each field of AssetPackState lives in its own primitive array, so no
+ * boxed values or per-pack maps are retained. Rows are spread over STRIPE_COUNT stripes by the low
+ * bits of their pack id, and every stripe is guarded by its own monitor. Since ids are dense, the
+ * packs of a game with up to STRIPE_COUNT packs never share a monitor, and larger games spread
+ * their updates evenly over all stripes. The set of ongoing asset pack requests is kept as a bitset
+ * of pack ids.
+ *
+ * <p>Rows of packs in a terminal state are only retained for a limited time: they are evicted once
+ * they are older than the terminal state TTL, and the least recently updated ones are evicted
+ * whenever more terminal rows than the retention capacity are held.
+ *
+ * <p>Callers hold a pack id between acquirePackId and releasePackId, and the id is also pinned
+ * while the pack is ongoing or otherwise pinned, e.g. while it is dirty in the
+ * PackStateSnapshotFile. Once a pack has neither a row nor a pin left, its name is released from
+ * the PackNameRegistry, so that evicted packs do not make the id space grow over a long session.
+ *
+ * <p>Progress updates of DOWNLOADING and TRANSFERRING packs can be filtered by a granularity: an
+ * update whose progress did not move far enough from the stored state is rejected without being
+ * stored, so that the distance is always measured from the last accepted update. Status changes and
+ * errors are never filtered.
+ *
+ * <p>Every change of a row increments the row's sequence number, which is sent along with delta
+ * encoded state updates, so that the receiver can discard updates that arrive out of order.
+ */
+final class AssetPackStateTable {
+  static final String RETAINED_STATES_KEY = "retainedStates";
+  static final String RETAINED_TERMINAL_STATES_KEY = "retainedTerminalStates";
+  static final String ONGOING_REQUESTS_KEY = "ongoingRequests";
+  static final String EXPIRED_EVICTIONS_KEY = "expiredEvictions";
+  static final String CAPACITY_EVICTIONS_KEY = "capacityEvictions";
+  static final String FILTERED_PROGRESS_UPDATES_KEY = "filteredProgressUpdates";
+  static final String SEQUENCE_NUMBER_KEY = "sequenceNumber";
+
+  // Bit flags identifying the fields of a row that were changed by an update.
+  private static final int STATUS_FIELD = 1;
+  private static final int ERROR_CODE_FIELD = 1 << 1;
+  private static final int BYTES_DOWNLOADED_FIELD = 1 << 2;
+  private static final int TOTAL_BYTES_TO_DOWNLOAD_FIELD = 1 << 3;
+  private static final int TRANSFER_PROGRESS_PERCENTAGE_FIELD = 1 << 4;
+
+  private static final int STRIPE_SHIFT = 6;
+  static final int STRIPE_COUNT = 1 << STRIPE_SHIFT;
+  private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+  private static final int INITIAL_STRIPE_CAPACITY = 4;
+  static final int DEFAULT_MAX_RETAINED_TERMINAL_STATES = 256;
+  static final long DEFAULT_TERMINAL_STATE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private final PackNameRegistry packNameRegistry = new PackNameRegistry();
+  private final BitSet ongoingPackIds = new BitSet();
+  private final StateStripe[] stateStripes = new StateStripe[STRIPE_COUNT];
+  private volatile int maxRetainedTerminalStates = DEFAULT_MAX_RETAINED_TERMINAL_STATES;
+  private volatile long terminalStateTtlMs = DEFAULT_TERMINAL_STATE_TTL_MS;
+  private final AtomicInteger retainedStateCount = new AtomicInteger();
+  private final AtomicInteger retainedTerminalStateCount = new AtomicInteger();
+  private final AtomicLong expiredEvictionCount = new AtomicLong();
+  private final AtomicLong capacityEvictionCount = new AtomicLong();
+  private final AtomicLong filteredProgressUpdateCount = new AtomicLong();
+  private volatile long minProgressBytesDelta = 0;
+  private volatile int minProgressPercentDelta = 0;
+  private volatile long minProgressIntervalMs = 0;
+
+  /**
+   * Rows of the pack ids that share their low STRIPE_SHIFT bits, one primitive column per
+   * AssetPackState field. The row of a pack id is the id shifted right by STRIPE_SHIFT. The columns
+   * only grow, under the stripe's monitor, like every other access to them.
+   */
+  private static final class StateStripe {
+    final int stripeIndex;
+    final BitSet presentRows = new BitSet();
+    final BitSet terminalRows = new BitSet();
+    // rows whose full state has been sent since delta encoding was enabled
+    final BitSet deltaBaseRows = new BitSet();
+    int[] sequenceNumber = new int[INITIAL_STRIPE_CAPACITY];
+    long[] lastUpdateTimeMs = new long[INITIAL_STRIPE_CAPACITY];
+    long[] lastChangeTimeMs = new long[INITIAL_STRIPE_CAPACITY];
+    int[] status = new int[INITIAL_STRIPE_CAPACITY];
+    int[] errorCode = new int[INITIAL_STRIPE_CAPACITY];
+    long[] bytesDownloaded = new long[INITIAL_STRIPE_CAPACITY];
+    long[] totalBytesToDownload = new long[INITIAL_STRIPE_CAPACITY];
+    int[] transferProgressPercentage = new int[INITIAL_STRIPE_CAPACITY];
+    // number of holders of each row's pack id
+    int[] pinCount = new int[INITIAL_STRIPE_CAPACITY];
+
+    StateStripe(int stripeIndex) {
+      this.stripeIndex = stripeIndex;
+    }
+
+    int packId(int row) {
+      return (row << STRIPE_SHIFT) | stripeIndex;
+    }
+
+    /** Returns the number of rows the columns can hold. */
+    int capacity() {
+      return status.length;
+    }
+
+    /** Grows the columns to hold row, the caller must hold the stripe's monitor. */
+    void ensureCapacity(int row) {
+      if (row < status.length) {
+        return;
+      }
+      int capacity = Math.max(status.length * 2, row + 1);
+      sequenceNumber = Arrays.copyOf(sequenceNumber, capacity);
+      lastUpdateTimeMs = Arrays.copyOf(lastUpdateTimeMs, capacity);
+      lastChangeTimeMs = Arrays.copyOf(lastChangeTimeMs, capacity);
+      status = Arrays.copyOf(status, capacity);
+      errorCode = Arrays.copyOf(errorCode, capacity);
+      bytesDownloaded = Arrays.copyOf(bytesDownloaded, capacity);
+      totalBytesToDownload = Arrays.copyOf(totalBytesToDownload, capacity);
+      transferProgressPercentage = Arrays.copyOf(transferProgressPercentage, capacity);
+      pinCount = Arrays.copyOf(pinCount, capacity);
+    }
+  }
+
+  AssetPackStateTable() {
+    for (int stripeIndex = 0; stripeIndex < STRIPE_COUNT; stripeIndex++) {
+      stateStripes[stripeIndex] = new StateStripe(stripeIndex);
+    }
+  }
+
+  /**
+   * Returns the id of packName, registering it if it has not been seen before. The id stays
+   * assigned to packName at least until the matching releasePackId call.
+   */
+  int acquirePackId(String packName) {
+    while (true) {
+      int packId = packNameRegistry.intern(packName);
+      StateStripe stripe = stateStripe(packId);
+      int row = packId >>> STRIPE_SHIFT;
+      synchronized (stripe) {
+        // the id may have been released and handed to another pack since it was interned
+        if (packName.equals(packNameRegistry.packName(packId))) {
+          stripe.ensureCapacity(row);
+          stripe.pinCount[row]++;
+          return packId;
+        }
+      }
+    }
+  }
+
+  /** Pins packId once more, returns false without pinning it if the id has been released. */
+  boolean pinPackId(int packId) {
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      if (packNameRegistry.packName(packId) == null) {
+        return false;
+      }
+      stripe.ensureCapacity(row);
+      stripe.pinCount[row]++;
+      return true;
+    }
+  }
+
+  /** Drops one pin of packId, releasing the id if its pack has neither a row nor a pin left. */
+  void releasePackId(int packId) {
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      stripe.pinCount[row]--;
+      releaseIfUnused(stripe, row);
+    }
+  }
+
+  /** Returns the name of packId, which must be pinned by the caller. */
+  String packName(int packId) {
+    return packNameRegistry.packName(packId);
+  }
+
+  /** Returns the number of pack ids handed out so far, which is the upper bound of all pack ids. */
+  int packCount() {
+    return packNameRegistry.size();
+  }
+
+  /** Returns the number of rows the columns of all stripes can hold. */
+  int rowCapacity() {
+    int rowCapacity = 0;
+    for (StateStripe stripe : stateStripes) {
+      synchronized (stripe) {
+        rowCapacity += stripe.capacity();
+      }
+    }
+    return rowCapacity;
+  }
+
+  /**
+   * Stores the given fields as the latest state of packId, returns false if the stored state is
+   * already equal to them. The row's last update time is refreshed in both cases.
+   */
+  boolean compareAndUpdate(
+      int packId,
+      int status,
+      int errorCode,
+      long bytesDownloaded,
+      long totalBytesToDownload,
+      int transferProgressPercentage,
+      long updateTimeMs) {
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      return updateRow(
+              stripe,
+              row,
+              status,
+              errorCode,
+              bytesDownloaded,
+              totalBytesToDownload,
+              transferProgressPercentage,
+              updateTimeMs)
+          != 0;
+    }
+  }
+
+  /**
+   * Same as compareAndUpdate, but returns the update serialized as a delta Dictionary, or null if
+   * the stored state is already equal to the given fields. The delta only holds the pack name, the
+   * row's sequence number and the changed fields. All fields are included if the receiver may not
+   * hold the previous state, that is for new rows, rows that left a terminal state, and rows that
+   * have not been sent since the last resetDeltaBase call.
+   */
+  Dictionary compareAndUpdateDelta(
+      int packId,
+      int status,
+      int errorCode,
+      long bytesDownloaded,
+      long totalBytesToDownload,
+      int transferProgressPercentage,
+      long updateTimeMs) {
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      boolean isFullStateRequired =
+          !stripe.presentRows.get(row)
+              || stripe.terminalRows.get(row)
+              || !stripe.deltaBaseRows.get(row);
+      int changedFields =
+          updateRow(
+              stripe,
+              row,
+              status,
+              errorCode,
+              bytesDownloaded,
+              totalBytesToDownload,
+              transferProgressPercentage,
+              updateTimeMs);
+      if (changedFields == 0) {
+        return null;
+      }
+      stripe.deltaBaseRows.set(row);
+      Dictionary delta = new Dictionary();
+      delta.put(AssetPackStateFromDictionary.NAME_KEY, packNameRegistry.packName(packId));
+      delta.put(SEQUENCE_NUMBER_KEY, stripe.sequenceNumber[row]);
+      if (isFullStateRequired || (changedFields & STATUS_FIELD) != 0) {
+        delta.put(AssetPackStateFromDictionary.STATUS_KEY, status);
+      }
+      if (isFullStateRequired || (changedFields & ERROR_CODE_FIELD) != 0) {
+        delta.put(AssetPackStateFromDictionary.ERROR_CODE_KEY, errorCode);
+      }
+      if (isFullStateRequired || (changedFields & BYTES_DOWNLOADED_FIELD) != 0) {
+        delta.put(AssetPackStateFromDictionary.BYTES_DOWNLOADED_KEY, bytesDownloaded);
+      }
+      if (isFullStateRequired || (changedFields & TOTAL_BYTES_TO_DOWNLOAD_FIELD) != 0) {
+        delta.put(AssetPackStateFromDictionary.TOTAL_BYTES_TO_DOWNLOAD_KEY, totalBytesToDownload);
+      }
+      if (isFullStateRequired || (changedFields & TRANSFER_PROGRESS_PERCENTAGE_FIELD) != 0) {
+        delta.put(
+            AssetPackStateFromDictionary.TRANSFER_PROGRESS_PERCENTAGE_KEY,
+            transferProgressPercentage);
+      }
+      return delta;
+    }
+  }
+
+  /** Forgets the latest state of packId, if any. */
+  void removeState(int packId) {
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      if (stripe.presentRows.get(row)) {
+        evictRow(stripe, row);
+      }
+    }
+  }
+
+  /** Makes the next delta of every row carry the full state. */
+  void resetDeltaBase() {
+    for (StateStripe stripe : stateStripes) {
+      synchronized (stripe) {
+        stripe.deltaBaseRows.clear();
+      }
+    }
+  }
+
+  /** Returns a copy of the latest state of packId, or null if no state has been recorded. */
+  AssetPackStateSnapshot getSnapshot(int packId) {
+    if (packId < 0) {
+      return null;
+    }
+    StateStripe stripe = stateStripe(packId);
+    int row = packId >>> STRIPE_SHIFT;
+    synchronized (stripe) {
+      if (!stripe.presentRows.get(row)) {
+        return null;
+      }
+      return new AssetPackStateSnapshot(
+          stripe.status[row],
+          stripe.errorCode[row],
+          stripe.bytesDownloaded[row],
+          stripe.totalBytesToDownload[row],
+          stripe.transferProgressPercentage[row]);
+    }
+  }
+
+  /** Calls action with the name and latest state of every pack that has a recorded state. */
+  void forEachState(BiConsumer<String, AssetPackStateSnapshot> action) {
+    List<String> packNames = new ArrayList<>();
+    List<AssetPackStateSnapshot> snapshots = new ArrayList<>();
+    for (StateStripe stripe : stateStripes) {
+      packNames.clear();
+      snapshots.clear();
+      synchronized (stripe) {
+        // a row holds its pack id, so the name is read along with the row
+        for (int row = stripe.presentRows.nextSetBit(0);
+            row >= 0;
+            row = stripe.presentRows.nextSetBit(row + 1)) {
+          packNames.add(packNameRegistry.packName(stripe.packId(row)));
+          snapshots.add(
+              new AssetPackStateSnapshot(
+                  stripe.status[row],
+                  stripe.errorCode[row],
+                  stripe.bytesDownloaded[row],
+                  stripe.totalBytesToDownload[row],
+                  stripe.transferProgressPercentage[row]));
+        }
+      }
+      for (int i = 0; i < packNames.size(); i++) {
+        action.accept(packNames.get(i), snapshots.get(i));
+      }
+    }
+  }
+
+  /**
+   * Flags packId as ongoing or not, returns false if it already was. An ongoing pack keeps its id
+   * pinned.
+   */
+  boolean setOngoing(int packId, boolean isOngoing) {
+    synchronized (ongoingPackIds) {
+      if (ongoingPackIds.get(packId) == isOngoing) {
+        return false;
+      }
+      ongoingPackIds.set(packId, isOngoing);
+      if (isOngoing) {
+        pinPackId(packId);
+      } else {
+        releasePackId(packId);
+      }
+      return true;
+    }
+  }
+
+  boolean isOngoing(int packId) {
+    synchronized (ongoingPackIds) {
+      return ongoingPackIds.get(packId);
+    }
+  }
+
+  /** Returns the names of all packs currently flagged as ongoing. */
+  List<String> ongoingPackNames() {
+    List<String> packNames = new ArrayList<>();
+    synchronized (ongoingPackIds) {
+      for (int packId = ongoingPackIds.nextSetBit(0);
+          packId >= 0;
+          packId = ongoingPackIds.nextSetBit(packId + 1)) {
+        packNames.add(packNameRegistry.packName(packId));
+      }
+    }
+    return packNames;
+  }
+
+  /**
+   * Configures how terminal states are retained. A non-positive maxRetainedTerminalStates or
+   * terminalStateTtlMs disables the corresponding eviction rule.
+   */
+  void setTerminalStateRetention(int maxRetainedTerminalStates, long terminalStateTtlMs) {
+    this.maxRetainedTerminalStates = maxRetainedTerminalStates;
+    this.terminalStateTtlMs = terminalStateTtlMs;
+  }
+
+  /**
+   * Configures the granularity of progress updates. A progress update is only accepted if it moved
+   * by at least minBytesDelta bytes or minPercentDelta percent, and if at least minIntervalMs
+   * passed since the pack's last accepted update. A non-positive value disables the corresponding
+   * threshold.
+   */
+  void setProgressGranularity(long minBytesDelta, int minPercentDelta, long minIntervalMs) {
+    minProgressBytesDelta = minBytesDelta;
+    minProgressPercentDelta = minPercentDelta;
+    minProgressIntervalMs = minIntervalMs;
+  }
+
+  /**
+   * Evicts terminal rows that are older than the terminal state TTL, then evicts the least recently
+   * updated terminal rows until the retention capacity is respected.
+   */
+  void evictTerminalStates(long nowMs) {
+    long ttlMs = terminalStateTtlMs;
+    if (ttlMs > 0) {
+      for (StateStripe stripe : stateStripes) {
+        synchronized (stripe) {
+          for (int row = stripe.terminalRows.nextSetBit(0);
+              row >= 0;
+              row = stripe.terminalRows.nextSetBit(row + 1)) {
+            if (nowMs - stripe.lastUpdateTimeMs[row] >= ttlMs) {
+              evictRow(stripe, row);
+              expiredEvictionCount.incrementAndGet();
+            }
+          }
+        }
+      }
+    }
+    int maxRetained = maxRetainedTerminalStates;
+    while (maxRetained > 0 && retainedTerminalStateCount.get() > maxRetained) {
+      if (!evictLeastRecentlyUpdatedTerminalRow()) {
+        break;
+      }
+    }
+  }
+
+  /** Returns the state table counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    int ongoingCount;
+    synchronized (ongoingPackIds) {
+      ongoingCount = ongoingPackIds.cardinality();
+    }
+    Dictionary metrics = new Dictionary();
+    metrics.put(RETAINED_STATES_KEY, retainedStateCount.get());
+    metrics.put(RETAINED_TERMINAL_STATES_KEY, retainedTerminalStateCount.get());
+    metrics.put(ONGOING_REQUESTS_KEY, ongoingCount);
+    metrics.put(EXPIRED_EVICTIONS_KEY, expiredEvictionCount.get());
+    metrics.put(CAPACITY_EVICTIONS_KEY, capacityEvictionCount.get());
+    metrics.put(FILTERED_PROGRESS_UPDATES_KEY, filteredProgressUpdateCount.get());
+    return metrics;
+  }
+
+  /** Returns false if there is no terminal row left to evict. */
+  private boolean evictLeastRecentlyUpdatedTerminalRow() {
+    StateStripe oldestStripe = null;
+    int oldestRow = -1;
+    long oldestUpdateTimeMs = Long.MAX_VALUE;
+    for (StateStripe stripe : stateStripes) {
+      synchronized (stripe) {
+        for (int row = stripe.terminalRows.nextSetBit(0);
+            row >= 0;
+            row = stripe.terminalRows.nextSetBit(row + 1)) {
+          if (stripe.lastUpdateTimeMs[row] < oldestUpdateTimeMs) {
+            oldestStripe = stripe;
+            oldestRow = row;
+            oldestUpdateTimeMs = stripe.lastUpdateTimeMs[row];
+          }
+        }
+      }
+    }
+    if (oldestStripe == null) {
+      return false;
+    }
+    synchronized (oldestStripe) {
+      // the row may have been updated or evicted since it was picked
+      if (oldestStripe.terminalRows.get(oldestRow)
+          && oldestStripe.lastUpdateTimeMs[oldestRow] == oldestUpdateTimeMs) {
+        evictRow(oldestStripe, oldestRow);
+        capacityEvictionCount.incrementAndGet();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores the given fields in row and returns the bit flags of the fields that changed, all flags
+   * are set if the row was empty. Returns 0 without storing anything if the update is rejected by
+   * the progress granularity. The caller must hold the stripe's monitor.
+   */
+  private int updateRow(
+      StateStripe stripe,
+      int row,
+      int status,
+      int errorCode,
+      long bytesDownloaded,
+      long totalBytesToDownload,
+      int transferProgressPercentage,
+      long updateTimeMs) {
+    stripe.ensureCapacity(row);
+    stripe.lastUpdateTimeMs[row] = updateTimeMs;
+    boolean isPresent = stripe.presentRows.get(row);
+    int changedFields = 0;
+    if (!isPresent || stripe.status[row] != status) {
+      changedFields |= STATUS_FIELD;
+    }
+    if (!isPresent || stripe.errorCode[row] != errorCode) {
+      changedFields |= ERROR_CODE_FIELD;
+    }
+    if (!isPresent || stripe.bytesDownloaded[row] != bytesDownloaded) {
+      changedFields |= BYTES_DOWNLOADED_FIELD;
+    }
+    if (!isPresent || stripe.totalBytesToDownload[row] != totalBytesToDownload) {
+      changedFields |= TOTAL_BYTES_TO_DOWNLOAD_FIELD;
+    }
+    if (!isPresent || stripe.transferProgressPercentage[row] != transferProgressPercentage) {
+      changedFields |= TRANSFER_PROGRESS_PERCENTAGE_FIELD;
+    }
+    if (changedFields == 0) {
+      return 0;
+    }
+    if (isPresent
+        && isBelowProgressGranularity(
+            stripe,
+            row,
+            status,
+            errorCode,
+            bytesDownloaded,
+            totalBytesToDownload,
+            transferProgressPercentage,
+            updateTimeMs)) {
+      filteredProgressUpdateCount.incrementAndGet();
+      return 0;
+    }
+    stripe.lastChangeTimeMs[row] = updateTimeMs;
+    if (!isPresent) {
+      stripe.presentRows.set(row);
+      retainedStateCount.incrementAndGet();
+    }
+    boolean wasTerminal = stripe.terminalRows.get(row);
+    boolean isTerminal = StateUpdateManager.isTerminalStatus(status);
+    if (wasTerminal != isTerminal) {
+      stripe.terminalRows.set(row, isTerminal);
+      retainedTerminalStateCount.addAndGet(isTerminal ? 1 : -1);
+    }
+    stripe.sequenceNumber[row]++;
+    stripe.status[row] = status;
+    stripe.errorCode[row] = errorCode;
+    stripe.bytesDownloaded[row] = bytesDownloaded;
+    stripe.totalBytesToDownload[row] = totalBytesToDownload;
+    stripe.transferProgressPercentage[row] = transferProgressPercentage;
+    return changedFields;
+  }
+
+  /**
+   * Returns true if the update only moved the progress of an ongoing transfer by less than the
+   * configured granularity. The caller must hold the stripe's monitor.
+   */
+  private boolean isBelowProgressGranularity(
+      StateStripe stripe,
+      int row,
+      int status,
+      int errorCode,
+      long bytesDownloaded,
+      long totalBytesToDownload,
+      int transferProgressPercentage,
+      long updateTimeMs) {
+    if ((status != AssetPackStatus.DOWNLOADING && status != AssetPackStatus.TRANSFERRING)
+        || errorCode != AssetPackErrorCode.NO_ERROR
+        || stripe.status[row] != status
+        || stripe.errorCode[row] != errorCode
+        || stripe.totalBytesToDownload[row] != totalBytesToDownload) {
+      return false;
+    }
+    long minIntervalMs = minProgressIntervalMs;
+    if (minIntervalMs > 0 && updateTimeMs - stripe.lastChangeTimeMs[row] < minIntervalMs) {
+      return true;
+    }
+    long minBytesDelta = minProgressBytesDelta;
+    int minPercentDelta = minProgressPercentDelta;
+    if (minBytesDelta <= 0 && minPercentDelta <= 0) {
+      return false;
+    }
+    if (minBytesDelta > 0
+        && Math.abs(bytesDownloaded - stripe.bytesDownloaded[row]) >= minBytesDelta) {
+      return false;
+    }
+    if (minPercentDelta <= 0) {
+      return true;
+    }
+    int previousPercentage =
+        progressPercentage(
+            status,
+            stripe.bytesDownloaded[row],
+            totalBytesToDownload,
+            stripe.transferProgressPercentage[row]);
+    int percentage =
+        progressPercentage(
+            status, bytesDownloaded, totalBytesToDownload, transferProgressPercentage);
+    return Math.abs(percentage - previousPercentage) < minPercentDelta;
+  }
+
+  /** Returns the download progress of DOWNLOADING packs, or the transfer progress otherwise. */
+  private static int progressPercentage(
+      int status, long bytesDownloaded, long totalBytesToDownload, int transferProgressPercentage) {
+    if (status == AssetPackStatus.TRANSFERRING) {
+      return transferProgressPercentage;
+    }
+    return totalBytesToDownload > 0 ? (int) (bytesDownloaded * 100 / totalBytesToDownload) : 0;
+  }
+
+  /** Forgets the state stored in row, the caller must hold the stripe's monitor. */
+  private void evictRow(StateStripe stripe, int row) {
+    stripe.presentRows.clear(row);
+    stripe.deltaBaseRows.clear(row);
+    retainedStateCount.decrementAndGet();
+    if (stripe.terminalRows.get(row)) {
+      stripe.terminalRows.clear(row);
+      retainedTerminalStateCount.decrementAndGet();
+    }
+    releaseIfUnused(stripe, row);
+  }
+
+  /**
+   * Releases the pack id of row if it has neither a state nor a pin, the caller must hold the
+   * stripe's monitor.
+   */
+  private void releaseIfUnused(StateStripe stripe, int row) {
+    if (!stripe.presentRows.get(row) && stripe.pinCount[row] == 0) {
+      packNameRegistry.release(stripe.packId(row));
+    }
+  }
+
+  private StateStripe stateStripe(int packId) {
+    return stateStripes[packId & STRIPE_MASK];
+  }
+}
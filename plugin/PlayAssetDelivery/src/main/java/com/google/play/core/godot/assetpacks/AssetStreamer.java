@@ -0,0 +1,298 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Streams large assets in sequential chunks, so that they never have to be held in memory at once.
+ * Every stream reads its asset's (path, offset, size) region on a background thread into a ring of
+ * reusable buffers, up to readAheadDepth chunks ahead of delivery. Delivery is flow controlled: at
+ * most readAheadDepth delivered chunks may be unacknowledged, so when Godot falls behind the stream
+ * stops delivering, and once its buffers are full it stops reading as well.
+ */
+final class AssetStreamer {
+  static final String OPEN_STREAMS_KEY = "openStreams";
+  static final String DELIVERED_CHUNKS_KEY = "deliveredChunks";
+  static final String DELIVERED_BYTES_KEY = "deliveredBytes";
+  static final String BACKPRESSURE_WAITS_KEY = "backpressureWaits";
+  static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+  static final int DEFAULT_READ_AHEAD_DEPTH = 4;
+
+  /** Receives the chunks and the end of every stream, on the stream's background thread. */
+  interface StreamListener {
+    /** data may be reused by the stream as soon as this method returns. */
+    void onChunkReady(int streamId, byte[] data);
+
+    void onStreamCompleted(int streamId);
+
+    void onStreamFailed(int streamId, Exception e);
+  }
+
+  private static final class Chunk {
+    final byte[] buffer;
+    final int length;
+
+    Chunk(byte[] buffer, int length) {
+      this.buffer = buffer;
+      this.length = length;
+    }
+  }
+
+  private final class AssetStream implements Runnable {
+    final int streamId;
+    final String path;
+    final long startOffset;
+    final long size;
+    final int chunkSize;
+    // the fields below are guarded by this
+    final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    final ArrayDeque<Chunk> readChunks = new ArrayDeque<>();
+    int credits;
+    long readBytes;
+    boolean isClosed;
+
+    AssetStream(
+        int streamId, String path, long startOffset, long size, int chunkSize, int readAheadDepth) {
+      this.streamId = streamId;
+      this.path = path;
+      this.startOffset = startOffset;
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.credits = readAheadDepth;
+      for (int i = 0; i < readAheadDepth; i++) {
+        freeBuffers.add(new byte[chunkSize]);
+      }
+    }
+
+    @Override
+    public void run() {
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(path, "r")) {
+        FileChannel channel = randomAccessFile.getChannel();
+        while (true) {
+          Chunk chunkToDeliver = null;
+          byte[] bufferToFill = null;
+          synchronized (this) {
+            if (isClosed) {
+              return;
+            }
+            if (credits > 0 && !readChunks.isEmpty()) {
+              chunkToDeliver = readChunks.poll();
+              credits--;
+            } else if (readChunks.isEmpty() && readBytes == size) {
+              break;
+            } else if (readBytes < size && !freeBuffers.isEmpty()) {
+              bufferToFill = freeBuffers.poll();
+            } else {
+              if (credits == 0) {
+                backpressureWaitCount.incrementAndGet();
+              }
+              wait();
+              continue;
+            }
+          }
+          if (chunkToDeliver != null) {
+            deliver(chunkToDeliver);
+          } else {
+            fill(channel, bufferToFill);
+          }
+        }
+      } catch (IOException e) {
+        finish();
+        streamListener.onStreamFailed(streamId, e);
+        return;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      finish();
+      streamListener.onStreamCompleted(streamId);
+    }
+
+    synchronized void acknowledge() {
+      credits++;
+      notifyAll();
+    }
+
+    synchronized void close() {
+      isClosed = true;
+      notifyAll();
+    }
+
+    private void fill(FileChannel channel, byte[] buffer) throws IOException {
+      long position;
+      int length;
+      synchronized (this) {
+        position = startOffset + readBytes;
+        length = (int) Math.min(chunkSize, size - readBytes);
+      }
+      ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+      while (target.hasRemaining()) {
+        if (channel.read(target, position + target.position()) < 0) {
+          throw new EOFException(path + " ended before the end of the asset");
+        }
+      }
+      synchronized (this) {
+        readBytes += length;
+        readChunks.add(new Chunk(buffer, length));
+      }
+    }
+
+    private void deliver(Chunk chunk) {
+      // only the last chunk of an asset is shorter than the buffers of the ring
+      byte[] data = chunk.length == chunk.buffer.length ? chunk.buffer : copyOf(chunk);
+      streamListener.onChunkReady(streamId, data);
+      deliveredChunkCount.incrementAndGet();
+      deliveredByteCount.addAndGet(chunk.length);
+      synchronized (this) {
+        freeBuffers.add(chunk.buffer);
+      }
+    }
+
+    private void finish() {
+      synchronized (streams) {
+        streams.remove(streamId);
+      }
+    }
+  }
+
+  private final AssetLocationIndex assetLocationIndex;
+  private final StreamListener streamListener;
+  private final ExecutorService streamExecutor =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread streamThread = new Thread(runnable, "AssetStreamer");
+            streamThread.setDaemon(true);
+            return streamThread;
+          });
+  // open streams keyed by their id, guarded by itself
+  private final Map<Integer, AssetStream> streams = new HashMap<>();
+  private int nextStreamId;
+  private final AtomicLong deliveredChunkCount = new AtomicLong();
+  private final AtomicLong deliveredByteCount = new AtomicLong();
+  private final AtomicLong backpressureWaitCount = new AtomicLong();
+
+  AssetStreamer(AssetLocationIndex assetLocationIndex, StreamListener streamListener) {
+    this.assetLocationIndex = assetLocationIndex;
+    this.streamListener = streamListener;
+  }
+
+  /**
+   * Starts streaming assetPath in packName in chunks of chunkSize bytes. Non-positive arguments
+   * fall back to DEFAULT_CHUNK_SIZE and DEFAULT_READ_AHEAD_DEPTH.
+   *
+   * @return id of the new stream, or -1 if the asset does not exist
+   */
+  int open(String packName, String assetPath, int chunkSize, int readAheadDepth) {
+    Dictionary assetLocation = assetLocationIndex.getAssetLocation(packName, assetPath);
+    if (assetLocation == null) {
+      return -1;
+    }
+    long size = (long) assetLocation.get(AssetLocationFromDictionary.SIZE_KEY);
+    int effectiveChunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    AssetStream stream;
+    synchronized (streams) {
+      int streamId = nextStreamId++;
+      stream =
+          new AssetStream(
+              streamId,
+              (String) assetLocation.get(AssetLocationFromDictionary.PATH_KEY),
+              (long) assetLocation.get(AssetLocationFromDictionary.OFFSET_KEY),
+              size,
+              (int) Math.min(effectiveChunkSize, Math.max(size, 1)),
+              readAheadDepth > 0 ? readAheadDepth : DEFAULT_READ_AHEAD_DEPTH);
+      streams.put(streamId, stream);
+    }
+    streamExecutor.execute(stream);
+    return stream.streamId;
+  }
+
+  /**
+   * Acknowledges that Godot consumed a chunk of streamId, allowing the stream to deliver another.
+   *
+   * @return false if streamId is not open
+   */
+  boolean acknowledge(int streamId) {
+    AssetStream stream;
+    synchronized (streams) {
+      stream = streams.get(streamId);
+    }
+    if (stream == null) {
+      return false;
+    }
+    stream.acknowledge();
+    return true;
+  }
+
+  /**
+   * Stops streamId without delivering further chunks.
+   *
+   * @return false if streamId is not open
+   */
+  boolean close(int streamId) {
+    AssetStream stream;
+    synchronized (streams) {
+      stream = streams.remove(streamId);
+    }
+    if (stream == null) {
+      return false;
+    }
+    stream.close();
+    return true;
+  }
+
+  /** Closes every stream and stops the stream threads. */
+  void shutdown() {
+    synchronized (streams) {
+      for (AssetStream stream : streams.values()) {
+        stream.close();
+      }
+      streams.clear();
+    }
+    streamExecutor.shutdownNow();
+  }
+
+  /** Returns the streaming counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (streams) {
+      metrics.put(OPEN_STREAMS_KEY, streams.size());
+    }
+    metrics.put(DELIVERED_CHUNKS_KEY, deliveredChunkCount.get());
+    metrics.put(DELIVERED_BYTES_KEY, deliveredByteCount.get());
+    metrics.put(BACKPRESSURE_WAITS_KEY, backpressureWaitCount.get());
+    return metrics;
+  }
+
+  private static byte[] copyOf(Chunk chunk) {
+    byte[] data = new byte[chunk.length];
+    System.arraycopy(chunk.buffer, 0, data, 0, chunk.length);
+    return data;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replaces the files persisted by the plugin. The new content is written to a temporary file next
+ * to the target, synced to disk and renamed over the target, so that a crash never leaves a
+ * partially written file behind, and readers see either the previous content or the new one.
+ */
+final class AtomicFileWriter {
+  static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+  /** Writes the new content of a file to a buffered stream, which is flushed afterwards. */
+  interface ContentWriter {
+    void write(OutputStream output) throws IOException;
+  }
+
+  private AtomicFileWriter() {}
+
+  /** Replaces file with the content written by contentWriter. */
+  static void write(File file, ContentWriter contentWriter) throws IOException {
+    File temporaryFile = new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+    try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile)) {
+      BufferedOutputStream output = new BufferedOutputStream(fileOutput);
+      contentWriter.write(output);
+      output.flush();
+      fileOutput.getFD().sync();
+    }
+    rename(temporaryFile, file);
+  }
+
+  /** Replaces file with the remaining bytes of buffers, which are written in order. */
+  static void write(File file, ByteBuffer... buffers) throws IOException {
+    File temporaryFile = new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+    try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile)) {
+      FileChannel channel = fileOutput.getChannel();
+      for (ByteBuffer buffer : buffers) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      fileOutput.getFD().sync();
+    }
+    rename(temporaryFile, file);
+  }
+
+  private static void rename(File temporaryFile, File file) throws IOException {
+    if (!temporaryFile.renameTo(file)) {
+      temporaryFile.delete();
+      throw new IOException("Failed to replace " + file);
+    }
+  }
+}
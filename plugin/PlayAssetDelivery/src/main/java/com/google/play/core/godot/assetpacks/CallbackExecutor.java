@@ -0,0 +1,218 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Executor for the callbacks of Play Core Tasks and of the global state listener, so that
+ * converting results to Dictionary and emitting signals does not happen on the Android main thread.
+ * Callbacks run on a bounded pool of worker threads, queuing without a bound while all of them are
+ * busy. Only while no worker thread is configured does a callback run on the calling thread.
+ */
+final class CallbackExecutor implements Executor {
+  static final String QUEUE_DEPTH_KEY = "queueDepth";
+  static final String MAX_QUEUE_DEPTH_KEY = "maxQueueDepth";
+  static final String EXECUTED_CALLBACKS_KEY = "executedCallbacks";
+  static final String CALLER_THREAD_RUNS_KEY = "callerThreadRuns";
+  static final String AVERAGE_QUEUE_LATENCY_US_KEY = "averageQueueLatencyUs";
+  static final String MAX_QUEUE_LATENCY_US_KEY = "maxQueueLatencyUs";
+  static final String AVERAGE_CALLBACK_DURATION_US_KEY = "averageCallbackDurationUs";
+  /**
+   * A single worker keeps callbacks in the order the Play Core Library posted them, e.g. a
+   * fetchSuccess signal still follows the assetPackStateUpdated signal of the same pack.
+   */
+  static final int DEFAULT_WORKER_THREAD_COUNT = 1;
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  // null while callbacks run on the calling thread
+  private volatile ThreadPoolExecutor workerPool;
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong executedCallbackCount = new AtomicLong();
+  private final AtomicLong callerThreadRunCount = new AtomicLong();
+  private final AtomicLong totalQueueLatencyNs = new AtomicLong();
+  private final AtomicLong maxQueueLatencyNs = new AtomicLong();
+  private final AtomicLong totalCallbackDurationNs = new AtomicLong();
+
+  /** Runs the submitted callbacks one at a time, in submission order, on the worker pool. */
+  private final class SerialExecutor implements Executor {
+    // guarded by itself
+    private final ArrayDeque<Runnable> pendingCallbacks = new ArrayDeque<>();
+    private boolean isDraining;
+
+    @Override
+    public void execute(Runnable callback) {
+      long enqueueTimeNs = onEnqueued();
+      synchronized (pendingCallbacks) {
+        pendingCallbacks.add(() -> runCallback(callback, enqueueTimeNs));
+        if (isDraining) {
+          return;
+        }
+        isDraining = true;
+      }
+      submit(this::drain);
+    }
+
+    private void drain() {
+      boolean isDrained = false;
+      try {
+        while (true) {
+          Runnable callback;
+          synchronized (pendingCallbacks) {
+            callback = pendingCallbacks.poll();
+            if (callback == null) {
+              isDraining = false;
+              isDrained = true;
+              return;
+            }
+          }
+          callback.run();
+        }
+      } finally {
+        if (!isDrained) {
+          // a callback threw, drain the callbacks queued behind it in a new task
+          submit(this::drain);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the number of worker threads running callbacks. Zero runs every callback on the thread
+   * that completed the Task, which is the Android main thread. Callbacks already queued on the
+   * previous pool still run there.
+   */
+  synchronized void setWorkerThreadCount(int workerThreadCount) {
+    ThreadPoolExecutor previousWorkerPool = workerPool;
+    if (workerThreadCount > 0) {
+      ThreadPoolExecutor newWorkerPool =
+          new ThreadPoolExecutor(
+              workerThreadCount,
+              workerThreadCount,
+              KEEP_ALIVE_SECONDS,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              runnable -> {
+                Thread workerThread = new Thread(runnable, "CallbackExecutor");
+                workerThread.setDaemon(true);
+                return workerThread;
+              });
+      newWorkerPool.allowCoreThreadTimeOut(true);
+      workerPool = newWorkerPool;
+    } else {
+      workerPool = null;
+    }
+    if (previousWorkerPool != null) {
+      previousWorkerPool.shutdown();
+    }
+  }
+
+  /**
+   * Returns an executor that runs its callbacks in submission order on this executor's workers, for
+   * callbacks that must never be reordered, like the updates of the global state listener.
+   */
+  Executor newSerialExecutor() {
+    return new SerialExecutor();
+  }
+
+  @Override
+  public void execute(Runnable callback) {
+    long enqueueTimeNs = onEnqueued();
+    submit(() -> runCallback(callback, enqueueTimeNs));
+  }
+
+  /** Stops accepting work on the worker pool, letting the callbacks already queued finish. */
+  synchronized void shutdown() {
+    if (workerPool != null) {
+      workerPool.shutdown();
+      workerPool = null;
+    }
+  }
+
+  /** Returns the executor counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    long executedCallbacks = executedCallbackCount.get();
+    Dictionary metrics = new Dictionary();
+    metrics.put(QUEUE_DEPTH_KEY, queueDepth.get());
+    metrics.put(MAX_QUEUE_DEPTH_KEY, maxQueueDepth.get());
+    metrics.put(EXECUTED_CALLBACKS_KEY, executedCallbacks);
+    metrics.put(CALLER_THREAD_RUNS_KEY, callerThreadRunCount.get());
+    metrics.put(
+        AVERAGE_QUEUE_LATENCY_US_KEY,
+        executedCallbacks == 0
+            ? 0L
+            : TimeUnit.NANOSECONDS.toMicros(totalQueueLatencyNs.get() / executedCallbacks));
+    metrics.put(MAX_QUEUE_LATENCY_US_KEY, TimeUnit.NANOSECONDS.toMicros(maxQueueLatencyNs.get()));
+    metrics.put(
+        AVERAGE_CALLBACK_DURATION_US_KEY,
+        executedCallbacks == 0
+            ? 0L
+            : TimeUnit.NANOSECONDS.toMicros(totalCallbackDurationNs.get() / executedCallbacks));
+    return metrics;
+  }
+
+  private long onEnqueued() {
+    int depth = queueDepth.incrementAndGet();
+    int maxDepth = maxQueueDepth.get();
+    while (depth > maxDepth && !maxQueueDepth.compareAndSet(maxDepth, depth)) {
+      maxDepth = maxQueueDepth.get();
+    }
+    return System.nanoTime();
+  }
+
+  private void submit(Runnable runnable) {
+    ThreadPoolExecutor pool = workerPool;
+    if (pool != null) {
+      try {
+        pool.execute(runnable);
+        return;
+      } catch (RejectedExecutionException e) {
+        // the pool was shut down concurrently, run on the calling thread below
+      }
+    }
+    callerThreadRunCount.incrementAndGet();
+    runnable.run();
+  }
+
+  private void runCallback(Runnable callback, long enqueueTimeNs) {
+    long startTimeNs = System.nanoTime();
+    queueDepth.decrementAndGet();
+    long queueLatencyNs = startTimeNs - enqueueTimeNs;
+    totalQueueLatencyNs.addAndGet(queueLatencyNs);
+    long maxLatencyNs = maxQueueLatencyNs.get();
+    while (queueLatencyNs > maxLatencyNs
+        && !maxQueueLatencyNs.compareAndSet(maxLatencyNs, queueLatencyNs)) {
+      maxLatencyNs = maxQueueLatencyNs.get();
+    }
+    try {
+      callback.run();
+    } finally {
+      totalCallbackDurationNs.addAndGet(System.nanoTime() - startTimeNs);
+      executedCallbackCount.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, since java.util.zip.CRC32C is only available from API level 26.
+ * Uses the slicing-by-8 algorithm, which consumes 8 bytes per step through 8 lookup tables.
+ */
+final class Crc32c implements Checksum {
+  private static final int POLYNOMIAL = 0x82F63B78; // reversed Castagnoli polynomial
+  private static final int[][] TABLES = new int[8][256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLES[0][i] = crc;
+    }
+    for (int i = 0; i < 256; i++) {
+      for (int table = 1; table < 8; table++) {
+        int previous = TABLES[table - 1][i];
+        TABLES[table][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+      }
+    }
+  }
+
+  // bit-inverted running checksum
+  private int crc = 0xFFFFFFFF;
+
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+  }
+
+  @Override
+  public void update(byte[] bytes, int offset, int length) {
+    int position = offset;
+    int end = offset + length;
+    int value = crc;
+    for (; position + 8 <= end; position += 8) {
+      int low =
+          value
+              ^ ((bytes[position] & 0xFF)
+                  | (bytes[position + 1] & 0xFF) << 8
+                  | (bytes[position + 2] & 0xFF) << 16
+                  | (bytes[position + 3] & 0xFF) << 24);
+      value =
+          TABLES[7][low & 0xFF]
+              ^ TABLES[6][(low >>> 8) & 0xFF]
+              ^ TABLES[5][(low >>> 16) & 0xFF]
+              ^ TABLES[4][low >>> 24]
+              ^ TABLES[3][bytes[position + 4] & 0xFF]
+              ^ TABLES[2][bytes[position + 5] & 0xFF]
+              ^ TABLES[1][bytes[position + 6] & 0xFF]
+              ^ TABLES[0][bytes[position + 7] & 0xFF];
+    }
+    for (; position < end; position++) {
+      value = (value >>> 8) ^ TABLES[0][(value ^ bytes[position]) & 0xFF];
+    }
+    crc = value;
+  }
+
+  @Override
+  public long getValue() {
+    return ~crc & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xFFFFFFFF;
+  }
+}
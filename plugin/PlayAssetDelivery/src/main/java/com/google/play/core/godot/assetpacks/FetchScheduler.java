@@ -0,0 +1,183 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Queues prioritized fetch requests and limits how many of them are in flight at once, so that the
+ * pack needed next does not compete for bandwidth with every other requested pack. A fetch is in
+ * flight from its submission until its pack reaches a terminal state or its Task fails. Requests
+ * with a higher priority are submitted first, and requests of equal priority in arrival order.
+ * Fetches of the same pack share one slot: a fetch of a pack that is already in flight is submitted
+ * right away, and a pack that gets a slot takes all of its queued fetches along, so that each
+ * request still receives its own signal.
+ */
+final class FetchScheduler {
+  static final String QUEUED_FETCHES_KEY = "queuedFetches";
+  static final String IN_FLIGHT_FETCHES_KEY = "inFlightFetches";
+  static final String SUBMITTED_FETCHES_KEY = "submittedFetches";
+  static final String REPRIORITIZED_FETCHES_KEY = "reprioritizedFetches";
+  /** No limit by default, so that every fetch starts right away as it did before. */
+  static final int DEFAULT_MAX_IN_FLIGHT_FETCHES = 0;
+
+  /** Submits a fetch of a single asset pack to the Play Core Library. */
+  interface FetchSubmitter {
+    void submit(String packName, int signalID);
+  }
+
+  private static final class QueuedFetch {
+    final String packName;
+    final int signalID;
+    final long sequenceNumber;
+    int priority;
+
+    QueuedFetch(String packName, int signalID, int priority, long sequenceNumber) {
+      this.packName = packName;
+      this.signalID = signalID;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+
+  private final FetchSubmitter fetchSubmitter;
+  // the fields below are guarded by this
+  private final PriorityQueue<QueuedFetch> queuedFetches =
+      new PriorityQueue<>(
+          11,
+          (first, second) ->
+              first.priority != second.priority
+                  ? Integer.compare(second.priority, first.priority)
+                  : Long.compare(first.sequenceNumber, second.sequenceNumber));
+  private final Set<String> inFlightPackNames = new HashSet<>();
+  private int maxInFlightFetches = DEFAULT_MAX_IN_FLIGHT_FETCHES;
+  private long nextSequenceNumber;
+  private final AtomicLong submittedFetchCount = new AtomicLong();
+  private final AtomicLong reprioritizedFetchCount = new AtomicLong();
+
+  FetchScheduler(FetchSubmitter fetchSubmitter) {
+    this.fetchSubmitter = fetchSubmitter;
+  }
+
+  /**
+   * Sets how many scheduled fetches may be in flight at once. A non-positive value removes the
+   * limit, submitting every queued fetch right away.
+   */
+  void setMaxInFlightFetches(int maxInFlightFetches) {
+    synchronized (this) {
+      this.maxInFlightFetches = maxInFlightFetches;
+    }
+    submitQueuedFetches();
+  }
+
+  /**
+   * Queues a fetch of packName, and submits it right away if a slot is free or if packName is
+   * already in flight.
+   */
+  void schedule(String packName, int priority, int signalID) {
+    boolean isInFlight;
+    synchronized (this) {
+      isInFlight = inFlightPackNames.contains(packName);
+      if (!isInFlight) {
+        queuedFetches.add(new QueuedFetch(packName, signalID, priority, nextSequenceNumber++));
+      }
+    }
+    if (isInFlight) {
+      submittedFetchCount.incrementAndGet();
+      fetchSubmitter.submit(packName, signalID);
+      return;
+    }
+    submitQueuedFetches();
+  }
+
+  /**
+   * Changes the priority of the queued fetches of packName.
+   *
+   * @return false if no fetch of packName is queued, e.g. because it was already submitted
+   */
+  synchronized boolean reprioritize(String packName, int priority) {
+    List<QueuedFetch> reprioritizedFetches = new ArrayList<>();
+    Iterator<QueuedFetch> iterator = queuedFetches.iterator();
+    while (iterator.hasNext()) {
+      QueuedFetch queuedFetch = iterator.next();
+      if (queuedFetch.packName.equals(packName)) {
+        iterator.remove();
+        queuedFetch.priority = priority;
+        reprioritizedFetches.add(queuedFetch);
+      }
+    }
+    queuedFetches.addAll(reprioritizedFetches);
+    reprioritizedFetchCount.addAndGet(reprioritizedFetches.size());
+    return !reprioritizedFetches.isEmpty();
+  }
+
+  /**
+   * Releases the slot of packName once its fetch finished, either because the pack reached a
+   * terminal state or because its Task failed, and submits the next queued fetch.
+   */
+  void onFetchFinished(String packName) {
+    synchronized (this) {
+      if (!inFlightPackNames.remove(packName)) {
+        return;
+      }
+    }
+    submitQueuedFetches();
+  }
+
+  /** Returns the scheduler counters serialized as Dictionary. */
+  synchronized Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(QUEUED_FETCHES_KEY, queuedFetches.size());
+    metrics.put(IN_FLIGHT_FETCHES_KEY, inFlightPackNames.size());
+    metrics.put(SUBMITTED_FETCHES_KEY, submittedFetchCount.get());
+    metrics.put(REPRIORITIZED_FETCHES_KEY, reprioritizedFetchCount.get());
+    return metrics;
+  }
+
+  private void submitQueuedFetches() {
+    List<QueuedFetch> fetchesToSubmit = new ArrayList<>();
+    synchronized (this) {
+      while (!queuedFetches.isEmpty()
+          && (maxInFlightFetches <= 0 || inFlightPackNames.size() < maxInFlightFetches)) {
+        QueuedFetch queuedFetch = queuedFetches.poll();
+        inFlightPackNames.add(queuedFetch.packName);
+        fetchesToSubmit.add(queuedFetch);
+        // the other queued fetches of the pack join its slot
+        Iterator<QueuedFetch> iterator = queuedFetches.iterator();
+        while (iterator.hasNext()) {
+          QueuedFetch otherFetch = iterator.next();
+          if (otherFetch.packName.equals(queuedFetch.packName)) {
+            iterator.remove();
+            fetchesToSubmit.add(otherFetch);
+          }
+        }
+      }
+    }
+    // Submitted outside of the lock, since Task listeners may call back into the scheduler.
+    for (QueuedFetch queuedFetch : fetchesToSubmit) {
+      submittedFetchCount.incrementAndGet();
+      fetchSubmitter.submit(queuedFetch.packName, queuedFetch.signalID);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Reads assets through read-only memory mappings of their backing files, so that assets of
+ * APK_ASSETS packs are read without opening the APK and copying it through a stream. Each backing
+ * file is mapped once and kept in a small LRU, and every read hands out a view of the asset's
+ * region of that mapping. A mapping is replaced as soon as the length or modification time of its
+ * file changes, e.g. because the pack was updated.
+ */
+final class MappedAssetReader {
+  static final String MAPPED_FILES_KEY = "mappedFiles";
+  static final String MAPPINGS_KEY = "mappings";
+  static final String READS_KEY = "reads";
+  static final String BYTES_READ_KEY = "bytesRead";
+  static final int MAX_MAPPED_FILES = 16;
+
+  private static final String TAG = "MappedAssetReader";
+
+  private static final class MappedFile {
+    final MappedByteBuffer buffer;
+    final long length;
+    final long lastModified;
+
+    MappedFile(MappedByteBuffer buffer, long length, long lastModified) {
+      this.buffer = buffer;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+
+  private final AssetLocationIndex assetLocationIndex;
+  // mappings keyed by the path of their backing file, guarded by this
+  private final LinkedHashMap<String, MappedFile> mappedFiles =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong mappingCount = new AtomicLong();
+  private final AtomicLong readCount = new AtomicLong();
+  private final AtomicLong bytesReadCount = new AtomicLong();
+
+  MappedAssetReader(AssetLocationIndex assetLocationIndex) {
+    this.assetLocationIndex = assetLocationIndex;
+  }
+
+  /**
+   * Returns a read-only view of the bytes of assetPath in packName, or null if the asset does not
+   * exist. The view covers rangeLength bytes starting rangeOffset bytes into the asset, clamped to
+   * the asset's bounds. A negative rangeLength reads until the end of the asset.
+   */
+  ByteBuffer map(String packName, String assetPath, long rangeOffset, long rangeLength)
+      throws IOException {
+    Dictionary assetLocation = assetLocationIndex.getAssetLocation(packName, assetPath);
+    if (assetLocation == null) {
+      return null;
+    }
+    long assetOffset = (long) assetLocation.get(AssetLocationFromDictionary.OFFSET_KEY);
+    long assetSize = (long) assetLocation.get(AssetLocationFromDictionary.SIZE_KEY);
+    long viewOffset = Math.min(Math.max(rangeOffset, 0), assetSize);
+    long viewLength = assetSize - viewOffset;
+    if (rangeLength >= 0) {
+      viewLength = Math.min(rangeLength, viewLength);
+    }
+
+    ByteBuffer view =
+        mappedFile((String) assetLocation.get(AssetLocationFromDictionary.PATH_KEY))
+            .buffer
+            .duplicate();
+    long viewStart = assetOffset + viewOffset;
+    if (viewStart + viewLength > view.capacity()) {
+      throw new IOException("Asset " + assetPath + " exceeds its backing file");
+    }
+    view.position((int) viewStart);
+    view.limit((int) (viewStart + viewLength));
+    readCount.incrementAndGet();
+    bytesReadCount.addAndGet(viewLength);
+    return view.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the bytes of assetPath in packName that map() returns into a byte array, which Godot
+   * receives as PoolByteArray. Returns null if the asset does not exist or cannot be mapped.
+   */
+  byte[] read(String packName, String assetPath, long rangeOffset, long rangeLength) {
+    ByteBuffer view;
+    try {
+      view = map(packName, assetPath, rangeOffset, rangeLength);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to map asset " + assetPath + " of pack " + packName, e);
+      return null;
+    }
+    if (view == null) {
+      return null;
+    }
+    byte[] bytes = new byte[view.remaining()];
+    view.get(bytes);
+    return bytes;
+  }
+
+  /** Drops every mapping, so that its memory can be reclaimed once no view of it is left. */
+  synchronized void clear() {
+    mappedFiles.clear();
+  }
+
+  /** Returns the reader counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (this) {
+      metrics.put(MAPPED_FILES_KEY, mappedFiles.size());
+    }
+    metrics.put(MAPPINGS_KEY, mappingCount.get());
+    metrics.put(READS_KEY, readCount.get());
+    metrics.put(BYTES_READ_KEY, bytesReadCount.get());
+    return metrics;
+  }
+
+  private synchronized MappedFile mappedFile(String path) throws IOException {
+    File file = new File(path);
+    long length = file.length();
+    long lastModified = file.lastModified();
+    MappedFile mappedFile = mappedFiles.get(path);
+    if (mappedFile != null
+        && mappedFile.length == length
+        && mappedFile.lastModified == lastModified) {
+      return mappedFile;
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException(path + " is too large to be mapped");
+    }
+    // the mapping stays valid after the channel is closed
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      mappedFile =
+          new MappedFile(
+              randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length),
+              length,
+              lastModified);
+    }
+    mappingCount.incrementAndGet();
+    mappedFiles.put(path, mappedFile);
+    Iterator<String> iterator = mappedFiles.keySet().iterator();
+    while (mappedFiles.size() > MAX_MAPPED_FILES && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+    return mappedFile;
+  }
+}
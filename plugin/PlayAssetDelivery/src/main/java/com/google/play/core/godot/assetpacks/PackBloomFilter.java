@@ -0,0 +1,157 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Bloom filter over the asset paths of one installed STORAGE_FILES asset pack, which tells for
+ * certain that a pack does not hold an asset with a few bit tests, without a lookup. It answers
+ * "might contain" for about one in a hundred absent paths, using 10 bits and 7 probes per asset.
+ * Probes are derived from a single 64-bit hash of the path by double hashing. Like a
+ * PackContentManifest, the filter records the path of the pack it was built from.
+ *
+ * <pre>
+ * file: int MAGIC, int VERSION, int hashCount, int packPathLength, int wordCount,
+ *       byte[packPathLength] UTF-8 packPath, long[wordCount] bits
+ * </pre>
+ */
+final class PackBloomFilter {
+  static final String FILTER_FILE_EXTENSION = ".bloom";
+  static final int BITS_PER_ASSET = 10;
+  static final int HASH_COUNT = 7;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAGIC = 0x50414246; // "PABF"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 5 * 4;
+
+  private final long[] words;
+  private final long bitCount;
+  private final int hashCount;
+  private final String packPath;
+
+  private PackBloomFilter(long[] words, int hashCount, String packPath) {
+    this.words = words;
+    this.bitCount = (long) words.length * Long.SIZE;
+    this.hashCount = hashCount;
+    this.packPath = packPath;
+  }
+
+  /** Returns an empty filter sized for assetCount assets of the pack at packPath. */
+  static PackBloomFilter create(int assetCount, String packPath) {
+    long bitCount = Math.max((long) assetCount * BITS_PER_ASSET, Long.SIZE);
+    return new PackBloomFilter(
+        new long[(int) ((bitCount + Long.SIZE - 1) / Long.SIZE)], HASH_COUNT, packPath);
+  }
+
+  /** Returns a filter holding every asset path of manifest. */
+  static PackBloomFilter fromManifest(PackContentManifest manifest) {
+    PackBloomFilter filter = create(manifest.entryCount(), manifest.packPath());
+    for (int index = 0; index < manifest.entryCount(); index++) {
+      filter.add(manifest.path(index));
+    }
+    return filter;
+  }
+
+  /** Reads filterFile, and throws if it is not a complete filter of this version. */
+  static PackBloomFilter read(File filterFile) throws IOException {
+    try (DataInputStream input = new DataInputStream(new FileInputStream(filterFile))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException(filterFile + " is not an asset pack Bloom filter");
+      }
+      int hashCount = input.readInt();
+      int packPathLength = input.readInt();
+      int wordCount = input.readInt();
+      if (hashCount <= 0
+          || packPathLength < 0
+          || wordCount <= 0
+          || HEADER_SIZE + packPathLength + (long) wordCount * 8 != filterFile.length()) {
+        throw new IOException(filterFile + " is truncated");
+      }
+      byte[] packPath = new byte[packPathLength];
+      input.readFully(packPath);
+      long[] words = new long[wordCount];
+      for (int i = 0; i < wordCount; i++) {
+        words[i] = input.readLong();
+      }
+      return new PackBloomFilter(words, hashCount, new String(packPath, UTF_8));
+    }
+  }
+
+  /** Writes this filter to filterFile through AtomicFileWriter. */
+  void write(File filterFile) throws IOException {
+    byte[] packPathBytes = packPath.getBytes(UTF_8);
+    ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + packPathBytes.length + words.length * 8);
+    content.putInt(MAGIC).putInt(VERSION).putInt(hashCount);
+    content.putInt(packPathBytes.length).putInt(words.length).put(packPathBytes);
+    content.asLongBuffer().put(words);
+    content.clear();
+    AtomicFileWriter.write(filterFile, content);
+  }
+
+  /** Returns AssetPackLocation.path() of the pack at the time the filter was built. */
+  String packPath() {
+    return packPath;
+  }
+
+  void add(String assetPath) {
+    long hash = hash(PackContentManifest.normalize(assetPath));
+    for (int i = 0; i < hashCount; i++) {
+      long bit = bitIndex(hash, i);
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /** Returns false if the pack certainly does not hold assetPath. */
+  boolean mightContain(String assetPath) {
+    long hash = hash(PackContentManifest.normalize(assetPath));
+    for (int i = 0; i < hashCount; i++) {
+      long bit = bitIndex(hash, i);
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long bitIndex(long hash, int probe) {
+    // h1 + i * h2, where h2 is odd so that the probes of a path never collapse
+    long combined = (int) hash + probe * ((hash >>> 32) | 1);
+    return (combined & Long.MAX_VALUE) % bitCount;
+  }
+
+  /** FNV-1a over the chars of path, followed by the 64-bit finalizer of MurmurHash3. */
+  private static long hash(String path) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < path.length(); i++) {
+      hash ^= path.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
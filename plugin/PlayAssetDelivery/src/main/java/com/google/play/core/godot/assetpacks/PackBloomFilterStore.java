@@ -0,0 +1,249 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Keeps the PackBloomFilter of every installed STORAGE_FILES pack, so that AssetLocationIndex
+ * answers lookups of absent assets, which are most lookups when optional or overriding packs are
+ * probed, without touching the pack. A filter is built from the pack's PackContentManifest as soon
+ * as that is built after the pack reached COMPLETED, and persisted next to the pack states, from
+ * where the first lookup of a later process has it read on the build executor. Lookups never touch
+ * the disk themselves. Filters of an older version of a pack are ignored and rebuilt. A pack whose
+ * filter cannot be built, because its manifest is missing, is not retried by later lookups until
+ * its manifest is built or its pack path changes. The filter of a removed pack is deleted with it.
+ * Counts the lookups the filters saved and how many absent assets they let through, from which the
+ * observed false-positive rate follows.
+ */
+final class PackBloomFilterStore implements PackContentManifestStore.ManifestListener {
+  static final String FILTER_DIRECTORY_NAME = "pack_bloom_filters";
+  static final String LOADED_FILTERS_KEY = "loadedFilters";
+  static final String BUILDS_KEY = "builds";
+  static final String LOADS_KEY = "loads";
+  static final String SAVED_LOOKUPS_KEY = "savedLookups";
+  static final String FALSE_POSITIVES_KEY = "falsePositives";
+  static final String FALSE_POSITIVE_RATE_KEY = "falsePositiveRate";
+
+  private static final String TAG = "PackBloomFilterStore";
+
+  private final PackContentManifestStore packContentManifestStore;
+  private final Executor buildExecutor;
+  private volatile File filterDirectory;
+  // the fields below are guarded by this
+  private final Map<String, PackBloomFilter> filters = new HashMap<>();
+  // packs whose filter is being built, so that a build is only scheduled once
+  private final Set<String> pendingBuilds = new HashSet<>();
+  // pack paths keyed by pack name, for which no filter could be built for lack of a manifest
+  private final Map<String, String> unavailablePackPaths = new HashMap<>();
+  private final AtomicLong buildCount = new AtomicLong();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final AtomicLong savedLookupCount = new AtomicLong();
+  private final AtomicLong falsePositiveCount = new AtomicLong();
+
+  PackBloomFilterStore(PackContentManifestStore packContentManifestStore, Executor buildExecutor) {
+    this.packContentManifestStore = packContentManifestStore;
+    this.buildExecutor = buildExecutor;
+  }
+
+  /** Stores filters below filterDirectory. Until it is set, no filter is built. */
+  void setFilterDirectory(File filterDirectory) {
+    this.filterDirectory = filterDirectory;
+  }
+
+  /**
+   * Returns the filter of the installed version of packName, or null if packName is not an
+   * installed STORAGE_FILES pack or its filter is not built yet.
+   *
+   * @param packLocation the serialized location of packName, or null if it is not installed
+   */
+  PackBloomFilter getFilter(String packName, Dictionary packLocation) {
+    File directory = filterDirectory;
+    if (directory == null) {
+      return null;
+    }
+    String packPath = storageFilesPackPath(packLocation);
+    if (packPath == null) {
+      return null;
+    }
+    synchronized (this) {
+      PackBloomFilter filter = filters.get(packName);
+      if (filter != null && filter.packPath().equals(packPath)) {
+        return filter;
+      }
+      if (packPath.equals(unavailablePackPaths.get(packName))) {
+        return null;
+      }
+    }
+    scheduleBuild(packName, packPath);
+    return null;
+  }
+
+  /** Counts a lookup answered by a filter alone. */
+  void onLookupSaved() {
+    savedLookupCount.incrementAndGet();
+  }
+
+  /** Counts an absent asset that a filter reported as possibly present. */
+  void onFalsePositive() {
+    falsePositiveCount.incrementAndGet();
+  }
+
+  @Override
+  public void onManifestBuilt(String packName, PackContentManifest manifest) {
+    synchronized (this) {
+      unavailablePackPaths.remove(packName);
+    }
+    if (filterDirectory != null) {
+      scheduleBuild(packName, manifest.packPath());
+    }
+  }
+
+  /**
+   * Forgets the filter of packName, which was removed from the device, and deletes its file on the
+   * build thread.
+   */
+  void onPackRemoved(String packName) {
+    synchronized (this) {
+      filters.remove(packName);
+      unavailablePackPaths.remove(packName);
+    }
+    File directory = filterDirectory;
+    if (directory != null) {
+      buildExecutor.execute(() -> filterFile(directory, packName).delete());
+    }
+  }
+
+  /** Returns the filter counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (this) {
+      metrics.put(LOADED_FILTERS_KEY, filters.size());
+    }
+    long savedLookups = savedLookupCount.get();
+    long falsePositives = falsePositiveCount.get();
+    metrics.put(BUILDS_KEY, buildCount.get());
+    metrics.put(LOADS_KEY, loadCount.get());
+    metrics.put(SAVED_LOOKUPS_KEY, savedLookups);
+    metrics.put(FALSE_POSITIVES_KEY, falsePositives);
+    // the share of absent assets that the filters let through
+    metrics.put(
+        FALSE_POSITIVE_RATE_KEY,
+        savedLookups + falsePositives == 0
+            ? 0.0
+            : (double) falsePositives / (savedLookups + falsePositives));
+    return metrics;
+  }
+
+  /** Reads the persisted filter of packName, or returns null if there is none. */
+  private PackBloomFilter load(File directory, String packName) {
+    File filterFile = filterFile(directory, packName);
+    if (!filterFile.isFile()) {
+      return null;
+    }
+    try {
+      PackBloomFilter filter = PackBloomFilter.read(filterFile);
+      loadCount.incrementAndGet();
+      return filter;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load the Bloom filter of " + packName, e);
+      return null;
+    }
+  }
+
+  private void scheduleBuild(String packName, String packPath) {
+    synchronized (this) {
+      if (!pendingBuilds.add(packName)) {
+        return;
+      }
+    }
+    buildExecutor.execute(
+        () -> {
+          // a manifest built while this build runs schedules another build of its filter
+          synchronized (this) {
+            pendingBuilds.remove(packName);
+          }
+          build(packName, packPath);
+        });
+  }
+
+  /**
+   * Makes the filter of packPath available, either read from disk or built from the pack's
+   * manifest, or remembers that packPath has no manifest to build it from yet.
+   */
+  private void build(String packName, String packPath) {
+    File directory = filterDirectory;
+    if (directory == null) {
+      return;
+    }
+    PackBloomFilter filter;
+    synchronized (this) {
+      filter = filters.get(packName);
+    }
+    if (filter != null && filter.packPath().equals(packPath)) {
+      return;
+    }
+    filter = load(directory, packName);
+    if (filter == null || !filter.packPath().equals(packPath)) {
+      PackContentManifest manifest = packContentManifestStore.getManifest(packName);
+      if (manifest == null || !manifest.packPath().equals(packPath)) {
+        // retried by onManifestBuilt, or by a lookup of another pack path
+        synchronized (this) {
+          unavailablePackPaths.put(packName, packPath);
+        }
+        return;
+      }
+      filter = PackBloomFilter.fromManifest(manifest);
+      directory.mkdirs();
+      try {
+        filter.write(filterFile(directory, packName));
+      } catch (IOException e) {
+        // the filter still serves this process
+        Log.w(TAG, "Failed to persist the Bloom filter of " + packName, e);
+      }
+      buildCount.incrementAndGet();
+    }
+    synchronized (this) {
+      filters.put(packName, filter);
+      unavailablePackPaths.remove(packName);
+    }
+  }
+
+  private static String storageFilesPackPath(Dictionary packLocation) {
+    if (packLocation == null
+        || (int) packLocation.get(AssetPackLocationFromDictionary.PACK_STORAGE_METHOD_KEY)
+            != AssetPackStorageMethod.STORAGE_FILES) {
+      return null;
+    }
+    return (String) packLocation.get(AssetPackLocationFromDictionary.PATH_KEY);
+  }
+
+  private static File filterFile(File directory, String packName) {
+    return new File(directory, packName + PackBloomFilter.FILTER_FILE_EXTENSION);
+  }
+}
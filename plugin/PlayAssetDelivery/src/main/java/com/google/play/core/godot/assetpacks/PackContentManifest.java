@@ -0,0 +1,299 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped binary listing of every file of an installed STORAGE_FILES asset pack, written once
+ * when the pack reaches COMPLETED, so that later lookups and listings neither walk the pack's
+ * directory tree nor query the Play Core Library. Entries are sorted by the unsigned UTF-8 bytes of
+ * their path relative to the assetsPath of the pack, so that a path is found by binary search and
+ * all paths sharing a prefix are adjacent. The path of the pack at write time is kept in the
+ * header, so that a manifest of an older version of the pack can be told apart.
+ *
+ * <pre>
+ * header: int MAGIC, int VERSION, int entryCount, int packPathLength, int pathTableLength,
+ *         byte[packPathLength] UTF-8 packPath
+ * entry:  int pathOffset, int pathLength, long size, long lastModified
+ * path table: the UTF-8 paths of all entries, in entry order, where pathOffset is relative to the
+ *         start of the table
+ * </pre>
+ */
+final class PackContentManifest {
+  static final String MANIFEST_FILE_EXTENSION = ".manifest";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAGIC = 0x5041434D; // "PACM"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 5 * 4;
+  private static final int ENTRY_SIZE = 4 + 4 + 8 + 8;
+
+  private final MappedByteBuffer buffer;
+  private final String packPath;
+  private final int entryCount;
+  private final int entriesOffset;
+  private final int pathTableOffset;
+
+  private PackContentManifest(
+      MappedByteBuffer buffer, String packPath, int entryCount, int entriesOffset) {
+    this.buffer = buffer;
+    this.packPath = packPath;
+    this.entryCount = entryCount;
+    this.entriesOffset = entriesOffset;
+    this.pathTableOffset = entriesOffset + entryCount * ENTRY_SIZE;
+  }
+
+  /**
+   * Walks assetsDirectory and writes the manifest of its files to manifestFile. The manifest is
+   * written to a temporary file first and then renamed, so that a crash never leaves a partially
+   * written manifest behind.
+   *
+   * @return the written manifest, memory-mapped
+   */
+  static PackContentManifest write(File manifestFile, String packPath, File assetsDirectory)
+      throws IOException {
+    List<String> relativePaths = listRelativePaths(assetsDirectory);
+    byte[][] paths = new byte[relativePaths.size()][];
+    int pathTableLength = 0;
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = relativePaths.get(i).getBytes(UTF_8);
+      pathTableLength += paths[i].length;
+    }
+    Arrays.sort(paths, PackContentManifest::compareUnsigned);
+    byte[] packPathBytes = packPath.getBytes(UTF_8);
+
+    ByteBuffer content =
+        ByteBuffer.allocate(
+            HEADER_SIZE + packPathBytes.length + paths.length * ENTRY_SIZE + pathTableLength);
+    content.putInt(MAGIC).putInt(VERSION).putInt(paths.length);
+    content.putInt(packPathBytes.length).putInt(pathTableLength).put(packPathBytes);
+    int pathOffset = 0;
+    for (byte[] path : paths) {
+      File file = new File(assetsDirectory, new String(path, UTF_8));
+      content.putInt(pathOffset).putInt(path.length);
+      content.putLong(file.length()).putLong(file.lastModified());
+      pathOffset += path.length;
+    }
+    for (byte[] path : paths) {
+      content.put(path);
+    }
+    content.flip();
+
+    AtomicFileWriter.write(manifestFile, content);
+    return open(manifestFile);
+  }
+
+  /** Memory-maps manifestFile, and throws if it is not a complete manifest of this version. */
+  static PackContentManifest open(File manifestFile) throws IOException {
+    MappedByteBuffer buffer;
+    try (RandomAccessFile file = new RandomAccessFile(manifestFile, "r");
+        FileChannel channel = file.getChannel()) {
+      if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(manifestFile + " is not an asset pack manifest");
+      }
+      // the mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException(manifestFile + " is not an asset pack manifest");
+    }
+    long entryCount = buffer.getInt(8);
+    long packPathLength = buffer.getInt(12);
+    long pathTableLength = buffer.getInt(16);
+    if (entryCount < 0
+        || packPathLength < 0
+        || pathTableLength < 0
+        || HEADER_SIZE + packPathLength + entryCount * ENTRY_SIZE + pathTableLength
+            != buffer.capacity()) {
+      throw new IOException(manifestFile + " is truncated");
+    }
+    byte[] packPath = new byte[(int) packPathLength];
+    buffer.position(HEADER_SIZE);
+    buffer.get(packPath);
+    return new PackContentManifest(
+        buffer, new String(packPath, UTF_8), (int) entryCount, HEADER_SIZE + (int) packPathLength);
+  }
+
+  /** Returns the paths of all files below directory relative to it, separated by '/'. */
+  static List<String> listRelativePaths(File directory) throws IOException {
+    List<String> relativePaths = new ArrayList<>();
+    listFiles(directory, "", relativePaths);
+    return relativePaths;
+  }
+
+  /** Returns AssetPackLocation.path() of the pack at the time the manifest was written. */
+  String packPath() {
+    return packPath;
+  }
+
+  int entryCount() {
+    return entryCount;
+  }
+
+  /**
+   * Returns the index of the entry of assetPath, which is relative to the assetsPath of the pack,
+   * or -1 if the pack holds no such file.
+   */
+  int indexOf(String assetPath) {
+    byte[] path = normalize(assetPath).getBytes(UTF_8);
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareToEntry(path, middle);
+      if (comparison == 0) {
+        return middle;
+      } else if (comparison > 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first entry whose path starts with prefix, or entryCount() if there is
+   * none. Since entries are sorted, all such entries follow it without a gap.
+   */
+  int firstIndexWithPrefix(String prefix) {
+    byte[] path = normalize(prefix).getBytes(UTF_8);
+    int low = 0;
+    int high = entryCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareToEntry(path, middle) > 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Returns whether the path of the entry at index starts with the UTF-8 bytes of prefix. */
+  boolean entryStartsWith(byte[] prefix, int index) {
+    int entryOffset = entriesOffset + index * ENTRY_SIZE;
+    if (buffer.getInt(entryOffset + 4) < prefix.length) {
+      return false;
+    }
+    int pathStart = pathTableOffset + buffer.getInt(entryOffset);
+    for (int i = 0; i < prefix.length; i++) {
+      if (prefix[i] != buffer.get(pathStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the path of the entry at index, relative to the assetsPath of the pack. */
+  String path(int index) {
+    int entryOffset = entriesOffset + index * ENTRY_SIZE;
+    byte[] path = new byte[buffer.getInt(entryOffset + 4)];
+    // absolute reads keep concurrent lookups from sharing the position of the buffer
+    int pathStart = pathTableOffset + buffer.getInt(entryOffset);
+    for (int i = 0; i < path.length; i++) {
+      path[i] = buffer.get(pathStart + i);
+    }
+    return new String(path, UTF_8);
+  }
+
+  long size(int index) {
+    return buffer.getLong(entriesOffset + index * ENTRY_SIZE + 8);
+  }
+
+  long lastModified(int index) {
+    return buffer.getLong(entriesOffset + index * ENTRY_SIZE + 16);
+  }
+
+  /** Compares path to the path of the entry at index, by their unsigned UTF-8 bytes. */
+  int compareToEntry(byte[] path, int index) {
+    int entryOffset = entriesOffset + index * ENTRY_SIZE;
+    int pathStart = pathTableOffset + buffer.getInt(entryOffset);
+    int pathLength = buffer.getInt(entryOffset + 4);
+    int length = Math.min(path.length, pathLength);
+    for (int i = 0; i < length; i++) {
+      int difference = (path[i] & 0xFF) - (buffer.get(pathStart + i) & 0xFF);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return path.length - pathLength;
+  }
+
+  /** Strips the leading separators that new File(assetsPath, assetPath) would ignore as well. */
+  static String normalize(String assetPath) {
+    int start = 0;
+    while (start < assetPath.length() && assetPath.charAt(start) == '/') {
+      start++;
+    }
+    return assetPath.substring(start);
+  }
+
+  /** Sorts paths in the order of the entries of a manifest, i.e. by their unsigned UTF-8 bytes. */
+  static void sortPaths(List<String> paths) {
+    Integer[] order = new Integer[paths.size()];
+    byte[][] encodedPaths = new byte[paths.size()][];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      encodedPaths[i] = paths.get(i).getBytes(UTF_8);
+    }
+    Arrays.sort(
+        order, (first, second) -> compareUnsigned(encodedPaths[first], encodedPaths[second]));
+    List<String> unsortedPaths = new ArrayList<>(paths);
+    for (int i = 0; i < order.length; i++) {
+      paths.set(i, unsortedPaths.get(order[i]));
+    }
+  }
+
+  private static int compareUnsigned(byte[] first, byte[] second) {
+    int length = Math.min(first.length, second.length);
+    for (int i = 0; i < length; i++) {
+      int difference = (first[i] & 0xFF) - (second[i] & 0xFF);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return first.length - second.length;
+  }
+
+  private static void listFiles(File directory, String prefix, List<String> relativePaths)
+      throws IOException {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      throw new IOException("Failed to list " + directory);
+    }
+    for (File child : children) {
+      String relativePath = prefix + child.getName();
+      if (child.isDirectory()) {
+        listFiles(child, relativePath + "/", relativePaths);
+      } else {
+        relativePaths.add(relativePath);
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Keeps the PackContentManifest of every installed STORAGE_FILES pack. A manifest is built in the
+ * background as soon as its pack reaches COMPLETED, and memory-mapped from disk by the first lookup
+ * of a later process. A manifest whose pack path differs from the current AssetPackLocation.path()
+ * belongs to an older version of the pack, so it is ignored and rebuilt. Packs without an up to
+ * date manifest have none until the rebuild finished, so callers fall back to their slower lookup.
+ * A pack path whose build failed is not rebuilt by later lookups, only once its pack completes
+ * again or its pack path changes. The manifest of a removed pack is deleted with it.
+ */
+final class PackContentManifestStore {
+  static final String MANIFEST_DIRECTORY_NAME = "pack_manifests";
+  static final String LOADED_MANIFESTS_KEY = "loadedManifests";
+  static final String BUILDS_KEY = "builds";
+  static final String LOADS_KEY = "loads";
+  static final String LAST_BUILD_DURATION_MS_KEY = "lastBuildDurationMs";
+
+  private static final String TAG = "PackContentManifestStore";
+
+  /** Receives every manifest built by this store, on the build thread. */
+  interface ManifestListener {
+    void onManifestBuilt(String packName, PackContentManifest manifest);
+  }
+
+  private final PackLocationCache packLocationCache;
+  private final Executor buildExecutor;
+  private volatile File manifestDirectory;
+  private final List<ManifestListener> manifestListeners = new CopyOnWriteArrayList<>();
+  // the fields below are guarded by this
+  private final Map<String, PackContentManifest> manifests = new HashMap<>();
+  // packs whose manifest is being built, so that a build is only scheduled once
+  private final Set<String> pendingBuilds = new HashSet<>();
+  // pack paths keyed by pack name, whose manifest failed to build
+  private final Map<String, String> failedPackPaths = new HashMap<>();
+  private final AtomicLong buildCount = new AtomicLong();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final AtomicLong lastBuildDurationMs = new AtomicLong();
+
+  PackContentManifestStore(PackLocationCache packLocationCache, Executor buildExecutor) {
+    this.packLocationCache = packLocationCache;
+    this.buildExecutor = buildExecutor;
+  }
+
+  /** Stores manifests below manifestDirectory. Until it is set, no manifest is built. */
+  void setManifestDirectory(File manifestDirectory) {
+    this.manifestDirectory = manifestDirectory;
+  }
+
+  void addManifestListener(ManifestListener manifestListener) {
+    manifestListeners.add(manifestListener);
+  }
+
+  /**
+   * Returns the manifest of the installed version of packName, or null if packName is not an
+   * installed STORAGE_FILES pack or its manifest is not built yet.
+   */
+  PackContentManifest getManifest(String packName) {
+    File directory = manifestDirectory;
+    if (directory == null) {
+      return null;
+    }
+    String packPath = storageFilesPackPath(packName);
+    if (packPath == null) {
+      return null;
+    }
+    PackContentManifest manifest;
+    synchronized (this) {
+      // a manifest built for packPath would have cleared the failure
+      if (packPath.equals(failedPackPaths.get(packName))) {
+        return null;
+      }
+      manifest = manifests.get(packName);
+    }
+    if (manifest == null) {
+      manifest = load(directory, packName);
+    }
+    if (manifest == null || !manifest.packPath().equals(packPath)) {
+      scheduleBuild(packName);
+      return null;
+    }
+    return manifest;
+  }
+
+  /** Rebuilds the manifest of packName, which just reached COMPLETED, unless it is up to date. */
+  void onPackCompleted(String packName) {
+    synchronized (this) {
+      failedPackPaths.remove(packName);
+    }
+    if (manifestDirectory != null) {
+      scheduleBuild(packName);
+    }
+  }
+
+  /**
+   * Forgets the manifest of packName, which was removed from the device, and deletes its file on
+   * the build thread. Expects the location of packName to be invalidated already, so that a build
+   * queued before does not write the file again.
+   */
+  void onPackRemoved(String packName) {
+    synchronized (this) {
+      manifests.remove(packName);
+      failedPackPaths.remove(packName);
+    }
+    File directory = manifestDirectory;
+    if (directory != null) {
+      buildExecutor.execute(() -> manifestFile(directory, packName).delete());
+    }
+  }
+
+  /** Stops the build thread. */
+  void shutdown() {
+    if (buildExecutor instanceof ExecutorService) {
+      ((ExecutorService) buildExecutor).shutdownNow();
+    }
+  }
+
+  /** Returns the manifest counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (this) {
+      metrics.put(LOADED_MANIFESTS_KEY, manifests.size());
+    }
+    metrics.put(BUILDS_KEY, buildCount.get());
+    metrics.put(LOADS_KEY, loadCount.get());
+    metrics.put(LAST_BUILD_DURATION_MS_KEY, lastBuildDurationMs.get());
+    return metrics;
+  }
+
+  private PackContentManifest load(File directory, String packName) {
+    File manifestFile = manifestFile(directory, packName);
+    if (!manifestFile.isFile()) {
+      return null;
+    }
+    PackContentManifest manifest;
+    try {
+      manifest = PackContentManifest.open(manifestFile);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load the manifest of " + packName, e);
+      return null;
+    }
+    loadCount.incrementAndGet();
+    synchronized (this) {
+      if (!manifests.containsKey(packName)) {
+        manifests.put(packName, manifest);
+      }
+    }
+    return manifest;
+  }
+
+  private void scheduleBuild(String packName) {
+    synchronized (this) {
+      if (!pendingBuilds.add(packName)) {
+        return;
+      }
+    }
+    buildExecutor.execute(
+        () -> {
+          try {
+            build(packName);
+          } finally {
+            synchronized (this) {
+              pendingBuilds.remove(packName);
+            }
+          }
+        });
+  }
+
+  private void build(String packName) {
+    File directory = manifestDirectory;
+    Dictionary packLocation = packLocationCache.getPackLocation(packName);
+    if (directory == null || packLocation == null || !isStorageFiles(packLocation)) {
+      return;
+    }
+    String packPath = (String) packLocation.get(AssetPackLocationFromDictionary.PATH_KEY);
+    PackContentManifest manifest;
+    synchronized (this) {
+      manifest = manifests.get(packName);
+    }
+    if (manifest == null) {
+      manifest = load(directory, packName);
+    }
+    if (manifest != null && manifest.packPath().equals(packPath)) {
+      return;
+    }
+    long startTimeMs = StateUpdateManager.currentTimeMs();
+    directory.mkdirs();
+    try {
+      manifest =
+          PackContentManifest.write(
+              manifestFile(directory, packName),
+              packPath,
+              new File((String) packLocation.get(AssetPackLocationFromDictionary.ASSETS_PATH_KEY)));
+    } catch (IOException e) {
+      // retried by onPackCompleted, or by a lookup of another pack path
+      Log.w(TAG, "Failed to build the manifest of " + packName, e);
+      synchronized (this) {
+        failedPackPaths.put(packName, packPath);
+      }
+      return;
+    }
+    synchronized (this) {
+      manifests.put(packName, manifest);
+      failedPackPaths.remove(packName);
+    }
+    buildCount.incrementAndGet();
+    lastBuildDurationMs.set(StateUpdateManager.currentTimeMs() - startTimeMs);
+    for (ManifestListener manifestListener : manifestListeners) {
+      manifestListener.onManifestBuilt(packName, manifest);
+    }
+  }
+
+  private String storageFilesPackPath(String packName) {
+    Dictionary packLocation = packLocationCache.getPackLocation(packName);
+    if (packLocation == null || !isStorageFiles(packLocation)) {
+      return null;
+    }
+    return (String) packLocation.get(AssetPackLocationFromDictionary.PATH_KEY);
+  }
+
+  private static boolean isStorageFiles(Dictionary packLocation) {
+    return (int) packLocation.get(AssetPackLocationFromDictionary.PACK_STORAGE_METHOD_KEY)
+        == AssetPackStorageMethod.STORAGE_FILES;
+  }
+
+  private static File manifestFile(File directory, String packName) {
+    return new File(directory, packName + PackContentManifest.MANIFEST_FILE_EXTENSION);
+  }
+}
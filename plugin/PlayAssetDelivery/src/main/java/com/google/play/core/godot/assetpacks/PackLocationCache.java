@@ -0,0 +1,181 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.android.play.core.assetpacks.AssetPackLocation;
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Caches the serialized AssetPackLocation of installed asset packs, so that repeated location
+ * queries do not go through binder IPC to the Play Core Library. Entries are filled by the first
+ * query, or as soon as a pack reaches COMPLETED, and invalidated whenever a pack may have moved or
+ * disappeared: on removePack, on CANCELED and FAILED transitions, and when the app is resumed.
+ * Packs that are not installed are remembered as well, until they are invalidated, so that probing
+ * an optional pack does not repeat the query either.
+ */
+final class PackLocationCache {
+  static final String HITS_KEY = "hits";
+  static final String MISSES_KEY = "misses";
+  static final String INVALIDATIONS_KEY = "invalidations";
+
+  /** Receives every invalidation, so that data derived from pack locations can follow it. */
+  interface InvalidationListener {
+    void onPackInvalidated(String packName);
+
+    void onAllPacksInvalidated();
+  }
+
+  private final AssetPackManager assetPackManager;
+  private volatile InvalidationListener invalidationListener;
+  // the fields below are guarded by this
+  private final Map<String, Dictionary> packLocations = new HashMap<>();
+  // packs that were queried and are not installed
+  private final Set<String> absentPacks = new HashSet<>();
+  // whether packLocations holds every installed pack, so that absent packs are known to be absent
+  private boolean isComplete;
+  // incremented by every invalidation, so that a query racing with it does not cache stale data
+  private long generation;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  PackLocationCache(AssetPackManager assetPackManager) {
+    this.assetPackManager = assetPackManager;
+  }
+
+  void setInvalidationListener(InvalidationListener invalidationListener) {
+    this.invalidationListener = invalidationListener;
+  }
+
+  /** Returns the serialized location of packName, or null if the pack is not installed. */
+  Dictionary getPackLocation(String packName) {
+    long queryGeneration;
+    synchronized (this) {
+      Dictionary packLocation = packLocations.get(packName);
+      if (packLocation != null || isComplete || absentPacks.contains(packName)) {
+        hitCount.incrementAndGet();
+        return packLocation;
+      }
+      queryGeneration = generation;
+    }
+    missCount.incrementAndGet();
+    return queryPackLocation(packName, queryGeneration);
+  }
+
+  /** Returns the serialized locations of all installed packs, keyed by pack name. */
+  Dictionary getPackLocations() {
+    long queryGeneration;
+    synchronized (this) {
+      if (isComplete) {
+        hitCount.incrementAndGet();
+        Dictionary packLocationsDictionary = new Dictionary();
+        packLocationsDictionary.putAll(packLocations);
+        return packLocationsDictionary;
+      }
+      queryGeneration = generation;
+    }
+    missCount.incrementAndGet();
+    Map<String, AssetPackLocation> packLocationsMap = assetPackManager.getPackLocations();
+    Dictionary packLocationsDictionary =
+        PlayAssetDeliveryUtils.convertAssetPackLocationsToDictionary(packLocationsMap);
+    synchronized (this) {
+      if (queryGeneration == generation) {
+        packLocations.clear();
+        for (Map.Entry<String, Object> entry : packLocationsDictionary.entrySet()) {
+          packLocations.put(entry.getKey(), (Dictionary) entry.getValue());
+        }
+        isComplete = true;
+      }
+    }
+    return packLocationsDictionary;
+  }
+
+  /** Caches the location of a pack that just reached COMPLETED, ahead of the first query. */
+  void onPackCompleted(String packName) {
+    long queryGeneration;
+    synchronized (this) {
+      // a completed pack may have been updated in place, so its old location is dropped first
+      invalidateLocked(packName);
+      queryGeneration = generation;
+    }
+    queryPackLocation(packName, queryGeneration);
+  }
+
+  /** Drops the cached location of packName. */
+  synchronized void invalidate(String packName) {
+    invalidateLocked(packName);
+  }
+
+  /** Drops every cached location. */
+  synchronized void invalidateAll() {
+    packLocations.clear();
+    absentPacks.clear();
+    isComplete = false;
+    generation++;
+    invalidationCount.incrementAndGet();
+    if (invalidationListener != null) {
+      invalidationListener.onAllPacksInvalidated();
+    }
+  }
+
+  /** Returns the cache counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(HITS_KEY, hitCount.get());
+    metrics.put(MISSES_KEY, missCount.get());
+    metrics.put(INVALIDATIONS_KEY, invalidationCount.get());
+    return metrics;
+  }
+
+  private void invalidateLocked(String packName) {
+    packLocations.remove(packName);
+    absentPacks.remove(packName);
+    isComplete = false;
+    generation++;
+    invalidationCount.incrementAndGet();
+    if (invalidationListener != null) {
+      invalidationListener.onPackInvalidated(packName);
+    }
+  }
+
+  private Dictionary queryPackLocation(String packName, long queryGeneration) {
+    AssetPackLocation retrievedPackLocation = assetPackManager.getPackLocation(packName);
+    if (retrievedPackLocation == null) {
+      synchronized (this) {
+        if (queryGeneration == generation) {
+          absentPacks.add(packName);
+        }
+      }
+      return null;
+    }
+    Dictionary packLocation =
+        PlayAssetDeliveryUtils.convertAssetPackLocationToDictionary(retrievedPackLocation);
+    synchronized (this) {
+      if (queryGeneration == generation) {
+        packLocations.put(packName, packLocation);
+      }
+    }
+    return packLocation;
+  }
+}
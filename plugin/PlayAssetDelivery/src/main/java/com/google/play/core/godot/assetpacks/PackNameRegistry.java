@@ -0,0 +1,90 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning registry that maps asset pack names to dense int ids, so that per-pack data can be
+ * stored in primitive arrays indexed by pack id. Lookups are lock-free, only the registration and
+ * release of a name are synchronized. Released ids are handed out again, lowest first, before new
+ * ids are allocated, so that the ids stay dense over a long session.
+ */
+final class PackNameRegistry {
+  static final int UNKNOWN_PACK_ID = -1;
+
+  private final ConcurrentHashMap<String, Integer> packIds = new ConcurrentHashMap<>();
+  private volatile String[] packNames = new String[16];
+  private int nextPackId = 0;
+  // released ids, guarded by this
+  private final BitSet freePackIds = new BitSet();
+
+  /** Returns the id of packName, registering it if it has not been seen before. */
+  int intern(String packName) {
+    Integer packId = packIds.get(packName);
+    if (packId != null) {
+      return packId;
+    }
+    synchronized (this) {
+      packId = packIds.get(packName);
+      if (packId != null) {
+        return packId;
+      }
+      int newPackId = freePackIds.nextSetBit(0);
+      if (newPackId >= 0) {
+        freePackIds.clear(newPackId);
+      } else {
+        newPackId = nextPackId++;
+        if (newPackId == packNames.length) {
+          packNames = Arrays.copyOf(packNames, packNames.length * 2);
+        }
+      }
+      packNames[newPackId] = packName;
+      packIds.put(packName, newPackId);
+      return newPackId;
+    }
+  }
+
+  /** Returns the id of packName, or UNKNOWN_PACK_ID if it has never been registered. */
+  int lookup(String packName) {
+    Integer packId = packIds.get(packName);
+    return packId == null ? UNKNOWN_PACK_ID : packId;
+  }
+
+  /** Forgets the name of packId, so that the id is handed out again by a later intern call. */
+  synchronized void release(int packId) {
+    String packName = packNames[packId];
+    if (packName == null) {
+      return;
+    }
+    packIds.remove(packName);
+    packNames[packId] = null;
+    freePackIds.set(packId);
+  }
+
+  /** Returns the name of packId, or null if the id has been released. */
+  String packName(int packId) {
+    return packNames[packId];
+  }
+
+  /** Returns the number of ids handed out so far, which is also the upper bound of all ids. */
+  synchronized int size() {
+    return nextPackId;
+  }
+}
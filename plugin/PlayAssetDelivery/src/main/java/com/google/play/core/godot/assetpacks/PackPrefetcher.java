@@ -0,0 +1,361 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.AssetPackState;
+import com.google.android.play.core.assetpacks.AssetPackStates;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.Task;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Predicts which asset packs the game uses next and fetches them ahead of time. The order in which
+ * the game switches between packs, by fetching them or looking up their locations and assets, is
+ * recorded across sessions in a bounded history of 16-bit pack ids, from which a first-order Markov
+ * model counts how often each pack followed each other pack. Once a pack reaches COMPLETED, the
+ * packs that followed it in at least the configured share of the recorded transitions are queued in
+ * the fetch scheduler below every requested fetch. Nothing is prefetched while the game has
+ * downloads of its own in flight, beyond a byte cap per prediction, or if the predicted packs would
+ * not fit into the storage budget and the free space without evicting other packs.
+ */
+final class PackPrefetcher {
+  static final String HISTORY_FILE_NAME = "play_asset_delivery_pack_history.bin";
+  /** Signal ID of prefetches, which emit no fetch signals and are not recorded as pack use. */
+  static final int PREFETCH_SIGNAL_ID = -1;
+  /** Priority of prefetches in the fetch scheduler, below every fetch requested by the game. */
+  static final int PREFETCH_PRIORITY = Integer.MIN_VALUE;
+  /** Transitions that must have been recorded from a pack before any prediction is made from it. */
+  static final int MIN_RECORDED_TRANSITIONS = 3;
+
+  static final int MAX_HISTORY_LENGTH = 4096;
+  static final String HISTORY_LENGTH_KEY = "historyLength";
+  static final String PREDICTIONS_KEY = "predictions";
+  static final String PREFETCHED_PACKS_KEY = "prefetchedPacks";
+  static final String PREFETCH_HITS_KEY = "prefetchHits";
+  static final String GUARDED_PREFETCHES_KEY = "guardedPrefetches";
+
+  private static final String TAG = "PackPrefetcher";
+  private static final int MAGIC = 0x50414448; // "PADH"
+  private static final int VERSION = 1;
+
+  /** Queues a speculative fetch of a single asset pack. */
+  interface PrefetchSubmitter {
+    void submit(String packName);
+  }
+
+  private final AssetPackManager assetPackManager;
+  private final PackLocationCache packLocationCache;
+  private final StorageBudgetManager storageBudgetManager;
+  private final Executor callbackExecutor;
+  private final PrefetchSubmitter prefetchSubmitter;
+  // the fields below are guarded by this
+  private int minConfidencePercent = 50;
+  private int maxPrefetchedPacks;
+  private long maxPrefetchBytes;
+  private final List<String> packNames = new ArrayList<>();
+  private final Map<String, Integer> packIds = new HashMap<>();
+  private final short[] history = new short[MAX_HISTORY_LENGTH];
+  private int historyLength;
+  private boolean isHistoryFileDirty;
+  private File historyFile;
+  // transitionCounts.get(from).get(to) is how often pack id to followed pack id from
+  private final Map<Integer, Map<Integer, Integer>> transitionCounts = new HashMap<>();
+  // prefetched packs the game has not used yet
+  private final Set<String> unusedPrefetches = new HashSet<>();
+  private final AtomicLong predictionCount = new AtomicLong();
+  private final AtomicLong prefetchedPackCount = new AtomicLong();
+  private final AtomicLong prefetchHitCount = new AtomicLong();
+  private final AtomicLong guardedPrefetchCount = new AtomicLong();
+
+  PackPrefetcher(
+      AssetPackManager assetPackManager,
+      PackLocationCache packLocationCache,
+      StorageBudgetManager storageBudgetManager,
+      Executor callbackExecutor,
+      PrefetchSubmitter prefetchSubmitter) {
+    this.assetPackManager = assetPackManager;
+    this.packLocationCache = packLocationCache;
+    this.storageBudgetManager = storageBudgetManager;
+    this.callbackExecutor = callbackExecutor;
+    this.prefetchSubmitter = prefetchSubmitter;
+  }
+
+  /**
+   * Configures prefetching. A non-positive maxPrefetchedPacks disables it, which is the default.
+   *
+   * @param minConfidencePercent share of the recorded transitions from a completed pack that must
+   *     lead to a pack before it is prefetched
+   * @param maxPrefetchedPacks maximum number of packs prefetched per completed pack
+   * @param maxPrefetchBytes maximum download size of the packs prefetched per completed pack
+   */
+  synchronized void setPolicy(
+      int minConfidencePercent, int maxPrefetchedPacks, long maxPrefetchBytes) {
+    this.minConfidencePercent = minConfidencePercent;
+    this.maxPrefetchedPacks = maxPrefetchedPacks;
+    this.maxPrefetchBytes = maxPrefetchBytes;
+  }
+
+  /** Records that the game used packName, unless it is still using it. */
+  synchronized void onPackUsed(String packName) {
+    if (unusedPrefetches.remove(packName)) {
+      prefetchHitCount.incrementAndGet();
+    }
+    Integer packId = packIds.get(packName);
+    if (packId == null) {
+      if (packNames.size() > Short.MAX_VALUE) {
+        return;
+      }
+      packId = packNames.size();
+      packNames.add(packName);
+      packIds.put(packName, packId);
+    }
+    if (historyLength > 0 && history[historyLength - 1] == packId) {
+      return;
+    }
+    if (historyLength == MAX_HISTORY_LENGTH) {
+      // keep the newer half, so that the model follows changes in how the game is played
+      int keptLength = MAX_HISTORY_LENGTH / 2;
+      System.arraycopy(history, historyLength - keptLength, history, 0, keptLength);
+      historyLength = keptLength;
+      rebuildTransitionCountsLocked();
+    }
+    if (historyLength > 0) {
+      countTransitionLocked(history[historyLength - 1], packId);
+    }
+    history[historyLength++] = (short) (int) packId;
+    isHistoryFileDirty = true;
+  }
+
+  /** Returns the packs predicted to follow packName, the most likely first. */
+  synchronized List<String> predictNextPacks(String packName) {
+    Integer packId = packIds.get(packName);
+    Map<Integer, Integer> nextPackCounts = packId == null ? null : transitionCounts.get(packId);
+    if (nextPackCounts == null) {
+      return Collections.emptyList();
+    }
+    int totalCount = 0;
+    for (int count : nextPackCounts.values()) {
+      totalCount += count;
+    }
+    if (totalCount < MIN_RECORDED_TRANSITIONS) {
+      return Collections.emptyList();
+    }
+    List<Map.Entry<Integer, Integer>> nextPacks = new ArrayList<>(nextPackCounts.entrySet());
+    Collections.sort(
+        nextPacks,
+        (first, second) ->
+            !first.getValue().equals(second.getValue())
+                ? Integer.compare(second.getValue(), first.getValue())
+                : packNames.get(first.getKey()).compareTo(packNames.get(second.getKey())));
+    List<String> predictedPacks = new ArrayList<>();
+    for (Map.Entry<Integer, Integer> nextPack : nextPacks) {
+      if (predictedPacks.size() >= maxPrefetchedPacks
+          || nextPack.getValue() * 100L < (long) minConfidencePercent * totalCount) {
+        break;
+      }
+      predictedPacks.add(packNames.get(nextPack.getKey()));
+    }
+    return predictedPacks;
+  }
+
+  /**
+   * Prefetches the packs predicted to follow packName, which just reached COMPLETED.
+   *
+   * @param ongoingPacks names of the packs with a request in flight
+   */
+  void onPackCompleted(String packName, Set<String> ongoingPacks) {
+    long byteBudget;
+    synchronized (this) {
+      // predictions from an unused prefetch would chain prefetches through the whole game
+      if (maxPrefetchedPacks <= 0 || unusedPrefetches.contains(packName)) {
+        return;
+      }
+      byteBudget = maxPrefetchBytes;
+    }
+    List<String> predictedPacks = predictNextPacks(packName);
+    if (predictedPacks.isEmpty()) {
+      return;
+    }
+    predictionCount.incrementAndGet();
+    Set<String> otherOngoingPacks = new HashSet<>(ongoingPacks);
+    otherOngoingPacks.remove(packName);
+    if (!otherOngoingPacks.isEmpty()) {
+      // the game is waiting for downloads of its own, which prefetches would slow down
+      guardedPrefetchCount.addAndGet(predictedPacks.size());
+      return;
+    }
+    Set<String> queriedPacks = new LinkedHashSet<>(predictedPacks);
+    queriedPacks.addAll(packLocationCache.getPackLocations().keySet());
+    Task<AssetPackStates> getPackStatesTask =
+        assetPackManager.getPackStates(new ArrayList<>(queriedPacks));
+    getPackStatesTask.addOnSuccessListener(
+        callbackExecutor, result -> prefetch(predictedPacks, result.packStates(), byteBudget));
+    getPackStatesTask.addOnFailureListener(
+        callbackExecutor, e -> Log.w(TAG, "Failed to query the sizes of predicted packs", e));
+  }
+
+  /** Restores the history persisted in historyFile, and persists it there with flush(). */
+  synchronized void setHistoryFile(File historyFile) {
+    this.historyFile = historyFile;
+    if (!historyFile.isFile()) {
+      return;
+    }
+    try (DataInputStream input = new DataInputStream(new FileInputStream(historyFile))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return;
+      }
+      List<String> restoredPackNames = new ArrayList<>();
+      int packCount = input.readInt();
+      for (int i = 0; i < packCount; i++) {
+        restoredPackNames.add(input.readUTF());
+      }
+      int restoredLength = input.readInt();
+      if (restoredLength < 0 || restoredLength > MAX_HISTORY_LENGTH) {
+        return;
+      }
+      short[] restoredHistory = new short[restoredLength];
+      for (int i = 0; i < restoredLength; i++) {
+        restoredHistory[i] = input.readShort();
+        if (restoredHistory[i] < 0 || restoredHistory[i] >= packCount) {
+          return;
+        }
+      }
+      packNames.clear();
+      packNames.addAll(restoredPackNames);
+      packIds.clear();
+      for (int i = 0; i < packNames.size(); i++) {
+        packIds.put(packNames.get(i), i);
+      }
+      System.arraycopy(restoredHistory, 0, history, 0, restoredLength);
+      historyLength = restoredLength;
+      rebuildTransitionCountsLocked();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to restore the pack history", e);
+    }
+  }
+
+  /** Persists the history if it changed since the last flush. */
+  synchronized void flush() {
+    if (historyFile == null || !isHistoryFileDirty) {
+      return;
+    }
+    isHistoryFileDirty = false;
+    try {
+      AtomicFileWriter.write(
+          historyFile,
+          outputStream -> {
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(packNames.size());
+            for (String packName : packNames) {
+              output.writeUTF(packName);
+            }
+            output.writeInt(historyLength);
+            for (int i = 0; i < historyLength; i++) {
+              output.writeShort(history[i]);
+            }
+          });
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to persist the pack history", e);
+    }
+  }
+
+  /** Returns the prefetch counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    synchronized (this) {
+      metrics.put(HISTORY_LENGTH_KEY, historyLength);
+    }
+    metrics.put(PREDICTIONS_KEY, predictionCount.get());
+    metrics.put(PREFETCHED_PACKS_KEY, prefetchedPackCount.get());
+    metrics.put(PREFETCH_HITS_KEY, prefetchHitCount.get());
+    metrics.put(GUARDED_PREFETCHES_KEY, guardedPrefetchCount.get());
+    return metrics;
+  }
+
+  private void prefetch(
+      List<String> predictedPacks, Map<String, AssetPackState> packStates, long byteBudget) {
+    long installedBytes = 0;
+    for (AssetPackState packState : packStates.values()) {
+      if (packState.status() == AssetPackStatus.COMPLETED) {
+        installedBytes += packState.totalBytesToDownload();
+      }
+    }
+    long prefetchBytes = 0;
+    for (String packName : predictedPacks) {
+      AssetPackState packState = packStates.get(packName);
+      if (packState == null || !isFetchable(packState.status())) {
+        continue;
+      }
+      long packBytes = packState.totalBytesToDownload();
+      if (prefetchBytes + packBytes > byteBudget
+          || !storageBudgetManager.hasRoomFor(
+              installedBytes, prefetchBytes + packBytes, prefetchBytes + packBytes)) {
+        guardedPrefetchCount.incrementAndGet();
+        continue;
+      }
+      prefetchBytes += packBytes;
+      synchronized (this) {
+        unusedPrefetches.add(packName);
+      }
+      prefetchedPackCount.incrementAndGet();
+      prefetchSubmitter.submit(packName);
+    }
+  }
+
+  /** Returns whether a pack in status is neither installed nor being downloaded. */
+  private static boolean isFetchable(int status) {
+    return status == AssetPackStatus.NOT_INSTALLED
+        || status == AssetPackStatus.FAILED
+        || status == AssetPackStatus.CANCELED;
+  }
+
+  private void countTransitionLocked(int fromPackId, int toPackId) {
+    Map<Integer, Integer> nextPackCounts = transitionCounts.get(fromPackId);
+    if (nextPackCounts == null) {
+      nextPackCounts = new HashMap<>();
+      transitionCounts.put(fromPackId, nextPackCounts);
+    }
+    Integer count = nextPackCounts.get(toPackId);
+    nextPackCounts.put(toPackId, count == null ? 1 : count + 1);
+  }
+
+  private void rebuildTransitionCountsLocked() {
+    transitionCounts.clear();
+    for (int i = 1; i < historyLength; i++) {
+      countTransitionLocked(history[i - 1], history[i]);
+    }
+  }
+}
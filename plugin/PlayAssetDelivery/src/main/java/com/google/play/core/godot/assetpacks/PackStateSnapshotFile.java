@@ -0,0 +1,333 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Binary snapshot of the last known state of every asset pack and of the ongoing asset pack
+ * requests, so that both are known right after a cold start. The file is an append-only log of
+ * fixed-layout records, one per pack change, where the last record of a pack wins. Changed packs
+ * are marked dirty and appended in the background, and the log is compacted into a fresh file once
+ * it holds many more records than packs. On startup the file is memory-mapped and replayed into the
+ * AssetPackStateTable.
+ *
+ * <pre>
+ * header: int MAGIC, int VERSION
+ * record: short nameLength, byte[nameLength] UTF-8 name, byte flags, int status, int errorCode,
+ *         long bytesDownloaded, long totalBytesToDownload, int transferProgressPercentage
+ * </pre>
+ */
+final class PackStateSnapshotFile {
+  static final String SNAPSHOT_FILE_NAME = "play_asset_delivery_pack_states.bin";
+  static final String RESTORED_STATES_KEY = "restoredStates";
+  static final String APPENDED_RECORDS_KEY = "appendedRecords";
+  static final String COMPACTIONS_KEY = "compactions";
+  static final String SNAPSHOT_BYTES_KEY = "snapshotBytes";
+
+  private static final String TAG = "PackStateSnapshotFile";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAGIC = 0x50414453; // "PADS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  // size of a record without its name
+  private static final int RECORD_FIXED_SIZE = 2 + 1 + 4 + 4 + 8 + 8 + 4;
+  private static final byte HAS_STATE_FLAG = 1;
+  private static final byte ONGOING_FLAG = 1 << 1;
+  private static final long WRITE_DELAY_MS = 1000;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 256;
+
+  private final File snapshotFile;
+  private final AssetPackStateTable assetPackStateTable;
+  private final ScheduledExecutorService writeScheduler;
+  // ids of packs changed since the last write, each pinned in the state table, guarded by itself
+  private final BitSet dirtyPackIds = new BitSet();
+  private boolean isWriteScheduled;
+  // the fields below are guarded by this
+  private FileChannel appendChannel;
+  private long recordCount;
+  // whether the file on disk cannot be appended to, e.g. because it has a foreign header
+  private boolean isCompactionRequired;
+  private final AtomicLong restoredStateCount = new AtomicLong();
+  private final AtomicLong appendedRecordCount = new AtomicLong();
+  private final AtomicLong compactionCount = new AtomicLong();
+
+  PackStateSnapshotFile(File snapshotFile, AssetPackStateTable assetPackStateTable) {
+    this(
+        snapshotFile,
+        assetPackStateTable,
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread writeThread = new Thread(runnable, "PackStateSnapshotFile");
+              writeThread.setDaemon(true);
+              return writeThread;
+            }));
+  }
+
+  /** Package-private constructor used to instantiate PackStateSnapshotFile with mock objects. */
+  PackStateSnapshotFile(
+      File snapshotFile,
+      AssetPackStateTable assetPackStateTable,
+      ScheduledExecutorService writeScheduler) {
+    this.snapshotFile = snapshotFile;
+    this.assetPackStateTable = assetPackStateTable;
+    this.writeScheduler = writeScheduler;
+  }
+
+  /**
+   * Memory-maps the snapshot file and replays its records into the state table. A missing or
+   * foreign file is ignored and replaced by the next write. An incomplete record at the end of the
+   * log, left by a process killed during a write, is dropped and truncated away, so that later
+   * records are appended right after the last complete one.
+   */
+  synchronized void restore() {
+    if (!snapshotFile.isFile() || snapshotFile.length() < HEADER_SIZE) {
+      return;
+    }
+    long fileLength;
+    long completeLength;
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+        FileChannel channel = file.getChannel()) {
+      fileLength = channel.size();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        isCompactionRequired = true;
+        return;
+      }
+      completeLength = buffer.position();
+      long nowMs = StateUpdateManager.currentTimeMs();
+      while (buffer.remaining() >= RECORD_FIXED_SIZE) {
+        int nameLength = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < nameLength + RECORD_FIXED_SIZE - 2) {
+          break;
+        }
+        byte[] nameBytes = new byte[nameLength];
+        buffer.get(nameBytes);
+        byte flags = buffer.get();
+        int status = buffer.getInt();
+        int errorCode = buffer.getInt();
+        long bytesDownloaded = buffer.getLong();
+        long totalBytesToDownload = buffer.getLong();
+        int transferProgressPercentage = buffer.getInt();
+        completeLength = buffer.position();
+        recordCount++;
+
+        int packId = assetPackStateTable.acquirePackId(new String(nameBytes, UTF_8));
+        if ((flags & HAS_STATE_FLAG) != 0) {
+          assetPackStateTable.compareAndUpdate(
+              packId,
+              status,
+              errorCode,
+              bytesDownloaded,
+              totalBytesToDownload,
+              transferProgressPercentage,
+              nowMs);
+        } else {
+          assetPackStateTable.removeState(packId);
+        }
+        assetPackStateTable.setOngoing(packId, (flags & ONGOING_FLAG) != 0);
+        assetPackStateTable.releasePackId(packId);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to restore asset pack states", e);
+      return;
+    }
+    if (completeLength < fileLength) {
+      try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+        file.setLength(completeLength);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to truncate asset pack state snapshot", e);
+        isCompactionRequired = true;
+      }
+    }
+    assetPackStateTable.forEachState((packName, snapshot) -> restoredStateCount.incrementAndGet());
+  }
+
+  /**
+   * Marks the state of packId as changed, so that it is appended to the snapshot soon. The id,
+   * which must be pinned by the caller, stays pinned until it is written.
+   */
+  void markDirty(int packId) {
+    synchronized (dirtyPackIds) {
+      if (dirtyPackIds.get(packId)) {
+        return;
+      }
+      dirtyPackIds.set(packId);
+      assetPackStateTable.pinPackId(packId);
+      if (isWriteScheduled) {
+        return;
+      }
+      isWriteScheduled = true;
+    }
+    writeScheduler.schedule(this::flush, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Appends the current state of every dirty pack, compacting the log if it grew too large. */
+  synchronized void flush() {
+    BitSet packIdsToWrite;
+    synchronized (dirtyPackIds) {
+      isWriteScheduled = false;
+      if (dirtyPackIds.isEmpty()) {
+        return;
+      }
+      packIdsToWrite = (BitSet) dirtyPackIds.clone();
+      dirtyPackIds.clear();
+    }
+    try {
+      int packCount = assetPackStateTable.packCount();
+      if (isCompactionRequired
+          || recordCount + packIdsToWrite.cardinality()
+              > Math.max(MIN_RECORDS_BEFORE_COMPACTION, 4L * packCount)) {
+        compact(packCount);
+        return;
+      }
+      if (appendChannel == null) {
+        if (!snapshotFile.isFile() || snapshotFile.length() < HEADER_SIZE) {
+          compact(packCount);
+          return;
+        }
+        appendChannel = new FileOutputStream(snapshotFile, true).getChannel();
+      }
+      ByteBuffer records = encodeRecords(packIdsToWrite);
+      while (records.hasRemaining()) {
+        appendChannel.write(records);
+      }
+      recordCount += packIdsToWrite.cardinality();
+      appendedRecordCount.addAndGet(packIdsToWrite.cardinality());
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to persist asset pack states", e);
+    } finally {
+      releasePackIds(packIdsToWrite);
+    }
+  }
+
+  /** Writes any pending change and stops the background writer. */
+  void shutdown() {
+    flush();
+    writeScheduler.shutdownNow();
+    synchronized (this) {
+      closeAppendChannel();
+    }
+  }
+
+  /** Returns the snapshot counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(RESTORED_STATES_KEY, restoredStateCount.get());
+    metrics.put(APPENDED_RECORDS_KEY, appendedRecordCount.get());
+    metrics.put(COMPACTIONS_KEY, compactionCount.get());
+    metrics.put(SNAPSHOT_BYTES_KEY, snapshotFile.length());
+    return metrics;
+  }
+
+  /** Rewrites the snapshot with a single record per pack through AtomicFileWriter. */
+  private void compact(int packCount) throws IOException {
+    // pins every registered pack, so that no id is released and reused while it is encoded
+    BitSet allPackIds = new BitSet(packCount);
+    for (int packId = 0; packId < packCount; packId++) {
+      if (assetPackStateTable.pinPackId(packId)) {
+        allPackIds.set(packId);
+      }
+    }
+    ByteBuffer records;
+    try {
+      records = encodeRecords(allPackIds);
+    } finally {
+      releasePackIds(allPackIds);
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).flip();
+
+    AtomicFileWriter.write(snapshotFile, header, records);
+    // later records go to the compacted file, rather than to the replaced one
+    closeAppendChannel();
+    recordCount = allPackIds.cardinality();
+    isCompactionRequired = false;
+    compactionCount.incrementAndGet();
+  }
+
+  private void releasePackIds(BitSet packIds) {
+    for (int packId = packIds.nextSetBit(0); packId >= 0; packId = packIds.nextSetBit(packId + 1)) {
+      assetPackStateTable.releasePackId(packId);
+    }
+  }
+
+  /**
+   * Serializes the current state and ongoing flag of the given packs, which must be pinned, into a
+   * flipped buffer.
+   */
+  private ByteBuffer encodeRecords(BitSet packIds) {
+    int packCount = packIds.cardinality();
+    byte[][] names = new byte[packCount][];
+    int size = 0;
+    int index = 0;
+    for (int packId = packIds.nextSetBit(0); packId >= 0; packId = packIds.nextSetBit(packId + 1)) {
+      names[index] = assetPackStateTable.packName(packId).getBytes(UTF_8);
+      size += RECORD_FIXED_SIZE + names[index].length;
+      index++;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    index = 0;
+    for (int packId = packIds.nextSetBit(0); packId >= 0; packId = packIds.nextSetBit(packId + 1)) {
+      AssetPackStateSnapshot snapshot = assetPackStateTable.getSnapshot(packId);
+      byte flags = 0;
+      if (snapshot != null) {
+        flags |= HAS_STATE_FLAG;
+      }
+      if (assetPackStateTable.isOngoing(packId)) {
+        flags |= ONGOING_FLAG;
+      }
+      buffer.putShort((short) names[index].length);
+      buffer.put(names[index]);
+      buffer.put(flags);
+      buffer.putInt(snapshot == null ? 0 : snapshot.status);
+      buffer.putInt(snapshot == null ? 0 : snapshot.errorCode);
+      buffer.putLong(snapshot == null ? 0 : snapshot.bytesDownloaded);
+      buffer.putLong(snapshot == null ? 0 : snapshot.totalBytesToDownload);
+      buffer.putInt(snapshot == null ? 0 : snapshot.transferProgressPercentage);
+      index++;
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private void closeAppendChannel() {
+    if (appendChannel == null) {
+      return;
+    }
+    try {
+      appendChannel.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close asset pack state snapshot", e);
+    }
+    appendChannel = null;
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Verifies the integrity of STORAGE_FILES asset packs by hashing every file below their assetsPath,
+ * with CRC-32C by default or SHA-256, and comparing the hashes to an expected manifest. The
+ * expected manifest is the one shipped in the pack, or else the one recorded by the first
+ * verification of the installed pack. Files are hashed in parallel through memory-mapped reads, and
+ * the hashes computed by this process are cached by (path, size, modification time), so that
+ * re-verifying a pack only hashes changed files. Hashes read from disk are never trusted as cached
+ * hashes, since a file corrupted in place may keep its size and modification time.
+ *
+ * <p>A shipped manifest is a UTF-8 file named pack_manifest.crc32c or pack_manifest.sha256 at the
+ * root of the pack, holding one "hash relativePath" line per file, as written by sha256sum. A
+ * recorded manifest holds one "hash size modificationTime relativePath" line per file.
+ */
+final class PackVerifier {
+  static final String CRC32C_ALGORITHM = "CRC32C";
+  static final String SHA256_ALGORITHM = "SHA-256";
+  static final String SHIPPED_MANIFEST_NAME = "pack_manifest";
+  static final String RECORDED_MANIFEST_DIRECTORY_NAME = "pack_verification";
+
+  static final String PACK_NAME_KEY = "packName";
+  static final String ALGORITHM_KEY = "algorithm";
+  static final String MANIFEST_SOURCE_KEY = "manifestSource";
+  static final String IS_VALID_KEY = "isValid";
+  static final String VERIFIED_FILES_KEY = "verifiedFiles";
+  static final String HASHED_FILES_KEY = "hashedFiles";
+  static final String HASHED_BYTES_KEY = "hashedBytes";
+  static final String CORRUPTED_FILES_KEY = "corruptedFiles";
+  static final String MISSING_FILES_KEY = "missingFiles";
+  static final String UNEXPECTED_FILES_KEY = "unexpectedFiles";
+  static final String DURATION_MS_KEY = "durationMs";
+  static final String SHIPPED_MANIFEST_SOURCE = "shipped";
+  static final String RECORDED_MANIFEST_SOURCE = "recorded";
+  /** No manifest was found, so the hashes of this verification were recorded as the manifest. */
+  static final String NO_MANIFEST_SOURCE = "none";
+
+  static final String VERIFICATIONS_KEY = "verifications";
+  static final String CACHED_FILES_KEY = "cachedFiles";
+
+  private static final String TAG = "PackVerifier";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAPPED_WINDOW_SIZE = 64 << 20;
+  private static final int CHECKSUM_BUFFER_SIZE = 64 << 10;
+  private static final int MAX_CACHED_HASHES = 4096;
+
+  /** Receives the result of every verification, on the verification thread. */
+  interface VerificationListener {
+    void onPackVerified(Dictionary result, int signalID);
+
+    void onPackVerificationFailed(Exception e, int signalID);
+  }
+
+  private static final class FileHash {
+    final long size;
+    final long lastModified;
+    final String hash;
+
+    FileHash(long size, long lastModified, String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+
+  private final PackLocationCache packLocationCache;
+  private final VerificationListener verificationListener;
+  private final Executor verificationExecutor;
+  private final ExecutorService hashingExecutor;
+  private volatile String algorithm = CRC32C_ALGORITHM;
+  private volatile File manifestDirectory;
+  // the fields below are guarded by this
+  // hashes keyed by algorithm and absolute path of the hashed file, least recently used first
+  private final Map<String, FileHash> hashCache =
+      new LinkedHashMap<String, FileHash>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FileHash> eldest) {
+          return size() > MAX_CACHED_HASHES;
+        }
+      };
+  // recorded manifests keyed by algorithm and pack name, each keyed by relative path
+  private final Map<String, Map<String, FileHash>> recordedManifests = new HashMap<>();
+  private final AtomicLong verificationCount = new AtomicLong();
+  private final AtomicLong hashedFileCount = new AtomicLong();
+  private final AtomicLong cachedFileCount = new AtomicLong();
+  private final AtomicLong hashedByteCount = new AtomicLong();
+
+  PackVerifier(
+      PackLocationCache packLocationCache,
+      VerificationListener verificationListener,
+      Executor verificationExecutor,
+      ExecutorService hashingExecutor) {
+    this.packLocationCache = packLocationCache;
+    this.verificationListener = verificationListener;
+    this.verificationExecutor = verificationExecutor;
+    this.hashingExecutor = hashingExecutor;
+  }
+
+  /**
+   * Sets the hash algorithm of later verifications.
+   *
+   * @return false if algorithm is neither CRC32C_ALGORITHM nor SHA256_ALGORITHM
+   */
+  boolean setAlgorithm(String algorithm) {
+    if (!CRC32C_ALGORITHM.equals(algorithm) && !SHA256_ALGORITHM.equals(algorithm)) {
+      return false;
+    }
+    this.algorithm = algorithm;
+    return true;
+  }
+
+  /** Persists recorded manifests below manifestDirectory, so that they outlive the process. */
+  void setManifestDirectory(File manifestDirectory) {
+    this.manifestDirectory = manifestDirectory;
+  }
+
+  /** Verifies packName in the background, and reports the result to the listener. */
+  void verify(String packName, int signalID) {
+    verificationExecutor.execute(
+        () -> {
+          Dictionary result;
+          try {
+            result = verifyNow(packName);
+          } catch (Exception e) {
+            verificationListener.onPackVerificationFailed(e, signalID);
+            return;
+          }
+          verificationListener.onPackVerified(result, signalID);
+        });
+  }
+
+  /** Drops the recorded manifests of packName, whose content was just replaced by an update. */
+  void onPackCompleted(String packName) {
+    File directory = manifestDirectory;
+    for (String packAlgorithm : new String[] {CRC32C_ALGORITHM, SHA256_ALGORITHM}) {
+      synchronized (this) {
+        recordedManifests.remove(manifestKey(packAlgorithm, packName));
+      }
+      if (directory != null) {
+        new File(directory, recordedManifestName(packAlgorithm, packName)).delete();
+      }
+    }
+  }
+
+  /** Stops the verification threads. */
+  void shutdown() {
+    hashingExecutor.shutdownNow();
+    if (verificationExecutor instanceof ExecutorService) {
+      ((ExecutorService) verificationExecutor).shutdownNow();
+    }
+  }
+
+  /** Returns the verification counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(VERIFICATIONS_KEY, verificationCount.get());
+    metrics.put(HASHED_FILES_KEY, hashedFileCount.get());
+    metrics.put(CACHED_FILES_KEY, cachedFileCount.get());
+    metrics.put(HASHED_BYTES_KEY, hashedByteCount.get());
+    return metrics;
+  }
+
+  Dictionary verifyNow(String packName) throws IOException {
+    long startTimeMs = StateUpdateManager.currentTimeMs();
+    String verificationAlgorithm = algorithm;
+    Dictionary packLocation = packLocationCache.getPackLocation(packName);
+    if (packLocation == null) {
+      throw new IOException("Asset pack " + packName + " is not installed");
+    }
+    if ((int) packLocation.get(AssetPackLocationFromDictionary.PACK_STORAGE_METHOD_KEY)
+        != AssetPackStorageMethod.STORAGE_FILES) {
+      throw new IOException("Asset pack " + packName + " is not stored as files");
+    }
+    File root =
+        new File((String) packLocation.get(AssetPackLocationFromDictionary.ASSETS_PATH_KEY));
+    File shippedManifest = new File(root, shippedManifestName(verificationAlgorithm));
+    List<String> relativePaths = PackContentManifest.listRelativePaths(root);
+    relativePaths.remove(shippedManifestName(CRC32C_ALGORITHM));
+    relativePaths.remove(shippedManifestName(SHA256_ALGORITHM));
+    Collections.sort(relativePaths);
+
+    String manifestSource;
+    Map<String, String> expectedHashes;
+    if (shippedManifest.isFile()) {
+      manifestSource = SHIPPED_MANIFEST_SOURCE;
+      expectedHashes = readShippedManifest(shippedManifest);
+    } else {
+      Map<String, FileHash> recordedManifest = recordedManifest(verificationAlgorithm, packName);
+      if (recordedManifest != null) {
+        manifestSource = RECORDED_MANIFEST_SOURCE;
+        expectedHashes = new HashMap<>();
+        for (Map.Entry<String, FileHash> entry : recordedManifest.entrySet()) {
+          expectedHashes.put(entry.getKey(), entry.getValue().hash);
+        }
+      } else {
+        manifestSource = NO_MANIFEST_SOURCE;
+        expectedHashes = null;
+      }
+    }
+
+    Map<String, FileHash> actualHashes = hashFiles(verificationAlgorithm, root, relativePaths);
+    List<String> corruptedFiles = new ArrayList<>();
+    List<String> unexpectedFiles = new ArrayList<>();
+    List<String> missingFiles = new ArrayList<>();
+    if (expectedHashes != null) {
+      for (String relativePath : relativePaths) {
+        String expectedHash = expectedHashes.get(relativePath);
+        if (expectedHash == null) {
+          unexpectedFiles.add(relativePath);
+        } else if (!expectedHash.equalsIgnoreCase(actualHashes.get(relativePath).hash)) {
+          corruptedFiles.add(relativePath);
+        }
+      }
+      for (String relativePath : expectedHashes.keySet()) {
+        if (!actualHashes.containsKey(relativePath)) {
+          missingFiles.add(relativePath);
+        }
+      }
+      Collections.sort(missingFiles);
+    } else {
+      recordManifest(verificationAlgorithm, packName, actualHashes);
+    }
+    verificationCount.incrementAndGet();
+
+    Dictionary result = new Dictionary();
+    result.put(PACK_NAME_KEY, packName);
+    result.put(ALGORITHM_KEY, verificationAlgorithm);
+    result.put(MANIFEST_SOURCE_KEY, manifestSource);
+    result.put(
+        IS_VALID_KEY,
+        corruptedFiles.isEmpty() && missingFiles.isEmpty() && unexpectedFiles.isEmpty());
+    result.put(VERIFIED_FILES_KEY, relativePaths.size());
+    result.put(CORRUPTED_FILES_KEY, corruptedFiles.toArray(new String[0]));
+    result.put(MISSING_FILES_KEY, missingFiles.toArray(new String[0]));
+    result.put(UNEXPECTED_FILES_KEY, unexpectedFiles.toArray(new String[0]));
+    result.put(DURATION_MS_KEY, StateUpdateManager.currentTimeMs() - startTimeMs);
+    return result;
+  }
+
+  private Map<String, FileHash> hashFiles(
+      String verificationAlgorithm, File root, List<String> relativePaths) throws IOException {
+    List<Callable<FileHash>> hashTasks = new ArrayList<>();
+    for (String relativePath : relativePaths) {
+      File file = new File(root, relativePath);
+      hashTasks.add(() -> hashFile(verificationAlgorithm, file));
+    }
+    Map<String, FileHash> fileHashes = new HashMap<>();
+    try {
+      List<Future<FileHash>> hashFutures = hashingExecutor.invokeAll(hashTasks);
+      for (int i = 0; i < relativePaths.size(); i++) {
+        fileHashes.put(relativePaths.get(i), hashFutures.get(i).get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Verification was interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+    return fileHashes;
+  }
+
+  private FileHash hashFile(String verificationAlgorithm, File file) throws IOException {
+    long size = file.length();
+    long lastModified = file.lastModified();
+    String cacheKey = manifestKey(verificationAlgorithm, file.getPath());
+    synchronized (this) {
+      FileHash cachedHash = hashCache.get(cacheKey);
+      if (cachedHash != null
+          && cachedHash.size == size
+          && cachedHash.lastModified == lastModified) {
+        cachedFileCount.incrementAndGet();
+        return cachedHash;
+      }
+    }
+    FileHash fileHash = new FileHash(size, lastModified, computeHash(verificationAlgorithm, file));
+    synchronized (this) {
+      hashCache.put(cacheKey, fileHash);
+    }
+    hashedFileCount.incrementAndGet();
+    hashedByteCount.addAndGet(size);
+    return fileHash;
+  }
+
+  private static String computeHash(String verificationAlgorithm, File file) throws IOException {
+    MessageDigest digest = null;
+    Crc32c crc32c = null;
+    if (SHA256_ALGORITHM.equals(verificationAlgorithm)) {
+      try {
+        digest = MessageDigest.getInstance(SHA256_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+    } else {
+      crc32c = new Crc32c();
+    }
+    byte[] checksumBuffer = new byte[CHECKSUM_BUFFER_SIZE];
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+        MappedByteBuffer window =
+            channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                Math.min(MAPPED_WINDOW_SIZE, size - position));
+        if (digest != null) {
+          digest.update(window);
+          continue;
+        }
+        while (window.hasRemaining()) {
+          int length = Math.min(checksumBuffer.length, window.remaining());
+          window.get(checksumBuffer, 0, length);
+          crc32c.update(checksumBuffer, 0, length);
+        }
+      }
+    }
+    if (digest != null) {
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    }
+    return String.format("%08x", crc32c.getValue());
+  }
+
+  private Map<String, FileHash> recordedManifest(String verificationAlgorithm, String packName) {
+    String manifestKey = manifestKey(verificationAlgorithm, packName);
+    synchronized (this) {
+      if (recordedManifests.containsKey(manifestKey)) {
+        return recordedManifests.get(manifestKey);
+      }
+    }
+    File directory = manifestDirectory;
+    if (directory == null) {
+      return null;
+    }
+    File manifestFile = new File(directory, recordedManifestName(verificationAlgorithm, packName));
+    if (!manifestFile.isFile()) {
+      return null;
+    }
+    Map<String, FileHash> recordedManifest = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ", 4);
+        if (fields.length == 4) {
+          recordedManifest.put(
+              fields[3],
+              new FileHash(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      Log.w(TAG, "Failed to read recorded manifest of " + packName, e);
+      return null;
+    }
+    synchronized (this) {
+      recordedManifests.put(manifestKey, recordedManifest);
+    }
+    return recordedManifest;
+  }
+
+  private void recordManifest(
+      String verificationAlgorithm, String packName, Map<String, FileHash> fileHashes) {
+    synchronized (this) {
+      recordedManifests.put(manifestKey(verificationAlgorithm, packName), fileHashes);
+    }
+    File directory = manifestDirectory;
+    if (directory == null) {
+      return;
+    }
+    File manifestFile = new File(directory, recordedManifestName(verificationAlgorithm, packName));
+    directory.mkdirs();
+    try {
+      AtomicFileWriter.write(
+          manifestFile,
+          output -> {
+            Writer writer = new OutputStreamWriter(output, UTF_8);
+            for (Map.Entry<String, FileHash> entry : fileHashes.entrySet()) {
+              FileHash fileHash = entry.getValue();
+              writer.write(
+                  fileHash.hash
+                      + " "
+                      + fileHash.size
+                      + " "
+                      + fileHash.lastModified
+                      + " "
+                      + entry.getKey()
+                      + "\n");
+            }
+            writer.flush();
+          });
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to record manifest of " + packName, e);
+    }
+  }
+
+  private static Map<String, String> readShippedManifest(File manifestFile) throws IOException {
+    Map<String, String> expectedHashes = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        int separator = line.indexOf(' ');
+        if (separator < 0) {
+          continue;
+        }
+        // sha256sum separates the path by two spaces, or by " *" in binary mode
+        String relativePath = line.substring(separator + 1).trim();
+        if (relativePath.startsWith("*")) {
+          relativePath = relativePath.substring(1);
+        }
+        expectedHashes.put(relativePath, line.substring(0, separator));
+      }
+    }
+    return expectedHashes;
+  }
+
+  private static String shippedManifestName(String verificationAlgorithm) {
+    return SHIPPED_MANIFEST_NAME
+        + (SHA256_ALGORITHM.equals(verificationAlgorithm) ? ".sha256" : ".crc32c");
+  }
+
+  private static String recordedManifestName(String verificationAlgorithm, String packName) {
+    return packName + (SHA256_ALGORITHM.equals(verificationAlgorithm) ? ".sha256" : ".crc32c");
+  }
+
+  private static String manifestKey(String verificationAlgorithm, String name) {
+    return verificationAlgorithm + ":" + name;
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Pulls the hot assets of a pack into the page cache as soon as the pack reaches COMPLETED, so that
+ * the first level load does not stall on cold disk reads. The hot assets of a pack are the ones set
+ * with setWarmupAssets(), or else the first assets of the pack whose location was looked up by the
+ * game. Those are learned in one session and persisted by flush(), so that the update of a pack in
+ * a later session warms the assets that the previous one used. They are read ahead in chunks on a
+ * background pool, in parallel, until the byte budget of the warmup is spent or the warmup is
+ * canceled. Reads go straight to the files rather than through MappedAssetReader, so that warming
+ * up does not evict the mappings that the game is using.
+ */
+final class PackWarmer implements AssetLocationIndex.AccessListener {
+  static final String STARTED_WARMUPS_KEY = "startedWarmups";
+  static final String COMPLETED_WARMUPS_KEY = "completedWarmups";
+  static final String CANCELED_WARMUPS_KEY = "canceledWarmups";
+  static final String PENDING_ASSETS_KEY = "pendingAssets";
+  static final String WARMED_ASSETS_KEY = "warmedAssets";
+  static final String WARMED_BYTES_KEY = "warmedBytes";
+  static final String LAST_WARMUP_DURATION_MS_KEY = "lastWarmupDurationMs";
+  static final int DEFAULT_BYTE_BUDGET = 64 << 20;
+  static final int MAX_LEARNED_ASSETS_PER_PACK = 64;
+  static final int WARMUP_THREAD_COUNT = 2;
+  static final String LEARNED_ASSETS_DIRECTORY_NAME = "pack_hot_assets";
+  static final String LEARNED_ASSETS_FILE_EXTENSION = ".hot";
+
+  private static final String TAG = "PackWarmer";
+  private static final int MAGIC = 0x50414857; // "PAHW"
+  private static final int VERSION = 1;
+  private static final int READ_AHEAD_CHUNK_SIZE = 64 << 10;
+
+  private final AssetLocationIndex assetLocationIndex;
+  private final Executor warmupExecutor;
+  private volatile File learnedAssetDirectory;
+  // the fields below are guarded by this
+  private final Map<String, List<String>> explicitAssetPaths = new HashMap<>();
+  // assets looked up in this session, which replace the persisted ones with the next flush
+  private final Map<String, LinkedHashSet<String>> learnedAssetPaths = new HashMap<>();
+  private final Set<String> dirtyPacks = new LinkedHashSet<>();
+  private long byteBudget = DEFAULT_BYTE_BUDGET;
+  // incremented by cancel(), so that running warmups notice that they were canceled
+  private volatile long generation;
+  private final AtomicLong startedWarmupCount = new AtomicLong();
+  private final AtomicLong completedWarmupCount = new AtomicLong();
+  private final AtomicLong canceledWarmupCount = new AtomicLong();
+  private final AtomicLong pendingAssetCount = new AtomicLong();
+  private final AtomicLong warmedAssetCount = new AtomicLong();
+  private final AtomicLong warmedByteCount = new AtomicLong();
+  private final AtomicLong lastWarmupDurationMs = new AtomicLong();
+
+  PackWarmer(AssetLocationIndex assetLocationIndex, Executor warmupExecutor) {
+    this.assetLocationIndex = assetLocationIndex;
+    this.warmupExecutor = warmupExecutor;
+  }
+
+  /**
+   * Persists the learned assets of every pack below learnedAssetDirectory with flush(), and warms
+   * packs without assets learned in this session with the persisted ones.
+   */
+  void setLearnedAssetDirectory(File learnedAssetDirectory) {
+    this.learnedAssetDirectory = learnedAssetDirectory;
+  }
+
+  /**
+   * Sets the assets warmed up once packName reaches COMPLETED. An empty array falls back to the
+   * assets learned from earlier lookups.
+   */
+  synchronized void setWarmupAssets(String packName, String[] assetPaths) {
+    if (assetPaths.length == 0) {
+      explicitAssetPaths.remove(packName);
+    } else {
+      explicitAssetPaths.put(packName, new ArrayList<>(Arrays.asList(assetPaths)));
+    }
+  }
+
+  /** Sets how many bytes a single warmup may touch. A non-positive value disables warmups. */
+  synchronized void setByteBudget(long byteBudget) {
+    this.byteBudget = byteBudget;
+  }
+
+  @Override
+  public synchronized void onAssetAccessed(String packName, String assetPath) {
+    LinkedHashSet<String> assetPaths = learnedAssetPaths.get(packName);
+    if (assetPaths == null) {
+      assetPaths = new LinkedHashSet<>();
+      learnedAssetPaths.put(packName, assetPaths);
+    }
+    if (assetPaths.size() < MAX_LEARNED_ASSETS_PER_PACK && assetPaths.add(assetPath)) {
+      dirtyPacks.add(packName);
+    }
+  }
+
+  /** Starts warming up the hot assets of packName, which just reached COMPLETED. */
+  void onPackCompleted(String packName) {
+    List<String> assetPaths;
+    long budget;
+    synchronized (this) {
+      assetPaths = explicitAssetPaths.get(packName);
+      if (assetPaths == null && learnedAssetPaths.containsKey(packName)) {
+        assetPaths = new ArrayList<>(learnedAssetPaths.get(packName));
+      }
+      budget = byteBudget;
+    }
+    if (budget <= 0) {
+      return;
+    }
+    if (assetPaths == null) {
+      File directory = learnedAssetDirectory;
+      if (directory != null) {
+        long warmupGeneration = generation;
+        // the persisted assets are read on the pool, off the thread that reported the state
+        warmupExecutor.execute(
+            () -> {
+              List<String> persistedAssetPaths = restoreLearnedAssets(directory, packName);
+              if (persistedAssetPaths != null && warmupGeneration == generation) {
+                startWarmup(packName, persistedAssetPaths, budget);
+              }
+            });
+      }
+      return;
+    }
+    startWarmup(packName, assetPaths, budget);
+  }
+
+  /** Persists the assets learned in this session for the packs whose learned assets changed. */
+  void flush() {
+    File directory = learnedAssetDirectory;
+    Map<String, List<String>> packsToWrite = new LinkedHashMap<>();
+    synchronized (this) {
+      if (directory == null) {
+        return;
+      }
+      for (String packName : dirtyPacks) {
+        packsToWrite.put(packName, new ArrayList<>(learnedAssetPaths.get(packName)));
+      }
+      dirtyPacks.clear();
+    }
+    if (packsToWrite.isEmpty()) {
+      return;
+    }
+    directory.mkdirs();
+    for (Map.Entry<String, List<String>> entry : packsToWrite.entrySet()) {
+      try {
+        AtomicFileWriter.write(
+            learnedAssetFile(directory, entry.getKey()),
+            outputStream -> {
+              DataOutputStream output = new DataOutputStream(outputStream);
+              output.writeInt(MAGIC);
+              output.writeInt(VERSION);
+              output.writeInt(entry.getValue().size());
+              for (String assetPath : entry.getValue()) {
+                output.writeUTF(assetPath);
+              }
+            });
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to persist the learned assets of pack " + entry.getKey(), e);
+      }
+    }
+  }
+
+  private void startWarmup(String packName, List<String> assetPaths, long budget) {
+    if (assetPaths.isEmpty()) {
+      return;
+    }
+    long warmupGeneration = generation;
+    long startTimeMs = StateUpdateManager.currentTimeMs();
+    AtomicLong remainingBudget = new AtomicLong(budget);
+    AtomicInteger remainingAssetCount = new AtomicInteger(assetPaths.size());
+    startedWarmupCount.incrementAndGet();
+    pendingAssetCount.addAndGet(assetPaths.size());
+    for (String assetPath : assetPaths) {
+      warmupExecutor.execute(
+          () -> {
+            warmUpAsset(packName, assetPath, remainingBudget, warmupGeneration);
+            pendingAssetCount.decrementAndGet();
+            if (remainingAssetCount.decrementAndGet() == 0) {
+              if (warmupGeneration == generation) {
+                completedWarmupCount.incrementAndGet();
+                lastWarmupDurationMs.set(StateUpdateManager.currentTimeMs() - startTimeMs);
+              } else {
+                canceledWarmupCount.incrementAndGet();
+              }
+            }
+          });
+    }
+  }
+
+  /** Cancels every running warmup, e.g. because the game started loading on its own. */
+  synchronized void cancel() {
+    generation++;
+  }
+
+  /** Cancels every running warmup and stops the warmup threads. */
+  void shutdown() {
+    cancel();
+    if (warmupExecutor instanceof ExecutorService) {
+      ((ExecutorService) warmupExecutor).shutdownNow();
+    }
+  }
+
+  /** Returns the warmup progress and timing serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(STARTED_WARMUPS_KEY, startedWarmupCount.get());
+    metrics.put(COMPLETED_WARMUPS_KEY, completedWarmupCount.get());
+    metrics.put(CANCELED_WARMUPS_KEY, canceledWarmupCount.get());
+    metrics.put(PENDING_ASSETS_KEY, pendingAssetCount.get());
+    metrics.put(WARMED_ASSETS_KEY, warmedAssetCount.get());
+    metrics.put(WARMED_BYTES_KEY, warmedByteCount.get());
+    metrics.put(LAST_WARMUP_DURATION_MS_KEY, lastWarmupDurationMs.get());
+    return metrics;
+  }
+
+  private void warmUpAsset(
+      String packName, String assetPath, AtomicLong remainingBudget, long warmupGeneration) {
+    if (warmupGeneration != generation || remainingBudget.get() <= 0) {
+      return;
+    }
+    Dictionary assetLocation = assetLocationIndex.resolveAssetLocation(packName, assetPath);
+    if (assetLocation == null) {
+      return;
+    }
+    long offset = (long) assetLocation.get(AssetLocationFromDictionary.OFFSET_KEY);
+    long reservedBytes =
+        reserve(remainingBudget, (long) assetLocation.get(AssetLocationFromDictionary.SIZE_KEY));
+    long readBytes = 0;
+    try (FileInputStream input =
+        new FileInputStream((String) assetLocation.get(AssetLocationFromDictionary.PATH_KEY))) {
+      FileChannel channel = input.getChannel();
+      ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(READ_AHEAD_CHUNK_SIZE, reservedBytes));
+      while (readBytes < reservedBytes) {
+        if (warmupGeneration != generation) {
+          warmedByteCount.addAndGet(readBytes);
+          return;
+        }
+        chunk.clear();
+        chunk.limit((int) Math.min(chunk.capacity(), reservedBytes - readBytes));
+        int chunkBytes = channel.read(chunk, offset + readBytes);
+        if (chunkBytes <= 0) {
+          break;
+        }
+        readBytes += chunkBytes;
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read ahead asset " + assetPath + " of pack " + packName, e);
+      warmedByteCount.addAndGet(readBytes);
+      return;
+    }
+    warmedByteCount.addAndGet(readBytes);
+    warmedAssetCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the learned assets of packName persisted below directory, or null if there are none.
+   */
+  private static List<String> restoreLearnedAssets(File directory, String packName) {
+    File learnedAssetFile = learnedAssetFile(directory, packName);
+    if (!learnedAssetFile.isFile()) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new FileInputStream(learnedAssetFile))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return null;
+      }
+      int assetCount = input.readInt();
+      if (assetCount < 0 || assetCount > MAX_LEARNED_ASSETS_PER_PACK) {
+        return null;
+      }
+      List<String> assetPaths = new ArrayList<>(assetCount);
+      for (int i = 0; i < assetCount; i++) {
+        assetPaths.add(input.readUTF());
+      }
+      return assetPaths;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to restore the learned assets of pack " + packName, e);
+      return null;
+    }
+  }
+
+  private static File learnedAssetFile(File directory, String packName) {
+    return new File(directory, packName + LEARNED_ASSETS_FILE_EXTENSION);
+  }
+
+  /** Takes up to wantedBytes out of remainingBudget, and returns how many bytes were taken. */
+  private static long reserve(AtomicLong remainingBudget, long wantedBytes) {
+    while (true) {
+      long remaining = remainingBudget.get();
+      long reserved = Math.min(remaining, wantedBytes);
+      if (reserved <= 0 || remainingBudget.compareAndSet(remaining, remaining - reserved)) {
+        return Math.max(reserved, 0);
+      }
+    }
+  }
+}
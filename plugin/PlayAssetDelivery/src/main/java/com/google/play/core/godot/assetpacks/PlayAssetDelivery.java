@@ -18,20 +18,21 @@ package com.google.play.core.godot.assetpacks;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
-import com.google.android.play.core.assetpacks.AssetLocation;
-import com.google.android.play.core.assetpacks.AssetPackLocation;
 import com.google.android.play.core.assetpacks.AssetPackManager;
 import com.google.android.play.core.assetpacks.AssetPackManagerFactory;
+import com.google.android.play.core.assetpacks.AssetPackState;
 import com.google.android.play.core.assetpacks.AssetPackStates;
 import com.google.android.play.core.tasks.OnFailureListener;
 import com.google.android.play.core.tasks.OnSuccessListener;
 import com.google.android.play.core.tasks.Task;
 import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
 import org.godotengine.godot.plugin.GodotPlugin;
@@ -47,8 +48,16 @@ public class PlayAssetDelivery extends GodotPlugin {
 
   private AssetPackManager assetPackManager;
   StateUpdateManager stateUpdateManager;
+  AssetPackComponents components;
+  // keeps the updates of the global state listener in order on the callback workers
+  private Executor stateUpdateListenerExecutor;
+  // restores and writes the persisted pack data off the main thread, since every write is fsynced
+  ExecutorService persistenceExecutor =
+      AssetPackComponents.newDaemonThreadPool("PlayAssetDeliveryPersistence", 1);
+  final SingleFlightTaskRegistry singleFlightTaskRegistry = new SingleFlightTaskRegistry();
 
   static final String ASSET_PACK_STATE_UPDATED = "assetPackStateUpdated";
+  static final String ASSET_PACK_STATES_BATCH_UPDATED = "assetPackStatesBatchUpdated";
   static final String FETCH_SUCCESS = "fetchSuccess";
   static final String FETCH_ERROR = "fetchError";
   static final String GET_PACK_STATES_SUCCESS = "getPackStatesSuccess";
@@ -58,12 +67,66 @@ public class PlayAssetDelivery extends GodotPlugin {
   static final String SHOW_CELLULAR_DATA_CONFIRMATION_SUCCESS =
       "showCellularDataConfirmationSuccess";
   static final String SHOW_CELLULAR_DATA_CONFIRMATION_ERROR = "showCellularDataConfirmationError";
+  static final String ASSET_CHUNK_READY = "assetChunkReady";
+  static final String ASSET_STREAM_COMPLETED = "assetStreamCompleted";
+  static final String ASSET_STREAM_ERROR = "assetStreamError";
+  static final String VERIFY_PACK_SUCCESS = "verifyPackSuccess";
+  static final String VERIFY_PACK_ERROR = "verifyPackError";
+
+  static final String STATE_UPDATE_DISPATCHER_METRICS_KEY = "stateUpdateDispatcher";
+  static final String STATE_UPDATE_MANAGER_METRICS_KEY = "stateUpdateManager";
+  static final String PACK_STATE_SNAPSHOT_METRICS_KEY = "packStateSnapshot";
+  static final String CALLBACK_EXECUTOR_METRICS_KEY = "callbackExecutor";
+  static final String FETCH_SCHEDULER_METRICS_KEY = "fetchScheduler";
+  static final String SINGLE_FLIGHT_METRICS_KEY = "singleFlight";
+  static final String PACK_LOCATION_CACHE_METRICS_KEY = "packLocationCache";
+  static final String ASSET_LOCATION_INDEX_METRICS_KEY = "assetLocationIndex";
+  static final String MAPPED_ASSET_READER_METRICS_KEY = "mappedAssetReader";
+  static final String ASSET_STREAMER_METRICS_KEY = "assetStreamer";
+  static final String PACK_WARMER_METRICS_KEY = "packWarmer";
+  static final String PACK_VERIFIER_METRICS_KEY = "packVerifier";
+  static final String PACK_CONTENT_MANIFESTS_METRICS_KEY = "packContentManifests";
+  static final String ASSET_LISTER_METRICS_KEY = "assetLister";
+  static final String ASSET_OVERLAY_RESOLVER_METRICS_KEY = "assetOverlayResolver";
+  static final String PACK_BLOOM_FILTERS_METRICS_KEY = "packBloomFilters";
+  static final String STORAGE_BUDGET_METRICS_KEY = "storageBudget";
+  static final String PACK_PREFETCHER_METRICS_KEY = "packPrefetcher";
+
+  // operation names of the Tasks deduplicated by singleFlightTaskRegistry
+  private static final String FETCH_OPERATION = "fetch";
+  private static final String GET_PACK_STATES_OPERATION = "getPackStates";
+  private static final String REMOVE_PACK_OPERATION = "removePack";
 
   public PlayAssetDelivery(Godot godot) {
     super(godot);
     Context applicationContext = godot.getApplicationContext();
     assetPackManager = AssetPackManagerFactory.getInstance(applicationContext);
     this.stateUpdateManager = new StateUpdateManager(this, assetPackManager);
+    this.components =
+        new AssetPackComponents(
+            this, assetPackManager, stateUpdateManager, stateUpdateManager.callbackExecutor);
+    stateUpdateManager.setTerminalStateListener(components);
+    this.stateUpdateListenerExecutor = components.callbackExecutor.newSerialExecutor();
+    components.callbackExecutor.setWorkerThreadCount(CallbackExecutor.DEFAULT_WORKER_THREAD_COUNT);
+    // serve the states known before the process was started until Play answers, restored off the
+    // main thread
+    stateUpdateManager.enableStatePersistence(
+        new File(applicationContext.getFilesDir(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME),
+        persistenceExecutor);
+    components.packContentManifestStore.setManifestDirectory(
+        new File(
+            applicationContext.getFilesDir(), PackContentManifestStore.MANIFEST_DIRECTORY_NAME));
+    components.packBloomFilterStore.setFilterDirectory(
+        new File(applicationContext.getFilesDir(), PackBloomFilterStore.FILTER_DIRECTORY_NAME));
+    components.packVerifier.setManifestDirectory(
+        new File(applicationContext.getFilesDir(), PackVerifier.RECORDED_MANIFEST_DIRECTORY_NAME));
+    File filesDir = applicationContext.getFilesDir();
+    components.storageBudgetManager.setFreeSpaceSource(filesDir::getUsableSpace);
+    components.storageBudgetManager.setAccessFile(
+        new File(filesDir, StorageBudgetManager.ACCESS_FILE_NAME));
+    components.packPrefetcher.setHistoryFile(new File(filesDir, PackPrefetcher.HISTORY_FILE_NAME));
+    components.packWarmer.setLearnedAssetDirectory(
+        new File(filesDir, PackWarmer.LEARNED_ASSETS_DIRECTORY_NAME));
   }
 
   /** Package-private constructor used to instantiate PlayAssetDelivery class with mock objects. */
@@ -71,16 +134,24 @@ public class PlayAssetDelivery extends GodotPlugin {
     super(godot);
     this.assetPackManager = assetPackManager;
     this.stateUpdateManager = new StateUpdateManager(this, assetPackManager);
+    this.components =
+        new AssetPackComponents(
+            this, assetPackManager, stateUpdateManager, stateUpdateManager.callbackExecutor);
+    stateUpdateManager.setTerminalStateListener(components);
+    this.stateUpdateListenerExecutor = components.callbackExecutor.newSerialExecutor();
   }
 
   @Override
   public void onMainPause() {
     assetPackManager.clearListeners();
+    persistenceExecutor.execute(this::flushPersistentState);
     super.onMainPause();
   }
 
   @Override
   public void onMainResume() {
+    // packs may have been removed or updated while the app was in background
+    components.packLocationCache.invalidateAll();
     stateUpdateManager.forceAssetPackStateUpdate();
     registerAssetPackStateUpdatedListener();
     super.onMainResume();
@@ -89,16 +160,48 @@ public class PlayAssetDelivery extends GodotPlugin {
   @Override
   public void onMainDestroy() {
     assetPackManager.clearListeners();
+    stateUpdateManager.stateUpdateDispatcher.shutdown();
+    components.shutdown();
+    persistenceExecutor.execute(
+        () -> {
+          flushPersistentState();
+          if (stateUpdateManager.packStateSnapshotFile != null) {
+            stateUpdateManager.packStateSnapshotFile.shutdown();
+          }
+        });
+    // the queued writes still run, but no thread is kept around afterwards
+    persistenceExecutor.shutdown();
     super.onMainDestroy();
   }
 
+  /**
+   * Writes the pack states, the pack recency, the fetch history and the learned hot assets that
+   * changed since the last write.
+   */
+  private void flushPersistentState() {
+    if (stateUpdateManager.packStateSnapshotFile != null) {
+      stateUpdateManager.packStateSnapshotFile.flush();
+    }
+    components.storageBudgetManager.flush();
+    components.packPrefetcher.flush();
+    components.packWarmer.flush();
+  }
+
   /**
    * Register a global listener that can emit assetPackStateUpdated signal whenever an AssetPack's
    * state is updated.
    */
   void registerAssetPackStateUpdatedListener() {
     assetPackManager.registerListener(
-        state -> stateUpdateManager.emitNonDuplicateStateUpdatedSignal(state, true));
+        state ->
+            stateUpdateListenerExecutor.execute(
+                () -> stateUpdateManager.emitNonDuplicateStateUpdatedSignal(state, true)));
+  }
+
+  /** Records a use of packName by the game for the storage budget and the prefetcher. */
+  private void recordPackUse(String packName) {
+    components.storageBudgetManager.onPackAccessed(packName);
+    components.packPrefetcher.onPackUsed(packName);
   }
 
   /**
@@ -119,21 +222,52 @@ public class PlayAssetDelivery extends GodotPlugin {
   @Override
   public List<String> getPluginMethods() {
     return Arrays.asList(
+        "acknowledgeAssetChunk",
         "cancel",
+        "cancelWarmup",
+        "closeAssetStream",
         "fetch",
+        "fetchWithPriority",
         "getAssetLocation",
+        "getAssetLocations",
+        "getCachedPackStates",
         "getPackLocation",
         "getPackLocations",
         "getPackStates",
+        "getPluginMetrics",
+        "globAssets",
+        "listAssets",
+        "openAssetStream",
+        "readAsset",
         "removePack",
-        "showCellularDataConfirmation");
+        "resolveAsset",
+        "setCallbackWorkerThreadCount",
+        "setDeltaStateUpdatesEnabled",
+        "setFetchPriority",
+        "setMaxConcurrentFetches",
+        "setMaxStateUpdateRate",
+        "setPackPinned",
+        "setPackPrecedence",
+        "setPackVerificationAlgorithm",
+        "setPrefetchPolicy",
+        "setProgressGranularity",
+        "setStateBatchingEnabled",
+        "setStorageBudget",
+        "setTerminalStateRetention",
+        "setWarmupAssets",
+        "setWarmupByteBudget",
+        "showCellularDataConfirmation",
+        "verifyPack");
   }
 
   /**
    * Returns a set containing all the signals the Godot runtime is able to receive.
    * Below is the documentation for all signals registered.
    * <pre>
-   * AssetPackStateUpdateSignal - passes AssetPackState serialized as Dictionary.
+   * AssetPackStateUpdateSignal - passes AssetPackState serialized as Dictionary, or only its
+   * changed fields along with a sequenceNumber if delta state updates are enabled.
+   * assetPackStatesBatchUpdated - passes a Dictionary mapping the name of every pack updated during
+   * a dispatch window to its AssetPackState serialized as Dictionary.
    * All the signals below also passes signalID. fetchSuccess - passes
    * AssetPackStates serialized as Dictionary.
    * fetchError - passes Error serialized as Dictionary.
@@ -152,6 +286,7 @@ public class PlayAssetDelivery extends GodotPlugin {
   public Set<SignalInfo> getPluginSignals() {
     Set<SignalInfo> availableSignals = new HashSet<>();
     availableSignals.add(new SignalInfo(ASSET_PACK_STATE_UPDATED, Dictionary.class));
+    availableSignals.add(new SignalInfo(ASSET_PACK_STATES_BATCH_UPDATED, Dictionary.class));
     availableSignals.add(new SignalInfo(FETCH_SUCCESS, Dictionary.class, Integer.class));
     availableSignals.add(new SignalInfo(FETCH_ERROR, Dictionary.class, Integer.class));
     availableSignals.add(new SignalInfo(GET_PACK_STATES_SUCCESS, Dictionary.class, Integer.class));
@@ -162,6 +297,11 @@ public class PlayAssetDelivery extends GodotPlugin {
         new SignalInfo(SHOW_CELLULAR_DATA_CONFIRMATION_SUCCESS, Integer.class, Integer.class));
     availableSignals.add(
         new SignalInfo(SHOW_CELLULAR_DATA_CONFIRMATION_ERROR, Dictionary.class, Integer.class));
+    availableSignals.add(new SignalInfo(ASSET_CHUNK_READY, Integer.class, byte[].class));
+    availableSignals.add(new SignalInfo(ASSET_STREAM_COMPLETED, Integer.class));
+    availableSignals.add(new SignalInfo(ASSET_STREAM_ERROR, Dictionary.class, Integer.class));
+    availableSignals.add(new SignalInfo(VERIFY_PACK_SUCCESS, Dictionary.class, Integer.class));
+    availableSignals.add(new SignalInfo(VERIFY_PACK_ERROR, Dictionary.class, Integer.class));
     return availableSignals;
   }
 
@@ -176,31 +316,314 @@ public class PlayAssetDelivery extends GodotPlugin {
     return PlayAssetDeliveryUtils.convertAssetPackStatesToDictionary(updatedStates);
   }
 
+  /**
+   * Limits how many assetPackStateUpdated signals are emitted per second for each asset pack.
+   * Intermediate states are coalesced, while terminal states and errors are always emitted
+   * immediately. A non-positive value emits every state update.
+   *
+   * @param maxUpdatesPerSecond maximum number of state updates emitted per pack every second
+   */
+  public void setMaxStateUpdateRate(int maxUpdatesPerSecond) {
+    stateUpdateManager.stateUpdateDispatcher.setMaxUpdatesPerSecond(maxUpdatesPerSecond);
+  }
+
+  /**
+   * Sets the number of worker threads that convert Task results and emit the resulting signals, off
+   * the Android main thread. Zero runs these callbacks on the main thread. More than one worker
+   * lets results of different Tasks be converted in parallel, but then a Task signal may overtake
+   * the assetPackStateUpdated signal it used to follow.
+   *
+   * @param workerThreadCount number of callback worker threads
+   */
+  public void setCallbackWorkerThreadCount(int workerThreadCount) {
+    components.callbackExecutor.setWorkerThreadCount(workerThreadCount);
+  }
+
+  /**
+   * Enables or disables delta encoded state updates. When enabled, every serialized AssetPackState
+   * only carries the pack name, a per-pack sequenceNumber and the fields that changed since the
+   * previous update of that pack.
+   *
+   * @param isDeltaEncodingEnabled whether state updates are delta encoded
+   */
+  public void setDeltaStateUpdatesEnabled(boolean isDeltaEncodingEnabled) {
+    stateUpdateManager.setDeltaEncodingEnabled(isDeltaEncodingEnabled);
+  }
+
+  /**
+   * Drops assetPackStateUpdated signals that only report a small progress of a DOWNLOADING or
+   * TRANSFERRING pack, while status changes and errors are always emitted. A non-positive value
+   * disables the corresponding threshold.
+   *
+   * @param minBytesDelta minimum number of downloaded bytes between two progress updates
+   * @param minPercentDelta minimum progress in percent between two progress updates
+   * @param minIntervalMs minimum time in milliseconds between two progress updates of a pack
+   */
+  public void setProgressGranularity(int minBytesDelta, int minPercentDelta, int minIntervalMs) {
+    stateUpdateManager.setProgressGranularity(minBytesDelta, minPercentDelta, minIntervalMs);
+  }
+
+  /**
+   * Enables or disables batched state updates. When enabled, the states of all asset packs updated
+   * during a dispatch window are emitted together as a single assetPackStatesBatchUpdated signal,
+   * instead of one assetPackStateUpdated signal per pack.
+   *
+   * @param isBatchingEnabled whether state updates are batched
+   */
+  public void setStateBatchingEnabled(boolean isBatchingEnabled) {
+    stateUpdateManager.stateUpdateDispatcher.setBatchingEnabled(isBatchingEnabled);
+  }
+
+  /**
+   * Configures how many completed, failed or canceled pack states are kept to filter out duplicate
+   * assetPackStateUpdated signals, and for how long. A non-positive value disables the
+   * corresponding limit.
+   *
+   * @param maxRetainedStates maximum number of terminal pack states retained
+   * @param retentionMs time in milliseconds after which a terminal pack state is evicted
+   */
+  public void setTerminalStateRetention(int maxRetainedStates, int retentionMs) {
+    stateUpdateManager.setTerminalStateRetention(maxRetainedStates, retentionMs);
+  }
+
+  /**
+   * Returns the counters collected by the plugin's internal components, as a mapping from the
+   * component name to a Dictionary of its counters.
+   *
+   * @return Dictionary of plugin metrics
+   */
+  public Dictionary getPluginMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(
+        STATE_UPDATE_DISPATCHER_METRICS_KEY, stateUpdateManager.stateUpdateDispatcher.getMetrics());
+    metrics.put(STATE_UPDATE_MANAGER_METRICS_KEY, stateUpdateManager.getMetrics());
+    metrics.put(CALLBACK_EXECUTOR_METRICS_KEY, components.callbackExecutor.getMetrics());
+    metrics.put(FETCH_SCHEDULER_METRICS_KEY, components.fetchScheduler.getMetrics());
+    metrics.put(SINGLE_FLIGHT_METRICS_KEY, singleFlightTaskRegistry.getMetrics());
+    metrics.put(PACK_LOCATION_CACHE_METRICS_KEY, components.packLocationCache.getMetrics());
+    metrics.put(ASSET_LOCATION_INDEX_METRICS_KEY, components.assetLocationIndex.getMetrics());
+    metrics.put(MAPPED_ASSET_READER_METRICS_KEY, components.mappedAssetReader.getMetrics());
+    metrics.put(ASSET_STREAMER_METRICS_KEY, components.assetStreamer.getMetrics());
+    metrics.put(PACK_WARMER_METRICS_KEY, components.packWarmer.getMetrics());
+    metrics.put(PACK_VERIFIER_METRICS_KEY, components.packVerifier.getMetrics());
+    metrics.put(
+        PACK_CONTENT_MANIFESTS_METRICS_KEY, components.packContentManifestStore.getMetrics());
+    metrics.put(ASSET_LISTER_METRICS_KEY, components.assetLister.getMetrics());
+    metrics.put(ASSET_OVERLAY_RESOLVER_METRICS_KEY, components.assetOverlayResolver.getMetrics());
+    metrics.put(PACK_BLOOM_FILTERS_METRICS_KEY, components.packBloomFilterStore.getMetrics());
+    metrics.put(STORAGE_BUDGET_METRICS_KEY, components.storageBudgetManager.getMetrics());
+    metrics.put(PACK_PREFETCHER_METRICS_KEY, components.packPrefetcher.getMetrics());
+    if (stateUpdateManager.packStateSnapshotFile != null) {
+      metrics.put(
+          PACK_STATE_SNAPSHOT_METRICS_KEY, stateUpdateManager.packStateSnapshotFile.getMetrics());
+    }
+    return metrics;
+  }
+
   /**
    * Calls getAssetLocation(String packName, String assetPath) method in the Play Core Library.
    * Returns the location of an asset in a pack, or null if the asset is not present in the given
-   * pack.
+   * pack. Assets of STORAGE_FILES packs are resolved locally from the cached pack location, and
+   * results are served from assetLocationIndex until their pack is removed or updated. Once the
+   * pack's Bloom filter is built, assets absent from a STORAGE_FILES pack return null right away.
    *
    * @return serialized AssetLocation object
    */
   public Dictionary getAssetLocation(String packName, String assetPath) {
-    AssetLocation retrievedAssetLocation = assetPackManager.getAssetLocation(packName, assetPath);
-    if (retrievedAssetLocation == null) {
-      return null;
-    }
-    return PlayAssetDeliveryUtils.convertAssetLocationToDictionary(retrievedAssetLocation);
+    recordPackUse(packName);
+    return components.assetLocationIndex.getAssetLocation(packName, assetPath);
+  }
+
+  /**
+   * Resolves the locations of many assets in a pack with a single call, instead of one
+   * getAssetLocation() call and one Dictionary per asset. The results are packed into parallel
+   * arrays under the keys "paths", "offsets", "sizes" and "missingMask", where a missingMask entry
+   * of 1 marks an asset that is not present in the given pack, and an entry of 2 an asset whose
+   * offset or size is 2 GB or more, which must be resolved with getAssetLocation() instead.
+   *
+   * @return Dictionary of parallel arrays, in the order of assetPaths
+   */
+  public Dictionary getAssetLocations(String packName, String[] assetPaths) {
+    recordPackUse(packName);
+    return components.assetLocationIndex.getAssetLocations(packName, assetPaths);
+  }
+
+  /**
+   * Resolves which installed pack provides an asset, without naming the pack, from an index merged
+   * from the contents of every installed pack. When several packs hold the asset, the pack that
+   * comes first in the order set with setPackPrecedence() wins.
+   *
+   * @return Dictionary holding the name of the pack under "packName" and the AssetLocation
+   *     serialized as Dictionary under "assetLocation", or null if no installed pack holds the
+   *     asset
+   */
+  public Dictionary resolveAsset(String assetPath) {
+    return components.assetOverlayResolver.resolve(assetPath);
+  }
+
+  /**
+   * Sets the order in which resolveAsset() prefers packs that hold the same asset, e.g. patch packs
+   * before the base packs they override. Packs missing from packNames follow them sorted by name.
+   *
+   * @param packNames pack names, highest precedence first
+   */
+  public void setPackPrecedence(String[] packNames) {
+    components.assetOverlayResolver.setPackPrecedence(packNames);
+  }
+
+  /**
+   * Lists the assets of an installed STORAGE_FILES pack whose path starts with prefix, from the
+   * pack's content manifest instead of a walk of its directory tree. An empty prefix lists the
+   * whole pack, and a prefix ending with '/' a whole directory.
+   *
+   * @return sorted asset paths relative to the assetsPath of the pack, empty if the pack is not an
+   *     installed STORAGE_FILES pack
+   */
+  public String[] listAssets(String packName, String prefix) {
+    return components.assetLister.listAssets(packName, prefix);
+  }
+
+  /**
+   * Lists the assets of an installed STORAGE_FILES pack whose path matches a glob pattern, where
+   * '*' matches any characters but '/', "**" matches any characters, '?' matches one character but
+   * '/', and [...] matches one character of a set.
+   *
+   * @return sorted asset paths relative to the assetsPath of the pack, empty if the pack is not an
+   *     installed STORAGE_FILES pack
+   */
+  public String[] globAssets(String packName, String pattern) {
+    return components.assetLister.globAssets(packName, pattern);
+  }
+
+  /**
+   * Reads an asset through a read-only memory mapping of its backing file, which is cached per
+   * file, instead of opening and streaming the APK or file that holds it. The read covers
+   * rangeLength bytes starting rangeOffset bytes into the asset, clamped to the asset's bounds, and
+   * a negative rangeLength reads until the end of the asset.
+   *
+   * @return bytes of the asset, or null if the asset is not present in the given pack
+   */
+  public byte[] readAsset(String packName, String assetPath, int rangeOffset, int rangeLength) {
+    return components.mappedAssetReader.read(packName, assetPath, rangeOffset, rangeLength);
+  }
+
+  /**
+   * Starts streaming an asset in sequential chunks of chunkSize bytes, read on a background thread
+   * up to readAheadDepth chunks ahead. Every chunk is delivered through an assetChunkReady signal,
+   * and must be acknowledged with acknowledgeAssetChunk() once consumed. At most readAheadDepth
+   * chunks are delivered without being acknowledged. The end of the stream is signaled by
+   * assetStreamCompleted or assetStreamError. Non-positive arguments select the defaults.
+   *
+   * @return id of the stream, or -1 if the asset is not present in the given pack
+   */
+  public int openAssetStream(String packName, String assetPath, int chunkSize, int readAheadDepth) {
+    return components.assetStreamer.open(packName, assetPath, chunkSize, readAheadDepth);
+  }
+
+  /**
+   * Acknowledges that a chunk delivered by an asset stream was consumed, so that the stream may
+   * deliver another.
+   *
+   * @return false if the stream is not open
+   */
+  public boolean acknowledgeAssetChunk(int streamId) {
+    return components.assetStreamer.acknowledge(streamId);
+  }
+
+  /**
+   * Stops an asset stream without delivering further chunks.
+   *
+   * @return false if the stream is not open
+   */
+  public boolean closeAssetStream(int streamId) {
+    return components.assetStreamer.close(streamId);
+  }
+
+  /**
+   * Sets the hot assets of a pack, which are pulled into the page cache in the background as soon
+   * as the pack reaches COMPLETED. Without such a list, the first assets of the pack whose location
+   * was looked up are warmed up instead, as learned in this session or else in the previous one.
+   *
+   * @param assetPaths hot assets in the order they are loaded, or an empty array to use the learned
+   *     ones
+   */
+  public void setWarmupAssets(String packName, String[] assetPaths) {
+    components.packWarmer.setWarmupAssets(packName, assetPaths);
+  }
+
+  /**
+   * Limits how many bytes the warmup of a completed pack may read into the page cache. A
+   * non-positive value disables warmups.
+   */
+  public void setWarmupByteBudget(int byteBudget) {
+    components.packWarmer.setByteBudget(byteBudget);
+  }
+
+  /**
+   * Cancels every running warmup, so that it does not compete with the game's own loading for disk
+   * bandwidth.
+   */
+  public void cancelWarmup() {
+    components.packWarmer.cancel();
+  }
+
+  /**
+   * Verifies the integrity of an installed STORAGE_FILES asset pack in the background, by hashing
+   * all its files in parallel and comparing them to the manifest shipped in the pack, or else to
+   * the hashes recorded by the first verification since the pack was installed. Files unchanged
+   * since they were last hashed are not hashed again. Emits verifyPackSuccess with the verification
+   * result serialized as Dictionary, which isValid is false if any file is corrupted, missing or
+   * unexpected, and verifyPackError if the pack cannot be verified.
+   *
+   * @param packName name of the asset pack to be verified
+   * @param signalID identifier used to track mapping of signals to verifications
+   */
+  public void verifyPack(String packName, int signalID) {
+    components.packVerifier.verify(packName, signalID);
+  }
+
+  /**
+   * Sets the hash algorithm of later pack verifications, either "CRC32C", the default, or
+   * "SHA-256".
+   *
+   * @return false if the algorithm is not supported
+   */
+  public boolean setPackVerificationAlgorithm(String algorithm) {
+    return components.packVerifier.setAlgorithm(algorithm);
+  }
+
+  /**
+   * Returns the latest known states of all asset packs without querying the Play Core Library.
+   * Right after a cold start, these are the states persisted by the previous process.
+   *
+   * @return serialized AssetPackStates object
+   */
+  public Dictionary getCachedPackStates() {
+    return stateUpdateManager.cachedAssetPackStates();
   }
 
   /**
    * Calls fetch(List<String> packNames) method in the Play Core Library. Requests to download the
    * specified asset packs. Emits fetchSuccess and fetchError signals when the underlying task
-   * succeeds/fails.
+   * succeeds/fails. A call overlapping a fetch in flight joins its task for the packs they share.
+   * If a storage budget is set, least recently used packs are evicted first to make room for the
+   * fetched packs.
    *
    * @param packNamesArray String Array for all the packs to be fetched
    * @param signalID identifier used to track mapping of signals to Tasks
    */
   public void fetch(String[] packNamesArray, int signalID) {
-    List<String> packNames = Arrays.asList(packNamesArray);
+    if (signalID != PackPrefetcher.PREFETCH_SIGNAL_ID) {
+      for (String packName : packNamesArray) {
+        recordPackUse(packName);
+      }
+    }
+    SingleFlightTaskRegistry.Flight flight =
+        singleFlightTaskRegistry.join(FETCH_OPERATION, packNamesArray, signalID);
+    if (flight == null) {
+      return;
+    }
+    List<String> packNames = flight.packNames;
     OnSuccessListener<AssetPackStates> fetchSuccessListener =
         result -> {
           // Handles the edge case where the app is paused immediately after we start this
@@ -214,97 +637,228 @@ public class PlayAssetDelivery extends GodotPlugin {
           // we are using emitNonDuplicateStateUpdatedSignal() to filter out these
           // duplicate signals.
           stateUpdateManager.joinOngoingAssetPackRequests(result.packStates().keySet());
-          emitSignalWrapper(
-              FETCH_SUCCESS,
-              PlayAssetDeliveryUtils.convertAssetPackStatesToDictionary(result),
-              signalID);
+          // a pack that is already installed completes without any further state update
+          for (AssetPackState packState : result.packStates().values()) {
+            if (StateUpdateManager.isTerminalStatus(packState.status())) {
+              components.fetchScheduler.onFetchFinished(packState.name());
+            }
+          }
+          Dictionary resultDictionary =
+              PlayAssetDeliveryUtils.convertAssetPackStatesToDictionary(result);
+          // fetchSuccess follows the states of the fetched packs that are still coalesced
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.complete(FETCH_OPERATION, flight, resultDictionary)) {
+            if (call.signalID != PackPrefetcher.PREFETCH_SIGNAL_ID) {
+              stateUpdateManager.stateUpdateDispatcher.runAfterPendingStates(
+                  call.packNames,
+                  () -> emitSignalWrapper(FETCH_SUCCESS, call.resultDictionary(), call.signalID));
+            }
+          }
         };
 
     OnFailureListener fetchFailureListener =
-        e ->
-            emitSignalWrapper(
-                FETCH_ERROR, PlayAssetDeliveryUtils.convertExceptionToDictionary(e), signalID);
+        e -> {
+          Dictionary errorDictionary = PlayAssetDeliveryUtils.convertExceptionToDictionary(e);
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.fail(FETCH_OPERATION, flight)) {
+            if (call.signalID != PackPrefetcher.PREFETCH_SIGNAL_ID) {
+              emitSignalWrapper(FETCH_ERROR, errorDictionary, call.signalID);
+            }
+          }
+          for (String packName : packNames) {
+            components.fetchScheduler.onFetchFinished(packName);
+          }
+        };
 
-    Task<AssetPackStates> fetchTask = assetPackManager.fetch(packNames);
-    fetchTask.addOnSuccessListener(fetchSuccessListener);
-    fetchTask.addOnFailureListener(fetchFailureListener);
+    components.storageBudgetManager.beforeFetch(
+        packNames,
+        stateUpdateManager.ongoingAssetPackRequests(),
+        () -> {
+          Task<AssetPackStates> fetchTask = assetPackManager.fetch(packNames);
+          fetchTask.addOnSuccessListener(components.callbackExecutor, fetchSuccessListener);
+          fetchTask.addOnFailureListener(components.callbackExecutor, fetchFailureListener);
+        });
+  }
+
+  /**
+   * Queues a fetch of a single asset pack in the fetch scheduler, which submits it once fewer than
+   * the configured maximum number of scheduled fetches are in flight. Queued fetches with a higher
+   * priority are submitted first. Emits the same signals as fetch().
+   *
+   * @param packName name of the pack to be fetched
+   * @param priority priority of the fetch, higher values are submitted first
+   * @param signalID identifier used to track mapping of signals to Tasks
+   */
+  public void fetchWithPriority(String packName, int priority, int signalID) {
+    components.fetchScheduler.schedule(packName, priority, signalID);
+  }
+
+  /**
+   * Changes the priority of a fetch that is still queued in the fetch scheduler.
+   *
+   * @return true if a queued fetch of packName was found
+   */
+  public boolean setFetchPriority(String packName, int priority) {
+    return components.fetchScheduler.reprioritize(packName, priority);
+  }
+
+  /**
+   * Limits how many fetches queued with fetchWithPriority() are in flight at once. A fetch stays in
+   * flight until its pack reaches a terminal state. A non-positive value removes the limit.
+   *
+   * @param maxInFlightFetches maximum number of scheduled fetches in flight
+   */
+  public void setMaxConcurrentFetches(int maxInFlightFetches) {
+    components.fetchScheduler.setMaxInFlightFetches(maxInFlightFetches);
+  }
+
+  /**
+   * Sets the disk budget of all installed asset packs. Before each fetch, installed packs that are
+   * neither pinned nor in use by a request are removed, least recently used first, until the
+   * fetched packs fit into the budget and into the free space. A pack counts as used when its
+   * location, the location of one of its assets or its fetch is requested. A non-positive value
+   * disables eviction, which is the default.
+   *
+   * @param budgetMegabytes disk budget in MiB
+   */
+  public void setStorageBudget(int budgetMegabytes) {
+    components.storageBudgetManager.setBudgetBytes(budgetMegabytes * 1024L * 1024L);
+  }
+
+  /**
+   * Configures the prefetching of the asset packs that the game is likely to use next. The order in
+   * which the game uses packs is recorded across sessions, and once a pack reaches COMPLETED, the
+   * packs that followed it often enough are fetched with the lowest priority, unless the game has
+   * downloads of its own in flight or they would not fit into the storage budget and the free
+   * space. Prefetches emit state updates, but no fetch signals. A non-positive maxPrefetchedPacks
+   * disables prefetching, which is the default.
+   *
+   * @param minConfidencePercent share of the recorded transitions from the completed pack that must
+   *     lead to a pack before it is prefetched
+   * @param maxPrefetchedPacks maximum number of packs prefetched per completed pack
+   * @param maxPrefetchMegabytes maximum download size in MiB of the packs prefetched per completed
+   *     pack
+   */
+  public void setPrefetchPolicy(
+      int minConfidencePercent, int maxPrefetchedPacks, int maxPrefetchMegabytes) {
+    components.packPrefetcher.setPolicy(
+        minConfidencePercent, maxPrefetchedPacks, maxPrefetchMegabytes * 1024L * 1024L);
+  }
+
+  /**
+   * Protects an asset pack from eviction by the storage budget, or lifts that protection.
+   *
+   * @param packName name of the asset pack
+   * @param isPinned whether the pack must not be evicted
+   */
+  public void setPackPinned(String packName, boolean isPinned) {
+    components.storageBudgetManager.setPinned(packName, isPinned);
   }
 
   /**
    * Calls getPackLocation(String packName) method in the Play Core Library. Returns the location of
    * the specified asset pack on the device or null if this pack is not downloaded or is outdated.
+   * Results are served from packLocationCache while no pack state transition invalidated them.
    *
    * @return serialized AssetPackLocation object
    */
   public Dictionary getPackLocation(String packName) {
-    AssetPackLocation retrievedPackLocation = assetPackManager.getPackLocation(packName);
-    if (retrievedPackLocation == null) {
-      return null;
-    }
-    return PlayAssetDeliveryUtils.convertAssetPackLocationToDictionary(retrievedPackLocation);
+    recordPackUse(packName);
+    return components.packLocationCache.getPackLocation(packName);
   }
 
   /**
    * Calls getPackLocations() method in the Play Core Library. Returns the location of all installed
-   * asset packs as a mapping from the asset pack name to an AssetPackLocation.
+   * asset packs as a mapping from the asset pack name to an AssetPackLocation. Results are served
+   * from packLocationCache while no pack state transition invalidated them.
    *
    * @return serialized abstract Map<String, AssetPackLocation> object
    */
   public Dictionary getPackLocations() {
-    Map<String, AssetPackLocation> packLocationsMap = assetPackManager.getPackLocations();
-    return PlayAssetDeliveryUtils.convertAssetPackLocationsToDictionary(packLocationsMap);
+    return components.packLocationCache.getPackLocations();
   }
 
   /**
    * Calls getPackStates(List<String> packNames) method in the Play Core Library. Requests download
    * state or details for the specified asset packs. Emits getPackStatesSuccess and
-   * getPackStatesError signals when the underlying task succeeds/fails.
+   * getPackStatesError signals when the underlying task succeeds/fails. A call overlapping a
+   * getPackStates call in flight joins its task for the packs they share.
    *
    * @param packNamesArray String Array for all the packs to request states
    * @param signalID identifier used to track mapping of signals to Tasks
    */
   public void getPackStates(String[] packNamesArray, int signalID) {
-    List<String> packNames = Arrays.asList(packNamesArray);
+    SingleFlightTaskRegistry.Flight flight =
+        singleFlightTaskRegistry.join(GET_PACK_STATES_OPERATION, packNamesArray, signalID);
+    if (flight == null) {
+      return;
+    }
 
     OnSuccessListener<AssetPackStates> getPackStatesSuccessListener =
-        result ->
-            emitSignalWrapper(
-                GET_PACK_STATES_SUCCESS,
-                PlayAssetDeliveryUtils.convertAssetPackStatesToDictionary(result),
-                signalID);
+        result -> {
+          Dictionary resultDictionary =
+              PlayAssetDeliveryUtils.convertAssetPackStatesToDictionary(result);
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.complete(
+                  GET_PACK_STATES_OPERATION, flight, resultDictionary)) {
+            emitSignalWrapper(GET_PACK_STATES_SUCCESS, call.resultDictionary(), call.signalID);
+          }
+        };
     OnFailureListener getPackStatesFailureListener =
-        e ->
-            emitSignalWrapper(
-                GET_PACK_STATES_ERROR,
-                PlayAssetDeliveryUtils.convertExceptionToDictionary(e),
-                signalID);
+        e -> {
+          Dictionary errorDictionary = PlayAssetDeliveryUtils.convertExceptionToDictionary(e);
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.fail(GET_PACK_STATES_OPERATION, flight)) {
+            emitSignalWrapper(GET_PACK_STATES_ERROR, errorDictionary, call.signalID);
+          }
+        };
 
-    Task<AssetPackStates> getPackStatesTask = assetPackManager.getPackStates(packNames);
-    getPackStatesTask.addOnSuccessListener(getPackStatesSuccessListener);
-    getPackStatesTask.addOnFailureListener(getPackStatesFailureListener);
+    Task<AssetPackStates> getPackStatesTask = assetPackManager.getPackStates(flight.packNames);
+    getPackStatesTask.addOnSuccessListener(
+        components.callbackExecutor, getPackStatesSuccessListener);
+    getPackStatesTask.addOnFailureListener(
+        components.callbackExecutor, getPackStatesFailureListener);
   }
 
   /**
    * Calls removePack(String packName) method in the Play Core Library. Deletes the specified asset
    * pack from the internal storage of the app. Emits removePackSuccess and removePackError signals
-   * when the underlying task succeeds/fails.
+   * when the underlying task succeeds/fails. A call overlapping a removal of the same pack in
+   * flight joins its task.
    *
    * @param packName name of the asset pack to be removed
    * @param signalID identifier used to track mapping of signals to Tasks
    */
   public void removePack(String packName, int signalID) {
+    components.packLocationCache.invalidate(packName);
+    SingleFlightTaskRegistry.Flight flight =
+        singleFlightTaskRegistry.join(REMOVE_PACK_OPERATION, new String[] {packName}, signalID);
+    if (flight == null) {
+      return;
+    }
     OnSuccessListener<Void> removePackOnSuccessListener =
-        result -> emitSignalWrapper(REMOVE_PACK_SUCCESS, signalID);
+        result -> {
+          // the location may have been queried again while the removal was in flight
+          components.packLocationCache.invalidate(packName);
+          components.onPackRemoved(packName);
+          components.assetOverlayResolver.onPackChanged(packName);
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.complete(REMOVE_PACK_OPERATION, flight, null)) {
+            emitSignalWrapper(REMOVE_PACK_SUCCESS, call.signalID);
+          }
+        };
     OnFailureListener removePackOnFailureListener =
-        e ->
-            emitSignalWrapper(
-                REMOVE_PACK_ERROR,
-                PlayAssetDeliveryUtils.convertExceptionToDictionary(e),
-                signalID);
+        e -> {
+          Dictionary errorDictionary = PlayAssetDeliveryUtils.convertExceptionToDictionary(e);
+          for (SingleFlightTaskRegistry.Call call :
+              singleFlightTaskRegistry.fail(REMOVE_PACK_OPERATION, flight)) {
+            emitSignalWrapper(REMOVE_PACK_ERROR, errorDictionary, call.signalID);
+          }
+        };
 
     Task<Void> removePackTask = assetPackManager.removePack(packName);
-    removePackTask.addOnSuccessListener(removePackOnSuccessListener);
-    removePackTask.addOnFailureListener(removePackOnFailureListener);
+    removePackTask.addOnSuccessListener(components.callbackExecutor, removePackOnSuccessListener);
+    removePackTask.addOnFailureListener(components.callbackExecutor, removePackOnFailureListener);
   }
 
   /**
@@ -329,8 +883,8 @@ public class PlayAssetDelivery extends GodotPlugin {
     Task<Integer> showCellularDataConfirmationTask =
         assetPackManager.showCellularDataConfirmation(getGodot());
     showCellularDataConfirmationTask.addOnSuccessListener(
-        showCellularDataConfirmationSuccessListener);
+        components.callbackExecutor, showCellularDataConfirmationSuccessListener);
     showCellularDataConfirmationTask.addOnFailureListener(
-        showCellularDataConfirmationFailureListener);
+        components.callbackExecutor, showCellularDataConfirmationFailureListener);
   }
 }
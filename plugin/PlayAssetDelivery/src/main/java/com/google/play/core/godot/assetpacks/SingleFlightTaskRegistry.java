@@ -0,0 +1,203 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import com.google.play.core.godot.assetpacks.utils.AssetPackStateFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Tracks the Play Core Tasks in flight per operation and pack name, so that overlapping calls join
+ * the Tasks that already cover some of their packs instead of starting new ones. A call only starts
+ * a Task for its packs that no Task in flight covers, and its result is assembled from the results
+ * of every Task it waits for, e.g. fetch([A]) joins a fetch([A, B]) in flight, while fetch([A, B])
+ * joins a fetch([A]) in flight and starts fetch([B]).
+ */
+final class SingleFlightTaskRegistry {
+  static final String STARTED_TASKS_KEY = "startedTasks";
+  static final String JOINED_CALLS_KEY = "joinedCalls";
+
+  /** A Task in flight, shared by every call that waits for one of its packs. */
+  static final class Flight {
+    final List<String> packNames;
+    // the fields below are guarded by the registry's flights
+    private final List<Call> calls = new ArrayList<>();
+    private Dictionary resultDictionary;
+
+    private Flight(List<String> packNames) {
+      this.packNames = packNames;
+    }
+  }
+
+  /** A call waiting for the result of every Flight covering one of its packs. */
+  static final class Call {
+    final int signalID;
+    final List<String> packNames;
+    // the fields below are guarded by the registry's flights
+    private final List<Flight> flights = new ArrayList<>();
+    private int pendingFlightCount;
+    private boolean isFinished;
+
+    private Call(int signalID, List<String> packNames) {
+      this.signalID = signalID;
+      this.packNames = packNames;
+    }
+
+    /**
+     * Returns the AssetPackStates Dictionary of this call's packs. It is the result of the only
+     * Task it waited for if that Task covered exactly its packs, or else is assembled from the
+     * states of its packs with totalBytes summing their sizes.
+     */
+    Dictionary resultDictionary() {
+      if (flights.size() == 1
+          && new LinkedHashSet<>(flights.get(0).packNames).equals(new LinkedHashSet<>(packNames))) {
+        return flights.get(0).resultDictionary;
+      }
+      Dictionary packStates = new Dictionary();
+      long totalBytes = 0;
+      for (Flight flight : flights) {
+        Dictionary flightPackStates =
+            (Dictionary) flight.resultDictionary.get(AssetPackStatesFromDictionary.PACK_STATES_KEY);
+        for (String packName : packNames) {
+          Object packState = flightPackStates.get(packName);
+          if (packState == null || packStates.containsKey(packName)) {
+            continue;
+          }
+          packStates.put(packName, packState);
+          Object packBytes =
+              ((Dictionary) packState)
+                  .get(AssetPackStateFromDictionary.TOTAL_BYTES_TO_DOWNLOAD_KEY);
+          if (packBytes instanceof Long) {
+            totalBytes += (Long) packBytes;
+          }
+        }
+      }
+      return PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(totalBytes, packStates);
+    }
+  }
+
+  // Flights in flight keyed by operation and pack name, guarded by itself
+  private final Map<String, Flight> flights = new HashMap<>();
+  private final AtomicLong startedTaskCount = new AtomicLong();
+  private final AtomicLong joinedCallCount = new AtomicLong();
+
+  /**
+   * Registers signalID as waiting for an operation on the given packs, joining the Tasks in flight
+   * that cover some of them.
+   *
+   * @return the Flight of the packs no Task covers, for which the caller must start a Task, or null
+   *     if every pack joined a Task already in flight
+   */
+  Flight join(String operation, String[] packNames, int signalID) {
+    List<String> uniquePackNames = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(packNames)));
+    Call call = new Call(signalID, uniquePackNames);
+    List<String> uncoveredPackNames = new ArrayList<>();
+    Flight newFlight = null;
+    synchronized (flights) {
+      for (String packName : uniquePackNames) {
+        Flight flight = flights.get(flightKey(operation, packName));
+        if (flight == null) {
+          uncoveredPackNames.add(packName);
+        } else if (!call.flights.contains(flight)) {
+          call.flights.add(flight);
+          flight.calls.add(call);
+        }
+      }
+      if (!uncoveredPackNames.isEmpty() || uniquePackNames.isEmpty()) {
+        newFlight = new Flight(uncoveredPackNames);
+        for (String packName : uncoveredPackNames) {
+          flights.put(flightKey(operation, packName), newFlight);
+        }
+        call.flights.add(newFlight);
+        newFlight.calls.add(call);
+      }
+      call.pendingFlightCount = call.flights.size();
+    }
+    if (newFlight == null) {
+      joinedCallCount.incrementAndGet();
+    } else {
+      startedTaskCount.incrementAndGet();
+    }
+    return newFlight;
+  }
+
+  /**
+   * Marks the Task of flight as succeeded with resultDictionary, the AssetPackStates Dictionary of
+   * its packs or null if the operation has no result. Later calls on its packs start a new Task.
+   *
+   * @return every call that got the last result it waited for, in joining order
+   */
+  List<Call> complete(String operation, Flight flight, Dictionary resultDictionary) {
+    List<Call> completedCalls = new ArrayList<>();
+    synchronized (flights) {
+      removeFlight(operation, flight);
+      flight.resultDictionary = resultDictionary;
+      for (Call call : flight.calls) {
+        if (!call.isFinished && --call.pendingFlightCount == 0) {
+          call.isFinished = true;
+          completedCalls.add(call);
+        }
+      }
+    }
+    return completedCalls;
+  }
+
+  /**
+   * Marks the Task of flight as failed. Later calls on its packs start a new Task.
+   *
+   * @return every call that waited for this Task and did not fail yet, in joining order
+   */
+  List<Call> fail(String operation, Flight flight) {
+    List<Call> failedCalls = new ArrayList<>();
+    synchronized (flights) {
+      removeFlight(operation, flight);
+      for (Call call : flight.calls) {
+        if (!call.isFinished) {
+          call.isFinished = true;
+          failedCalls.add(call);
+        }
+      }
+    }
+    return failedCalls;
+  }
+
+  /** Returns the deduplication counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(STARTED_TASKS_KEY, startedTaskCount.get());
+    metrics.put(JOINED_CALLS_KEY, joinedCallCount.get());
+    return metrics;
+  }
+
+  private void removeFlight(String operation, Flight flight) {
+    for (String packName : flight.packNames) {
+      flights.remove(flightKey(operation, packName), flight);
+    }
+  }
+
+  private static String flightKey(String operation, String packName) {
+    return operation + ":" + packName;
+  }
+}
@@ -0,0 +1,407 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.play.core.godot.assetpacks.PlayAssetDelivery.ASSET_PACK_STATES_BATCH_UPDATED;
+import static com.google.play.core.godot.assetpacks.PlayAssetDelivery.ASSET_PACK_STATE_UPDATED;
+
+import com.google.android.play.core.assetpacks.model.AssetPackErrorCode;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * This class sits between StateUpdateManager and the Godot runtime, and coalesces the
+ * assetPackStateUpdated signals of every asset pack. Each pack owns a latest-wins slot, and at most
+ * one signal per pack is emitted within every dispatch interval. Terminal states and errors are
+ * always flushed immediately. A slot is dropped once it held no state for a whole dispatch
+ * interval, so that only packs with recent updates take memory.
+ *
+ * <p>Signals are emitted in the order they were dispatched, but never while holding a slot, so that
+ * a slow signal does not block the thread dispatching the next update. Signals that must follow the
+ * states of their packs, like fetchSuccess, are emitted through runAfterPendingStates().
+ *
+ * <p>When batching is enabled, the states of all packs that changed during a dispatch window are
+ * instead collected into a single batch, and delivered as one assetPackStatesBatchUpdated signal.
+ */
+public class StateUpdateDispatcher {
+  static final String MERGED_UPDATES_KEY = "mergedUpdates";
+  static final String DELIVERED_UPDATES_KEY = "deliveredUpdates";
+  static final String DELIVERED_BATCHES_KEY = "deliveredBatches";
+  /** Dispatch window used in batching mode when no update rate is set, about one frame. */
+  static final long DEFAULT_BATCH_WINDOW_MS = 16;
+
+  StateUpdateManager stateUpdateManager;
+  private final ScheduledExecutorService flushScheduler;
+  private final Map<String, PackDispatchSlot> packDispatchSlots = new ConcurrentHashMap<>();
+  private final AtomicLong mergedUpdateCount = new AtomicLong();
+  private final AtomicLong deliveredUpdateCount = new AtomicLong();
+  private final AtomicLong deliveredBatchCount = new AtomicLong();
+  private volatile long minDispatchIntervalMs = 0;
+  private volatile boolean isBatchingEnabled = false;
+
+  // Latest-wins batch of pack states, only used in batching mode. Guarded by itself.
+  private final Dictionary pendingBatch = new Dictionary();
+  private boolean isBatchFlushScheduled;
+
+  // signals waiting to be emitted, in dispatch order, guarded by itself
+  private final ArrayDeque<Runnable> pendingSignals = new ArrayDeque<>();
+  private boolean isEmitting;
+
+  /** Latest-wins slot holding the undelivered state of a single asset pack. */
+  private static class PackDispatchSlot {
+    final String packName;
+    // set once the slot left packDispatchSlots, after which a new slot is created for the pack
+    boolean isRemoved;
+    boolean hasDelivered;
+    long lastDeliveryTimeMs;
+    Dictionary pendingStateDictionary;
+    boolean isFlushScheduled;
+
+    PackDispatchSlot(String packName) {
+      this.packName = packName;
+    }
+  }
+
+  public StateUpdateDispatcher(StateUpdateManager stateUpdateManager) {
+    this(
+        stateUpdateManager,
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread flushThread = new Thread(runnable, "StateUpdateDispatcher");
+              flushThread.setDaemon(true);
+              return flushThread;
+            }));
+  }
+
+  /** Package-private constructor used to instantiate StateUpdateDispatcher with mock objects. */
+  StateUpdateDispatcher(
+      StateUpdateManager stateUpdateManager, ScheduledExecutorService flushScheduler) {
+    this.stateUpdateManager = stateUpdateManager;
+    this.flushScheduler = flushScheduler;
+  }
+
+  long mergedUpdateCount() {
+    return mergedUpdateCount.get();
+  }
+
+  long deliveredUpdateCount() {
+    return deliveredUpdateCount.get();
+  }
+
+  long deliveredBatchCount() {
+    return deliveredBatchCount.get();
+  }
+
+  /**
+   * Limits the number of assetPackStateUpdated signals emitted for each asset pack per second. A
+   * non-positive value disables coalescing, so that every update is emitted immediately.
+   */
+  public void setMaxUpdatesPerSecond(int maxUpdatesPerSecond) {
+    minDispatchIntervalMs = maxUpdatesPerSecond > 0 ? 1000L / maxUpdatesPerSecond : 0;
+  }
+
+  /**
+   * Switches between emitting one assetPackStateUpdated signal per pack and emitting a single
+   * assetPackStatesBatchUpdated signal per dispatch window. States that are still pending in the
+   * previous mode are flushed first.
+   */
+  public void setBatchingEnabled(boolean isBatchingEnabled) {
+    if (this.isBatchingEnabled == isBatchingEnabled) {
+      return;
+    }
+    this.isBatchingEnabled = isBatchingEnabled;
+    if (isBatchingEnabled) {
+      for (PackDispatchSlot slot : packDispatchSlots.values()) {
+        flush(slot);
+      }
+    } else {
+      flushBatch();
+    }
+    emitPendingSignals();
+  }
+
+  /**
+   * Emits the given state immediately if the pack is allowed to dispatch, otherwise parks it in the
+   * pack's slot, replacing any state that has not been delivered yet.
+   */
+  public void dispatch(String packName, int status, int errorCode, Dictionary stateDictionary) {
+    boolean isUrgent =
+        StateUpdateManager.isTerminalStatus(status) || errorCode != AssetPackErrorCode.NO_ERROR;
+    if (isBatchingEnabled) {
+      dispatchToBatch(packName, isUrgent, stateDictionary);
+    } else {
+      while (!dispatchToSlot(packName, isUrgent, stateDictionary)) {
+        // the slot was removed concurrently, retry with a new one
+      }
+    }
+    emitPendingSignals();
+  }
+
+  /**
+   * Runs emission once every state of the given packs that is still waiting in a slot or in the
+   * pending batch has been emitted, e.g. so that fetchSuccess follows the states it reports.
+   */
+  public void runAfterPendingStates(Collection<String> packNames, Runnable emission) {
+    for (String packName : packNames) {
+      PackDispatchSlot slot = packDispatchSlots.get(packName);
+      if (slot != null) {
+        flush(slot);
+      }
+    }
+    flushBatch();
+    synchronized (pendingSignals) {
+      pendingSignals.add(emission);
+    }
+    emitPendingSignals();
+  }
+
+  /** Immediately emits every state that is still waiting in a slot or in the pending batch. */
+  public void flushAll() {
+    for (PackDispatchSlot slot : packDispatchSlots.values()) {
+      flush(slot);
+    }
+    flushBatch();
+    emitPendingSignals();
+  }
+
+  /** Drops all pending states and stops the flush scheduler. */
+  public void shutdown() {
+    flushScheduler.shutdownNow();
+    packDispatchSlots.clear();
+    synchronized (pendingBatch) {
+      pendingBatch.clear();
+    }
+    synchronized (pendingSignals) {
+      pendingSignals.clear();
+    }
+  }
+
+  int dispatchSlotCount() {
+    return packDispatchSlots.size();
+  }
+
+  /** Returns the dispatcher counters serialized as Dictionary. */
+  public Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(MERGED_UPDATES_KEY, mergedUpdateCount.get());
+    metrics.put(DELIVERED_UPDATES_KEY, deliveredUpdateCount.get());
+    metrics.put(DELIVERED_BATCHES_KEY, deliveredBatchCount.get());
+    return metrics;
+  }
+
+  /**
+   * Adds the given state to the pending batch, replacing an undelivered state of the same pack. The
+   * batch is delivered at the end of the dispatch window, or right away if the state is urgent.
+   */
+  private void dispatchToBatch(String packName, boolean isUrgent, Dictionary stateDictionary) {
+    synchronized (pendingBatch) {
+      Dictionary undeliveredState = (Dictionary) pendingBatch.get(packName);
+      if (undeliveredState != null) {
+        mergeUndeliveredFields(undeliveredState, stateDictionary);
+        mergedUpdateCount.incrementAndGet();
+      }
+      pendingBatch.put(packName, stateDictionary);
+      if (isUrgent) {
+        flushBatch();
+      } else if (!isBatchFlushScheduled) {
+        isBatchFlushScheduled = true;
+        long intervalMs = minDispatchIntervalMs;
+        flushScheduler.schedule(
+            () -> {
+              flushBatch();
+              emitPendingSignals();
+            },
+            intervalMs > 0 ? intervalMs : DEFAULT_BATCH_WINDOW_MS,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Copies the fields of an undelivered state that the latest state does not carry. This is a no-op
+   * for full states, while delta encoded states accumulate every field changed since the last
+   * delivered update.
+   */
+  private static void mergeUndeliveredFields(Dictionary undeliveredState, Dictionary latestState) {
+    for (Map.Entry<String, Object> field : undeliveredState.entrySet()) {
+      if (!latestState.containsKey(field.getKey())) {
+        latestState.put(field.getKey(), field.getValue());
+      }
+    }
+  }
+
+  /**
+   * Parks or delivers a state in the slot of its pack. Returns false if the slot was removed before
+   * its lock was acquired.
+   */
+  private boolean dispatchToSlot(String packName, boolean isUrgent, Dictionary stateDictionary) {
+    long intervalMs = minDispatchIntervalMs;
+    if (intervalMs <= 0 && !packDispatchSlots.containsKey(packName)) {
+      // without coalescing, a pack only needs a slot to flush a state parked at a higher rate
+      deliveredUpdateCount.incrementAndGet();
+      enqueueSignal(ASSET_PACK_STATE_UPDATED, stateDictionary);
+      return true;
+    }
+    PackDispatchSlot slot =
+        packDispatchSlots.computeIfAbsent(packName, k -> new PackDispatchSlot(packName));
+    synchronized (slot) {
+      if (slot.isRemoved) {
+        return false;
+      }
+      long now = StateUpdateManager.currentTimeMs();
+      if (slot.pendingStateDictionary != null) {
+        mergeUndeliveredFields(slot.pendingStateDictionary, stateDictionary);
+        slot.pendingStateDictionary = null;
+        mergedUpdateCount.incrementAndGet();
+      }
+      if (isUrgent
+          || intervalMs <= 0
+          || !slot.hasDelivered
+          || now - slot.lastDeliveryTimeMs >= intervalMs) {
+        deliver(slot, stateDictionary, now);
+        if (intervalMs <= 0) {
+          // the pack is no longer rate limited, so its slot has nothing left to track
+          removeSlot(slot);
+        } else {
+          scheduleFlush(slot, intervalMs);
+        }
+        return true;
+      }
+      slot.pendingStateDictionary = stateDictionary;
+      scheduleFlush(slot, slot.lastDeliveryTimeMs + intervalMs - now);
+      return true;
+    }
+  }
+
+  private void scheduleFlush(PackDispatchSlot slot, long delayMs) {
+    if (!slot.isFlushScheduled) {
+      slot.isFlushScheduled = true;
+      flushScheduler.schedule(() -> flushAndEmit(slot), delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void removeSlot(PackDispatchSlot slot) {
+    slot.isRemoved = true;
+    slot.pendingStateDictionary = null;
+    packDispatchSlots.remove(slot.packName, slot);
+  }
+
+  private void flushBatch() {
+    // The batch is queued while holding the lock, so that batches can never be reordered.
+    synchronized (pendingBatch) {
+      isBatchFlushScheduled = false;
+      if (pendingBatch.isEmpty()) {
+        return;
+      }
+      Dictionary batch = new Dictionary();
+      batch.putAll(pendingBatch);
+      pendingBatch.clear();
+      deliveredUpdateCount.addAndGet(batch.size());
+      deliveredBatchCount.incrementAndGet();
+      enqueueSignal(ASSET_PACK_STATES_BATCH_UPDATED, batch);
+    }
+  }
+
+  private void flushAndEmit(PackDispatchSlot slot) {
+    synchronized (slot) {
+      slot.isFlushScheduled = false;
+      flush(slot);
+    }
+    emitPendingSignals();
+  }
+
+  /**
+   * Delivers the state parked in slot, if any. A slot that stayed empty for a whole dispatch
+   * interval is removed, any other one is checked again once its interval elapsed.
+   */
+  private void flush(PackDispatchSlot slot) {
+    synchronized (slot) {
+      if (slot.isRemoved) {
+        return;
+      }
+      long now = StateUpdateManager.currentTimeMs();
+      long intervalMs = minDispatchIntervalMs;
+      if (slot.pendingStateDictionary != null) {
+        Dictionary stateDictionary = slot.pendingStateDictionary;
+        slot.pendingStateDictionary = null;
+        deliver(slot, stateDictionary, now);
+      } else if (now - slot.lastDeliveryTimeMs >= intervalMs) {
+        removeSlot(slot);
+        return;
+      }
+      if (intervalMs <= 0) {
+        removeSlot(slot);
+        return;
+      }
+      scheduleFlush(slot, slot.lastDeliveryTimeMs + intervalMs - now);
+    }
+  }
+
+  private void deliver(PackDispatchSlot slot, Dictionary stateDictionary, long now) {
+    slot.hasDelivered = true;
+    slot.lastDeliveryTimeMs = now;
+    deliveredUpdateCount.incrementAndGet();
+    enqueueSignal(ASSET_PACK_STATE_UPDATED, stateDictionary);
+  }
+
+  private void enqueueSignal(String signalName, Object... signalArgs) {
+    synchronized (pendingSignals) {
+      pendingSignals.add(() -> stateUpdateManager.emitSignalWrapper(signalName, signalArgs));
+    }
+  }
+
+  /**
+   * Emits the queued signals in order, outside of any slot lock. A single thread emits at a time,
+   * so a thread finding another one emitting leaves its signals to that thread.
+   */
+  private void emitPendingSignals() {
+    synchronized (pendingSignals) {
+      if (isEmitting) {
+        return;
+      }
+      isEmitting = true;
+    }
+    boolean isDrained = false;
+    try {
+      while (true) {
+        Runnable signal;
+        synchronized (pendingSignals) {
+          signal = pendingSignals.poll();
+          if (signal == null) {
+            isEmitting = false;
+            isDrained = true;
+            return;
+          }
+        }
+        signal.run();
+      }
+    } finally {
+      if (!isDrained) {
+        synchronized (pendingSignals) {
+          isEmitting = false;
+        }
+      }
+    }
+  }
+}
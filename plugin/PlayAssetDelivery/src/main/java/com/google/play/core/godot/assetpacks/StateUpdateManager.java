@@ -21,48 +21,203 @@
  */
 package com.google.play.core.godot.assetpacks;
 
-import static com.google.play.core.godot.assetpacks.PlayAssetDelivery.ASSET_PACK_STATE_UPDATED;
-
 import com.google.android.play.core.assetpacks.AssetPackManager;
 import com.google.android.play.core.assetpacks.AssetPackState;
+import com.google.android.play.core.assetpacks.AssetPackStates;
 import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.Task;
 import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
-import java.util.ArrayList;
+import java.io.File;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.godotengine.godot.Dictionary;
 
 public class StateUpdateManager {
-  private Set<String> ongoingAssetPackRequests;
-  private Map<String, Dictionary> updatedAssetPackStateMap;
-  private final List<Integer> assetPackTerminalStates =
+  static final String RECONCILE_REQUESTS_KEY = "reconcileRequests";
+  static final String SKIPPED_RECONCILIATIONS_KEY = "skippedReconciliations";
+  static final String SHARED_RECONCILIATIONS_KEY = "sharedReconciliations";
+  /** Maximum number of packs queried by a single getPackStates call while reconciling. */
+  static final int MAX_RECONCILE_CHUNK_SIZE = 32;
+  /** Time after which an in-flight reconciliation whose Tasks never completed is abandoned. */
+  static final long RECONCILE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /** Receives every terminal state of a pack, e.g. to react to the pack being installed. */
+  interface TerminalStateListener {
+    /**
+     * Called with every terminal state of packName, where isStateChanged tells whether it differs
+     * from the previous state of the pack.
+     */
+    void onTerminalState(String packName, int status, boolean isStateChanged);
+  }
+
+  private AssetPackStateTable assetPackStateTable;
+  private static final List<Integer> assetPackTerminalStates =
       Arrays.asList(AssetPackStatus.COMPLETED, AssetPackStatus.FAILED, AssetPackStatus.CANCELED);
   PlayAssetDelivery playAssetDeliveryPlugin;
+  StateUpdateDispatcher stateUpdateDispatcher;
+  CallbackExecutor callbackExecutor;
+  private volatile TerminalStateListener terminalStateListener;
   private AssetPackManager assetPackManager;
+  private volatile boolean isDeltaEncodingEnabled = false;
+  volatile PackStateSnapshotFile packStateSnapshotFile;
+  // open until the persisted states are restored, so that none is read or emitted before
+  private volatile CountDownLatch restoreLatch = new CountDownLatch(0);
+  private volatile Executor restoreExecutor;
+  private final Object reconcileLock = new Object();
+  // the fields below are guarded by reconcileLock
+  // incremented by every reconciliation, so that the chunks of an abandoned one are ignored
+  private long reconcileGeneration;
+  // number of getPackStates chunks of the in-flight reconciliation that have not completed yet
+  private int pendingReconcileChunkCount;
+  private long reconcileStartTimeMs;
+  // whether a reconciliation was requested while another one was in flight
+  private boolean isReconcileRerunRequested;
+  private final AtomicLong reconcileRequestCount = new AtomicLong();
+  private final AtomicLong skippedReconcileCount = new AtomicLong();
+  private final AtomicLong sharedReconcileCount = new AtomicLong();
 
   Set<String> ongoingAssetPackRequests() {
-    return ongoingAssetPackRequests;
+    awaitRestoredStates();
+    return new HashSet<>(assetPackStateTable.ongoingPackNames());
   }
 
+  /** Returns the most updated asset pack states serialized as Dictionary. */
   Map<String, Dictionary> updatedAssetPackStateMap() {
+    awaitRestoredStates();
+    Map<String, Dictionary> updatedAssetPackStateMap = new HashMap<>();
+    assetPackStateTable.forEachState(
+        (packName, snapshot) ->
+            updatedAssetPackStateMap.put(packName, snapshot.toDictionary(packName)));
     return updatedAssetPackStateMap;
   }
 
   public void joinOngoingAssetPackRequests(Set<String> newOngoingAssetPackRequests) {
-    ongoingAssetPackRequests.addAll(newOngoingAssetPackRequests);
+    awaitRestoredStates();
+    for (String packName : newOngoingAssetPackRequests) {
+      int packId = assetPackStateTable.acquirePackId(packName);
+      if (assetPackStateTable.setOngoing(packId, true) && packStateSnapshotFile != null) {
+        packStateSnapshotFile.markDirty(packId);
+      }
+      assetPackStateTable.releasePackId(packId);
+    }
   }
 
   public StateUpdateManager(
       PlayAssetDelivery playAssetDeliveryPlugin, AssetPackManager assetPackManager) {
     this.playAssetDeliveryPlugin = playAssetDeliveryPlugin;
     this.assetPackManager = assetPackManager;
-    ongoingAssetPackRequests = Collections.synchronizedSet(new HashSet<>());
-    updatedAssetPackStateMap = new ConcurrentHashMap();
+    assetPackStateTable = new AssetPackStateTable();
+    stateUpdateDispatcher = new StateUpdateDispatcher(this);
+    callbackExecutor = new CallbackExecutor();
+  }
+
+  /** Sets the listener that receives the terminal states of the packs. */
+  void setTerminalStateListener(TerminalStateListener terminalStateListener) {
+    this.terminalStateListener = terminalStateListener;
+  }
+
+  /**
+   * Restores the asset pack states and ongoing asset pack requests persisted in snapshotFile on
+   * restoreExecutor, and keeps persisting every later change to it. Until the restore finished,
+   * reading or emitting states waits for it, and reconciliations are deferred to restoreExecutor.
+   */
+  public void enableStatePersistence(File snapshotFile, Executor restoreExecutor) {
+    PackStateSnapshotFile packStateSnapshotFile =
+        new PackStateSnapshotFile(snapshotFile, assetPackStateTable);
+    CountDownLatch restoreLatch = new CountDownLatch(1);
+    this.restoreLatch = restoreLatch;
+    this.restoreExecutor = restoreExecutor;
+    restoreExecutor.execute(
+        () -> {
+          try {
+            packStateSnapshotFile.restore();
+            this.packStateSnapshotFile = packStateSnapshotFile;
+          } finally {
+            restoreLatch.countDown();
+          }
+        });
+  }
+
+  /** Returns the most updated asset pack states serialized as an AssetPackStates Dictionary. */
+  public Dictionary cachedAssetPackStates() {
+    awaitRestoredStates();
+    Dictionary packStates = new Dictionary();
+    long[] totalBytes = new long[1];
+    assetPackStateTable.forEachState(
+        (packName, snapshot) -> {
+          packStates.put(packName, snapshot.toDictionary(packName));
+          totalBytes[0] += snapshot.totalBytesToDownload;
+        });
+    return PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(totalBytes[0], packStates);
+  }
+
+  static boolean isTerminalStatus(int status) {
+    return assetPackTerminalStates.contains(status);
+  }
+
+  /** Returns a monotonic timestamp in milliseconds, used to age cached states. */
+  static long currentTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  /**
+   * Configures how long the states of packs in a terminal state are retained for deduplication. A
+   * non-positive value disables the corresponding eviction rule.
+   *
+   * @param maxRetainedTerminalStates maximum number of terminal states retained
+   * @param terminalStateTtlMs time after which a terminal state is evicted
+   */
+  public void setTerminalStateRetention(int maxRetainedTerminalStates, long terminalStateTtlMs) {
+    assetPackStateTable.setTerminalStateRetention(maxRetainedTerminalStates, terminalStateTtlMs);
+    assetPackStateTable.evictTerminalStates(currentTimeMs());
+  }
+
+  /**
+   * Enables or disables delta encoding of assetPackStateUpdated signals. When enabled, each signal
+   * only carries the pack name, a per-pack sequence number and the fields that changed since the
+   * previous update of that pack. The first update of every pack after enabling carries all fields.
+   */
+  public void setDeltaEncodingEnabled(boolean isDeltaEncodingEnabled) {
+    if (isDeltaEncodingEnabled) {
+      assetPackStateTable.resetDeltaBase();
+    }
+    this.isDeltaEncodingEnabled = isDeltaEncodingEnabled;
+  }
+
+  /**
+   * Configures the granularity of progress updates. Updates of DOWNLOADING and TRANSFERRING packs
+   * that do not move by at least minBytesDelta bytes or minPercentDelta percent, or that arrive
+   * within minIntervalMs of the pack's previous update, are dropped. Status changes and errors are
+   * always emitted. A non-positive value disables the corresponding threshold.
+   */
+  public void setProgressGranularity(long minBytesDelta, int minPercentDelta, long minIntervalMs) {
+    assetPackStateTable.setProgressGranularity(minBytesDelta, minPercentDelta, minIntervalMs);
+  }
+
+  /** Returns the state cache and reconciliation counters serialized as Dictionary. */
+  public Dictionary getMetrics() {
+    Dictionary metrics = assetPackStateTable.getMetrics();
+    metrics.put(RECONCILE_REQUESTS_KEY, reconcileRequestCount.get());
+    metrics.put(SKIPPED_RECONCILIATIONS_KEY, skippedReconcileCount.get());
+    metrics.put(SHARED_RECONCILIATIONS_KEY, sharedReconcileCount.get());
+    return metrics;
+  }
+
+  /** Waits until the persisted states are restored, if they are being restored. */
+  private void awaitRestoredStates() {
+    try {
+      restoreLatch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /** Package-private wrapper function used for argument captor. */
@@ -71,48 +226,134 @@ public class StateUpdateManager {
   }
   /**
    * Function that emits assetPackStateUpdated signal if the given assetPackState has been updated.
+   * The signal is handed over to stateUpdateDispatcher, which may coalesce it with later updates of
+   * the same pack.
    */
   public void emitNonDuplicateStateUpdatedSignal(
       AssetPackState assetPackState, boolean addToOngoingAssetPackRequests) {
-    boolean isDifferentState;
-    Dictionary assetPackStateDictionary;
-    synchronized (this) {
-      boolean isTerminalState = assetPackTerminalStates.contains(assetPackState.status());
-      if (isTerminalState) {
-        ongoingAssetPackRequests.remove(assetPackState);
-      } else if (addToOngoingAssetPackRequests) {
-        ongoingAssetPackRequests.add(assetPackState.name());
-      }
-      assetPackStateDictionary =
-          PlayAssetDeliveryUtils.convertAssetPackStateToDictionary(assetPackState);
-      isDifferentState =
-          !updatedAssetPackStateMap.containsKey(assetPackState.name())
-              || updatedAssetPackStateMap.get(assetPackState.name()).hashCode()
-                  != assetPackStateDictionary.hashCode();
-      if (isDifferentState) {
-        updatedAssetPackStateMap.put(assetPackState.name(), assetPackStateDictionary);
-      }
+    awaitRestoredStates();
+    int packId = assetPackStateTable.acquirePackId(assetPackState.name());
+    boolean isTerminalState = isTerminalStatus(assetPackState.status());
+    boolean isOngoingChanged = false;
+    if (isTerminalState) {
+      isOngoingChanged = assetPackStateTable.setOngoing(packId, false);
+    } else if (addToOngoingAssetPackRequests) {
+      isOngoingChanged = assetPackStateTable.setOngoing(packId, true);
+    }
+    // only serialize the state once we know that it differs from the previous one
+    Dictionary stateDictionary = null;
+    if (isDeltaEncodingEnabled) {
+      stateDictionary =
+          assetPackStateTable.compareAndUpdateDelta(
+              packId,
+              assetPackState.status(),
+              assetPackState.errorCode(),
+              assetPackState.bytesDownloaded(),
+              assetPackState.totalBytesToDownload(),
+              assetPackState.transferProgressPercentage(),
+              currentTimeMs());
+    } else if (assetPackStateTable.compareAndUpdate(
+        packId,
+        assetPackState.status(),
+        assetPackState.errorCode(),
+        assetPackState.bytesDownloaded(),
+        assetPackState.totalBytesToDownload(),
+        assetPackState.transferProgressPercentage(),
+        currentTimeMs())) {
+      stateDictionary = PlayAssetDeliveryUtils.convertAssetPackStateToDictionary(assetPackState);
     }
-    // emit signal outside the synchronized block
-    if (isDifferentState) {
-      emitSignalWrapper(ASSET_PACK_STATE_UPDATED, assetPackStateDictionary);
+    if (isTerminalState) {
+      assetPackStateTable.evictTerminalStates(currentTimeMs());
+    }
+    if (packStateSnapshotFile != null && (stateDictionary != null || isOngoingChanged)) {
+      packStateSnapshotFile.markDirty(packId);
+    }
+    assetPackStateTable.releasePackId(packId);
+    if (stateDictionary != null) {
+      stateUpdateDispatcher.dispatch(
+          assetPackState.name(),
+          assetPackState.status(),
+          assetPackState.errorCode(),
+          stateDictionary);
+    }
+    TerminalStateListener listener = terminalStateListener;
+    if (isTerminalState && listener != null) {
+      listener.onTerminalState(
+          assetPackState.name(), assetPackState.status(), stateDictionary != null);
     }
   }
 
   /**
    * Calls getPackStates on all asset packs currently in non-terminal state and emit non-duplicating
-   * stateUpdated signals.
+   * stateUpdated signals. Reconciliation is single-flight: a call made while a previous
+   * reconciliation is still in flight shares it, and one more reconciliation runs once it
+   * completes, so that packs which became ongoing in the meantime are queried too. A reconciliation
+   * whose requests did not complete within RECONCILE_TIMEOUT_MS is abandoned. No request is issued
+   * if no asset pack is ongoing, and large sets of ongoing packs are queried in chunks of
+   * MAX_RECONCILE_CHUNK_SIZE, whose results are emitted as soon as each chunk completes.
    */
   public void forceAssetPackStateUpdate() {
-    assetPackManager
-        .getPackStates(new ArrayList<>(ongoingAssetPackRequests))
-        .addOnSuccessListener(
-            result ->
-                result
-                    .packStates()
-                    .values()
-                    .stream()
-                    .forEach(
-                        updatedState -> emitNonDuplicateStateUpdatedSignal(updatedState, false)));
+    if (restoreLatch.getCount() > 0) {
+      // queries the packs that were ongoing in the previous process too, without blocking the
+      // caller, which usually is the main thread resuming the app
+      restoreExecutor.execute(this::forceAssetPackStateUpdate);
+      return;
+    }
+    assetPackStateTable.evictTerminalStates(currentTimeMs());
+    List<String> ongoingPackNames = assetPackStateTable.ongoingPackNames();
+    if (ongoingPackNames.isEmpty()) {
+      skippedReconcileCount.incrementAndGet();
+      return;
+    }
+    int chunkCount =
+        (ongoingPackNames.size() + MAX_RECONCILE_CHUNK_SIZE - 1) / MAX_RECONCILE_CHUNK_SIZE;
+    long generation;
+    synchronized (reconcileLock) {
+      long nowMs = currentTimeMs();
+      if (pendingReconcileChunkCount > 0 && nowMs - reconcileStartTimeMs < RECONCILE_TIMEOUT_MS) {
+        isReconcileRerunRequested = true;
+        sharedReconcileCount.incrementAndGet();
+        return;
+      }
+      generation = ++reconcileGeneration;
+      pendingReconcileChunkCount = chunkCount;
+      reconcileStartTimeMs = nowMs;
+      isReconcileRerunRequested = false;
+    }
+    for (int chunkStart = 0;
+        chunkStart < ongoingPackNames.size();
+        chunkStart += MAX_RECONCILE_CHUNK_SIZE) {
+      List<String> chunk =
+          ongoingPackNames.subList(
+              chunkStart, Math.min(chunkStart + MAX_RECONCILE_CHUNK_SIZE, ongoingPackNames.size()));
+      reconcileRequestCount.incrementAndGet();
+      Task<AssetPackStates> getPackStatesTask = assetPackManager.getPackStates(chunk);
+      getPackStatesTask.addOnSuccessListener(
+          callbackExecutor,
+          result -> {
+            try {
+              for (AssetPackState updatedState : result.packStates().values()) {
+                emitNonDuplicateStateUpdatedSignal(updatedState, false);
+              }
+            } finally {
+              onReconcileChunkFinished(generation);
+            }
+          });
+      getPackStatesTask.addOnFailureListener(
+          callbackExecutor, e -> onReconcileChunkFinished(generation));
+    }
+  }
+
+  private void onReconcileChunkFinished(long generation) {
+    synchronized (reconcileLock) {
+      if (generation != reconcileGeneration || --pendingReconcileChunkCount > 0) {
+        return;
+      }
+      if (!isReconcileRerunRequested) {
+        return;
+      }
+      isReconcileRerunRequested = false;
+    }
+    forceAssetPackStateUpdate();
   }
 }
@@ -0,0 +1,346 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import android.util.Log;
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.AssetPackState;
+import com.google.android.play.core.assetpacks.AssetPackStates;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.Task;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.godotengine.godot.Dictionary;
+
+/**
+ * Keeps the installed asset packs within a disk budget by evicting the least recently used ones
+ * before a fetch, so that downloads do not fail with INSUFFICIENT_STORAGE midway. Every pack
+ * location lookup, asset location lookup and fetch marks its pack as used. Before a fetch, the
+ * sizes of the installed and the requested packs are queried with a single getPackStates call, and
+ * if the requested packs would not fit into the budget or into the free space, installed packs that
+ * are neither pinned, requested nor in flight are removed, least recently used first, until they
+ * do. If evicting all such packs would not make room, none is evicted. Recency is kept as an access
+ * sequence number rather than a time, so that it survives restarts and clock changes, and persisted
+ * next to the pack states.
+ */
+final class StorageBudgetManager {
+  static final String ACCESS_FILE_NAME = "play_asset_delivery_pack_access.bin";
+  static final String BUDGET_BYTES_KEY = "budgetBytes";
+  static final String INSTALLED_BYTES_KEY = "installedBytes";
+  static final String GUARDED_FETCHES_KEY = "guardedFetches";
+  static final String EVICTED_PACKS_KEY = "evictedPacks";
+  static final String EVICTED_BYTES_KEY = "evictedBytes";
+  static final String UNSATISFIED_FETCHES_KEY = "unsatisfiedFetches";
+
+  private static final String TAG = "StorageBudgetManager";
+  private static final int MAGIC = 0x50414441; // "PADA"
+  private static final int VERSION = 1;
+
+  /** Returns the bytes available to the app on the storage holding its asset packs. */
+  interface FreeSpaceSource {
+    long freeBytes();
+  }
+
+  /** Receives every pack removed to make room, so that caches of its contents can be dropped. */
+  interface EvictionListener {
+    void onPackEvicted(String packName);
+  }
+
+  private final AssetPackManager assetPackManager;
+  private final PackLocationCache packLocationCache;
+  private final Executor callbackExecutor;
+  private final EvictionListener evictionListener;
+  private volatile FreeSpaceSource freeSpaceSource;
+  private volatile long budgetBytes;
+  // the fields below are guarded by this
+  // sequence number of the last use of each pack, higher is more recent
+  private final Map<String, Long> lastAccesses = new HashMap<>();
+  private long accessSequence;
+  private boolean isAccessFileDirty;
+  private File accessFile;
+  private final Set<String> pinnedPacks = new HashSet<>();
+  private final Set<String> pendingEvictions = new HashSet<>();
+  private final AtomicLong installedBytes = new AtomicLong();
+  private final AtomicLong guardedFetchCount = new AtomicLong();
+  private final AtomicLong evictedPackCount = new AtomicLong();
+  private final AtomicLong evictedBytes = new AtomicLong();
+  private final AtomicLong unsatisfiedFetchCount = new AtomicLong();
+
+  StorageBudgetManager(
+      AssetPackManager assetPackManager,
+      PackLocationCache packLocationCache,
+      Executor callbackExecutor,
+      EvictionListener evictionListener) {
+    this.assetPackManager = assetPackManager;
+    this.packLocationCache = packLocationCache;
+    this.callbackExecutor = callbackExecutor;
+    this.evictionListener = evictionListener;
+  }
+
+  /** Also keeps the requested packs within freeSpaceSource.freeBytes() while a budget is set. */
+  void setFreeSpaceSource(FreeSpaceSource freeSpaceSource) {
+    this.freeSpaceSource = freeSpaceSource;
+  }
+
+  /** Sets the disk budget of all installed asset packs. A non-positive value disables eviction. */
+  void setBudgetBytes(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Protects packName from eviction, or lifts that protection. */
+  synchronized void setPinned(String packName, boolean isPinned) {
+    if (isPinned) {
+      pinnedPacks.add(packName);
+    } else {
+      pinnedPacks.remove(packName);
+    }
+  }
+
+  /** Marks packName as the most recently used pack. */
+  synchronized void onPackAccessed(String packName) {
+    lastAccesses.put(packName, ++accessSequence);
+    isAccessFileDirty = true;
+  }
+
+  /**
+   * Restores the pack recency persisted in accessFile, and persists it there with flush(). Called
+   * before the first pack is used.
+   */
+  synchronized void setAccessFile(File accessFile) {
+    this.accessFile = accessFile;
+    if (!accessFile.isFile()) {
+      return;
+    }
+    try (DataInputStream input = new DataInputStream(new FileInputStream(accessFile))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return;
+      }
+      int packCount = input.readInt();
+      for (int i = 0; i < packCount; i++) {
+        String packName = input.readUTF();
+        long lastAccess = input.readLong();
+        lastAccesses.put(packName, lastAccess);
+        accessSequence = Math.max(accessSequence, lastAccess);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to restore the pack access order", e);
+    }
+  }
+
+  /** Persists the pack recency if it changed since the last flush. */
+  synchronized void flush() {
+    if (accessFile == null || !isAccessFileDirty) {
+      return;
+    }
+    isAccessFileDirty = false;
+    // packs are written in recency order, so that their rank survives renumbering
+    List<String> packNames = packsByRecencyLocked(lastAccesses.keySet());
+    try {
+      AtomicFileWriter.write(
+          accessFile,
+          outputStream -> {
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(packNames.size());
+            for (int i = 0; i < packNames.size(); i++) {
+              output.writeUTF(packNames.get(i));
+              output.writeLong(i + 1);
+            }
+          });
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to persist the pack access order", e);
+    }
+  }
+
+  /**
+   * Makes room for the packs of a fetch within the budget and the free space, and then runs fetch.
+   * Runs fetch right away if no budget is set. A fetch whose sizes cannot be queried runs without
+   * evictions.
+   *
+   * @param packNames names of the packs to be fetched
+   * @param ongoingPacks names of the packs with a request in flight, which are never evicted
+   * @param fetch submits the fetch to the Play Core Library
+   */
+  void beforeFetch(List<String> packNames, Set<String> ongoingPacks, Runnable fetch) {
+    if (budgetBytes <= 0) {
+      fetch.run();
+      return;
+    }
+    guardedFetchCount.incrementAndGet();
+    Set<String> queriedPacks = new LinkedHashSet<>(packNames);
+    queriedPacks.addAll(packLocationCache.getPackLocations().keySet());
+    Task<AssetPackStates> getPackStatesTask =
+        assetPackManager.getPackStates(new ArrayList<>(queriedPacks));
+    getPackStatesTask.addOnSuccessListener(
+        callbackExecutor,
+        result -> evict(selectEvictions(result.packStates(), packNames, ongoingPacks), fetch));
+    getPackStatesTask.addOnFailureListener(
+        callbackExecutor,
+        e -> {
+          Log.w(TAG, "Failed to query the sizes of asset packs", e);
+          fetch.run();
+        });
+  }
+
+  /**
+   * Returns whether packs of incomingBytes, of which remainingDownloadBytes are still to be
+   * downloaded, fit next to installed packs of installedBytes without evicting any of them.
+   */
+  boolean hasRoomFor(long installedBytes, long incomingBytes, long remainingDownloadBytes) {
+    return bytesToFree(installedBytes, incomingBytes, remainingDownloadBytes) <= 0;
+  }
+
+  /** Returns the budget counters serialized as Dictionary. */
+  Dictionary getMetrics() {
+    Dictionary metrics = new Dictionary();
+    metrics.put(BUDGET_BYTES_KEY, budgetBytes);
+    metrics.put(INSTALLED_BYTES_KEY, installedBytes.get());
+    metrics.put(GUARDED_FETCHES_KEY, guardedFetchCount.get());
+    metrics.put(EVICTED_PACKS_KEY, evictedPackCount.get());
+    metrics.put(EVICTED_BYTES_KEY, evictedBytes.get());
+    metrics.put(UNSATISFIED_FETCHES_KEY, unsatisfiedFetchCount.get());
+    return metrics;
+  }
+
+  /** Returns the installed packs to be removed before the fetch of packNames, oldest first. */
+  private List<AssetPackState> selectEvictions(
+      Map<String, AssetPackState> packStates, List<String> packNames, Set<String> ongoingPacks) {
+    long installedSize = 0;
+    long incomingSize = 0;
+    long remainingDownloadSize = 0;
+    List<String> evictablePacks = new ArrayList<>();
+    for (AssetPackState packState : packStates.values()) {
+      if (packState.status() == AssetPackStatus.COMPLETED) {
+        installedSize += packState.totalBytesToDownload();
+        if (!packNames.contains(packState.name()) && !ongoingPacks.contains(packState.name())) {
+          evictablePacks.add(packState.name());
+        }
+      } else if (packNames.contains(packState.name())) {
+        incomingSize += packState.totalBytesToDownload();
+        remainingDownloadSize += packState.totalBytesToDownload() - packState.bytesDownloaded();
+      }
+    }
+    installedBytes.set(installedSize);
+    long bytesToFree = bytesToFree(installedSize, incomingSize, remainingDownloadSize);
+    if (bytesToFree <= 0) {
+      return Collections.emptyList();
+    }
+    List<AssetPackState> evictions = new ArrayList<>();
+    synchronized (this) {
+      for (String packName : packsByRecencyLocked(evictablePacks)) {
+        if (bytesToFree <= 0) {
+          break;
+        }
+        if (pinnedPacks.contains(packName) || pendingEvictions.contains(packName)) {
+          continue;
+        }
+        evictions.add(packStates.get(packName));
+        bytesToFree -= packStates.get(packName).totalBytesToDownload();
+      }
+      if (bytesToFree > 0) {
+        unsatisfiedFetchCount.incrementAndGet();
+        return Collections.emptyList();
+      }
+      for (AssetPackState packState : evictions) {
+        pendingEvictions.add(packState.name());
+      }
+    }
+    return evictions;
+  }
+
+  private long bytesToFree(long installedSize, long incomingSize, long remainingDownloadSize) {
+    long budget = budgetBytes;
+    long bytesToFree = budget > 0 ? installedSize + incomingSize - budget : Long.MIN_VALUE;
+    FreeSpaceSource freeSpace = freeSpaceSource;
+    if (freeSpace != null) {
+      bytesToFree = Math.max(bytesToFree, remainingDownloadSize - freeSpace.freeBytes());
+    }
+    return bytesToFree;
+  }
+
+  private void evict(List<AssetPackState> evictions, Runnable fetch) {
+    if (evictions.isEmpty()) {
+      fetch.run();
+      return;
+    }
+    // the fetch is submitted once every removal finished, whether it succeeded or not
+    AtomicInteger pendingRemovalCount = new AtomicInteger(evictions.size());
+    for (AssetPackState packState : evictions) {
+      String packName = packState.name();
+      Task<Void> removePackTask = assetPackManager.removePack(packName);
+      removePackTask.addOnSuccessListener(
+          callbackExecutor,
+          result -> {
+            synchronized (this) {
+              pendingEvictions.remove(packName);
+              lastAccesses.remove(packName);
+              isAccessFileDirty = true;
+            }
+            evictedPackCount.incrementAndGet();
+            evictedBytes.addAndGet(packState.totalBytesToDownload());
+            evictionListener.onPackEvicted(packName);
+            if (pendingRemovalCount.decrementAndGet() == 0) {
+              fetch.run();
+            }
+          });
+      removePackTask.addOnFailureListener(
+          callbackExecutor,
+          e -> {
+            Log.w(TAG, "Failed to evict " + packName, e);
+            synchronized (this) {
+              pendingEvictions.remove(packName);
+            }
+            if (pendingRemovalCount.decrementAndGet() == 0) {
+              fetch.run();
+            }
+          });
+    }
+  }
+
+  /** Returns packNames sorted from the least to the most recently used, never used packs first. */
+  private List<String> packsByRecencyLocked(Collection<String> packNames) {
+    List<String> sortedPacks = new ArrayList<>(packNames);
+    Collections.sort(
+        sortedPacks,
+        (first, second) -> {
+          Long firstAccess = lastAccesses.get(first);
+          Long secondAccess = lastAccesses.get(second);
+          long firstRank = firstAccess == null ? Long.MIN_VALUE : firstAccess;
+          long secondRank = secondAccess == null ? Long.MIN_VALUE : secondAccess;
+          return firstRank != secondRank
+              ? Long.compare(firstRank, secondRank)
+              : first.compareTo(second);
+        });
+    return sortedPacks;
+  }
+}
@@ -36,6 +36,10 @@ public class PlayAssetDeliveryUtils {
   public static final String ASSETPACK_EXCEPTION_DICTIONARY_TYPE_KEY = "type";
   public static final String ASSETPACK_EXCEPTION_DICTIONARY_MESSAGE_KEY = "message";
   public static final String ASSETPACK_EXCEPTION_DICTIONARY_ERROR_CODE_KEY = "errorCode";
+  public static final String ASSET_LOCATIONS_PATHS_KEY = "paths";
+  public static final String ASSET_LOCATIONS_OFFSETS_KEY = "offsets";
+  public static final String ASSET_LOCATIONS_SIZES_KEY = "sizes";
+  public static final String ASSET_LOCATIONS_MISSING_MASK_KEY = "missingMask";
 
   public static Dictionary constructAssetPackStateDictionary(
       long bytesDownloaded,
@@ -78,6 +82,16 @@ public class PlayAssetDeliveryUtils {
     return returnDict;
   }
 
+  public static Dictionary constructAssetLocationsDictionary(
+      String[] paths, int[] offsets, int[] sizes, byte[] missingMask) {
+    Dictionary returnDict = new Dictionary();
+    returnDict.put(ASSET_LOCATIONS_PATHS_KEY, paths);
+    returnDict.put(ASSET_LOCATIONS_OFFSETS_KEY, offsets);
+    returnDict.put(ASSET_LOCATIONS_SIZES_KEY, sizes);
+    returnDict.put(ASSET_LOCATIONS_MISSING_MASK_KEY, missingMask);
+    return returnDict;
+  }
+
   public static Dictionary constructAssetPackLocationDictionary(
       String assetsPath, int packStorageMethod, String path) {
     Dictionary returnDict = new Dictionary();
@@ -0,0 +1,155 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AssetListerTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final PackContentManifestStore packContentManifestStore =
+      new PackContentManifestStore(packLocationCache, Runnable::run);
+  private final AssetLister testLister =
+      new AssetLister(packLocationCache, packContentManifestStore);
+  private File assetsDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    assetsDirectory = temporaryFolder.newFolder("assets");
+    for (String assetPath :
+        new String[] {
+          "levels/1/map.tscn",
+          "levels/1/music.ogg",
+          "levels/2/map.tscn",
+          "levels/boss.tscn",
+          "levelsExtra.txt",
+          "textures/a.png",
+          "textures/b.png",
+          "textures/c.jpg"
+        }) {
+      File file = new File(assetsDirectory, assetPath);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+  }
+
+  private void installPack(String packName, int storageMethod) {
+    PlayAssetDeliveryTestHelper.installPack(
+        assetPackManagerMock,
+        packName,
+        "/packs/" + packName,
+        assetsDirectory.getPath(),
+        storageMethod);
+  }
+
+  private void buildManifest(String packName) throws IOException {
+    packContentManifestStore.setManifestDirectory(temporaryFolder.newFolder("manifests"));
+    packContentManifestStore.onPackCompleted(packName);
+  }
+
+  @Test
+  public void listAssets_prefixRangeFromManifest() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    buildManifest("pack1");
+
+    assertThat(testLister.listAssets("pack1", "levels/"))
+        .asList()
+        .containsExactly(
+            "levels/1/map.tscn", "levels/1/music.ogg", "levels/2/map.tscn", "levels/boss.tscn")
+        .inOrder();
+    assertThat(testLister.listAssets("pack1", "/levels")).asList().contains("levelsExtra.txt");
+    assertThat(testLister.listAssets("pack1", "")).hasLength(8);
+    assertThat(testLister.listAssets("pack1", "sounds/")).isEmpty();
+    assertThat(testLister.getMetrics()).containsEntry(AssetLister.WALKED_LISTINGS_KEY, 0L);
+  }
+
+  @Test
+  public void listAssets_withoutManifestWalksPack() {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+
+    assertThat(testLister.listAssets("pack1", "textures/"))
+        .asList()
+        .containsExactly("textures/a.png", "textures/b.png", "textures/c.jpg")
+        .inOrder();
+    assertThat(testLister.getMetrics()).containsEntry(AssetLister.WALKED_LISTINGS_KEY, 1L);
+  }
+
+  @Test
+  public void listAssets_notStorageFilesPack() {
+    installPack("pack1", AssetPackStorageMethod.APK_ASSETS);
+
+    assertThat(testLister.listAssets("pack1", "")).isEmpty();
+    assertThat(testLister.listAssets("unknownPack", "")).isEmpty();
+  }
+
+  @Test
+  public void globAssets() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    buildManifest("pack1");
+
+    assertThat(testLister.globAssets("pack1", "textures/*.png"))
+        .asList()
+        .containsExactly("textures/a.png", "textures/b.png")
+        .inOrder();
+    assertThat(testLister.globAssets("pack1", "levels/*/map.tscn"))
+        .asList()
+        .containsExactly("levels/1/map.tscn", "levels/2/map.tscn")
+        .inOrder();
+    assertThat(testLister.globAssets("pack1", "levels/*.tscn"))
+        .asList()
+        .containsExactly("levels/boss.tscn");
+    assertThat(testLister.globAssets("pack1", "**/*.tscn")).hasLength(3);
+    assertThat(testLister.globAssets("pack1", "levels/**/map.tscn")).hasLength(2);
+    assertThat(testLister.globAssets("pack1", "textures/[!a].???"))
+        .asList()
+        .containsExactly("textures/b.png", "textures/c.jpg")
+        .inOrder();
+    assertThat(testLister.globAssets("pack1", "levels/1/map.tscn")).hasLength(1);
+  }
+
+  @Test
+  public void globToRegex_escapesLiterals() {
+    assertThat("a+b(1).txt".matches(AssetLister.globToRegex("a+b(1).txt"))).isTrue();
+    assertThat("a+b(1)xtxt".matches(AssetLister.globToRegex("a+b(1).txt"))).isFalse();
+    assertThat(AssetLister.literalPrefix("levels/*/map.tscn")).isEqualTo("levels/");
+  }
+
+  @Test
+  public void globAssets_malformedSetsDoNotThrow() throws IOException {
+    new File(assetsDirectory, "textures/[!].png").createNewFile();
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    buildManifest("pack1");
+
+    assertThat(testLister.globAssets("pack1", "textures/[!].png"))
+        .asList()
+        .containsExactly("textures/[!].png");
+    assertThat(testLister.globAssets("pack1", "textures/[]*")).isEmpty();
+    assertThat(testLister.globAssets("pack1", "textures/[z-a].png")).isEmpty();
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.godotengine.godot.Dictionary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AssetLocationIndexTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final Dictionary testAssetLocationDict =
+      PlayAssetDeliveryUtils.constructAssetLocationDictionary(512, "~/Documents/base.apk", 256);
+
+  private void installPack(String packName, String assetsPath, int storageMethod) {
+    PlayAssetDeliveryTestHelper.installPack(
+        assetPackManagerMock, packName, "~/Documents/path/", assetsPath, storageMethod);
+  }
+
+  @Test
+  public void getAssetLocation_storageFilesDerivedLocally() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    File assetFile = new File(assetsDirectory, "level1.pck");
+    try (FileOutputStream outputStream = new FileOutputStream(assetFile)) {
+      outputStream.write(new byte[100]);
+    }
+    installPack("pack1", assetsDirectory.getPath(), AssetPackStorageMethod.STORAGE_FILES);
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    assertThat(testIndex.getAssetLocation("pack1", "level1.pck"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetLocationDictionary(0, assetFile.getPath(), 100));
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+
+    verify(assetPackManagerMock, times(0)).getAssetLocation(any(String.class), any(String.class));
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.LOCAL_LOOKUPS_KEY, 2L);
+  }
+
+  @Test
+  public void getAssetLocation_storageFilesFromContentManifest() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    File assetFile = new File(assetsDirectory, "level1.pck");
+    try (FileOutputStream outputStream = new FileOutputStream(assetFile)) {
+      outputStream.write(new byte[100]);
+    }
+    installPack("pack1", assetsDirectory.getPath(), AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore contentManifests =
+        new PackContentManifestStore(packLocationCache, Runnable::run);
+    contentManifests.setManifestDirectory(temporaryFolder.newFolder("manifests"));
+    contentManifests.onPackCompleted("pack1");
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.setContentManifests(contentManifests);
+    // the manifest still lists the file, so no file system access is needed
+    assetFile.delete();
+
+    assertThat(testIndex.getAssetLocation("pack1", "/level1.pck"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetLocationDictionary(0, assetFile.getPath(), 100));
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.MANIFEST_LOOKUPS_KEY, 2L);
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.LOCAL_LOOKUPS_KEY, 0L);
+  }
+
+  @Test
+  public void getAssetLocation_absentAssetAnsweredByBloomFilter() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    new File(assetsDirectory, "level1.pck").createNewFile();
+    installPack("pack1", assetsDirectory.getPath(), AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore contentManifests =
+        new PackContentManifestStore(packLocationCache, Runnable::run);
+    contentManifests.setManifestDirectory(temporaryFolder.newFolder("manifests"));
+    PackBloomFilterStore bloomFilters = new PackBloomFilterStore(contentManifests, Runnable::run);
+    bloomFilters.setFilterDirectory(temporaryFolder.newFolder("filters"));
+    contentManifests.addManifestListener(bloomFilters);
+    contentManifests.onPackCompleted("pack1");
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.setContentManifests(contentManifests);
+    testIndex.setBloomFilters(bloomFilters);
+
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+    assertThat(testIndex.getAssetLocation("pack1", "level1.pck")).isNotNull();
+
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.MANIFEST_LOOKUPS_KEY, 1L);
+    assertThat(bloomFilters.getMetrics()).containsEntry(PackBloomFilterStore.SAVED_LOOKUPS_KEY, 1L);
+  }
+
+  @Test
+  public void getAssetLocation_apkAssetsMemoized() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation("pack1", "level1.pck"))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    Dictionary firstResult = testIndex.getAssetLocation("pack1", "level1.pck");
+    Dictionary secondResult = testIndex.getAssetLocation("pack1", "level1.pck");
+
+    assertThat(firstResult).isEqualTo(testAssetLocationDict);
+    // cache hits return the serialized location without converting it again
+    assertSame(firstResult, secondResult);
+    verify(assetPackManagerMock, times(1)).getAssetLocation("pack1", "level1.pck");
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.HITS_KEY, 1L);
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.IPC_LOOKUPS_KEY, 1L);
+  }
+
+  @Test
+  public void getAssetLocation_unknownPackFallsBackToPlayCore() {
+    when(assetPackManagerMock.getAssetLocation("pack1", "level1.pck"))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    assertThat(testIndex.getAssetLocation("pack1", "level1.pck")).isEqualTo(testAssetLocationDict);
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+
+    // missing assets are not memoized, since they may appear once the pack is installed
+    verify(assetPackManagerMock, times(2)).getAssetLocation("pack1", "missing.pck");
+  }
+
+  @Test
+  public void getAssetLocation_uninstalledPackQueriedOncePerLookup() {
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.setBloomFilters(new PackBloomFilterStore(null, Runnable::run));
+
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+    // another pack completing does not make the missing pack be queried again
+    packLocationCache.onPackCompleted("pack2");
+    assertThat(testIndex.getAssetLocation("pack1", "missing.pck")).isNull();
+
+    verify(assetPackManagerMock, times(1)).getPackLocation("pack1");
+    verify(assetPackManagerMock, times(3)).getAssetLocation("pack1", "missing.pck");
+  }
+
+  @Test
+  public void getAssetLocations_packsParallelArrays() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation("pack1", "level1.pck"))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    Dictionary resultDict =
+        testIndex.getAssetLocations("pack1", new String[] {"missing.pck", "level1.pck"});
+
+    assertThat((String[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_PATHS_KEY))
+        .asList()
+        .containsExactly("", "~/Documents/base.apk")
+        .inOrder();
+    assertThat((int[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_OFFSETS_KEY))
+        .asList()
+        .containsExactly(0, 512)
+        .inOrder();
+    assertThat((int[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_SIZES_KEY))
+        .asList()
+        .containsExactly(0, 256)
+        .inOrder();
+    assertThat((byte[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_MISSING_MASK_KEY))
+        .isEqualTo(new byte[] {1, 0});
+  }
+
+  @Test
+  public void getAssetLocations_offsetBeyondIntRangeIsFlagged() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation("pack1", "huge.pck"))
+        .thenReturn(
+            new AssetLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+                    3L << 30, "~/Documents/base.apk", 256)));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    Dictionary resultDict = testIndex.getAssetLocations("pack1", new String[] {"huge.pck"});
+
+    assertThat((int[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_OFFSETS_KEY))
+        .asList()
+        .containsExactly(0);
+    assertThat((byte[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_MISSING_MASK_KEY))
+        .isEqualTo(new byte[] {AssetLocationIndex.ASSET_BEYOND_INT_RANGE});
+  }
+
+  @Test
+  public void packInvalidation_dropsOnlyAssetsOfThatPack() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    installPack("pack2", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.getAssetLocation("pack1", "level1.pck");
+    testIndex.getAssetLocation("pack2", "level1.pck");
+
+    packLocationCache.invalidate("pack1");
+    testIndex.getAssetLocation("pack1", "level1.pck");
+    testIndex.getAssetLocation("pack2", "level1.pck");
+
+    verify(assetPackManagerMock, times(2)).getAssetLocation("pack1", "level1.pck");
+    verify(assetPackManagerMock, times(1)).getAssetLocation("pack2", "level1.pck");
+  }
+
+  @Test
+  public void packCompleted_dropsAssetsOfUpdatedPack() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.getAssetLocation("pack1", "level1.pck");
+
+    packLocationCache.onPackCompleted("pack1");
+    testIndex.getAssetLocation("pack1", "level1.pck");
+
+    verify(assetPackManagerMock, times(2)).getAssetLocation("pack1", "level1.pck");
+  }
+
+  @Test
+  public void invalidateAll_dropsEveryAsset() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+    testIndex.getAssetLocation("pack1", "level1.pck");
+
+    packLocationCache.invalidateAll();
+    testIndex.getAssetLocation("pack1", "level1.pck");
+
+    verify(assetPackManagerMock, times(2)).getAssetLocation("pack1", "level1.pck");
+  }
+
+  @Test
+  public void getAssetLocation_leastRecentlyUsedEvicted() {
+    installPack("pack1", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(new AssetLocationFromDictionary(testAssetLocationDict));
+    AssetLocationIndex testIndex = new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+
+    for (int i = 0; i <= AssetLocationIndex.MAX_CACHED_ASSET_LOCATIONS; i++) {
+      testIndex.getAssetLocation("pack1", "asset" + i);
+    }
+    testIndex.getAssetLocation("pack1", "asset0");
+
+    verify(assetPackManagerMock, times(2)).getAssetLocation("pack1", "asset0");
+    assertThat(testIndex.getMetrics()).containsEntry(AssetLocationIndex.EVICTIONS_KEY, 2L);
+  }
+}
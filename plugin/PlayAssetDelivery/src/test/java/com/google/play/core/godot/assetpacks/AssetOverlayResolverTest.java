@@ -0,0 +1,208 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.godotengine.godot.Dictionary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AssetOverlayResolverTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final PackContentManifestStore packContentManifestStore =
+      new PackContentManifestStore(packLocationCache, Runnable::run);
+  private final AssetLocationIndex assetLocationIndex =
+      new AssetLocationIndex(assetPackManagerMock, packLocationCache);
+  // reindex tasks run right away, unless isIndexQueued is set, which queues them instead
+  private final List<Runnable> queuedIndexTasks = new ArrayList<>();
+  private boolean isIndexQueued;
+  private final AssetOverlayResolver testResolver =
+      new AssetOverlayResolver(
+          packLocationCache,
+          packContentManifestStore,
+          assetLocationIndex,
+          task -> {
+            if (isIndexQueued) {
+              queuedIndexTasks.add(task);
+            } else {
+              task.run();
+            }
+          });
+  private final Dictionary installedPacks = new Dictionary();
+
+  @Before
+  public void setUp() throws IOException {
+    packContentManifestStore.setManifestDirectory(temporaryFolder.newFolder("manifests"));
+    packContentManifestStore.addManifestListener(testResolver);
+    assetLocationIndex.setContentManifests(packContentManifestStore);
+    when(assetPackManagerMock.getPackLocations())
+        .thenAnswer(
+            invocation ->
+                PlayAssetDeliveryUtils.convertDictionaryToAssetPackLocations(installedPacks));
+  }
+
+  private File installStorageFilesPack(String packName, String... assetPaths) throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder(packName);
+    for (String assetPath : assetPaths) {
+      File file = new File(assetsDirectory, assetPath);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+    installPack(packName, assetsDirectory.getPath(), AssetPackStorageMethod.STORAGE_FILES);
+    return assetsDirectory;
+  }
+
+  private void installPack(String packName, String assetsPath, int storageMethod) {
+    installedPacks.put(
+        packName,
+        PlayAssetDeliveryTestHelper.installPack(
+            assetPackManagerMock, packName, "/packs/" + packName, assetsPath, storageMethod));
+  }
+
+  private void uninstallPack(String packName) {
+    installedPacks.remove(packName);
+    when(assetPackManagerMock.getPackLocation(packName)).thenReturn(null);
+    packLocationCache.invalidate(packName);
+  }
+
+  private static String resolvedPack(Dictionary resolvedAsset) {
+    return resolvedAsset == null
+        ? null
+        : (String) resolvedAsset.get(AssetOverlayResolver.PACK_NAME_KEY);
+  }
+
+  @Test
+  public void resolve_findsProvidingPack() throws IOException {
+    File baseDirectory = installStorageFilesPack("base", "levels/1.tscn", "music/theme.ogg");
+    installStorageFilesPack("extra", "levels/2.tscn");
+
+    Dictionary resolvedAsset = testResolver.resolve("levels/2.tscn");
+
+    assertThat(resolvedPack(resolvedAsset)).isEqualTo("extra");
+    assertThat(resolvedPack(testResolver.resolve("/music/theme.ogg"))).isEqualTo("base");
+    assertThat(
+            (Dictionary)
+                testResolver.resolve("levels/1.tscn").get(AssetOverlayResolver.ASSET_LOCATION_KEY))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+                0, new File(baseDirectory, "levels/1.tscn").getPath(), 0));
+    assertThat(testResolver.resolve("levels/3.tscn")).isNull();
+    verify(assetPackManagerMock, times(0)).getAssetLocation(any(String.class), any(String.class));
+    assertThat(testResolver.getMetrics()).containsEntry(AssetOverlayResolver.INDEXED_PACKS_KEY, 2);
+    assertThat(testResolver.getMetrics()).containsEntry(AssetOverlayResolver.INDEXED_ASSETS_KEY, 3);
+  }
+
+  @Test
+  public void resolve_precedenceOrderOverridesAssets() throws IOException {
+    installStorageFilesPack("base", "levels/1.tscn", "levels/2.tscn");
+    installStorageFilesPack("patch", "levels/1.tscn");
+
+    // without a precedence order, packs are searched by name
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("base");
+    testResolver.setPackPrecedence(new String[] {"patch", "base"});
+
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("patch");
+    assertThat(resolvedPack(testResolver.resolve("levels/2.tscn"))).isEqualTo("base");
+  }
+
+  @Test
+  public void onPackChanged_updatesIndexIncrementally() throws IOException {
+    installStorageFilesPack("base", "levels/1.tscn");
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("base");
+    testResolver.setPackPrecedence(new String[] {"patch"});
+
+    installStorageFilesPack("patch", "levels/1.tscn");
+    packLocationCache.onPackCompleted("patch");
+    packContentManifestStore.onPackCompleted("patch");
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("patch");
+
+    uninstallPack("patch");
+    testResolver.onPackChanged("patch");
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("base");
+    assertThat(testResolver.getMetrics()).containsEntry(AssetOverlayResolver.INDEXED_PACKS_KEY, 1);
+  }
+
+  @Test
+  public void resolve_packRemovedBehindIndexIsSkipped() throws IOException {
+    installStorageFilesPack("base", "levels/1.tscn");
+    installStorageFilesPack("patch", "levels/1.tscn");
+    testResolver.setPackPrecedence(new String[] {"patch"});
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("patch");
+
+    uninstallPack("patch");
+
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("base");
+  }
+
+  @Test
+  public void resolve_packWithoutManifestLookedUpInItsTurn() throws IOException {
+    installStorageFilesPack("base", "levels/1.tscn");
+    installPack("apkPatch", "", AssetPackStorageMethod.APK_ASSETS);
+    when(assetPackManagerMock.getAssetLocation("apkPatch", "levels/1.tscn"))
+        .thenReturn(
+            new AssetLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetLocationDictionary(16, "/base.apk", 8)));
+    testResolver.setPackPrecedence(new String[] {"apkPatch"});
+
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("apkPatch");
+    assertThat(resolvedPack(testResolver.resolve("levels/2.tscn"))).isNull();
+    assertThat(testResolver.getMetrics())
+        .containsEntry(AssetOverlayResolver.FALLBACK_LOOKUPS_KEY, 2L);
+  }
+
+  @Test
+  public void onPackChanged_reindexesOnIndexExecutor() throws IOException {
+    installStorageFilesPack("base", "levels/1.tscn");
+    assertThat(resolvedPack(testResolver.resolve("levels/1.tscn"))).isEqualTo("base");
+    isIndexQueued = true;
+    installStorageFilesPack("patch", "levels/2.tscn");
+    packLocationCache.onPackCompleted("patch");
+
+    testResolver.onPackChanged("patch");
+
+    // the pack is looked up on its own until the index build executor reindexed it
+    assertThat(queuedIndexTasks).hasSize(1);
+    assertThat(resolvedPack(testResolver.resolve("levels/2.tscn"))).isEqualTo("patch");
+    assertThat(testResolver.getMetrics()).containsEntry(AssetOverlayResolver.INDEXED_PACKS_KEY, 1);
+    assertThat(testResolver.getMetrics())
+        .containsEntry(AssetOverlayResolver.FALLBACK_LOOKUPS_KEY, 1L);
+    queuedIndexTasks.remove(0).run();
+    assertThat(testResolver.getMetrics()).containsEntry(AssetOverlayResolver.INDEXED_PACKS_KEY, 2);
+    assertThat(resolvedPack(testResolver.resolve("levels/2.tscn"))).isEqualTo("patch");
+    assertThat(testResolver.getMetrics())
+        .containsEntry(AssetOverlayResolver.FALLBACK_LOOKUPS_KEY, 1L);
+  }
+}
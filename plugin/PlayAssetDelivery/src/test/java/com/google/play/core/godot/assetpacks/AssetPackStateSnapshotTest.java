@@ -0,0 +1,35 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import org.junit.Test;
+
+public class AssetPackStateSnapshotTest {
+
+  @Test
+  public void toDictionary_matchesAssetPackStateDictionary() {
+    AssetPackStateSnapshot testSnapshot = new AssetPackStateSnapshot(2, -6, 1024, 65536, 35);
+
+    assertThat(testSnapshot.toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, -6, "awesomePack", 2, 65536, 35));
+  }
+}
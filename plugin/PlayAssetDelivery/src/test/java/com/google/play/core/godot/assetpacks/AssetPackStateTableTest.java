@@ -0,0 +1,292 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.HashMap;
+import java.util.Map;
+import org.godotengine.godot.Dictionary;
+import org.junit.Test;
+
+public class AssetPackStateTableTest {
+  // bytes of one table row: five int columns and four long columns
+  private static final int TABLE_ROW_BYTES = 5 * 4 + 4 * 8;
+  // bytes retained per pack by the layout used before the state table, with one Dictionary per
+  // pack and a set of ongoing names: the HashMap (48) and its 16-slot table (80), six entries
+  // (6 * 32), three boxed Integers (3 * 16), two boxed Longs (2 * 24) and the ongoing set's entry
+  // and table slot (32 + 4)
+  private static final int DICTIONARY_LAYOUT_BYTES_PER_PACK =
+      48 + 80 + 6 * 32 + 3 * 16 + 2 * 24 + 32 + 4;
+
+  @Test
+  public void compareAndUpdate_detectsChanges() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId = testTable.acquirePackId("awesomePack");
+
+    assertThat(testTable.getSnapshot(packId)).isNull();
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 1024, 65536, 0, 0)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 1024, 65536, 0, 0)).isFalse();
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 2048, 65536, 0, 0)).isTrue();
+    assertThat(testTable.getSnapshot(packId).toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                2048, 0, "awesomePack", 2, 65536, 0));
+  }
+
+  @Test
+  public void compareAndUpdate_zeroStateIsRecorded() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId = testTable.acquirePackId("awesomePack");
+
+    // an all-zero state must not be mistaken for an empty row
+    assertThat(testTable.compareAndUpdate(packId, 0, 0, 0, 0, 0, 0)).isTrue();
+    assertThat(testTable.getSnapshot(packId).toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(0, 0, "awesomePack", 0, 0, 0));
+  }
+
+  @Test
+  public void forEachState_spansMultiplePages() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packCount = 1000;
+    for (int i = 0; i < packCount; i++) {
+      int packId = testTable.acquirePackId("pack" + i);
+      testTable.compareAndUpdate(packId, 2, 0, i, packCount, 0, 0);
+    }
+
+    Map<String, AssetPackStateSnapshot> visitedStates = new HashMap<>();
+    testTable.forEachState(visitedStates::put);
+
+    assertThat(visitedStates).hasSize(packCount);
+    assertThat(visitedStates.get("pack999").bytesDownloaded).isEqualTo(999);
+  }
+
+  @Test
+  public void setOngoing_valid() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId1 = testTable.acquirePackId("pack1");
+    int packId2 = testTable.acquirePackId("pack2");
+    int packId3 = testTable.acquirePackId("pack3");
+
+    testTable.setOngoing(packId1, true);
+    testTable.setOngoing(packId2, true);
+    testTable.setOngoing(packId3, true);
+    testTable.setOngoing(packId2, false);
+
+    assertThat(testTable.ongoingPackNames()).containsExactly("pack1", "pack3");
+  }
+
+  @Test
+  public void evictTerminalStates_expiredTtl() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setTerminalStateRetention(0, 1000);
+    int completedPackId = testTable.acquirePackId("completedPack");
+    int downloadingPackId = testTable.acquirePackId("downloadingPack");
+    testTable.compareAndUpdate(completedPackId, 4, 0, 65536, 65536, 100, 0);
+    testTable.compareAndUpdate(downloadingPackId, 2, 0, 1024, 65536, 0, 0);
+
+    testTable.evictTerminalStates(999);
+    assertThat(testTable.getSnapshot(completedPackId)).isNotNull();
+
+    testTable.evictTerminalStates(1000);
+    // only terminal states expire, in-flight states are kept
+    assertThat(testTable.getSnapshot(completedPackId)).isNull();
+    assertThat(testTable.getSnapshot(downloadingPackId)).isNotNull();
+    Dictionary metrics = testTable.getMetrics();
+    assertThat(metrics).containsEntry(AssetPackStateTable.RETAINED_STATES_KEY, 1);
+    assertThat(metrics).containsEntry(AssetPackStateTable.RETAINED_TERMINAL_STATES_KEY, 0);
+    assertThat(metrics).containsEntry(AssetPackStateTable.EXPIRED_EVICTIONS_KEY, 1L);
+  }
+
+  @Test
+  public void evictTerminalStates_leastRecentlyUpdatedOverCapacity() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setTerminalStateRetention(2, 0);
+    int packId1 = testTable.acquirePackId("pack1");
+    int packId2 = testTable.acquirePackId("pack2");
+    int packId3 = testTable.acquirePackId("pack3");
+    testTable.compareAndUpdate(packId1, 4, 0, 1, 1, 100, 10);
+    testTable.compareAndUpdate(packId2, 5, -6, 0, 1, 0, 20);
+    testTable.compareAndUpdate(packId3, 6, 0, 0, 1, 0, 30);
+    // a duplicate update refreshes the recency of pack1
+    testTable.compareAndUpdate(packId1, 4, 0, 1, 1, 100, 40);
+
+    testTable.evictTerminalStates(50);
+
+    assertThat(testTable.getSnapshot(packId1)).isNotNull();
+    assertThat(testTable.getSnapshot(packId2)).isNull();
+    assertThat(testTable.getSnapshot(packId3)).isNotNull();
+    assertThat(testTable.getMetrics())
+        .containsEntry(AssetPackStateTable.CAPACITY_EVICTIONS_KEY, 1L);
+  }
+
+  @Test
+  public void evictTerminalStates_releasesUnpinnedPackIds() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setTerminalStateRetention(0, 1000);
+    int completedPackId = testTable.acquirePackId("completedPack");
+    int ongoingPackId = testTable.acquirePackId("ongoingPack");
+    testTable.compareAndUpdate(completedPackId, 4, 0, 65536, 65536, 100, 0);
+    testTable.compareAndUpdate(ongoingPackId, 4, 0, 65536, 65536, 100, 0);
+    testTable.setOngoing(ongoingPackId, true);
+    testTable.releasePackId(completedPackId);
+    testTable.releasePackId(ongoingPackId);
+
+    testTable.evictTerminalStates(1000);
+
+    // the evicted pack's id is handed out again, the ongoing pack keeps its id
+    assertThat(testTable.acquirePackId("newPack")).isEqualTo(completedPackId);
+    assertThat(testTable.acquirePackId("ongoingPack")).isEqualTo(ongoingPackId);
+    assertThat(testTable.packCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void releasePackId_keepsIdWhileRowIsPresent() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId = testTable.acquirePackId("awesomePack");
+    testTable.compareAndUpdate(packId, 2, 0, 1024, 65536, 0, 0);
+
+    testTable.releasePackId(packId);
+    assertThat(testTable.acquirePackId("otherPack")).isNotEqualTo(packId);
+    assertThat(testTable.packName(packId)).isEqualTo("awesomePack");
+
+    testTable.removeState(packId);
+    assertThat(testTable.pinPackId(packId)).isFalse();
+  }
+
+  @Test
+  public void compareAndUpdate_leavingTerminalStateIsNotEvicted() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setTerminalStateRetention(0, 1000);
+    int packId = testTable.acquirePackId("awesomePack");
+    testTable.compareAndUpdate(packId, 6, 0, 0, 65536, 0, 0);
+    // the canceled pack is fetched again
+    testTable.compareAndUpdate(packId, 1, 0, 0, 65536, 0, 10);
+
+    testTable.evictTerminalStates(5000);
+
+    assertThat(testTable.getSnapshot(packId)).isNotNull();
+    assertThat(testTable.getMetrics())
+        .containsEntry(AssetPackStateTable.RETAINED_TERMINAL_STATES_KEY, 0);
+  }
+
+  @Test
+  public void compareAndUpdateDelta_onlyCarriesChangedFields() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId = testTable.acquirePackId("awesomePack");
+
+    Dictionary firstDelta = testTable.compareAndUpdateDelta(packId, 2, 0, 1024, 65536, 0, 0);
+    Dictionary secondDelta = testTable.compareAndUpdateDelta(packId, 2, 0, 2048, 65536, 0, 0);
+    Dictionary duplicateDelta = testTable.compareAndUpdateDelta(packId, 2, 0, 2048, 65536, 0, 0);
+
+    // the first update of a pack carries the full state
+    Dictionary expectedFirstDelta =
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            1024, 0, "awesomePack", 2, 65536, 0);
+    expectedFirstDelta.put(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 1);
+    assertThat(firstDelta).isEqualTo(expectedFirstDelta);
+    Dictionary expectedSecondDelta = new Dictionary();
+    expectedSecondDelta.put("name", "awesomePack");
+    expectedSecondDelta.put("bytesDownloaded", 2048L);
+    expectedSecondDelta.put(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 2);
+    assertThat(secondDelta).isEqualTo(expectedSecondDelta);
+    assertThat(duplicateDelta).isNull();
+  }
+
+  @Test
+  public void compareAndUpdateDelta_fullStateAfterTerminalStateAndReset() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    int packId = testTable.acquirePackId("awesomePack");
+    testTable.compareAndUpdateDelta(packId, 2, 0, 1024, 65536, 0, 0);
+    testTable.compareAndUpdateDelta(packId, 6, 0, 1024, 65536, 0, 0);
+
+    // the receiver may have dropped the state of a canceled pack
+    Dictionary restartedDelta = testTable.compareAndUpdateDelta(packId, 1, 0, 1024, 65536, 0, 0);
+    testTable.resetDeltaBase();
+    Dictionary resetDelta = testTable.compareAndUpdateDelta(packId, 2, 0, 1024, 65536, 0, 0);
+
+    assertThat(restartedDelta).hasSize(7);
+    assertThat(restartedDelta).containsEntry(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 3);
+    assertThat(resetDelta).hasSize(7);
+    assertThat(resetDelta).containsEntry(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 4);
+  }
+
+  @Test
+  public void setProgressGranularity_filtersSmallProgressUpdates() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setProgressGranularity(0, 1, 0);
+    int packId = testTable.acquirePackId("awesomePack");
+    testTable.compareAndUpdate(packId, 2, 0, 0, 100000, 0, 0);
+
+    // 0.9% is filtered, 1% from the last accepted update is accepted
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 900, 100000, 0, 10)).isFalse();
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 1000, 100000, 0, 20)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId, 2, 0, 1500, 100000, 0, 30)).isFalse();
+    assertThat(testTable.getSnapshot(packId).bytesDownloaded).isEqualTo(1000);
+    assertThat(testTable.getMetrics())
+        .containsEntry(AssetPackStateTable.FILTERED_PROGRESS_UPDATES_KEY, 2L);
+  }
+
+  @Test
+  public void setProgressGranularity_statusChangesAndErrorsPassThrough() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setProgressGranularity(1 << 20, 50, 60000);
+    int packId = testTable.acquirePackId("awesomePack");
+    testTable.compareAndUpdate(packId, 2, 0, 0, 100000, 0, 0);
+
+    assertThat(testTable.compareAndUpdate(packId, 2, -6, 10, 100000, 0, 1)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId, 7, 0, 10, 100000, 0, 2)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId, 3, 0, 100000, 100000, 1, 3)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId, 4, 0, 100000, 100000, 100, 4)).isTrue();
+  }
+
+  @Test
+  public void setProgressGranularity_minIntervalPerPack() {
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    testTable.setProgressGranularity(0, 0, 100);
+    int packId1 = testTable.acquirePackId("pack1");
+    int packId2 = testTable.acquirePackId("pack2");
+    testTable.compareAndUpdate(packId1, 3, 0, 100, 100, 0, 0);
+    testTable.compareAndUpdate(packId2, 3, 0, 100, 100, 0, 50);
+
+    assertThat(testTable.compareAndUpdate(packId1, 3, 0, 100, 100, 10, 99)).isFalse();
+    assertThat(testTable.compareAndUpdate(packId2, 3, 0, 100, 100, 10, 100)).isFalse();
+    assertThat(testTable.compareAndUpdate(packId1, 3, 0, 100, 100, 20, 100)).isTrue();
+    assertThat(testTable.compareAndUpdate(packId2, 3, 0, 100, 100, 20, 150)).isTrue();
+  }
+
+  @Test
+  public void heapFootprint_smallerThanDictionaryLayout() {
+    int packCount = 10000;
+    AssetPackStateTable testTable = new AssetPackStateTable();
+    for (int i = 0; i < packCount; i++) {
+      int packId = testTable.acquirePackId("pack" + i);
+      testTable.compareAndUpdate(packId, 2, 0, 100000L + i, 1000000L + i, 1000 + i, 0);
+      testTable.setOngoing(packId, true);
+    }
+
+    assertThat(testTable.ongoingPackNames()).hasSize(packCount);
+    // the columns grow by doubling, so at most half of their rows are unused
+    assertThat(testTable.rowCapacity()).isAtMost(2 * packCount);
+    // footprints counted with fixed object sizes of a 64-bit JVM with compressed references
+    long tableLayoutBytes = (long) testTable.rowCapacity() * TABLE_ROW_BYTES;
+    long dictionaryLayoutBytes = (long) packCount * DICTIONARY_LAYOUT_BYTES_PER_PACK;
+    assertThat(tableLayoutBytes * 2).isLessThan(dictionaryLayoutBytes);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AssetStreamerTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final RecordingStreamListener streamListener = new RecordingStreamListener();
+  private final AssetStreamer testStreamer =
+      new AssetStreamer(
+          new AssetLocationIndex(assetPackManagerMock, new PackLocationCache(assetPackManagerMock)),
+          streamListener);
+
+  /** Copies every delivered chunk, since the stream reuses its buffers. */
+  private static final class RecordingStreamListener implements AssetStreamer.StreamListener {
+    final List<byte[]> chunks = new ArrayList<>();
+    final Semaphore deliveredChunks = new Semaphore(0);
+    final CountDownLatch finishedLatch = new CountDownLatch(1);
+    volatile Exception failure;
+
+    @Override
+    public void onChunkReady(int streamId, byte[] data) {
+      synchronized (chunks) {
+        chunks.add(Arrays.copyOf(data, data.length));
+      }
+      deliveredChunks.release();
+    }
+
+    @Override
+    public void onStreamCompleted(int streamId) {
+      finishedLatch.countDown();
+    }
+
+    @Override
+    public void onStreamFailed(int streamId, Exception e) {
+      failure = e;
+      finishedLatch.countDown();
+    }
+
+    List<byte[]> chunks() {
+      synchronized (chunks) {
+        return new ArrayList<>(chunks);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    testStreamer.shutdown();
+  }
+
+  private void installAsset(String assetPath, byte[] fileContent, long offset, long size)
+      throws IOException {
+    PlayAssetDeliveryTestHelper.installAsset(
+        assetPackManagerMock,
+        "pack1",
+        assetPath,
+        temporaryFolder.newFile(),
+        fileContent,
+        offset,
+        size);
+  }
+
+  @Test
+  public void open_deliversChunksInOrder() throws Exception {
+    installAsset("asset", new byte[] {9, 1, 2, 3, 4, 5, 9}, 1, 5);
+
+    int streamId = testStreamer.open("pack1", "asset", 2, 1);
+    for (int i = 0; i < 3; i++) {
+      assertThat(streamListener.deliveredChunks.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+      testStreamer.acknowledge(streamId);
+    }
+
+    assertThat(streamListener.finishedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+    List<byte[]> chunks = streamListener.chunks();
+    assertThat(chunks).hasSize(3);
+    assertThat(chunks.get(0)).isEqualTo(new byte[] {1, 2});
+    assertThat(chunks.get(1)).isEqualTo(new byte[] {3, 4});
+    assertThat(chunks.get(2)).isEqualTo(new byte[] {5});
+    assertThat(streamListener.failure).isNull();
+    assertThat(testStreamer.getMetrics()).containsEntry(AssetStreamer.DELIVERED_BYTES_KEY, 5L);
+    assertThat(testStreamer.getMetrics()).containsEntry(AssetStreamer.OPEN_STREAMS_KEY, 0);
+  }
+
+  @Test
+  public void open_unacknowledgedChunksBlockDelivery() throws Exception {
+    installAsset("asset", new byte[8], 0, 8);
+
+    int streamId = testStreamer.open("pack1", "asset", 1, 2);
+
+    assertThat(streamListener.deliveredChunks.tryAcquire(2, 5, TimeUnit.SECONDS)).isTrue();
+    assertThat(streamListener.deliveredChunks.tryAcquire(200, TimeUnit.MILLISECONDS)).isFalse();
+
+    testStreamer.acknowledge(streamId);
+
+    assertThat(streamListener.deliveredChunks.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(streamListener.chunks()).hasSize(3);
+    assertThat(streamListener.finishedLatch.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_missingAsset() {
+    assertThat(testStreamer.open("pack1", "missing", 2, 1)).isEqualTo(-1);
+  }
+
+  @Test
+  public void close_stopsDelivery() throws Exception {
+    installAsset("asset", new byte[8], 0, 8);
+
+    int streamId = testStreamer.open("pack1", "asset", 1, 1);
+    assertThat(streamListener.deliveredChunks.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(testStreamer.close(streamId)).isTrue();
+    assertThat(testStreamer.acknowledge(streamId)).isFalse();
+    assertThat(testStreamer.close(streamId)).isFalse();
+    assertThat(streamListener.deliveredChunks.tryAcquire(200, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(streamListener.finishedLatch.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_assetBeyondFileFails() throws Exception {
+    installAsset("asset", new byte[4], 2, 10);
+
+    testStreamer.open("pack1", "asset", 4, 4);
+
+    assertThat(streamListener.finishedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(streamListener.failure).isInstanceOf(IOException.class);
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AtomicFileWriterTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void write_buffersReplaceFileInOrder() throws IOException {
+    File file = temporaryFolder.newFile("data");
+    AtomicFileWriter.write(file, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+    AtomicFileWriter.write(file, ByteBuffer.wrap(new byte[] {4}), ByteBuffer.wrap(new byte[] {5}));
+
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      assertThat(input.readByte()).isEqualTo(4);
+      assertThat(input.readByte()).isEqualTo(5);
+      assertThat(input.read()).isEqualTo(-1);
+    }
+    assertThat(new File(file.getPath() + AtomicFileWriter.TEMPORARY_FILE_SUFFIX).exists())
+        .isFalse();
+  }
+
+  @Test
+  public void write_failedContentWriterKeepsPreviousContent() throws IOException {
+    File file = temporaryFolder.newFile("data");
+    AtomicFileWriter.write(file, output -> output.write(7));
+
+    IOException exception = null;
+    try {
+      AtomicFileWriter.write(
+          file,
+          output -> {
+            output.write(8);
+            throw new IOException("Disk full");
+          });
+    } catch (IOException e) {
+      exception = e;
+    }
+
+    assertThat(exception).hasMessageThat().isEqualTo("Disk full");
+    try (FileInputStream input = new FileInputStream(file)) {
+      assertThat(input.read()).isEqualTo(7);
+      assertThat(input.read()).isEqualTo(-1);
+    }
+  }
+}
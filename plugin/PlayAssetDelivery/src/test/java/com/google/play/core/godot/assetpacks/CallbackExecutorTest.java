@@ -0,0 +1,162 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class CallbackExecutorTest {
+
+  @Test
+  public void execute_withoutWorkersRunsOnCallingThread() {
+    CallbackExecutor testExecutor = new CallbackExecutor();
+    AtomicReference<Thread> callbackThread = new AtomicReference<>();
+
+    testExecutor.execute(() -> callbackThread.set(Thread.currentThread()));
+
+    assertSame(Thread.currentThread(), callbackThread.get());
+    assertThat(testExecutor.getMetrics())
+        .containsEntry(CallbackExecutor.CALLER_THREAD_RUNS_KEY, 1L);
+    assertThat(testExecutor.getMetrics())
+        .containsEntry(CallbackExecutor.EXECUTED_CALLBACKS_KEY, 1L);
+  }
+
+  @Test
+  public void execute_withWorkersRunsOffCallingThread() throws InterruptedException {
+    CallbackExecutor testExecutor = new CallbackExecutor();
+    testExecutor.setWorkerThreadCount(1);
+    AtomicReference<Thread> callbackThread = new AtomicReference<>();
+    CountDownLatch startedLatch = new CountDownLatch(1);
+    CountDownLatch releaseLatch = new CountDownLatch(1);
+    CountDownLatch doneLatch = new CountDownLatch(2);
+
+    testExecutor.execute(
+        () -> {
+          startedLatch.countDown();
+          try {
+            releaseLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          doneLatch.countDown();
+        });
+    assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+    testExecutor.execute(
+        () -> {
+          callbackThread.set(Thread.currentThread());
+          doneLatch.countDown();
+        });
+
+    // the second callback waits behind the blocked first one
+    assertThat(testExecutor.getMetrics()).containsEntry(CallbackExecutor.QUEUE_DEPTH_KEY, 1);
+    releaseLatch.countDown();
+    assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+    testExecutor.shutdown();
+
+    assertNotSame(Thread.currentThread(), callbackThread.get());
+    assertThat(testExecutor.getMetrics())
+        .containsEntry(CallbackExecutor.CALLER_THREAD_RUNS_KEY, 0L);
+  }
+
+  @Test
+  public void execute_busyPoolQueuesOffCallingThread() throws InterruptedException {
+    CallbackExecutor testExecutor = new CallbackExecutor();
+    testExecutor.setWorkerThreadCount(1);
+    CountDownLatch releaseLatch = new CountDownLatch(1);
+    Runnable blockingCallback =
+        () -> {
+          try {
+            releaseLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        };
+    int blockedCallbackCount = 1000;
+    AtomicReference<Thread> callbackThread = new AtomicReference<>();
+    CountDownLatch doneLatch = new CountDownLatch(1);
+
+    for (int i = 0; i < blockedCallbackCount; i++) {
+      testExecutor.execute(blockingCallback);
+    }
+    testExecutor.execute(
+        () -> {
+          callbackThread.set(Thread.currentThread());
+          doneLatch.countDown();
+        });
+    releaseLatch.countDown();
+    assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+    testExecutor.shutdown();
+
+    assertNotSame(Thread.currentThread(), callbackThread.get());
+    assertThat(testExecutor.getMetrics())
+        .containsEntry(CallbackExecutor.CALLER_THREAD_RUNS_KEY, 0L);
+  }
+
+  @Test
+  public void newSerialExecutor_throwingCallbackDoesNotStallLaterCallbacks()
+      throws InterruptedException {
+    CallbackExecutor testExecutor = new CallbackExecutor();
+    testExecutor.setWorkerThreadCount(1);
+    Executor serialExecutor = testExecutor.newSerialExecutor();
+    CountDownLatch doneLatch = new CountDownLatch(1);
+
+    serialExecutor.execute(
+        () -> {
+          throw new IllegalStateException("callback failure");
+        });
+    serialExecutor.execute(doneLatch::countDown);
+
+    assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+    testExecutor.shutdown();
+  }
+
+  @Test
+  public void newSerialExecutor_keepsSubmissionOrder() throws InterruptedException {
+    CallbackExecutor testExecutor = new CallbackExecutor();
+    testExecutor.setWorkerThreadCount(4);
+    Executor serialExecutor = testExecutor.newSerialExecutor();
+    List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<>());
+    int callbackCount = 1000;
+    CountDownLatch doneLatch = new CountDownLatch(callbackCount);
+
+    for (int i = 0; i < callbackCount; i++) {
+      int index = i;
+      serialExecutor.execute(
+          () -> {
+            executionOrder.add(index);
+            doneLatch.countDown();
+          });
+    }
+    assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+    testExecutor.shutdown();
+
+    for (int i = 0; i < callbackCount; i++) {
+      assertThat(executionOrder.get(i)).isEqualTo(i);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import org.junit.Test;
+
+public class Crc32cTest {
+  @Test
+  public void getValue_checkVector() {
+    byte[] bytes = "123456789".getBytes(Charset.forName("UTF-8"));
+    Crc32c crc32c = new Crc32c();
+
+    crc32c.update(bytes, 0, bytes.length);
+
+    assertThat(crc32c.getValue()).isEqualTo(0xE3069283L);
+  }
+
+  @Test
+  public void update_slicedMatchesBytewise() {
+    byte[] bytes = new byte[1021];
+    new Random(42).nextBytes(bytes);
+    Crc32c sliced = new Crc32c();
+    Crc32c bytewise = new Crc32c();
+
+    sliced.update(bytes, 3, 1000);
+    for (int i = 3; i < 1003; i++) {
+      bytewise.update(bytes[i]);
+    }
+
+    assertThat(sliced.getValue()).isEqualTo(bytewise.getValue());
+  }
+
+  @Test
+  public void reset_restartsChecksum() {
+    Crc32c crc32c = new Crc32c();
+    crc32c.update(new byte[] {1, 2, 3}, 0, 3);
+
+    crc32c.reset();
+
+    assertThat(crc32c.getValue()).isEqualTo(0L);
+  }
+}
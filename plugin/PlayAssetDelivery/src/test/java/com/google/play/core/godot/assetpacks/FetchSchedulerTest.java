@@ -0,0 +1,154 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FetchSchedulerTest {
+  private final List<String> submittedPackNames = new ArrayList<>();
+  private final List<Integer> submittedSignalIDs = new ArrayList<>();
+
+  private FetchScheduler createFetchScheduler() {
+    return new FetchScheduler(
+        (packName, signalID) -> {
+          submittedPackNames.add(packName);
+          submittedSignalIDs.add(signalID);
+        });
+  }
+
+  @Test
+  public void schedule_withoutLimitSubmitsRightAway() {
+    FetchScheduler testScheduler = createFetchScheduler();
+
+    testScheduler.schedule("pack1", 0, 1);
+    testScheduler.schedule("pack2", 0, 2);
+
+    assertThat(submittedPackNames).containsExactly("pack1", "pack2").inOrder();
+    assertThat(submittedSignalIDs).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void schedule_limitsInFlightFetches() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(2);
+
+    testScheduler.schedule("pack1", 0, 1);
+    testScheduler.schedule("pack2", 0, 2);
+    testScheduler.schedule("pack3", 0, 3);
+
+    assertThat(submittedPackNames).containsExactly("pack1", "pack2").inOrder();
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.QUEUED_FETCHES_KEY, 1);
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.IN_FLIGHT_FETCHES_KEY, 2);
+
+    testScheduler.onFetchFinished("pack2");
+
+    assertThat(submittedPackNames).containsExactly("pack1", "pack2", "pack3").inOrder();
+    assertThat(submittedSignalIDs.get(2)).isEqualTo(3);
+  }
+
+  @Test
+  public void schedule_submitsHighestPriorityFirst() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(1);
+
+    testScheduler.schedule("level1", 0, 1);
+    testScheduler.schedule("level2", 0, 2);
+    testScheduler.schedule("level3", 5, 3);
+    testScheduler.schedule("level4", 0, 4);
+    for (String packName : new String[] {"level1", "level3", "level2", "level4"}) {
+      testScheduler.onFetchFinished(packName);
+    }
+
+    // equal priorities keep their arrival order
+    assertThat(submittedPackNames)
+        .containsExactly("level1", "level3", "level2", "level4")
+        .inOrder();
+  }
+
+  @Test
+  public void reprioritize_movesQueuedFetch() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(1);
+    testScheduler.schedule("level1", 0, 1);
+    testScheduler.schedule("level2", 0, 2);
+    testScheduler.schedule("level3", 0, 3);
+
+    assertThat(testScheduler.reprioritize("level3", 1)).isTrue();
+    // level1 is already in flight
+    assertThat(testScheduler.reprioritize("level1", 1)).isFalse();
+    testScheduler.onFetchFinished("level1");
+
+    assertThat(submittedPackNames).containsExactly("level1", "level3").inOrder();
+    assertThat(testScheduler.getMetrics())
+        .containsEntry(FetchScheduler.REPRIORITIZED_FETCHES_KEY, 1L);
+  }
+
+  @Test
+  public void onFetchFinished_unscheduledPackIsIgnored() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(1);
+    testScheduler.schedule("pack1", 0, 1);
+    testScheduler.schedule("pack2", 0, 2);
+
+    testScheduler.onFetchFinished("otherPack");
+
+    assertThat(submittedPackNames).containsExactly("pack1");
+  }
+
+  @Test
+  public void setMaxInFlightFetches_raisingLimitSubmitsQueuedFetches() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(1);
+    testScheduler.schedule("pack1", 0, 1);
+    testScheduler.schedule("pack2", 0, 2);
+    testScheduler.schedule("pack3", 0, 3);
+
+    testScheduler.setMaxInFlightFetches(0);
+
+    assertThat(submittedPackNames).containsExactly("pack1", "pack2", "pack3").inOrder();
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.SUBMITTED_FETCHES_KEY, 3L);
+  }
+
+  @Test
+  public void schedule_fetchesOfTheSamePackShareOneSlot() {
+    FetchScheduler testScheduler = createFetchScheduler();
+    testScheduler.setMaxInFlightFetches(1);
+    testScheduler.schedule("pack1", 0, 1);
+    testScheduler.schedule("pack2", 0, 2);
+    testScheduler.schedule("pack3", 0, 3);
+    testScheduler.schedule("pack2", 5, 4);
+
+    // an in-flight pack is fetched again right away, without taking another slot
+    testScheduler.schedule("pack1", 0, 5);
+    assertThat(submittedSignalIDs).containsExactly(1, 5).inOrder();
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.IN_FLIGHT_FETCHES_KEY, 1);
+
+    // both fetches of pack2 go out together once it gets the slot
+    testScheduler.onFetchFinished("pack1");
+    assertThat(submittedSignalIDs).containsExactly(1, 5, 4, 2).inOrder();
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.IN_FLIGHT_FETCHES_KEY, 1);
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.QUEUED_FETCHES_KEY, 1);
+
+    testScheduler.onFetchFinished("pack2");
+    assertThat(submittedPackNames).containsExactly("pack1", "pack1", "pack2", "pack2", "pack3");
+    assertThat(testScheduler.getMetrics()).containsEntry(FetchScheduler.IN_FLIGHT_FETCHES_KEY, 1);
+  }
+}
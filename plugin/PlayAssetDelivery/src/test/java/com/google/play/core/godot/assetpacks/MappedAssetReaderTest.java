@@ -0,0 +1,148 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.godotengine.godot.Dictionary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedAssetReaderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final MappedAssetReader testReader =
+      new MappedAssetReader(
+          new AssetLocationIndex(
+              assetPackManagerMock, new PackLocationCache(assetPackManagerMock)));
+
+  private File writeFile(String name, byte[] content) throws IOException {
+    File file = temporaryFolder.newFile(name);
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content);
+    }
+    return file;
+  }
+
+  private void installApkAsset(
+      String packName, String assetPath, File apk, long offset, long size) {
+    Dictionary packLocationDict =
+        PlayAssetDeliveryUtils.constructAssetPackLocationDictionary(
+            "", AssetPackStorageMethod.APK_ASSETS, apk.getParent());
+    when(assetPackManagerMock.getPackLocation(packName))
+        .thenReturn(new AssetPackLocationFromDictionary(packLocationDict));
+    when(assetPackManagerMock.getAssetLocation(packName, assetPath))
+        .thenReturn(
+            new AssetLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+                    offset, apk.getPath(), size)));
+  }
+
+  @Test
+  public void read_apkAssetRegion() throws IOException {
+    File apk = writeFile("pack.apk", new byte[] {9, 9, 1, 2, 3, 4, 9});
+    installApkAsset("pack1", "asset", apk, 2, 4);
+
+    assertThat(testReader.read("pack1", "asset", 0, -1)).isEqualTo(new byte[] {1, 2, 3, 4});
+    assertThat(testReader.read("pack1", "asset", 1, 2)).isEqualTo(new byte[] {2, 3});
+    // ranges are clamped to the bounds of the asset
+    assertThat(testReader.read("pack1", "asset", 3, 100)).isEqualTo(new byte[] {4});
+    assertThat(testReader.read("pack1", "asset", 10, -1)).isEqualTo(new byte[0]);
+  }
+
+  @Test
+  public void read_storageFilesAsset() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    try (FileOutputStream outputStream = new FileOutputStream(new File(assetsDirectory, "asset"))) {
+      outputStream.write(new byte[] {5, 6, 7});
+    }
+    Dictionary packLocationDict =
+        PlayAssetDeliveryUtils.constructAssetPackLocationDictionary(
+            assetsDirectory.getPath(), AssetPackStorageMethod.STORAGE_FILES, "");
+    when(assetPackManagerMock.getPackLocation("pack1"))
+        .thenReturn(new AssetPackLocationFromDictionary(packLocationDict));
+
+    assertThat(testReader.read("pack1", "asset", 0, -1)).isEqualTo(new byte[] {5, 6, 7});
+    assertThat(testReader.read("pack1", "missing", 0, -1)).isNull();
+  }
+
+  @Test
+  public void map_returnsReadOnlyView() throws IOException {
+    File apk = writeFile("pack.apk", new byte[] {9, 1, 2});
+    installApkAsset("pack1", "asset", apk, 1, 2);
+
+    ByteBuffer view = testReader.map("pack1", "asset", 0, -1);
+
+    assertThat(view.isReadOnly()).isTrue();
+    assertThat(view.remaining()).isEqualTo(2);
+    assertThat(view.get(0)).isEqualTo((byte) 1);
+  }
+
+  @Test
+  public void read_mappingSharedPerBackingFile() throws IOException {
+    File apk = writeFile("pack.apk", new byte[] {1, 2, 3, 4});
+    installApkAsset("pack1", "first", apk, 0, 2);
+    when(assetPackManagerMock.getAssetLocation("pack1", "second"))
+        .thenReturn(
+            new AssetLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetLocationDictionary(2, apk.getPath(), 2)));
+
+    testReader.read("pack1", "first", 0, -1);
+    testReader.read("pack1", "second", 0, -1);
+    testReader.read("pack1", "first", 0, -1);
+
+    assertThat(testReader.getMetrics()).containsEntry(MappedAssetReader.MAPPINGS_KEY, 1L);
+    assertThat(testReader.getMetrics()).containsEntry(MappedAssetReader.MAPPED_FILES_KEY, 1);
+    assertThat(testReader.getMetrics()).containsEntry(MappedAssetReader.READS_KEY, 3L);
+    assertThat(testReader.getMetrics()).containsEntry(MappedAssetReader.BYTES_READ_KEY, 6L);
+  }
+
+  @Test
+  public void read_changedBackingFileIsMappedAgain() throws IOException {
+    File apk = writeFile("pack.apk", new byte[] {1, 2});
+    installApkAsset("pack1", "asset", apk, 0, 2);
+    testReader.read("pack1", "asset", 0, -1);
+
+    try (FileOutputStream outputStream = new FileOutputStream(apk)) {
+      outputStream.write(new byte[] {3, 4, 5});
+    }
+
+    assertThat(testReader.read("pack1", "asset", 0, -1)).isEqualTo(new byte[] {3, 4});
+    assertThat(testReader.getMetrics()).containsEntry(MappedAssetReader.MAPPINGS_KEY, 2L);
+  }
+
+  @Test
+  public void read_assetBeyondBackingFileFails() throws IOException {
+    File apk = writeFile("pack.apk", new byte[] {1, 2});
+    installApkAsset("pack1", "asset", apk, 1, 10);
+
+    assertThat(testReader.read("pack1", "asset", 0, -1)).isNull();
+  }
+}
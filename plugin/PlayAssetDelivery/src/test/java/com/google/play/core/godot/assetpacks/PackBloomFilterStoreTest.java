@@ -0,0 +1,176 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackBloomFilterStoreTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final PackContentManifestStore packContentManifestStore =
+      new PackContentManifestStore(packLocationCache, Runnable::run);
+  private File assetsDirectory;
+  private File filterDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    assetsDirectory = temporaryFolder.newFolder("assets");
+    new File(assetsDirectory, "a.txt").createNewFile();
+    filterDirectory = new File(temporaryFolder.getRoot(), "filters");
+    packContentManifestStore.setManifestDirectory(temporaryFolder.newFolder("manifests"));
+  }
+
+  private void installPack(String packName, String packPath, int storageMethod) {
+    PlayAssetDeliveryTestHelper.installPack(
+        assetPackManagerMock, packName, packPath, assetsDirectory.getPath(), storageMethod);
+    packLocationCache.invalidate(packName);
+  }
+
+  private PackBloomFilterStore createStore() {
+    PackBloomFilterStore store = new PackBloomFilterStore(packContentManifestStore, Runnable::run);
+    store.setFilterDirectory(filterDirectory);
+    packContentManifestStore.addManifestListener(store);
+    return store;
+  }
+
+  private PackBloomFilter getFilter(PackBloomFilterStore store, String packName) {
+    return store.getFilter(packName, packLocationCache.getPackLocation(packName));
+  }
+
+  @Test
+  public void onManifestBuilt_buildsAndPersistsFilter() {
+    installPack("testPack", "/packs/testPack/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackBloomFilterStore testStore = createStore();
+
+    packContentManifestStore.onPackCompleted("testPack");
+
+    PackBloomFilter filter = getFilter(testStore, "testPack");
+    assertThat(filter).isNotNull();
+    assertThat(filter.mightContain("a.txt")).isTrue();
+    assertThat(filter.mightContain("b.txt")).isFalse();
+    assertThat(new File(filterDirectory, "testPack.bloom").isFile()).isTrue();
+    assertThat(testStore.getMetrics()).containsEntry(PackBloomFilterStore.BUILDS_KEY, 1L);
+  }
+
+  @Test
+  public void getFilter_loadsPersistedFilter() {
+    installPack("testPack", "/packs/testPack/1", AssetPackStorageMethod.STORAGE_FILES);
+    packContentManifestStore.addManifestListener(createStore());
+    packContentManifestStore.onPackCompleted("testPack");
+
+    PackBloomFilterStore restartedStore =
+        new PackBloomFilterStore(packContentManifestStore, Runnable::run);
+    restartedStore.setFilterDirectory(filterDirectory);
+
+    // the first lookup has the filter read on the build executor, instead of reading it itself
+    assertThat(getFilter(restartedStore, "testPack")).isNull();
+    assertThat(getFilter(restartedStore, "testPack")).isNotNull();
+    assertThat(restartedStore.getMetrics()).containsEntry(PackBloomFilterStore.LOADS_KEY, 1L);
+    assertThat(restartedStore.getMetrics()).containsEntry(PackBloomFilterStore.BUILDS_KEY, 0L);
+  }
+
+  @Test
+  public void getFilter_outdatedFilterIgnoredUntilRebuilt() {
+    installPack("testPack", "/packs/testPack/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackBloomFilterStore testStore = createStore();
+    packContentManifestStore.onPackCompleted("testPack");
+
+    installPack("testPack", "/packs/testPack/2", AssetPackStorageMethod.STORAGE_FILES);
+    PackBloomFilter outdatedFilter = getFilter(testStore, "testPack");
+    packContentManifestStore.onPackCompleted("testPack");
+
+    assertThat(outdatedFilter).isNull();
+    assertThat(getFilter(testStore, "testPack").packPath()).isEqualTo("/packs/testPack/2");
+  }
+
+  @Test
+  public void getFilter_packWithoutManifestIsNotRetried() {
+    installPack("testPack", "/packs/testPack/1", AssetPackStorageMethod.STORAGE_FILES);
+    List<Runnable> buildTasks = new ArrayList<>();
+    PackBloomFilterStore testStore =
+        new PackBloomFilterStore(packContentManifestStore, buildTasks::add);
+    testStore.setFilterDirectory(filterDirectory);
+
+    assertThat(getFilter(testStore, "testPack")).isNull();
+    assertThat(buildTasks).hasSize(1);
+    packContentManifestStore.setManifestDirectory(null);
+    buildTasks.remove(0).run();
+
+    // the pack has no manifest, so later lookups neither read the disk nor schedule builds
+    assertThat(getFilter(testStore, "testPack")).isNull();
+    assertThat(getFilter(testStore, "testPack")).isNull();
+    assertThat(buildTasks).isEmpty();
+
+    // a new version of the pack is tried again
+    installPack("testPack", "/packs/testPack/2", AssetPackStorageMethod.STORAGE_FILES);
+    assertThat(getFilter(testStore, "testPack")).isNull();
+    assertThat(buildTasks).hasSize(1);
+  }
+
+  @Test
+  public void onPackRemoved_deletesFilter() {
+    installPack("testPack", "/packs/testPack/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackBloomFilterStore testStore = createStore();
+    packContentManifestStore.onPackCompleted("testPack");
+    File filterFile = new File(filterDirectory, "testPack.bloom");
+    assertThat(filterFile.isFile()).isTrue();
+
+    testStore.onPackRemoved("testPack");
+
+    assertThat(filterFile.exists()).isFalse();
+    assertThat(testStore.getMetrics()).containsEntry(PackBloomFilterStore.LOADED_FILTERS_KEY, 0);
+  }
+
+  @Test
+  public void getFilter_apkAssetsPackHasNoFilter() {
+    installPack("testPack", "", AssetPackStorageMethod.APK_ASSETS);
+    PackBloomFilterStore testStore = createStore();
+
+    assertThat(getFilter(testStore, "testPack")).isNull();
+    assertThat(filterDirectory.exists()).isFalse();
+  }
+
+  @Test
+  public void getMetrics_falsePositiveRate() {
+    PackBloomFilterStore testStore = createStore();
+    assertThat(testStore.getMetrics())
+        .containsEntry(PackBloomFilterStore.FALSE_POSITIVE_RATE_KEY, 0.0);
+
+    testStore.onLookupSaved();
+    testStore.onLookupSaved();
+    testStore.onLookupSaved();
+    testStore.onFalsePositive();
+
+    assertThat(testStore.getMetrics()).containsEntry(PackBloomFilterStore.SAVED_LOOKUPS_KEY, 3L);
+    assertThat(testStore.getMetrics())
+        .containsEntry(PackBloomFilterStore.FALSE_POSITIVE_RATE_KEY, 0.25);
+  }
+}
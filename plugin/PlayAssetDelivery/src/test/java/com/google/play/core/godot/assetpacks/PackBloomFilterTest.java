@@ -0,0 +1,109 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackBloomFilterTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final int ASSET_COUNT = 10000;
+
+  private static PackBloomFilter createFilledFilter() {
+    PackBloomFilter filter = PackBloomFilter.create(ASSET_COUNT, "/packs/testPack");
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      filter.add("assets/" + i + ".png");
+    }
+    return filter;
+  }
+
+  @Test
+  public void mightContain_neverMissesAddedAssets() {
+    PackBloomFilter filter = createFilledFilter();
+
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      assertThat(filter.mightContain("assets/" + i + ".png")).isTrue();
+    }
+    assertThat(filter.mightContain("/assets/0.png")).isTrue();
+  }
+
+  @Test
+  public void mightContain_rejectsMostAbsentAssets() {
+    PackBloomFilter filter = createFilledFilter();
+
+    int falsePositives = 0;
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      if (filter.mightContain("assets/" + i + ".ogg")) {
+        falsePositives++;
+      }
+    }
+
+    // about 0.8% for 10 bits and 7 probes per asset
+    assertThat(falsePositives).isLessThan(ASSET_COUNT / 50);
+  }
+
+  @Test
+  public void fromManifest_containsManifestPaths() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    new File(assetsDirectory, "levels").mkdir();
+    new File(assetsDirectory, "levels/1.tscn").createNewFile();
+    PackContentManifest manifest =
+        PackContentManifest.write(
+            new File(temporaryFolder.getRoot(), "testPack.manifest"),
+            "/packs/testPack",
+            assetsDirectory);
+
+    PackBloomFilter filter = PackBloomFilter.fromManifest(manifest);
+
+    assertThat(filter.packPath()).isEqualTo("/packs/testPack");
+    assertThat(filter.mightContain("levels/1.tscn")).isTrue();
+    assertThat(filter.mightContain("levels/2.tscn")).isFalse();
+  }
+
+  @Test
+  public void write_readRoundTrip() throws IOException {
+    PackBloomFilter filter = createFilledFilter();
+    File filterFile = new File(temporaryFolder.getRoot(), "testPack.bloom");
+
+    filter.write(filterFile);
+    PackBloomFilter readFilter = PackBloomFilter.read(filterFile);
+
+    assertThat(readFilter.packPath()).isEqualTo("/packs/testPack");
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      assertThat(readFilter.mightContain("assets/" + i + ".ogg"))
+          .isEqualTo(filter.mightContain("assets/" + i + ".ogg"));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void read_truncatedFileThrows() throws IOException {
+    File filterFile = new File(temporaryFolder.getRoot(), "testPack.bloom");
+    createFilledFilter().write(filterFile);
+    try (FileOutputStream outputStream = new FileOutputStream(filterFile, true)) {
+      outputStream.write(new byte[3]);
+    }
+
+    PackBloomFilter.read(filterFile);
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackContentManifestStoreTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final List<Runnable> queuedBuilds = new ArrayList<>();
+  private File assetsDirectory;
+  private File manifestDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    assetsDirectory = temporaryFolder.newFolder("assets");
+    manifestDirectory = new File(temporaryFolder.getRoot(), "manifests");
+    try (FileOutputStream outputStream = new FileOutputStream(new File(assetsDirectory, "a.txt"))) {
+      outputStream.write(new byte[3]);
+    }
+  }
+
+  private void installPack(String packName, String packPath, int storageMethod) {
+    PlayAssetDeliveryTestHelper.installPack(
+        assetPackManagerMock, packName, packPath, assetsDirectory.getPath(), storageMethod);
+  }
+
+  private PackContentManifestStore createStore() {
+    PackContentManifestStore store =
+        new PackContentManifestStore(packLocationCache, queuedBuilds::add);
+    store.setManifestDirectory(manifestDirectory);
+    return store;
+  }
+
+  private void runQueuedBuilds() {
+    List<Runnable> builds = new ArrayList<>(queuedBuilds);
+    queuedBuilds.clear();
+    for (Runnable build : builds) {
+      build.run();
+    }
+  }
+
+  @Test
+  public void onPackCompleted_buildsManifestInBackground() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore testStore = createStore();
+
+    testStore.onPackCompleted("pack1");
+    testStore.onPackCompleted("pack1");
+
+    assertThat(queuedBuilds).hasSize(1);
+    runQueuedBuilds();
+    PackContentManifest manifest = testStore.getManifest("pack1");
+    assertThat(manifest.indexOf("a.txt")).isEqualTo(0);
+    assertThat(queuedBuilds).isEmpty();
+    assertThat(testStore.getMetrics()).containsEntry(PackContentManifestStore.BUILDS_KEY, 1L);
+  }
+
+  @Test
+  public void getManifest_laterProcessMapsManifestFromDisk() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore firstStore = createStore();
+    firstStore.onPackCompleted("pack1");
+    runQueuedBuilds();
+    PackContentManifestStore testStore = createStore();
+
+    PackContentManifest manifest = testStore.getManifest("pack1");
+
+    assertThat(manifest.packPath()).isEqualTo("/packs/pack1/1");
+    assertThat(queuedBuilds).isEmpty();
+    assertThat(testStore.getMetrics()).containsEntry(PackContentManifestStore.LOADS_KEY, 1L);
+    assertThat(testStore.getMetrics()).containsEntry(PackContentManifestStore.BUILDS_KEY, 0L);
+  }
+
+  @Test
+  public void getManifest_updatedPackRebuildsManifest() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore testStore = createStore();
+    testStore.onPackCompleted("pack1");
+    runQueuedBuilds();
+    installPack("pack1", "/packs/pack1/2", AssetPackStorageMethod.STORAGE_FILES);
+    packLocationCache.invalidate("pack1");
+
+    assertThat(testStore.getManifest("pack1")).isNull();
+    runQueuedBuilds();
+
+    assertThat(testStore.getManifest("pack1").packPath()).isEqualTo("/packs/pack1/2");
+    assertThat(testStore.getMetrics()).containsEntry(PackContentManifestStore.BUILDS_KEY, 2L);
+  }
+
+  @Test
+  public void getManifest_missingManifestIsBuilt() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore testStore = createStore();
+
+    assertThat(testStore.getManifest("pack1")).isNull();
+    runQueuedBuilds();
+
+    assertThat(testStore.getManifest("pack1")).isNotNull();
+  }
+
+  @Test
+  public void getManifest_failedBuildIsNotRetried() throws IOException {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    // a file in place of the manifest directory fails every build
+    manifestDirectory.createNewFile();
+    PackContentManifestStore testStore = createStore();
+
+    assertThat(testStore.getManifest("pack1")).isNull();
+    runQueuedBuilds();
+    assertThat(testStore.getManifest("pack1")).isNull();
+    assertThat(testStore.getManifest("pack1")).isNull();
+    assertThat(queuedBuilds).isEmpty();
+
+    // the pack completing again, or a new version of it, is tried again
+    testStore.onPackCompleted("pack1");
+    assertThat(queuedBuilds).hasSize(1);
+    runQueuedBuilds();
+    installPack("pack1", "/packs/pack1/2", AssetPackStorageMethod.STORAGE_FILES);
+    packLocationCache.invalidate("pack1");
+    assertThat(testStore.getManifest("pack1")).isNull();
+    assertThat(queuedBuilds).hasSize(1);
+  }
+
+  @Test
+  public void onPackRemoved_deletesManifest() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore testStore = createStore();
+    testStore.onPackCompleted("pack1");
+    runQueuedBuilds();
+    File manifestFile = new File(manifestDirectory, "pack1.manifest");
+    assertThat(manifestFile.isFile()).isTrue();
+
+    testStore.onPackRemoved("pack1");
+    runQueuedBuilds();
+
+    assertThat(manifestFile.exists()).isFalse();
+    assertThat(testStore.getMetrics())
+        .containsEntry(PackContentManifestStore.LOADED_MANIFESTS_KEY, 0);
+  }
+
+  @Test
+  public void getManifest_apkAssetsPackHasNoManifest() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.APK_ASSETS);
+    PackContentManifestStore testStore = createStore();
+
+    testStore.onPackCompleted("pack1");
+    runQueuedBuilds();
+
+    assertThat(testStore.getManifest("pack1")).isNull();
+    assertThat(queuedBuilds).isEmpty();
+    assertThat(manifestDirectory.exists()).isFalse();
+  }
+
+  @Test
+  public void getManifest_withoutDirectory() {
+    installPack("pack1", "/packs/pack1/1", AssetPackStorageMethod.STORAGE_FILES);
+    PackContentManifestStore testStore =
+        new PackContentManifestStore(packLocationCache, queuedBuilds::add);
+
+    testStore.onPackCompleted("pack1");
+
+    assertThat(testStore.getManifest("pack1")).isNull();
+    assertThat(queuedBuilds).isEmpty();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackContentManifestTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File writeAsset(File assetsDirectory, String relativePath, int size) throws IOException {
+    File file = new File(assetsDirectory, relativePath);
+    file.getParentFile().mkdirs();
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[size]);
+    }
+    return file;
+  }
+
+  @Test
+  public void write_entriesSortedByPath() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    writeAsset(assetsDirectory, "levels/b.pck", 2);
+    writeAsset(assetsDirectory, "levels/a.pck", 1);
+    File textures = writeAsset(assetsDirectory, "Textures/sky.png", 3);
+    writeAsset(assetsDirectory, "z.txt", 4);
+    File manifestFile = new File(temporaryFolder.getRoot(), "pack1.manifest");
+
+    PackContentManifest manifest =
+        PackContentManifest.write(manifestFile, "/packs/pack1/1", assetsDirectory);
+
+    assertThat(manifest.packPath()).isEqualTo("/packs/pack1/1");
+    assertThat(manifest.entryCount()).isEqualTo(4);
+    // paths are ordered by their bytes, so upper case letters come first
+    assertThat(manifest.path(0)).isEqualTo("Textures/sky.png");
+    assertThat(manifest.path(1)).isEqualTo("levels/a.pck");
+    assertThat(manifest.path(2)).isEqualTo("levels/b.pck");
+    assertThat(manifest.path(3)).isEqualTo("z.txt");
+    assertThat(manifest.size(0)).isEqualTo(3L);
+    assertThat(manifest.lastModified(0)).isEqualTo(textures.lastModified());
+  }
+
+  @Test
+  public void indexOf() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    for (int i = 0; i < 100; i++) {
+      writeAsset(assetsDirectory, "dir" + (i % 7) + "/asset" + i, i);
+    }
+    PackContentManifest manifest =
+        PackContentManifest.write(
+            new File(temporaryFolder.getRoot(), "pack1.manifest"), "", assetsDirectory);
+
+    for (int i = 0; i < 100; i++) {
+      int index = manifest.indexOf("dir" + (i % 7) + "/asset" + i);
+      assertThat(index).isAtLeast(0);
+      assertThat(manifest.size(index)).isEqualTo((long) i);
+    }
+    assertThat(manifest.indexOf("/dir0/asset0")).isEqualTo(manifest.indexOf("dir0/asset0"));
+    assertThat(manifest.indexOf("dir0")).isEqualTo(-1);
+    assertThat(manifest.indexOf("dir0/asset1")).isEqualTo(-1);
+    assertThat(manifest.indexOf("")).isEqualTo(-1);
+  }
+
+  @Test
+  public void open_reopensWrittenManifest() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    writeAsset(assetsDirectory, "a.txt", 5);
+    File manifestFile = new File(temporaryFolder.getRoot(), "pack1.manifest");
+    PackContentManifest.write(manifestFile, "/packs/pack1/1", assetsDirectory);
+
+    PackContentManifest manifest = PackContentManifest.open(manifestFile);
+
+    assertThat(manifest.packPath()).isEqualTo("/packs/pack1/1");
+    assertThat(manifest.size(manifest.indexOf("a.txt"))).isEqualTo(5L);
+  }
+
+  @Test(expected = IOException.class)
+  public void open_truncatedManifestThrows() throws IOException {
+    File assetsDirectory = temporaryFolder.newFolder("assets");
+    writeAsset(assetsDirectory, "a.txt", 5);
+    File manifestFile = new File(temporaryFolder.getRoot(), "pack1.manifest");
+    PackContentManifest.write(manifestFile, "/packs/pack1/1", assetsDirectory);
+    try (RandomAccessFile file = new RandomAccessFile(manifestFile, "rw")) {
+      file.setLength(file.length() - 1);
+    }
+
+    PackContentManifest.open(manifestFile);
+  }
+
+  @Test(expected = IOException.class)
+  public void open_foreignFileThrows() throws IOException {
+    File manifestFile = writeAsset(temporaryFolder.getRoot(), "pack1.manifest", 64);
+
+    PackContentManifest.open(manifestFile);
+  }
+
+  @Test
+  public void sortPaths_sortsByUtf8Bytes() {
+    // U+E000 sorts after U+1F600 in UTF-16, but before it in UTF-8
+    List<String> paths = new ArrayList<>(Arrays.asList("\uD83D\uDE00.png", "\uE000.png", "b.png"));
+
+    PackContentManifest.sortPaths(paths);
+
+    assertThat(paths).containsExactly("b.png", "\uE000.png", "\uD83D\uDE00.png").inOrder();
+  }
+}
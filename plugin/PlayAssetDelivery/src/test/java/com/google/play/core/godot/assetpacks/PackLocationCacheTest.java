@@ -0,0 +1,114 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import org.godotengine.godot.Dictionary;
+import org.junit.Test;
+
+public class PackLocationCacheTest {
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final Dictionary testLocationDict =
+      PlayAssetDeliveryUtils.constructAssetPackLocationDictionary(
+          "~/Documents/assetsPath/", 0, "~/Documents/path/");
+
+  @Test
+  public void getPackLocation_secondQueryIsHit() {
+    when(assetPackManagerMock.getPackLocation("pack1"))
+        .thenReturn(new AssetPackLocationFromDictionary(testLocationDict));
+    PackLocationCache testCache = new PackLocationCache(assetPackManagerMock);
+
+    assertThat(testCache.getPackLocation("pack1")).isEqualTo(testLocationDict);
+    assertThat(testCache.getPackLocation("pack1")).isEqualTo(testLocationDict);
+
+    verify(assetPackManagerMock, times(1)).getPackLocation("pack1");
+    assertThat(testCache.getMetrics()).containsEntry(PackLocationCache.HITS_KEY, 1L);
+    assertThat(testCache.getMetrics()).containsEntry(PackLocationCache.MISSES_KEY, 1L);
+  }
+
+  @Test
+  public void getPackLocation_missingPackIsCachedUntilInvalidated() {
+    PackLocationCache testCache = new PackLocationCache(assetPackManagerMock);
+
+    assertThat(testCache.getPackLocation("pack1")).isNull();
+    assertThat(testCache.getPackLocation("pack1")).isNull();
+    verify(assetPackManagerMock, times(1)).getPackLocation("pack1");
+
+    // another pack completing does not forget that pack1 is missing
+    testCache.onPackCompleted("pack2");
+    assertThat(testCache.getPackLocation("pack1")).isNull();
+    verify(assetPackManagerMock, times(1)).getPackLocation("pack1");
+
+    testCache.invalidate("pack1");
+    assertThat(testCache.getPackLocation("pack1")).isNull();
+    verify(assetPackManagerMock, times(2)).getPackLocation("pack1");
+  }
+
+  @Test
+  public void getPackLocations_completeSnapshotAnswersSinglePackQueries() {
+    Dictionary testDict = PlayAssetDeliveryTestHelper.createAssetPackLocationsDictionary();
+    when(assetPackManagerMock.getPackLocations())
+        .thenReturn(PlayAssetDeliveryUtils.convertDictionaryToAssetPackLocations(testDict));
+    PackLocationCache testCache = new PackLocationCache(assetPackManagerMock);
+
+    assertThat(testCache.getPackLocations()).isEqualTo(testDict);
+    assertThat(testCache.getPackLocations()).isEqualTo(testDict);
+    assertThat(testCache.getPackLocation("location1")).isEqualTo(testDict.get("location1"));
+    // a pack missing from the complete snapshot is known not to be installed
+    assertThat(testCache.getPackLocation("otherPack")).isNull();
+
+    verify(assetPackManagerMock, times(1)).getPackLocations();
+    verify(assetPackManagerMock, times(0)).getPackLocation("otherPack");
+  }
+
+  @Test
+  public void invalidate_nextQueryIsMiss() {
+    when(assetPackManagerMock.getPackLocation("pack1"))
+        .thenReturn(new AssetPackLocationFromDictionary(testLocationDict));
+    PackLocationCache testCache = new PackLocationCache(assetPackManagerMock);
+    testCache.getPackLocation("pack1");
+
+    testCache.invalidate("pack1");
+    testCache.getPackLocation("pack1");
+    testCache.invalidateAll();
+    testCache.getPackLocation("pack1");
+
+    verify(assetPackManagerMock, times(3)).getPackLocation("pack1");
+    assertThat(testCache.getMetrics()).containsEntry(PackLocationCache.INVALIDATIONS_KEY, 2L);
+  }
+
+  @Test
+  public void onPackCompleted_fillsCacheAheadOfQuery() {
+    when(assetPackManagerMock.getPackLocation("pack1"))
+        .thenReturn(new AssetPackLocationFromDictionary(testLocationDict));
+    PackLocationCache testCache = new PackLocationCache(assetPackManagerMock);
+
+    testCache.onPackCompleted("pack1");
+
+    assertThat(testCache.getPackLocation("pack1")).isEqualTo(testLocationDict);
+    verify(assetPackManagerMock, times(1)).getPackLocation("pack1");
+    assertThat(testCache.getMetrics()).containsEntry(PackLocationCache.HITS_KEY, 1L);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class PackNameRegistryTest {
+
+  @Test
+  public void intern_assignsDenseIds() {
+    PackNameRegistry testRegistry = new PackNameRegistry();
+    assertThat(testRegistry.intern("pack1")).isEqualTo(0);
+    assertThat(testRegistry.intern("pack2")).isEqualTo(1);
+    assertThat(testRegistry.intern("pack1")).isEqualTo(0);
+    assertThat(testRegistry.size()).isEqualTo(2);
+    assertThat(testRegistry.packName(1)).isEqualTo("pack2");
+  }
+
+  @Test
+  public void intern_growsPastInitialCapacity() {
+    PackNameRegistry testRegistry = new PackNameRegistry();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(testRegistry.intern("pack" + i)).isEqualTo(i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertThat(testRegistry.packName(i)).isEqualTo("pack" + i);
+    }
+  }
+
+  @Test
+  public void release_reusesLowestFreeId() {
+    PackNameRegistry testRegistry = new PackNameRegistry();
+    testRegistry.intern("pack1");
+    testRegistry.intern("pack2");
+    testRegistry.intern("pack3");
+
+    testRegistry.release(2);
+    testRegistry.release(0);
+
+    assertThat(testRegistry.packName(0)).isNull();
+    assertThat(testRegistry.lookup("pack1")).isEqualTo(PackNameRegistry.UNKNOWN_PACK_ID);
+    assertThat(testRegistry.intern("pack4")).isEqualTo(0);
+    assertThat(testRegistry.intern("pack1")).isEqualTo(2);
+    assertThat(testRegistry.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void lookup_unknownPack() {
+    PackNameRegistry testRegistry = new PackNameRegistry();
+    testRegistry.intern("pack1");
+    assertThat(testRegistry.lookup("pack1")).isEqualTo(0);
+    assertThat(testRegistry.lookup("pack2")).isEqualTo(PackNameRegistry.UNKNOWN_PACK_ID);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.godotengine.godot.Dictionary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackPrefetcherTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long MB = 1024L * 1024L;
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final StorageBudgetManager storageBudgetManager =
+      new StorageBudgetManager(
+          assetPackManagerMock, packLocationCache, Runnable::run, packName -> {});
+  private final Dictionary packStates = new Dictionary();
+  private final List<String> prefetchedPacks = new ArrayList<>();
+  private final PackPrefetcher testPrefetcher = createPrefetcher();
+
+  private PackPrefetcher createPrefetcher() {
+    return new PackPrefetcher(
+        assetPackManagerMock,
+        packLocationCache,
+        storageBudgetManager,
+        Runnable::run,
+        prefetchedPacks::add);
+  }
+
+  @Before
+  public void setUp() {
+    when(assetPackManagerMock.getPackLocations()).thenReturn(Collections.emptyMap());
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenAnswer(
+            invocation ->
+                PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+                    new AssetPackStatesFromDictionary(
+                        PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(0, packStates))));
+    for (String packName : new String[] {"level1", "level2", "level3", "bonus"}) {
+      addPackState(packName, AssetPackStatus.NOT_INSTALLED, 10);
+    }
+  }
+
+  private void addPackState(String packName, int status, long sizeMegabytes) {
+    packStates.put(
+        packName,
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            0, 0, packName, status, sizeMegabytes * MB, 0));
+  }
+
+  /** Records three playthroughs where level1 is followed by level2 twice and by bonus once. */
+  private void recordPlaythroughs(PackPrefetcher prefetcher) {
+    for (String nextPack : new String[] {"level2", "bonus", "level2"}) {
+      prefetcher.onPackUsed("level1");
+      prefetcher.onPackUsed("level1");
+      prefetcher.onPackUsed(nextPack);
+      prefetcher.onPackUsed("menu");
+    }
+  }
+
+  @Test
+  public void predictNextPacks_ordersByTransitionShare() {
+    recordPlaythroughs(testPrefetcher);
+
+    testPrefetcher.setPolicy(30, 2, 100 * MB);
+    assertThat(testPrefetcher.predictNextPacks("level1")).containsExactly("level2", "bonus");
+    testPrefetcher.setPolicy(50, 2, 100 * MB);
+    assertThat(testPrefetcher.predictNextPacks("level1")).containsExactly("level2");
+    testPrefetcher.setPolicy(10, 1, 100 * MB);
+    assertThat(testPrefetcher.predictNextPacks("level1")).containsExactly("level2");
+  }
+
+  @Test
+  public void predictNextPacks_fewTransitionsPredictNothing() {
+    testPrefetcher.setPolicy(50, 2, 100 * MB);
+    testPrefetcher.onPackUsed("level1");
+    testPrefetcher.onPackUsed("level2");
+
+    assertThat(testPrefetcher.predictNextPacks("level1")).isEmpty();
+    assertThat(testPrefetcher.predictNextPacks("unknown")).isEmpty();
+  }
+
+  @Test
+  public void onPackCompleted_prefetchesPredictedPacks() {
+    recordPlaythroughs(testPrefetcher);
+    testPrefetcher.setPolicy(50, 2, 100 * MB);
+
+    testPrefetcher.onPackCompleted("level1", Collections.emptySet());
+
+    assertThat(prefetchedPacks).containsExactly("level2");
+    testPrefetcher.onPackUsed("level2");
+    assertThat(testPrefetcher.getMetrics()).containsEntry(PackPrefetcher.PREFETCH_HITS_KEY, 1L);
+  }
+
+  @Test
+  public void onPackCompleted_disabledByDefault() {
+    recordPlaythroughs(testPrefetcher);
+
+    testPrefetcher.onPackCompleted("level1", Collections.emptySet());
+
+    assertThat(prefetchedPacks).isEmpty();
+    verify(assetPackManagerMock, never()).getPackStates(anyListOf(String.class));
+  }
+
+  @Test
+  public void onPackCompleted_guards() {
+    recordPlaythroughs(testPrefetcher);
+    testPrefetcher.setPolicy(30, 2, 15 * MB);
+
+    // the game is downloading a pack of its own
+    testPrefetcher.onPackCompleted("level1", Collections.singleton("level3"));
+    assertThat(prefetchedPacks).isEmpty();
+
+    // only one of the predicted packs fits into the byte cap
+    testPrefetcher.onPackCompleted("level1", Collections.emptySet());
+    assertThat(prefetchedPacks).containsExactly("level2");
+    assertThat(testPrefetcher.getMetrics())
+        .containsEntry(PackPrefetcher.GUARDED_PREFETCHES_KEY, 3L);
+  }
+
+  @Test
+  public void onPackCompleted_installedAndStorageGuardedPacksSkipped() {
+    recordPlaythroughs(testPrefetcher);
+    testPrefetcher.setPolicy(30, 2, 100 * MB);
+    addPackState("level2", AssetPackStatus.COMPLETED, 10);
+    storageBudgetManager.setFreeSpaceSource(() -> 5 * MB);
+
+    testPrefetcher.onPackCompleted("level1", Collections.emptySet());
+
+    assertThat(prefetchedPacks).isEmpty();
+  }
+
+  @Test
+  public void onPackCompleted_unusedPrefetchPredictsNothing() {
+    recordPlaythroughs(testPrefetcher);
+    testPrefetcher.onPackUsed("level2");
+    testPrefetcher.onPackUsed("level3");
+    testPrefetcher.setPolicy(30, 2, 100 * MB);
+    testPrefetcher.onPackCompleted("level1", Collections.emptySet());
+    prefetchedPacks.clear();
+
+    testPrefetcher.onPackCompleted("level2", Collections.emptySet());
+
+    assertThat(prefetchedPacks).isEmpty();
+  }
+
+  @Test
+  public void setHistoryFile_restoresModel() {
+    File historyFile = new File(temporaryFolder.getRoot(), PackPrefetcher.HISTORY_FILE_NAME);
+    testPrefetcher.setHistoryFile(historyFile);
+    recordPlaythroughs(testPrefetcher);
+    testPrefetcher.flush();
+
+    PackPrefetcher restartedPrefetcher = createPrefetcher();
+    restartedPrefetcher.setHistoryFile(historyFile);
+    restartedPrefetcher.setPolicy(30, 2, 100 * MB);
+
+    assertThat(restartedPrefetcher.predictNextPacks("level1")).containsExactly("level2", "bonus");
+    assertThat(restartedPrefetcher.getMetrics())
+        .containsEntry(PackPrefetcher.HISTORY_LENGTH_KEY, 12 - 3);
+  }
+
+  @Test
+  public void onPackUsed_historyIsBounded() {
+    for (int i = 0; i < PackPrefetcher.MAX_HISTORY_LENGTH + 1; i++) {
+      testPrefetcher.onPackUsed(i % 2 == 0 ? "level1" : "level2");
+    }
+
+    assertThat(testPrefetcher.getMetrics())
+        .containsEntry(
+            PackPrefetcher.HISTORY_LENGTH_KEY, PackPrefetcher.MAX_HISTORY_LENGTH / 2 + 1);
+  }
+}
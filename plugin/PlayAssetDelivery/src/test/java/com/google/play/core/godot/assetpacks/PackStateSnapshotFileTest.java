@@ -0,0 +1,229 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackStateSnapshotFileTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private PackStateSnapshotFile createSnapshotFile(File file, AssetPackStateTable table) {
+    return new PackStateSnapshotFile(file, table, mock(ScheduledExecutorService.class));
+  }
+
+  @Test
+  public void restore_replaysLatestStatesAndOngoingRequests() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    AssetPackStateTable writtenTable = new AssetPackStateTable();
+    PackStateSnapshotFile writer = createSnapshotFile(file, writtenTable);
+    int packId1 = writtenTable.acquirePackId("awesomePack");
+    int packId2 = writtenTable.acquirePackId("Lorem ipsum dolor sit amet.");
+
+    writtenTable.compareAndUpdate(packId1, 2, 0, 1024, 65536, 0, 0);
+    writtenTable.setOngoing(packId1, true);
+    writer.markDirty(packId1);
+    writer.flush();
+    writtenTable.compareAndUpdate(packId1, 2, 0, 4096, 65536, 0, 0);
+    writtenTable.compareAndUpdate(packId2, 4, 0, 1024, 1024, 100, 0);
+    writer.markDirty(packId1);
+    writer.markDirty(packId2);
+    writer.flush();
+
+    AssetPackStateTable restoredTable = new AssetPackStateTable();
+    PackStateSnapshotFile reader = createSnapshotFile(file, restoredTable);
+    reader.restore();
+
+    assertThat(
+            restoredTable
+                .getSnapshot(restoredTable.acquirePackId("awesomePack"))
+                .toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                4096, 0, "awesomePack", 2, 65536, 0));
+    assertThat(
+            restoredTable
+                .getSnapshot(restoredTable.acquirePackId("Lorem ipsum dolor sit amet."))
+                .toDictionary("Lorem ipsum dolor sit amet."))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, 0, "Lorem ipsum dolor sit amet.", 4, 1024, 100));
+    assertThat(restoredTable.ongoingPackNames()).containsExactly("awesomePack");
+    assertThat(reader.getMetrics().get(PackStateSnapshotFile.RESTORED_STATES_KEY)).isEqualTo(2L);
+  }
+
+  @Test
+  public void restore_removedStateIsNotRestored() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    AssetPackStateTable writtenTable = new AssetPackStateTable();
+    PackStateSnapshotFile writer = createSnapshotFile(file, writtenTable);
+    int packId = writtenTable.acquirePackId("awesomePack");
+
+    writtenTable.compareAndUpdate(packId, 4, 0, 1024, 1024, 100, 0);
+    writer.markDirty(packId);
+    writer.flush();
+    writtenTable.removeState(packId);
+    writer.markDirty(packId);
+    writer.flush();
+
+    AssetPackStateTable restoredTable = new AssetPackStateTable();
+    createSnapshotFile(file, restoredTable).restore();
+
+    assertThat(restoredTable.getSnapshot(restoredTable.acquirePackId("awesomePack"))).isNull();
+  }
+
+  @Test
+  public void flush_releasesPackIdsPinnedWhileDirty() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    AssetPackStateTable writtenTable = new AssetPackStateTable();
+    PackStateSnapshotFile writer = createSnapshotFile(file, writtenTable);
+    int packId = writtenTable.acquirePackId("awesomePack");
+    writtenTable.compareAndUpdate(packId, 4, 0, 1024, 1024, 100, 0);
+    writer.markDirty(packId);
+    writtenTable.releasePackId(packId);
+
+    writtenTable.removeState(packId);
+    // the removal has not been written yet, so the id is kept
+    assertThat(writtenTable.packName(packId)).isEqualTo("awesomePack");
+
+    writer.flush();
+    assertThat(writtenTable.pinPackId(packId)).isFalse();
+  }
+
+  @Test
+  public void restore_truncatedRecordIsDropped() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    AssetPackStateTable writtenTable = new AssetPackStateTable();
+    PackStateSnapshotFile writer = createSnapshotFile(file, writtenTable);
+    int packId = writtenTable.acquirePackId("awesomePack");
+
+    writtenTable.compareAndUpdate(packId, 2, 0, 1024, 65536, 0, 0);
+    writer.markDirty(packId);
+    writer.flush();
+    long completeLength = file.length();
+    writtenTable.compareAndUpdate(packId, 2, 0, 4096, 65536, 0, 0);
+    writer.markDirty(packId);
+    writer.shutdown();
+    // simulate a process killed in the middle of the second write
+    try (RandomAccessFile truncatedFile = new RandomAccessFile(file, "rw")) {
+      truncatedFile.setLength(completeLength + 5);
+    }
+
+    AssetPackStateTable restoredTable = new AssetPackStateTable();
+    PackStateSnapshotFile restoredSnapshotFile = createSnapshotFile(file, restoredTable);
+    restoredSnapshotFile.restore();
+
+    int restoredPackId = restoredTable.acquirePackId("awesomePack");
+    assertThat(restoredTable.getSnapshot(restoredPackId).toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, 0, "awesomePack", 2, 65536, 0));
+    assertThat(file.length()).isEqualTo(completeLength);
+
+    // a record appended after the dropped one is read back intact
+    restoredTable.compareAndUpdate(restoredPackId, 2, 0, 8192, 65536, 0, 0);
+    restoredSnapshotFile.markDirty(restoredPackId);
+    restoredSnapshotFile.shutdown();
+    AssetPackStateTable reopenedTable = new AssetPackStateTable();
+    createSnapshotFile(file, reopenedTable).restore();
+
+    assertThat(
+            reopenedTable
+                .getSnapshot(reopenedTable.acquirePackId("awesomePack"))
+                .toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                8192, 0, "awesomePack", 2, 65536, 0));
+  }
+
+  @Test
+  public void restore_foreignFileIsIgnored() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      output.write("not a pack state snapshot".getBytes("UTF-8"));
+    }
+    AssetPackStateTable restoredTable = new AssetPackStateTable();
+
+    PackStateSnapshotFile restoredSnapshotFile = createSnapshotFile(file, restoredTable);
+    restoredSnapshotFile.restore();
+
+    assertThat(restoredTable.packCount()).isEqualTo(0);
+
+    // the foreign file is replaced rather than appended to
+    int packId = restoredTable.acquirePackId("awesomePack");
+    restoredTable.compareAndUpdate(packId, 2, 0, 1024, 65536, 0, 0);
+    restoredSnapshotFile.markDirty(packId);
+    restoredSnapshotFile.shutdown();
+    AssetPackStateTable reopenedTable = new AssetPackStateTable();
+    createSnapshotFile(file, reopenedTable).restore();
+
+    assertThat(
+            reopenedTable
+                .getSnapshot(reopenedTable.acquirePackId("awesomePack"))
+                .toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, 0, "awesomePack", 2, 65536, 0));
+  }
+
+  @Test
+  public void flush_compactsLongLog() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    AssetPackStateTable writtenTable = new AssetPackStateTable();
+    PackStateSnapshotFile writer = createSnapshotFile(file, writtenTable);
+    int packId = writtenTable.acquirePackId("awesomePack");
+
+    for (int i = 1; i <= 1000; i++) {
+      writtenTable.compareAndUpdate(packId, 2, 0, i, 1000, 0, 0);
+      writer.markDirty(packId);
+      writer.flush();
+    }
+
+    // the first write and every 256th append rewrite the log
+    assertThat(writer.getMetrics().get(PackStateSnapshotFile.COMPACTIONS_KEY)).isEqualTo(4L);
+    assertThat(file.length()).isLessThan(256L * 64);
+    AssetPackStateTable restoredTable = new AssetPackStateTable();
+    createSnapshotFile(file, restoredTable).restore();
+    assertThat(
+            restoredTable
+                .getSnapshot(restoredTable.acquirePackId("awesomePack"))
+                .toDictionary("awesomePack"))
+        .isEqualTo(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1000, 0, "awesomePack", 2, 1000, 0));
+  }
+
+  @Test
+  public void flush_nothingDirtyWritesNothing() {
+    File file = new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    PackStateSnapshotFile writer = createSnapshotFile(file, new AssetPackStateTable());
+
+    writer.flush();
+
+    assertThat(file.exists()).isFalse();
+  }
+}
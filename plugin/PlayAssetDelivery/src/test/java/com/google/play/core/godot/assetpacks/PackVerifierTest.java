@@ -0,0 +1,271 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.model.AssetPackStorageMethod;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.godotengine.godot.Dictionary;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackVerifierTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final ExecutorService hashingExecutor = Executors.newFixedThreadPool(2);
+  private final List<Dictionary> verifiedResults = new ArrayList<>();
+  private final List<Exception> verificationErrors = new ArrayList<>();
+  private PackVerifier testVerifier;
+  private File assetsDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    assetsDirectory = temporaryFolder.newFolder("assets");
+    testVerifier =
+        new PackVerifier(
+            new PackLocationCache(assetPackManagerMock),
+            new PackVerifier.VerificationListener() {
+              @Override
+              public void onPackVerified(Dictionary result, int signalID) {
+                verifiedResults.add(result);
+              }
+
+              @Override
+              public void onPackVerificationFailed(Exception e, int signalID) {
+                verificationErrors.add(e);
+              }
+            },
+            Runnable::run,
+            hashingExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    testVerifier.shutdown();
+  }
+
+  private void installPack(String packName, int storageMethod) {
+    PlayAssetDeliveryTestHelper.installPack(
+        assetPackManagerMock,
+        packName,
+        assetsDirectory.getParent(),
+        assetsDirectory.getPath(),
+        storageMethod);
+  }
+
+  private File writeAsset(String relativePath, String content) throws IOException {
+    File file = new File(assetsDirectory, relativePath);
+    file.getParentFile().mkdirs();
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content.getBytes(Charset.forName("UTF-8")));
+    }
+    return file;
+  }
+
+  @Test
+  public void verify_firstVerificationRecordsManifest() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    writeAsset("a.txt", "alpha");
+    writeAsset("levels/b.txt", "beta");
+
+    Dictionary result = testVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.MANIFEST_SOURCE_KEY))
+        .isEqualTo(PackVerifier.NO_MANIFEST_SOURCE);
+    assertThat(result.get(PackVerifier.IS_VALID_KEY)).isEqualTo(true);
+    assertThat(result.get(PackVerifier.VERIFIED_FILES_KEY)).isEqualTo(2);
+    assertThat(result.get(PackVerifier.ALGORITHM_KEY)).isEqualTo(PackVerifier.CRC32C_ALGORITHM);
+    assertThat(testVerifier.verifyNow("pack1").get(PackVerifier.MANIFEST_SOURCE_KEY))
+        .isEqualTo(PackVerifier.RECORDED_MANIFEST_SOURCE);
+  }
+
+  @Test
+  public void verify_unchangedFilesAreNotHashedAgain() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    writeAsset("a.txt", "alpha");
+    writeAsset("b.txt", "beta");
+    testVerifier.verifyNow("pack1");
+
+    Dictionary result = testVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.IS_VALID_KEY)).isEqualTo(true);
+    Dictionary metrics = testVerifier.getMetrics();
+    assertThat(metrics.get(PackVerifier.HASHED_FILES_KEY)).isEqualTo(2L);
+    assertThat(metrics.get(PackVerifier.CACHED_FILES_KEY)).isEqualTo(2L);
+  }
+
+  @Test
+  public void verify_detectsCorruptedMissingAndUnexpectedFiles() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    File corrupted = writeAsset("a.txt", "alpha");
+    File missing = writeAsset("b.txt", "beta");
+    testVerifier.verifyNow("pack1");
+    long lastModified = corrupted.lastModified();
+    writeAsset("a.txt", "alphx");
+    corrupted.setLastModified(lastModified + 2000);
+    missing.delete();
+    writeAsset("c.txt", "gamma");
+
+    Dictionary result = testVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.IS_VALID_KEY)).isEqualTo(false);
+    assertThat((String[]) result.get(PackVerifier.CORRUPTED_FILES_KEY))
+        .asList()
+        .containsExactly("a.txt");
+    assertThat((String[]) result.get(PackVerifier.MISSING_FILES_KEY))
+        .asList()
+        .containsExactly("b.txt");
+    assertThat((String[]) result.get(PackVerifier.UNEXPECTED_FILES_KEY))
+        .asList()
+        .containsExactly("c.txt");
+  }
+
+  @Test
+  public void verify_shippedManifest() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    writeAsset("data.txt", "123456789");
+    writeAsset("bad.txt", "123456789");
+    writeAsset(
+        PackVerifier.SHIPPED_MANIFEST_NAME + ".crc32c", "e3069283  data.txt\n00000000  bad.txt\n");
+
+    Dictionary result = testVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.MANIFEST_SOURCE_KEY))
+        .isEqualTo(PackVerifier.SHIPPED_MANIFEST_SOURCE);
+    assertThat(result.get(PackVerifier.VERIFIED_FILES_KEY)).isEqualTo(2);
+    assertThat((String[]) result.get(PackVerifier.CORRUPTED_FILES_KEY))
+        .asList()
+        .containsExactly("bad.txt");
+  }
+
+  @Test
+  public void verify_sha256() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    writeAsset("abc.txt", "abc");
+    writeAsset(
+        PackVerifier.SHIPPED_MANIFEST_NAME + ".sha256",
+        "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad *abc.txt\n");
+
+    assertThat(testVerifier.setAlgorithm(PackVerifier.SHA256_ALGORITHM)).isTrue();
+    Dictionary result = testVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.ALGORITHM_KEY)).isEqualTo(PackVerifier.SHA256_ALGORITHM);
+    assertThat(result.get(PackVerifier.IS_VALID_KEY)).isEqualTo(true);
+    assertThat(testVerifier.setAlgorithm("MD5")).isFalse();
+  }
+
+  @Test
+  public void verify_recordedManifestIsPersisted() throws IOException {
+    File manifestDirectory = new File(temporaryFolder.getRoot(), "manifests");
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    File asset = writeAsset("a.txt", "alpha");
+    testVerifier.setManifestDirectory(manifestDirectory);
+    testVerifier.verifyNow("pack1");
+    long lastModified = asset.lastModified();
+    writeAsset("a.txt", "alphx");
+    asset.setLastModified(lastModified + 2000);
+    PackVerifier restartedVerifier =
+        new PackVerifier(
+            new PackLocationCache(assetPackManagerMock), null, Runnable::run, hashingExecutor);
+    restartedVerifier.setManifestDirectory(manifestDirectory);
+
+    Dictionary result = restartedVerifier.verifyNow("pack1");
+
+    assertThat(result.get(PackVerifier.MANIFEST_SOURCE_KEY))
+        .isEqualTo(PackVerifier.RECORDED_MANIFEST_SOURCE);
+    assertThat((String[]) result.get(PackVerifier.CORRUPTED_FILES_KEY))
+        .asList()
+        .containsExactly("a.txt");
+  }
+
+  @Test
+  public void verify_restartedVerifierRehashesFilesWithUnchangedMetadata() throws IOException {
+    File manifestDirectory = new File(temporaryFolder.getRoot(), "manifests");
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    File asset = writeAsset("a.txt", "alpha");
+    testVerifier.setManifestDirectory(manifestDirectory);
+    testVerifier.verifyNow("pack1");
+    // corrupt the file in place, keeping its size and modification time
+    long lastModified = asset.lastModified();
+    writeAsset("a.txt", "alphx");
+    asset.setLastModified(lastModified);
+    PackVerifier restartedVerifier =
+        new PackVerifier(
+            new PackLocationCache(assetPackManagerMock), null, Runnable::run, hashingExecutor);
+    restartedVerifier.setManifestDirectory(manifestDirectory);
+
+    Dictionary result = restartedVerifier.verifyNow("pack1");
+
+    assertThat((String[]) result.get(PackVerifier.CORRUPTED_FILES_KEY))
+        .asList()
+        .containsExactly("a.txt");
+  }
+
+  @Test
+  public void onPackCompleted_dropsRecordedManifest() throws IOException {
+    installPack("pack1", AssetPackStorageMethod.STORAGE_FILES);
+    writeAsset("a.txt", "alpha");
+    testVerifier.verifyNow("pack1");
+
+    testVerifier.onPackCompleted("pack1");
+
+    assertThat(testVerifier.verifyNow("pack1").get(PackVerifier.MANIFEST_SOURCE_KEY))
+        .isEqualTo(PackVerifier.NO_MANIFEST_SOURCE);
+  }
+
+  @Test
+  public void verify_apkAssetsPackFails() {
+    installPack("pack1", AssetPackStorageMethod.APK_ASSETS);
+
+    testVerifier.verify("pack1", 7);
+
+    assertThat(verifiedResults).isEmpty();
+    assertThat(verificationErrors).hasSize(1);
+  }
+
+  @Test
+  public void verify_notInstalledPackFails() {
+    testVerifier.verify("pack1", 7);
+
+    assertThat(verificationErrors).hasSize(1);
+  }
+
+  @Test
+  public void verify_unexpectedExceptionIsReported() {
+    when(assetPackManagerMock.getPackLocation("pack1")).thenThrow(new IllegalStateException());
+
+    testVerifier.verify("pack1", 7);
+
+    assertThat(verifiedResults).isEmpty();
+    assertThat(verificationErrors).hasSize(1);
+  }
+}
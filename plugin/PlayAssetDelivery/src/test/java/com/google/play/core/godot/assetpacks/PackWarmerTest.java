@@ -0,0 +1,150 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackWarmerTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final AssetLocationIndex assetLocationIndex =
+      new AssetLocationIndex(assetPackManagerMock, new PackLocationCache(assetPackManagerMock));
+  // warmup tasks queued here run when the test calls runQueuedTasks()
+  private final List<Runnable> queuedTasks = new ArrayList<>();
+  private final PackWarmer testWarmer = new PackWarmer(assetLocationIndex, queuedTasks::add);
+
+  private void installAsset(String assetPath, int size) throws IOException {
+    PlayAssetDeliveryTestHelper.installAsset(
+        assetPackManagerMock,
+        "pack1",
+        assetPath,
+        temporaryFolder.newFile(),
+        new byte[size],
+        0,
+        size);
+  }
+
+  private void runQueuedTasks() {
+    List<Runnable> tasks = new ArrayList<>(queuedTasks);
+    queuedTasks.clear();
+    for (Runnable task : tasks) {
+      task.run();
+    }
+  }
+
+  @Test
+  public void onPackCompleted_warmsExplicitAssets() throws IOException {
+    installAsset("first", 10000);
+    installAsset("second", 100);
+    testWarmer.setWarmupAssets("pack1", new String[] {"first", "second", "missing"});
+
+    testWarmer.onPackCompleted("pack1");
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.PENDING_ASSETS_KEY, 3L);
+    runQueuedTasks();
+
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.STARTED_WARMUPS_KEY, 1L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.COMPLETED_WARMUPS_KEY, 1L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.PENDING_ASSETS_KEY, 0L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_ASSETS_KEY, 2L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_BYTES_KEY, 10100L);
+  }
+
+  @Test
+  public void onPackCompleted_warmsLearnedAssets() throws IOException {
+    installAsset("first", 100);
+    assetLocationIndex.setAccessListener(testWarmer);
+    assetLocationIndex.getAssetLocation("pack1", "first");
+
+    testWarmer.onPackCompleted("pack1");
+    runQueuedTasks();
+
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_ASSETS_KEY, 1L);
+  }
+
+  @Test
+  public void onPackCompleted_unknownPackNotWarmed() {
+    testWarmer.onPackCompleted("pack1");
+
+    assertThat(queuedTasks).isEmpty();
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.STARTED_WARMUPS_KEY, 0L);
+  }
+
+  @Test
+  public void onPackCompleted_respectsByteBudget() throws IOException {
+    installAsset("first", 300);
+    installAsset("second", 300);
+    testWarmer.setWarmupAssets("pack1", new String[] {"first", "second"});
+    testWarmer.setByteBudget(400);
+
+    testWarmer.onPackCompleted("pack1");
+    runQueuedTasks();
+
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_BYTES_KEY, 400L);
+  }
+
+  @Test
+  public void cancel_stopsRunningWarmup() throws IOException {
+    installAsset("first", 100);
+    installAsset("second", 100);
+    testWarmer.setWarmupAssets("pack1", new String[] {"first", "second"});
+
+    testWarmer.onPackCompleted("pack1");
+    testWarmer.cancel();
+    runQueuedTasks();
+
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.CANCELED_WARMUPS_KEY, 1L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.COMPLETED_WARMUPS_KEY, 0L);
+    assertThat(testWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_BYTES_KEY, 0L);
+  }
+
+  @Test
+  public void onPackCompleted_warmsAssetsLearnedInEarlierSession() throws IOException {
+    File learnedAssetDirectory = new File(temporaryFolder.getRoot(), "learned");
+    installAsset("first", 100);
+    testWarmer.setLearnedAssetDirectory(learnedAssetDirectory);
+    assetLocationIndex.setAccessListener(testWarmer);
+    assetLocationIndex.getAssetLocation("pack1", "first");
+    testWarmer.flush();
+    PackWarmer restartedWarmer = new PackWarmer(assetLocationIndex, queuedTasks::add);
+    restartedWarmer.setLearnedAssetDirectory(learnedAssetDirectory);
+    assetLocationIndex.setAccessListener(restartedWarmer);
+
+    restartedWarmer.onPackCompleted("pack1");
+    runQueuedTasks();
+    runQueuedTasks();
+
+    assertThat(restartedWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_ASSETS_KEY, 1L);
+    assertThat(restartedWarmer.getMetrics()).containsEntry(PackWarmer.WARMED_BYTES_KEY, 100L);
+    // the lookups of the warmup itself are not learned, so there is nothing to persist
+    File learnedAssetFile =
+        new File(learnedAssetDirectory, "pack1" + PackWarmer.LEARNED_ASSETS_FILE_EXTENSION);
+    assertThat(learnedAssetFile.delete()).isTrue();
+    restartedWarmer.flush();
+    assertThat(learnedAssetFile.exists()).isFalse();
+  }
+}
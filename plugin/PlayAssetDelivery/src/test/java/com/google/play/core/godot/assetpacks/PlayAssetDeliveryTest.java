@@ -17,10 +17,15 @@
 package com.google.play.core.godot.assetpacks;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertNotSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,19 +37,27 @@ import com.google.android.play.core.assetpacks.AssetPackState;
 import com.google.android.play.core.assetpacks.AssetPackStateUpdateListener;
 import com.google.android.play.core.assetpacks.AssetPackStates;
 import com.google.android.play.core.assetpacks.model.AssetPackErrorCode;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.OnFailureListener;
+import com.google.android.play.core.tasks.OnSuccessListener;
 import com.google.android.play.core.tasks.Task;
 import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
 import org.godotengine.godot.plugin.SignalInfo;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -55,6 +68,7 @@ public class PlayAssetDeliveryTest {
 
   @Mock Godot godotMock;
   @Mock AssetPackManager assetPackManagerMock;
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   /** Creates a mock PlayAssetDelivery instance with mock objects. */
   private PlayAssetDelivery createPlayAssetDeliveryInstance() {
@@ -74,14 +88,42 @@ public class PlayAssetDeliveryTest {
     List<String> actualList = testSubject.getPluginMethods();
     assertThat(actualList)
         .containsExactly(
+            "acknowledgeAssetChunk",
             "cancel",
+            "cancelWarmup",
+            "closeAssetStream",
             "fetch",
+            "fetchWithPriority",
             "getAssetLocation",
+            "getAssetLocations",
+            "getCachedPackStates",
             "getPackLocation",
             "getPackLocations",
             "getPackStates",
+            "getPluginMetrics",
+            "globAssets",
+            "listAssets",
+            "openAssetStream",
+            "readAsset",
             "removePack",
-            "showCellularDataConfirmation");
+            "resolveAsset",
+            "setCallbackWorkerThreadCount",
+            "setDeltaStateUpdatesEnabled",
+            "setFetchPriority",
+            "setMaxConcurrentFetches",
+            "setMaxStateUpdateRate",
+            "setPackPinned",
+            "setPackPrecedence",
+            "setPackVerificationAlgorithm",
+            "setPrefetchPolicy",
+            "setProgressGranularity",
+            "setStateBatchingEnabled",
+            "setStorageBudget",
+            "setTerminalStateRetention",
+            "setWarmupAssets",
+            "setWarmupByteBudget",
+            "showCellularDataConfirmation",
+            "verifyPack");
   }
 
   @Test
@@ -91,6 +133,8 @@ public class PlayAssetDeliveryTest {
 
     SignalInfo assetPackStateUpdateSignal =
         new SignalInfo("assetPackStateUpdated", Dictionary.class);
+    SignalInfo assetPackStatesBatchUpdatedSignal =
+        new SignalInfo("assetPackStatesBatchUpdated", Dictionary.class);
     SignalInfo fetchSuccess = new SignalInfo("fetchSuccess", Dictionary.class, Integer.class);
     SignalInfo fetchError = new SignalInfo("fetchError", Dictionary.class, Integer.class);
     SignalInfo getPackStatesSuccess =
@@ -103,9 +147,17 @@ public class PlayAssetDeliveryTest {
         new SignalInfo("showCellularDataConfirmationSuccess", Integer.class, Integer.class);
     SignalInfo showCellularDataConfirmationError =
         new SignalInfo("showCellularDataConfirmationError", Dictionary.class, Integer.class);
+    SignalInfo assetChunkReady = new SignalInfo("assetChunkReady", Integer.class, byte[].class);
+    SignalInfo assetStreamCompleted = new SignalInfo("assetStreamCompleted", Integer.class);
+    SignalInfo assetStreamError =
+        new SignalInfo("assetStreamError", Dictionary.class, Integer.class);
+    SignalInfo verifyPackSuccess =
+        new SignalInfo("verifyPackSuccess", Dictionary.class, Integer.class);
+    SignalInfo verifyPackError = new SignalInfo("verifyPackError", Dictionary.class, Integer.class);
     assertThat(testSet)
         .containsExactly(
             assetPackStateUpdateSignal,
+            assetPackStatesBatchUpdatedSignal,
             fetchSuccess,
             fetchError,
             getPackStatesSuccess,
@@ -113,7 +165,12 @@ public class PlayAssetDeliveryTest {
             removePackSuccess,
             removePackError,
             showCellularDataConfirmationSuccess,
-            showCellularDataConfirmationError);
+            showCellularDataConfirmationError,
+            assetChunkReady,
+            assetStreamCompleted,
+            assetStreamError,
+            verifyPackSuccess,
+            verifyPackError);
   }
 
   @Test
@@ -210,6 +267,112 @@ public class PlayAssetDeliveryTest {
     assertThat(receivedArgs.get(1)).isEqualTo(16);
   }
 
+  @Test
+  public void fetch_prefetchEmitsNoFetchSignal() {
+    Task<AssetPackStates> assetPackStatesSuccessTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+            new AssetPackStatesFromDictionary(
+                PlayAssetDeliveryTestHelper.createAssetPackStatesTestDictionary()));
+    PlayAssetDelivery testSubject = spy(new PlayAssetDelivery(godotMock, assetPackManagerMock));
+    when(assetPackManagerMock.fetch(anyListOf(String.class)))
+        .thenReturn(assetPackStatesSuccessTaskMock);
+
+    testSubject.fetch(new String[] {"pack1"}, PackPrefetcher.PREFETCH_SIGNAL_ID);
+
+    verify(assetPackManagerMock).fetch(Arrays.asList("pack1"));
+    verify(testSubject, never()).emitSignalWrapper(any(String.class), any(Object.class));
+    assertThat(testSubject.getPluginMetrics().get(PlayAssetDelivery.PACK_PREFETCHER_METRICS_KEY))
+        .isEqualTo(testSubject.components.packPrefetcher.getMetrics());
+  }
+
+  @Test
+  public void onMainPause_flushesOffTheMainThread() throws Exception {
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+    File accessFile = temporaryFolder.newFile("access");
+    accessFile.delete();
+    testSubject.components.storageBudgetManager.setAccessFile(accessFile);
+    testSubject.components.storageBudgetManager.onPackAccessed("pack1");
+    testSubject.persistenceExecutor = mock(ExecutorService.class);
+
+    testSubject.onMainPause();
+
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(testSubject.persistenceExecutor).execute(flushCaptor.capture());
+    assertThat(accessFile.exists()).isFalse();
+    flushCaptor.getValue().run();
+    assertThat(accessFile.exists()).isTrue();
+  }
+
+  @Test
+  public void fetch_successOnCallbackWorker() {
+    Dictionary testDict = PlayAssetDeliveryTestHelper.createAssetPackStatesTestDictionary();
+    Task<AssetPackStates> assetPackStatesSuccessTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+            new AssetPackStatesFromDictionary(testDict));
+    PlayAssetDelivery testSubject = spy(new PlayAssetDelivery(godotMock, assetPackManagerMock));
+    when(assetPackManagerMock.fetch(anyListOf(String.class)))
+        .thenReturn(assetPackStatesSuccessTaskMock);
+    AtomicReference<Thread> emittingThread = new AtomicReference<>();
+    doAnswer(
+            invocation -> {
+              emittingThread.set(Thread.currentThread());
+              return null;
+            })
+        .when(testSubject)
+        .emitSignalWrapper(eq(PlayAssetDelivery.FETCH_SUCCESS), any(Object.class));
+
+    testSubject.setCallbackWorkerThreadCount(1);
+    testSubject.fetch(new String[] {"pack1", "pack2"}, 16);
+
+    verify(testSubject, timeout(5000))
+        .emitSignalWrapper(PlayAssetDelivery.FETCH_SUCCESS, testDict, 16);
+    assertNotSame(Thread.currentThread(), emittingThread.get());
+    testSubject.components.callbackExecutor.shutdown();
+  }
+
+  @Test
+  public void fetchWithPriority_submitsNextFetchOnTerminalState() {
+    // tasks that never complete on their own
+    when(assetPackManagerMock.fetch(anyListOf(String.class))).thenReturn(mock(Task.class));
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+    testSubject.setMaxConcurrentFetches(1);
+
+    testSubject.fetchWithPriority("level1", 0, 1);
+    testSubject.fetchWithPriority("level2", 0, 2);
+    testSubject.fetchWithPriority("level3", 0, 3);
+    assertThat(testSubject.setFetchPriority("level3", 1)).isTrue();
+
+    verify(assetPackManagerMock).fetch(Arrays.asList("level1"));
+    verify(assetPackManagerMock, times(1)).fetch(anyListOf(String.class));
+
+    testSubject.stateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                65536, 0, "level1", AssetPackStatus.COMPLETED, 65536, 100)),
+        true);
+
+    verify(assetPackManagerMock).fetch(Arrays.asList("level3"));
+    verify(assetPackManagerMock, times(2)).fetch(anyListOf(String.class));
+  }
+
+  @Test
+  public void fetchWithPriority_failedFetchReleasesSlot() {
+    Task<AssetPackStates> assetPackStatesFailureTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnFailureTask(
+            PlayAssetDeliveryTestHelper.createMockAssetPackException(
+                "pack error test.", AssetPackErrorCode.NETWORK_ERROR));
+    when(assetPackManagerMock.fetch(anyListOf(String.class)))
+        .thenReturn(assetPackStatesFailureTaskMock);
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+    testSubject.setMaxConcurrentFetches(1);
+
+    testSubject.fetchWithPriority("level1", 0, 1);
+    testSubject.fetchWithPriority("level2", 0, 2);
+
+    verify(assetPackManagerMock).fetch(Arrays.asList("level1"));
+    verify(assetPackManagerMock).fetch(Arrays.asList("level2"));
+  }
+
   @Test
   public void fetch_error() {
     // Mock the side effects of Task<AssetPackStates> object, call onFailureListener the instant
@@ -267,6 +430,46 @@ public class PlayAssetDeliveryTest {
     assertThat(resultDict).isEqualTo(null);
   }
 
+  @Test
+  public void getAssetLocations_singleCallForAllAssets() {
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+    Dictionary testDict =
+        PlayAssetDeliveryUtils.constructAssetLocationDictionary(0, "~/Documents/", 256);
+
+    when(assetPackManagerMock.getAssetLocation("packName", "assetPath1"))
+        .thenReturn(new AssetLocationFromDictionary(testDict));
+
+    Dictionary resultDict =
+        testSubject.getAssetLocations("packName", new String[] {"assetPath1", "assetPath2"});
+    assertThat((String[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_PATHS_KEY))
+        .asList()
+        .containsExactly("~/Documents/", "")
+        .inOrder();
+    assertThat((byte[]) resultDict.get(PlayAssetDeliveryUtils.ASSET_LOCATIONS_MISSING_MASK_KEY))
+        .isEqualTo(new byte[] {0, 1});
+  }
+
+  @Test
+  public void readAsset_notExist() {
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(null);
+
+    assertThat(testSubject.readAsset("packName", "assetPath", 0, -1)).isNull();
+  }
+
+  @Test
+  public void openAssetStream_notExist() {
+    PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
+
+    when(assetPackManagerMock.getAssetLocation(any(String.class), any(String.class)))
+        .thenReturn(null);
+
+    assertThat(testSubject.openAssetStream("packName", "assetPath", 0, 0)).isEqualTo(-1);
+    assertThat(testSubject.acknowledgeAssetChunk(0)).isFalse();
+  }
+
   @Test
   public void getPackLocation_exist() {
     PlayAssetDelivery testSubject = createPlayAssetDeliveryInstance();
@@ -474,4 +677,82 @@ public class PlayAssetDeliveryTest {
         .isEqualTo(PlayAssetDeliveryUtils.convertExceptionToDictionary(testException));
     assertThat(receivedArgs.get(1)).isEqualTo(13);
   }
+
+  @Test
+  public void getPackStates_overlappingCallsJoinTask() {
+    Dictionary testDict = PlayAssetDeliveryTestHelper.createAssetPackStatesTestDictionary();
+    Task<AssetPackStates> pendingTaskMock = mock(Task.class);
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class))).thenReturn(pendingTaskMock);
+    PlayAssetDelivery testSubject = spy(new PlayAssetDelivery(godotMock, assetPackManagerMock));
+
+    testSubject.getPackStates(new String[] {"pack1", "pack2"}, 1);
+    testSubject.getPackStates(new String[] {"pack2", "pack1"}, 2);
+
+    verify(assetPackManagerMock, times(1)).getPackStates(anyListOf(String.class));
+    ArgumentCaptor<OnSuccessListener> successListenerCaptor =
+        ArgumentCaptor.forClass(OnSuccessListener.class);
+    verify(pendingTaskMock)
+        .addOnSuccessListener(any(Executor.class), successListenerCaptor.capture());
+    successListenerCaptor.getValue().onSuccess(new AssetPackStatesFromDictionary(testDict));
+
+    verify(testSubject).emitSignalWrapper(PlayAssetDelivery.GET_PACK_STATES_SUCCESS, testDict, 1);
+    verify(testSubject).emitSignalWrapper(PlayAssetDelivery.GET_PACK_STATES_SUCCESS, testDict, 2);
+    Dictionary singleFlightMetrics =
+        (Dictionary)
+            testSubject.getPluginMetrics().get(PlayAssetDelivery.SINGLE_FLIGHT_METRICS_KEY);
+    assertThat(singleFlightMetrics).containsEntry(SingleFlightTaskRegistry.JOINED_CALLS_KEY, 1L);
+
+    // the next call after completion starts a new task
+    testSubject.getPackStates(new String[] {"pack1", "pack2"}, 3);
+    verify(assetPackManagerMock, times(2)).getPackStates(anyListOf(String.class));
+  }
+
+  @Test
+  public void removePack_overlappingCallsJoinTask() {
+    Task<Void> pendingTaskMock = mock(Task.class);
+    when(assetPackManagerMock.removePack("pack1")).thenReturn(pendingTaskMock);
+    PlayAssetDelivery testSubject = spy(new PlayAssetDelivery(godotMock, assetPackManagerMock));
+    Exception testException = new Exception("remove failed");
+
+    testSubject.removePack("pack1", 1);
+    testSubject.removePack("pack1", 2);
+
+    verify(assetPackManagerMock, times(1)).removePack("pack1");
+    ArgumentCaptor<OnFailureListener> failureListenerCaptor =
+        ArgumentCaptor.forClass(OnFailureListener.class);
+    verify(pendingTaskMock)
+        .addOnFailureListener(any(Executor.class), failureListenerCaptor.capture());
+    failureListenerCaptor.getValue().onFailure(testException);
+
+    Dictionary expectedErrorDict =
+        PlayAssetDeliveryUtils.convertExceptionToDictionary(testException);
+    verify(testSubject)
+        .emitSignalWrapper(PlayAssetDelivery.REMOVE_PACK_ERROR, expectedErrorDict, 1);
+    verify(testSubject)
+        .emitSignalWrapper(PlayAssetDelivery.REMOVE_PACK_ERROR, expectedErrorDict, 2);
+  }
+
+  @Test
+  public void setMaxStateUpdateRate_coalescesStateUpdates() {
+    PlayAssetDelivery testSubject = spy(new PlayAssetDelivery(godotMock, assetPackManagerMock));
+    // stub the reference to playAssetDeliveryPlugin in stateUpdateManager
+    testSubject.stateUpdateManager.playAssetDeliveryPlugin = testSubject;
+    List<AssetPackState> testAssetPackStateList =
+        PlayAssetDeliveryTestHelper.createAssetPackStateList();
+
+    testSubject.setMaxStateUpdateRate(1);
+    for (AssetPackState packState : testAssetPackStateList) {
+      testSubject.stateUpdateManager.emitNonDuplicateStateUpdatedSignal(packState, true);
+    }
+
+    // only the first update is emitted right away, the others wait for the next dispatch window
+    verify(testSubject, times(1)).emitSignalWrapper(any(String.class), any(Object.class));
+    Dictionary dispatcherMetrics =
+        (Dictionary)
+            testSubject
+                .getPluginMetrics()
+                .get(PlayAssetDelivery.STATE_UPDATE_DISPATCHER_METRICS_KEY);
+    assertThat(dispatcherMetrics).containsEntry(StateUpdateDispatcher.DELIVERED_UPDATES_KEY, 1L);
+    assertThat(dispatcherMetrics).containsEntry(StateUpdateDispatcher.MERGED_UPDATES_KEY, 1L);
+  }
 }
@@ -23,13 +23,20 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.android.play.core.assetpacks.AssetPackException;
+import com.google.android.play.core.assetpacks.AssetPackManager;
 import com.google.android.play.core.assetpacks.AssetPackState;
 import com.google.android.play.core.tasks.OnFailureListener;
 import com.google.android.play.core.tasks.OnSuccessListener;
 import com.google.android.play.core.tasks.Task;
+import com.google.play.core.godot.assetpacks.utils.AssetLocationFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import org.godotengine.godot.Dictionary;
 
 public class PlayAssetDeliveryTestHelper {
@@ -119,7 +126,7 @@ public class PlayAssetDeliveryTestHelper {
 
   /**
    * Mock object factory that returns a mock Task<T> object. Will invoke onSuccessListener with
-   * result if addOnSuccessListener() is called.
+   * result, on the given Executor if any, if addOnSuccessListener() is called.
    *
    * @param result object to be passed to the onSuccessListener
    * @param <T> parameterized type of the result returned by this task if it succeeds
@@ -135,12 +142,21 @@ public class PlayAssetDeliveryTestHelper {
             })
         .when(returnTaskMock)
         .addOnSuccessListener(any(OnSuccessListener.class));
+    doAnswer(
+            invocation -> {
+              Executor executor = (Executor) invocation.getArguments()[0];
+              OnSuccessListener<T> listener = (OnSuccessListener<T>) invocation.getArguments()[1];
+              executor.execute(() -> listener.onSuccess(result));
+              return null;
+            })
+        .when(returnTaskMock)
+        .addOnSuccessListener(any(Executor.class), any(OnSuccessListener.class));
     return returnTaskMock;
   }
 
   /**
    * Mock object factory that returns a mock Task<T> object. Will invoke onFailureListener with
-   * onFailureException if addOnFailureListener() is called.
+   * onFailureException, on the given Executor if any, if addOnFailureListener() is called.
    *
    * @param onFailureException Exception to be passed to the onFailureListener
    * @param <T> parameterized type of the result returned by this task if it succeeds
@@ -156,6 +172,15 @@ public class PlayAssetDeliveryTestHelper {
             })
         .when(returnTaskMock)
         .addOnFailureListener(any(OnFailureListener.class));
+    doAnswer(
+            invocation -> {
+              Executor executor = (Executor) invocation.getArguments()[0];
+              OnFailureListener listener = (OnFailureListener) invocation.getArguments()[1];
+              executor.execute(() -> listener.onFailure(onFailureException));
+              return null;
+            })
+        .when(returnTaskMock)
+        .addOnFailureListener(any(Executor.class), any(OnFailureListener.class));
     return returnTaskMock;
   }
 
@@ -172,4 +197,46 @@ public class PlayAssetDeliveryTestHelper {
     when(testException.getErrorCode()).thenReturn(errorCode);
     return testException;
   }
+
+  /**
+   * Stubs assetPackManagerMock to report packName as installed, with its assets below assetsPath.
+   *
+   * @return the serialized AssetPackLocation of the pack
+   */
+  public static Dictionary installPack(
+      AssetPackManager assetPackManagerMock,
+      String packName,
+      String packPath,
+      String assetsPath,
+      int storageMethod) {
+    Dictionary packLocationDict =
+        PlayAssetDeliveryUtils.constructAssetPackLocationDictionary(
+            assetsPath, storageMethod, packPath);
+    when(assetPackManagerMock.getPackLocation(packName))
+        .thenReturn(new AssetPackLocationFromDictionary(packLocationDict));
+    return packLocationDict;
+  }
+
+  /**
+   * Writes fileContent to file, and stubs assetPackManagerMock to locate assetPath of packName at
+   * offset within it.
+   */
+  public static void installAsset(
+      AssetPackManager assetPackManagerMock,
+      String packName,
+      String assetPath,
+      File file,
+      byte[] fileContent,
+      long offset,
+      long size)
+      throws IOException {
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(fileContent);
+    }
+    when(assetPackManagerMock.getAssetLocation(packName, assetPath))
+        .thenReturn(
+            new AssetLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetLocationDictionary(
+                    offset, file.getPath(), size)));
+  }
 }
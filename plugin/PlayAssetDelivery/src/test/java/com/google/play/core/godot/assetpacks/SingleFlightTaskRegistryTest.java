@@ -0,0 +1,121 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.List;
+import org.godotengine.godot.Dictionary;
+import org.junit.Test;
+
+public class SingleFlightTaskRegistryTest {
+
+  private static Dictionary createPackStatesDictionary(String... packNames) {
+    Dictionary packStates = new Dictionary();
+    for (String packName : packNames) {
+      packStates.put(
+          packName,
+          PlayAssetDeliveryUtils.constructAssetPackStateDictionary(0, 0, packName, 2, 1024, 0));
+    }
+    return PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(
+        1024L * packNames.length, packStates);
+  }
+
+  @Test
+  public void join_overlappingCallsShareTask() {
+    SingleFlightTaskRegistry testRegistry = new SingleFlightTaskRegistry();
+
+    SingleFlightTaskRegistry.Flight flight =
+        testRegistry.join("getPackStates", new String[] {"pack1", "pack2"}, 1);
+    assertThat(flight.packNames).containsExactly("pack1", "pack2");
+    assertThat(testRegistry.join("getPackStates", new String[] {"pack2", "pack1"}, 2)).isNull();
+    assertThat(testRegistry.join("getPackStates", new String[] {"pack1"}, 3)).isNull();
+
+    Dictionary result = createPackStatesDictionary("pack1", "pack2");
+    List<SingleFlightTaskRegistry.Call> calls =
+        testRegistry.complete("getPackStates", flight, result);
+    assertThat(calls).hasSize(3);
+    assertThat(calls.get(0).signalID).isEqualTo(1);
+    assertThat(calls.get(0).resultDictionary()).isEqualTo(result);
+    assertThat(calls.get(1).resultDictionary()).isEqualTo(result);
+    // the call on a subset of the packs only gets the states of its packs
+    Dictionary subsetResult = calls.get(2).resultDictionary();
+    assertThat((Dictionary) subsetResult.get(AssetPackStatesFromDictionary.PACK_STATES_KEY))
+        .containsKey("pack1");
+    assertThat((Dictionary) subsetResult.get(AssetPackStatesFromDictionary.PACK_STATES_KEY))
+        .doesNotContainKey("pack2");
+    assertThat(subsetResult).containsEntry(AssetPackStatesFromDictionary.TOTAL_BYTES_KEY, 1024L);
+    assertThat(testRegistry.getMetrics())
+        .containsEntry(SingleFlightTaskRegistry.STARTED_TASKS_KEY, 1L);
+    assertThat(testRegistry.getMetrics())
+        .containsEntry(SingleFlightTaskRegistry.JOINED_CALLS_KEY, 2L);
+  }
+
+  @Test
+  public void join_partialOverlapStartsTaskForUncoveredPacks() {
+    SingleFlightTaskRegistry testRegistry = new SingleFlightTaskRegistry();
+    SingleFlightTaskRegistry.Flight firstFlight =
+        testRegistry.join("fetch", new String[] {"pack1"}, 1);
+
+    SingleFlightTaskRegistry.Flight secondFlight =
+        testRegistry.join("fetch", new String[] {"pack1", "pack2"}, 2);
+
+    assertThat(secondFlight.packNames).containsExactly("pack2");
+    assertThat(testRegistry.complete("fetch", secondFlight, createPackStatesDictionary("pack2")))
+        .isEmpty();
+    List<SingleFlightTaskRegistry.Call> calls =
+        testRegistry.complete("fetch", firstFlight, createPackStatesDictionary("pack1"));
+    assertThat(calls).hasSize(2);
+    Dictionary mergedResult = calls.get(1).resultDictionary();
+    assertThat((Dictionary) mergedResult.get(AssetPackStatesFromDictionary.PACK_STATES_KEY))
+        .containsKey("pack1");
+    assertThat((Dictionary) mergedResult.get(AssetPackStatesFromDictionary.PACK_STATES_KEY))
+        .containsKey("pack2");
+    assertThat(mergedResult).containsEntry(AssetPackStatesFromDictionary.TOTAL_BYTES_KEY, 2048L);
+  }
+
+  @Test
+  public void fail_failsEveryWaitingCallOnce() {
+    SingleFlightTaskRegistry testRegistry = new SingleFlightTaskRegistry();
+    SingleFlightTaskRegistry.Flight firstFlight =
+        testRegistry.join("fetch", new String[] {"pack1"}, 1);
+    SingleFlightTaskRegistry.Flight secondFlight =
+        testRegistry.join("fetch", new String[] {"pack1", "pack2"}, 2);
+
+    assertThat(testRegistry.fail("fetch", firstFlight)).hasSize(2);
+
+    assertThat(testRegistry.complete("fetch", secondFlight, createPackStatesDictionary("pack2")))
+        .isEmpty();
+  }
+
+  @Test
+  public void join_afterCompletionStartsNewTask() {
+    SingleFlightTaskRegistry testRegistry = new SingleFlightTaskRegistry();
+    SingleFlightTaskRegistry.Flight flight =
+        testRegistry.join("removePack", new String[] {"pack1"}, 1);
+    testRegistry.complete("removePack", flight, null);
+
+    SingleFlightTaskRegistry.Flight nextFlight =
+        testRegistry.join("removePack", new String[] {"pack1"}, 2);
+
+    assertThat(nextFlight).isNotNull();
+    assertThat(testRegistry.complete("removePack", nextFlight, null)).hasSize(1);
+    assertThat(testRegistry.join("fetch", new String[] {"pack1"}, 3)).isNotNull();
+  }
+}
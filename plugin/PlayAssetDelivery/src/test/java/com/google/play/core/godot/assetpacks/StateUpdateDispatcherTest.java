@@ -0,0 +1,338 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.android.play.core.assetpacks.model.AssetPackErrorCode;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.godotengine.godot.Dictionary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StateUpdateDispatcherTest {
+
+  @Mock StateUpdateManager stateUpdateManagerMock;
+  @Mock ScheduledExecutorService flushSchedulerMock;
+
+  private static Dictionary createStateDictionary(int status, int errorCode, long bytes) {
+    return PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+        bytes, errorCode, "awesomePack", status, 65536, 0);
+  }
+
+  @Test
+  public void dispatch_noRateLimit_deliversEveryUpdate() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state1);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state2);
+
+    ArgumentCaptor<Object> signalArgsCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(stateUpdateManagerMock, times(2))
+        .emitSignalWrapper(
+            eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), signalArgsCaptor.capture());
+    assertThat(signalArgsCaptor.getAllValues()).isEqualTo(Arrays.asList(state1, state2));
+    assertThat(testDispatcher.deliveredUpdateCount()).isEqualTo(2);
+    assertThat(testDispatcher.mergedUpdateCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void dispatch_rateLimited_keepsLatestState() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+    Dictionary state3 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 4096);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state1);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state2);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state3);
+
+    // only the first state is delivered, a single flush is scheduled for the latest state
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushSchedulerMock, times(1))
+        .schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state1);
+
+    flushCaptor.getValue().run();
+
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state3);
+    verify(stateUpdateManagerMock, times(0))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state2);
+    assertThat(testDispatcher.deliveredUpdateCount()).isEqualTo(2);
+    assertThat(testDispatcher.mergedUpdateCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void dispatch_rateLimited_terminalAndErrorStatesFlushImmediately() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary progressState = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary pendingState = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+    Dictionary errorState =
+        createStateDictionary(AssetPackStatus.DOWNLOADING, AssetPackErrorCode.NETWORK_ERROR, 2048);
+    Dictionary completedState = createStateDictionary(AssetPackStatus.COMPLETED, 0, 65536);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, progressState);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, pendingState);
+    testDispatcher.dispatch(
+        "awesomePack", AssetPackStatus.DOWNLOADING, AssetPackErrorCode.NETWORK_ERROR, errorState);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.COMPLETED, 0, completedState);
+
+    ArgumentCaptor<Object> signalArgsCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(stateUpdateManagerMock, times(3))
+        .emitSignalWrapper(
+            eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), signalArgsCaptor.capture());
+    assertThat(signalArgsCaptor.getAllValues())
+        .isEqualTo(Arrays.asList(progressState, errorState, completedState));
+    assertThat(testDispatcher.mergedUpdateCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void dispatch_rateLimited_packsAreIndependent() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+
+    testDispatcher.dispatch("pack1", AssetPackStatus.DOWNLOADING, 0, state1);
+    testDispatcher.dispatch("pack2", AssetPackStatus.DOWNLOADING, 0, state2);
+
+    verify(stateUpdateManagerMock, times(2))
+        .emitSignalWrapper(eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), any(Object.class));
+    assertThat(testDispatcher.mergedUpdateCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void flushAll_deliversPendingStates() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state1);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state2);
+    testDispatcher.flushAll();
+
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state2);
+    Dictionary metrics = testDispatcher.getMetrics();
+    assertThat(metrics).containsEntry(StateUpdateDispatcher.DELIVERED_UPDATES_KEY, 2L);
+    assertThat(metrics).containsEntry(StateUpdateDispatcher.MERGED_UPDATES_KEY, 0L);
+  }
+
+  @Test
+  public void dispatch_batching_deliversOneSignalPerWindow() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setBatchingEnabled(true);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+    Dictionary state3 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 4096);
+
+    testDispatcher.dispatch("pack1", AssetPackStatus.DOWNLOADING, 0, state1);
+    testDispatcher.dispatch("pack2", AssetPackStatus.DOWNLOADING, 0, state2);
+    testDispatcher.dispatch("pack1", AssetPackStatus.DOWNLOADING, 0, state3);
+
+    // nothing is emitted until the end of the dispatch window
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushSchedulerMock, times(1))
+        .schedule(
+            flushCaptor.capture(),
+            eq(StateUpdateDispatcher.DEFAULT_BATCH_WINDOW_MS),
+            eq(TimeUnit.MILLISECONDS));
+    verify(stateUpdateManagerMock, times(0)).emitSignalWrapper(any(String.class), any());
+
+    flushCaptor.getValue().run();
+
+    ArgumentCaptor<Object> batchCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(
+            eq(PlayAssetDelivery.ASSET_PACK_STATES_BATCH_UPDATED), batchCaptor.capture());
+    Dictionary expectedBatch = new Dictionary();
+    expectedBatch.put("pack1", state3);
+    expectedBatch.put("pack2", state2);
+    assertThat(batchCaptor.getValue()).isEqualTo(expectedBatch);
+    Dictionary metrics = testDispatcher.getMetrics();
+    assertThat(metrics).containsEntry(StateUpdateDispatcher.DELIVERED_UPDATES_KEY, 2L);
+    assertThat(metrics).containsEntry(StateUpdateDispatcher.DELIVERED_BATCHES_KEY, 1L);
+    assertThat(metrics).containsEntry(StateUpdateDispatcher.MERGED_UPDATES_KEY, 1L);
+  }
+
+  @Test
+  public void dispatch_batching_terminalStateFlushesBatch() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(4);
+    testDispatcher.setBatchingEnabled(true);
+    Dictionary progressState = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary completedState = createStateDictionary(AssetPackStatus.COMPLETED, 0, 65536);
+
+    testDispatcher.dispatch("pack1", AssetPackStatus.DOWNLOADING, 0, progressState);
+    testDispatcher.dispatch("pack2", AssetPackStatus.COMPLETED, 0, completedState);
+
+    verify(flushSchedulerMock, times(1))
+        .schedule(any(Runnable.class), eq(250L), eq(TimeUnit.MILLISECONDS));
+    Dictionary expectedBatch = new Dictionary();
+    expectedBatch.put("pack1", progressState);
+    expectedBatch.put("pack2", completedState);
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATES_BATCH_UPDATED, expectedBatch);
+    verify(stateUpdateManagerMock, times(0))
+        .emitSignalWrapper(eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), any());
+  }
+
+  @Test
+  public void setBatchingEnabled_disabling_flushesPendingBatch() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setBatchingEnabled(true);
+    Dictionary batchedState = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary unbatchedState = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 2048);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, batchedState);
+    testDispatcher.setBatchingEnabled(false);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, unbatchedState);
+
+    Dictionary expectedBatch = new Dictionary();
+    expectedBatch.put("awesomePack", batchedState);
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATES_BATCH_UPDATED, expectedBatch);
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, unbatchedState);
+  }
+
+  @Test
+  public void dispatch_rateLimited_mergesUndeliveredDeltas() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary firstDelta = new Dictionary();
+    firstDelta.put("name", "awesomePack");
+    firstDelta.put("sequenceNumber", 1);
+    Dictionary statusDelta = new Dictionary();
+    statusDelta.put("name", "awesomePack");
+    statusDelta.put("sequenceNumber", 2);
+    statusDelta.put("status", AssetPackStatus.WAITING_FOR_WIFI);
+    Dictionary progressDelta = new Dictionary();
+    progressDelta.put("name", "awesomePack");
+    progressDelta.put("sequenceNumber", 3);
+    progressDelta.put("bytesDownloaded", 2048L);
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, firstDelta);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.WAITING_FOR_WIFI, 0, statusDelta);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.WAITING_FOR_WIFI, 0, progressDelta);
+    testDispatcher.flushAll();
+
+    // the coalesced delta still carries the status change of the dropped delta
+    Dictionary expectedDelta = new Dictionary();
+    expectedDelta.put("name", "awesomePack");
+    expectedDelta.put("sequenceNumber", 3);
+    expectedDelta.put("status", AssetPackStatus.WAITING_FOR_WIFI);
+    expectedDelta.put("bytesDownloaded", 2048L);
+    verify(stateUpdateManagerMock, times(1))
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, expectedDelta);
+  }
+
+  @Test
+  public void dispatch_noRateLimit_keepsNoSlot() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+
+    testDispatcher.dispatch(
+        "awesomePack",
+        AssetPackStatus.DOWNLOADING,
+        0,
+        createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024));
+
+    assertThat(testDispatcher.dispatchSlotCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void dispatch_rateLimited_idleSlotIsRemoved() throws InterruptedException {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1000);
+    testDispatcher.dispatch(
+        "awesomePack",
+        AssetPackStatus.DOWNLOADING,
+        0,
+        createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024));
+    assertThat(testDispatcher.dispatchSlotCount()).isEqualTo(1);
+    ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushSchedulerMock).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+
+    // no update arrives within the dispatch interval
+    Thread.sleep(10);
+    flushCaptor.getValue().run();
+
+    assertThat(testDispatcher.dispatchSlotCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void runAfterPendingStates_followsParkedState() {
+    StateUpdateDispatcher testDispatcher =
+        new StateUpdateDispatcher(stateUpdateManagerMock, flushSchedulerMock);
+    testDispatcher.setMaxUpdatesPerSecond(1);
+    Dictionary state1 = createStateDictionary(AssetPackStatus.PENDING, 0, 0);
+    Dictionary state2 = createStateDictionary(AssetPackStatus.DOWNLOADING, 0, 1024);
+    Dictionary fetchResult = new Dictionary();
+
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.PENDING, 0, state1);
+    testDispatcher.dispatch("awesomePack", AssetPackStatus.DOWNLOADING, 0, state2);
+    testDispatcher.runAfterPendingStates(
+        Arrays.asList("awesomePack"),
+        () ->
+            stateUpdateManagerMock.emitSignalWrapper(
+                PlayAssetDelivery.FETCH_SUCCESS, fetchResult, 7));
+
+    InOrder inOrder = inOrder(stateUpdateManagerMock);
+    inOrder
+        .verify(stateUpdateManagerMock)
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state1);
+    inOrder
+        .verify(stateUpdateManagerMock)
+        .emitSignalWrapper(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED, state2);
+    inOrder
+        .verify(stateUpdateManagerMock)
+        .emitSignalWrapper(PlayAssetDelivery.FETCH_SUCCESS, fetchResult, 7);
+  }
+}
@@ -19,7 +19,10 @@ package com.google.play.core.godot.assetpacks;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.play.core.godot.assetpacks.PlayAssetDeliveryTestHelper.createAssetPackStateList;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -28,17 +31,32 @@ import static org.mockito.Mockito.when;
 import com.google.android.play.core.assetpacks.AssetPackManager;
 import com.google.android.play.core.assetpacks.AssetPackState;
 import com.google.android.play.core.assetpacks.AssetPackStates;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.OnFailureListener;
+import com.google.android.play.core.tasks.OnSuccessListener;
 import com.google.android.play.core.tasks.Task;
+import com.google.play.core.godot.assetpacks.utils.AssetPackLocationFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.AssetPackStateFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
 import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -47,6 +65,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class StateUpdateManagerTest {
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
   @Mock AssetPackManager assetPackManagerMock;
   @Mock Godot godotMock;
 
@@ -58,6 +77,8 @@ public class StateUpdateManagerTest {
     PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
     StateUpdateManager testStateUpdateManager =
         spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
 
     List<AssetPackState> assetPackStateList = createAssetPackStateList();
 
@@ -104,6 +125,8 @@ public class StateUpdateManagerTest {
     PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
     StateUpdateManager testStateUpdateManager =
         spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
 
     List<AssetPackState> assetPackStateList = createAssetPackStateList();
 
@@ -139,6 +162,211 @@ public class StateUpdateManagerTest {
         .containsEntry(expectedPackName, expectedUpdatedAssetPackStateDict);
   }
 
+  @Test
+  public void emitNonDuplicateStateUpdatedSignal_dictionaryHashCollision() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
+
+    // 1 and 1L << 32 share the same Long hash code, so both serialized states have equal hashes
+    Dictionary testDict1 =
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            1, 0, "awesomePack", 2, 1L << 33, 0);
+    Dictionary testDict2 =
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            1L << 32, 0, "awesomePack", 2, 1L << 33, 0);
+    assertThat(testDict1.hashCode()).isEqualTo(testDict2.hashCode());
+
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(testDict1), false);
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(testDict2), false);
+
+    ArgumentCaptor<Object> signalArgsCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(testStateUpdateManager, times(2))
+        .emitSignalWrapper(
+            eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), signalArgsCaptor.capture());
+    assertThat(signalArgsCaptor.getAllValues()).isEqualTo(Arrays.asList(testDict1, testDict2));
+  }
+
+  @Test
+  public void emitNonDuplicateStateUpdatedSignal_deltaEncoding() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
+    Dictionary testDict1 =
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            1024, 0, "awesomePack", 2, 65536, 1);
+    Dictionary testDict2 =
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            2048, 0, "awesomePack", 2, 65536, 3);
+
+    testStateUpdateManager.setDeltaEncodingEnabled(true);
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(testDict1), true);
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(testDict2), true);
+
+    ArgumentCaptor<Object> signalArgsCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(testStateUpdateManager, times(2))
+        .emitSignalWrapper(
+            eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), signalArgsCaptor.capture());
+    Dictionary expectedDelta1 = new Dictionary();
+    expectedDelta1.putAll(testDict1);
+    expectedDelta1.put(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 1);
+    Dictionary expectedDelta2 = new Dictionary();
+    expectedDelta2.put(AssetPackStateFromDictionary.NAME_KEY, "awesomePack");
+    expectedDelta2.put(AssetPackStateFromDictionary.BYTES_DOWNLOADED_KEY, 2048L);
+    expectedDelta2.put(AssetPackStateFromDictionary.TRANSFER_PROGRESS_PERCENTAGE_KEY, 3);
+    expectedDelta2.put(AssetPackStateTable.SEQUENCE_NUMBER_KEY, 2);
+    assertThat(signalArgsCaptor.getAllValues())
+        .isEqualTo(Arrays.asList(expectedDelta1, expectedDelta2));
+  }
+
+  @Test
+  public void emitNonDuplicateStateUpdatedSignal_concurrentDuplicates() throws Exception {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
+    AssetPackState testState = createAssetPackStateList().get(0);
+
+    // the listener thread and the forceAssetPackStateUpdate() callback race on the same state
+    int threadCount = 8;
+    CountDownLatch startLatch = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      executor.submit(
+          () -> {
+            startLatch.await();
+            testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(testState, true);
+            return null;
+          });
+    }
+    startLatch.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    verify(testStateUpdateManager, times(1))
+        .emitSignalWrapper(eq(PlayAssetDelivery.ASSET_PACK_STATE_UPDATED), any(Object.class));
+  }
+
+  @Test
+  public void cachedAssetPackStates_restoredFromPreviousProcess() {
+    File snapshotFile =
+        new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    Dictionary testDict = PlayAssetDeliveryTestHelper.createAssetPackStatesTestDictionary();
+    Task<AssetPackStates> assetPackStatesSuccessTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+            new AssetPackStatesFromDictionary(testDict));
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenReturn(assetPackStatesSuccessTaskMock);
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager previousStateUpdateManager =
+        spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    previousStateUpdateManager.stateUpdateDispatcher.stateUpdateManager =
+        previousStateUpdateManager;
+    previousStateUpdateManager.enableStatePersistence(snapshotFile, Runnable::run);
+    previousStateUpdateManager.joinOngoingAssetPackRequests(
+        new HashSet<>(
+            Arrays.asList(
+                "awesomePack", "Lorem ipsum dolor sit amet, consectetur adipiscing elit.")));
+    previousStateUpdateManager.forceAssetPackStateUpdate();
+    previousStateUpdateManager.packStateSnapshotFile.shutdown();
+
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    testStateUpdateManager.enableStatePersistence(snapshotFile, Runnable::run);
+    Dictionary cachedStates = testStateUpdateManager.cachedAssetPackStates();
+    testStateUpdateManager.packStateSnapshotFile.shutdown();
+
+    Dictionary expectedPackStates = new Dictionary();
+    for (Object packState :
+        ((Dictionary) testDict.get(AssetPackStatesFromDictionary.PACK_STATES_KEY)).values()) {
+      expectedPackStates.put(
+          (String) ((Dictionary) packState).get(AssetPackStateFromDictionary.NAME_KEY), packState);
+    }
+    assertThat(cachedStates.get(AssetPackStatesFromDictionary.TOTAL_BYTES_KEY))
+        .isEqualTo(testDict.get(AssetPackStatesFromDictionary.TOTAL_BYTES_KEY));
+    assertThat(cachedStates.get(AssetPackStatesFromDictionary.PACK_STATES_KEY))
+        .isEqualTo(expectedPackStates);
+    assertThat(testStateUpdateManager.ongoingAssetPackRequests())
+        .containsExactly("awesomePack", "Lorem ipsum dolor sit amet, consectetur adipiscing elit.");
+  }
+
+  @Test
+  public void enableStatePersistence_statesWaitForRestoreOnExecutor() throws Exception {
+    File snapshotFile =
+        new File(temporaryFolder.getRoot(), PackStateSnapshotFile.SNAPSHOT_FILE_NAME);
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager previousStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    previousStateUpdateManager.enableStatePersistence(snapshotFile, Runnable::run);
+    previousStateUpdateManager.joinOngoingAssetPackRequests(
+        new HashSet<>(Arrays.asList("awesomePack")));
+    previousStateUpdateManager.packStateSnapshotFile.shutdown();
+    Task<AssetPackStates> assetPackStatesTaskMock = mock(Task.class);
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenReturn(assetPackStatesTaskMock);
+    List<Runnable> queuedTasks = new ArrayList<>();
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+
+    testStateUpdateManager.enableStatePersistence(snapshotFile, queuedTasks::add);
+    // the reconciliation of the resumed app is deferred until the restored states are known
+    testStateUpdateManager.forceAssetPackStateUpdate();
+    ExecutorService readerThread = Executors.newSingleThreadExecutor();
+    Future<Set<String>> ongoingPacks =
+        readerThread.submit(testStateUpdateManager::ongoingAssetPackRequests);
+
+    assertThat(queuedTasks).hasSize(2);
+    assertFalse(ongoingPacks.isDone());
+    verify(assetPackManagerMock, times(0)).getPackStates(anyListOf(String.class));
+    for (Runnable task : queuedTasks) {
+      task.run();
+    }
+
+    assertThat(ongoingPacks.get(5, TimeUnit.SECONDS)).containsExactly("awesomePack");
+    verify(assetPackManagerMock, times(1)).getPackStates(Arrays.asList("awesomePack"));
+    readerThread.shutdown();
+    testStateUpdateManager.packStateSnapshotFile.shutdown();
+  }
+
+  @Test
+  public void emitNonDuplicateStateUpdatedSignal_terminalStatesUpdatePackLocationCache() {
+    when(assetPackManagerMock.getPackLocation("awesomePack"))
+        .thenReturn(
+            new AssetPackLocationFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetPackLocationDictionary(
+                    "~/Documents/assetsPath/", 0, "~/Documents/path/")));
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager = playAssetDelivery.stateUpdateManager;
+
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                65536, 0, "awesomePack", AssetPackStatus.COMPLETED, 65536, 100)),
+        true);
+    playAssetDelivery.components.packLocationCache.getPackLocation("awesomePack");
+
+    // the location was cached when the pack completed
+    verify(assetPackManagerMock, times(1)).getPackLocation("awesomePack");
+
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                0, -6, "awesomePack", AssetPackStatus.FAILED, 65536, 0)),
+        true);
+    playAssetDelivery.components.packLocationCache.getPackLocation("awesomePack");
+
+    verify(assetPackManagerMock, times(2)).getPackLocation("awesomePack");
+  }
+
   @Test
   public void forceAssetPackStateUpdate_valid() {
     ArgumentCaptor<String> signalNameCaptor = ArgumentCaptor.forClass(String.class);
@@ -147,6 +375,8 @@ public class StateUpdateManagerTest {
     PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
     StateUpdateManager testStateUpdateManager =
         spy(new StateUpdateManager(playAssetDelivery, assetPackManagerMock));
+    // stub the reference to stateUpdateManager in stateUpdateDispatcher
+    testStateUpdateManager.stateUpdateDispatcher.stateUpdateManager = testStateUpdateManager;
 
     Dictionary testDict = PlayAssetDeliveryTestHelper.createAssetPackStatesTestDictionary();
     AssetPackStates testAssetPackStates = new AssetPackStatesFromDictionary(testDict);
@@ -154,6 +384,11 @@ public class StateUpdateManagerTest {
         PlayAssetDeliveryTestHelper.createMockOnSuccessTask(testAssetPackStates);
     when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
         .thenReturn(assetPackStatesSuccessTaskMock);
+    // packs that were fetched before the app got paused
+    testStateUpdateManager.joinOngoingAssetPackRequests(
+        new HashSet<>(
+            Arrays.asList(
+                "awesomePack", "Lorem ipsum dolor sit amet, consectetur adipiscing elit.")));
 
     testStateUpdateManager.forceAssetPackStateUpdate();
 
@@ -178,13 +413,15 @@ public class StateUpdateManagerTest {
             .collect(Collectors.toList());
     assertThat(signalArgsCaptor.getAllValues()).isEqualTo(expectedPackStateList);
     // assert value of ongoingAssetPackRequests and updatedAssetPackStateMap
-    assertThat(testStateUpdateManager.ongoingAssetPackRequests()).hasSize(0);
     Dictionary expectedPackStateDict1 = expectedPackStateList.get(0);
     String expectedPackName1 =
         (String) expectedPackStateDict1.get(AssetPackStateFromDictionary.NAME_KEY);
     Dictionary expectedPackStateDict2 = expectedPackStateList.get(1);
     String expectedPackName2 =
         (String) expectedPackStateDict2.get(AssetPackStateFromDictionary.NAME_KEY);
+    // both packs are still in a non-terminal state
+    assertThat(testStateUpdateManager.ongoingAssetPackRequests())
+        .containsExactly(expectedPackName1, expectedPackName2);
     assertThat(testStateUpdateManager.updatedAssetPackStateMap()).hasSize(2);
     assertThat(testStateUpdateManager.updatedAssetPackStateMap())
         .containsEntry(expectedPackName1, expectedPackStateDict1);
@@ -192,6 +429,188 @@ public class StateUpdateManagerTest {
         .containsEntry(expectedPackName2, expectedPackStateDict2);
   }
 
+  @Test
+  public void emitNonDuplicateStateUpdatedSignal_terminalStateLeavesOngoingRequests() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    Task<AssetPackStates> assetPackStatesSuccessTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+            new AssetPackStatesFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(0, new Dictionary())));
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenReturn(assetPackStatesSuccessTaskMock);
+
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, 0, "completedPack", 2, 65536, 0)),
+        true);
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                1024, 0, "downloadingPack", 2, 65536, 0)),
+        true);
+    testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+        PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+            PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                65536, 0, "completedPack", 4, 65536, 100)),
+        true);
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    // resuming should only query the packs that are still in flight
+    ArgumentCaptor<List> packNamesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(assetPackManagerMock).getPackStates(packNamesCaptor.capture());
+    assertThat(packNamesCaptor.getValue()).containsExactly("downloadingPack");
+    assertThat(testStateUpdateManager.ongoingAssetPackRequests())
+        .containsExactly("downloadingPack");
+  }
+
+  @Test
+  public void forceAssetPackStateUpdate_noOngoingRequests() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    verify(assetPackManagerMock, times(0)).getPackStates(anyListOf(String.class));
+    assertThat(testStateUpdateManager.getMetrics())
+        .containsEntry(StateUpdateManager.SKIPPED_RECONCILIATIONS_KEY, 1L);
+  }
+
+  @Test
+  public void forceAssetPackStateUpdate_singleFlight() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    // a task that has not completed yet
+    Task<AssetPackStates> pendingTaskMock = mock(Task.class);
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class))).thenReturn(pendingTaskMock);
+    testStateUpdateManager.joinOngoingAssetPackRequests(new HashSet<>(Arrays.asList("pack")));
+
+    testStateUpdateManager.forceAssetPackStateUpdate();
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    verify(assetPackManagerMock, times(1)).getPackStates(anyListOf(String.class));
+    ArgumentCaptor<OnFailureListener> failureListenerCaptor =
+        ArgumentCaptor.forClass(OnFailureListener.class);
+    verify(pendingTaskMock)
+        .addOnFailureListener(any(Executor.class), failureListenerCaptor.capture());
+    assertThat(testStateUpdateManager.getMetrics())
+        .containsEntry(StateUpdateManager.SHARED_RECONCILIATIONS_KEY, 1L);
+
+    // once the in-flight reconciliation completed, the next one issues a new request
+    failureListenerCaptor.getValue().onFailure(new Exception());
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    verify(assetPackManagerMock, times(2)).getPackStates(anyListOf(String.class));
+  }
+
+  @Test
+  public void forceAssetPackStateUpdate_sharedCallRerunsWithLaterOngoingPacks() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    Task<AssetPackStates> pendingTaskMock = mock(Task.class);
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class))).thenReturn(pendingTaskMock);
+    testStateUpdateManager.joinOngoingAssetPackRequests(new HashSet<>(Arrays.asList("pack")));
+    testStateUpdateManager.forceAssetPackStateUpdate();
+    ArgumentCaptor<OnFailureListener> failureListenerCaptor =
+        ArgumentCaptor.forClass(OnFailureListener.class);
+    verify(pendingTaskMock)
+        .addOnFailureListener(any(Executor.class), failureListenerCaptor.capture());
+
+    // a pack becomes ongoing while the first reconciliation is in flight
+    testStateUpdateManager.joinOngoingAssetPackRequests(new HashSet<>(Arrays.asList("latePack")));
+    testStateUpdateManager.forceAssetPackStateUpdate();
+    failureListenerCaptor.getValue().onFailure(new Exception());
+
+    ArgumentCaptor<List> packNamesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(assetPackManagerMock, times(2)).getPackStates(packNamesCaptor.capture());
+    assertThat(packNamesCaptor.getAllValues().get(1)).containsExactly("pack", "latePack");
+  }
+
+  @Test
+  public void forceAssetPackStateUpdate_throwingChunkReleasesReconciliation() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    Task<AssetPackStates> pendingTaskMock = mock(Task.class);
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class))).thenReturn(pendingTaskMock);
+    testStateUpdateManager.joinOngoingAssetPackRequests(new HashSet<>(Arrays.asList("pack")));
+    testStateUpdateManager.forceAssetPackStateUpdate();
+    ArgumentCaptor<OnSuccessListener> successListenerCaptor =
+        ArgumentCaptor.forClass(OnSuccessListener.class);
+    verify(pendingTaskMock)
+        .addOnSuccessListener(any(Executor.class), successListenerCaptor.capture());
+    AssetPackStates brokenResult = mock(AssetPackStates.class);
+    when(brokenResult.packStates()).thenThrow(new IllegalStateException());
+
+    try {
+      successListenerCaptor.getValue().onSuccess(brokenResult);
+      fail();
+    } catch (IllegalStateException expected) {
+      // the emit failed, which must not leave the reconciliation in flight
+    }
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    verify(assetPackManagerMock, times(2)).getPackStates(anyListOf(String.class));
+  }
+
+  @Test
+  public void forceAssetPackStateUpdate_chunksLargeOngoingSets() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    Task<AssetPackStates> assetPackStatesSuccessTaskMock =
+        PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+            new AssetPackStatesFromDictionary(
+                PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(0, new Dictionary())));
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenReturn(assetPackStatesSuccessTaskMock);
+    int packCount = 2 * StateUpdateManager.MAX_RECONCILE_CHUNK_SIZE + 6;
+    Set<String> packNames = new HashSet<>();
+    for (int i = 0; i < packCount; i++) {
+      packNames.add("pack" + i);
+    }
+    testStateUpdateManager.joinOngoingAssetPackRequests(packNames);
+
+    testStateUpdateManager.forceAssetPackStateUpdate();
+
+    ArgumentCaptor<List> packNamesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(assetPackManagerMock, times(3)).getPackStates(packNamesCaptor.capture());
+    Set<String> queriedPackNames = new HashSet<>();
+    for (List<String> chunk : packNamesCaptor.getAllValues()) {
+      assertThat(chunk.size()).isAtMost(StateUpdateManager.MAX_RECONCILE_CHUNK_SIZE);
+      queriedPackNames.addAll(chunk);
+    }
+    assertThat(queriedPackNames).isEqualTo(packNames);
+    assertThat(testStateUpdateManager.getMetrics())
+        .containsEntry(StateUpdateManager.RECONCILE_REQUESTS_KEY, 3L);
+  }
+
+  @Test
+  public void setTerminalStateRetention_evictsRetainedTerminalStates() {
+    PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
+    StateUpdateManager testStateUpdateManager =
+        new StateUpdateManager(playAssetDelivery, assetPackManagerMock);
+    for (int i = 0; i < 3; i++) {
+      testStateUpdateManager.emitNonDuplicateStateUpdatedSignal(
+          PlayAssetDeliveryUtils.convertDictionaryToAssetPackState(
+              PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+                  65536, 0, "pack" + i, 4, 65536, 100)),
+          false);
+    }
+
+    testStateUpdateManager.setTerminalStateRetention(1, 0);
+
+    assertThat(testStateUpdateManager.updatedAssetPackStateMap()).hasSize(1);
+    Dictionary metrics = testStateUpdateManager.getMetrics();
+    assertThat(metrics).containsEntry(AssetPackStateTable.RETAINED_TERMINAL_STATES_KEY, 1);
+    assertThat(metrics).containsEntry(AssetPackStateTable.CAPACITY_EVICTIONS_KEY, 2L);
+  }
+
   @Test
   public void joinOngoingAssetPackRequests_valid() {
     PlayAssetDelivery playAssetDelivery = new PlayAssetDelivery(godotMock, assetPackManagerMock);
@@ -0,0 +1,217 @@
+/*
+ *  	Copyright 2020 Google LLC
+ *
+ *  	Licensed under the Apache License, Version 2.0 (the "License");
+ *  	you may not use this file except in compliance with the License.
+ *  	You may obtain a copy of the License at
+ *
+ *  		https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  	Unless required by applicable law or agreed to in writing, software
+ *  	distributed under the License is distributed on an "AS IS" BASIS,
+ *  	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  	See the License for the specific language governing permissions and
+ *  	limitations under the License.
+ */
+
+package com.google.play.core.godot.assetpacks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.play.core.assetpacks.AssetPackManager;
+import com.google.android.play.core.assetpacks.AssetPackStates;
+import com.google.android.play.core.assetpacks.model.AssetPackStatus;
+import com.google.android.play.core.tasks.Task;
+import com.google.play.core.godot.assetpacks.utils.AssetPackStatesFromDictionary;
+import com.google.play.core.godot.assetpacks.utils.PlayAssetDeliveryUtils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.godotengine.godot.Dictionary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StorageBudgetManagerTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long MB = 1024L * 1024L;
+
+  private final AssetPackManager assetPackManagerMock = mock(AssetPackManager.class);
+  private final PackLocationCache packLocationCache = new PackLocationCache(assetPackManagerMock);
+  private final Dictionary installedPacks = new Dictionary();
+  private final Dictionary packStates = new Dictionary();
+  private final List<String> evictedPacks = new ArrayList<>();
+  private final StorageBudgetManager testManager =
+      new StorageBudgetManager(
+          assetPackManagerMock, packLocationCache, Runnable::run, evictedPacks::add);
+  private int fetchCount;
+
+  @Before
+  public void setUp() {
+    when(assetPackManagerMock.getPackLocations())
+        .thenAnswer(
+            invocation ->
+                PlayAssetDeliveryUtils.convertDictionaryToAssetPackLocations(installedPacks));
+    when(assetPackManagerMock.getPackStates(anyListOf(String.class)))
+        .thenAnswer(
+            invocation ->
+                PlayAssetDeliveryTestHelper.createMockOnSuccessTask(
+                    new AssetPackStatesFromDictionary(
+                        PlayAssetDeliveryUtils.constructAssetPackStatesDictionary(0, packStates))));
+    Task<Void> removePackTask = PlayAssetDeliveryTestHelper.createMockOnSuccessTask(null);
+    when(assetPackManagerMock.removePack(any(String.class))).thenReturn(removePackTask);
+  }
+
+  private void installPack(String packName, long sizeMegabytes) {
+    installedPacks.put(
+        packName,
+        PlayAssetDeliveryTestHelper.installPack(
+            assetPackManagerMock,
+            packName,
+            "/packs/" + packName,
+            "/packs/" + packName + "/assets",
+            0));
+    addPackState(packName, AssetPackStatus.COMPLETED, sizeMegabytes);
+  }
+
+  private void addPackState(String packName, int status, long sizeMegabytes) {
+    packStates.put(
+        packName,
+        PlayAssetDeliveryUtils.constructAssetPackStateDictionary(
+            0, 0, packName, status, sizeMegabytes * MB, 0));
+  }
+
+  private void fetch(String... packNames) {
+    testManager.beforeFetch(Arrays.asList(packNames), Collections.emptySet(), () -> fetchCount++);
+  }
+
+  @Test
+  public void beforeFetch_noBudgetFetchesRightAway() {
+    fetch("level3");
+
+    assertThat(fetchCount).isEqualTo(1);
+    verify(assetPackManagerMock, never()).getPackStates(anyListOf(String.class));
+  }
+
+  @Test
+  public void beforeFetch_evictsLeastRecentlyUsedPacks() {
+    installPack("level1", 40);
+    installPack("level2", 40);
+    installPack("level3", 40);
+    addPackState("level4", AssetPackStatus.NOT_INSTALLED, 50);
+    testManager.setBudgetBytes(160 * MB);
+    testManager.onPackAccessed("level2");
+    testManager.onPackAccessed("level1");
+    testManager.onPackAccessed("level3");
+
+    fetch("level4");
+
+    assertThat(evictedPacks).containsExactly("level2");
+    verify(assetPackManagerMock).removePack("level2");
+    assertThat(fetchCount).isEqualTo(1);
+    assertThat(testManager.getMetrics())
+        .containsEntry(StorageBudgetManager.EVICTED_BYTES_KEY, 40 * MB);
+  }
+
+  @Test
+  public void beforeFetch_withinBudgetEvictsNothing() {
+    installPack("level1", 40);
+    addPackState("level2", AssetPackStatus.NOT_INSTALLED, 50);
+    testManager.setBudgetBytes(100 * MB);
+
+    fetch("level2");
+
+    assertThat(evictedPacks).isEmpty();
+    assertThat(fetchCount).isEqualTo(1);
+    assertThat(testManager.getMetrics())
+        .containsEntry(StorageBudgetManager.INSTALLED_BYTES_KEY, 40 * MB);
+  }
+
+  @Test
+  public void beforeFetch_pinnedAndOngoingPacksAreKept() {
+    installPack("base", 40);
+    installPack("level1", 40);
+    installPack("level2", 40);
+    addPackState("level3", AssetPackStatus.NOT_INSTALLED, 40);
+    testManager.setBudgetBytes(120 * MB);
+    testManager.setPinned("base", true);
+
+    testManager.beforeFetch(
+        Arrays.asList("level3"), Collections.singleton("level1"), () -> fetchCount++);
+
+    assertThat(evictedPacks).containsExactly("level2");
+    assertThat(fetchCount).isEqualTo(1);
+  }
+
+  @Test
+  public void beforeFetch_insufficientFreeSpaceEvicts() {
+    installPack("level1", 40);
+    addPackState("level2", AssetPackStatus.NOT_INSTALLED, 50);
+    testManager.setBudgetBytes(1024 * MB);
+    testManager.setFreeSpaceSource(() -> 20 * MB);
+
+    fetch("level2");
+
+    assertThat(evictedPacks).containsExactly("level1");
+  }
+
+  @Test
+  public void beforeFetch_unsatisfiableFetchEvictsNothing() {
+    installPack("level1", 40);
+    addPackState("level2", AssetPackStatus.NOT_INSTALLED, 500);
+    testManager.setBudgetBytes(100 * MB);
+
+    fetch("level2");
+
+    assertThat(evictedPacks).isEmpty();
+    assertThat(fetchCount).isEqualTo(1);
+    assertThat(testManager.getMetrics())
+        .containsEntry(StorageBudgetManager.UNSATISFIED_FETCHES_KEY, 1L);
+  }
+
+  @Test
+  public void beforeFetch_failedSizeQueryStillFetches() {
+    Task<AssetPackStates> getPackStatesTask =
+        PlayAssetDeliveryTestHelper.createMockOnFailureTask(new RuntimeException("test"));
+    // doReturn() does not run the answer stubbed in setUp(), which creates a mock Task itself
+    doReturn(getPackStatesTask).when(assetPackManagerMock).getPackStates(anyListOf(String.class));
+    testManager.setBudgetBytes(100 * MB);
+
+    fetch("level1");
+
+    assertThat(fetchCount).isEqualTo(1);
+  }
+
+  @Test
+  public void setAccessFile_restoresRecencyOrder() {
+    File accessFile = new File(temporaryFolder.getRoot(), StorageBudgetManager.ACCESS_FILE_NAME);
+    testManager.setAccessFile(accessFile);
+    testManager.onPackAccessed("level2");
+    testManager.onPackAccessed("level1");
+    testManager.flush();
+    StorageBudgetManager restartedManager =
+        new StorageBudgetManager(
+            assetPackManagerMock, packLocationCache, Runnable::run, evictedPacks::add);
+    restartedManager.setAccessFile(accessFile);
+    installPack("level1", 40);
+    installPack("level2", 40);
+    addPackState("level3", AssetPackStatus.NOT_INSTALLED, 40);
+    restartedManager.setBudgetBytes(100 * MB);
+
+    restartedManager.beforeFetch(
+        Arrays.asList("level3"), Collections.emptySet(), () -> fetchCount++);
+
+    assertThat(evictedPacks).containsExactly("level2");
+  }
+}